@@ -23,15 +23,35 @@
  */
 package com.qcadoo.mes.advancedGenealogy;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.advancedGenealogy.recall.BatchRecallTraceService;
+
 @Controller
 public class AdvancedGenealogyController {
 
+    @Autowired
+    private BatchRecallTraceService batchRecallTraceService;
+
     @RequestMapping(value = "advancedGenealogy/trackingRecordReport.pdf", method = RequestMethod.GET)
     public final ModelAndView trackingRecordDetailsReportPdf(@RequestParam("id") final String id) {
         ModelAndView mav = new ModelAndView();
@@ -42,4 +62,44 @@ public class AdvancedGenealogyController {
         return mav;
     }
 
-}
\ No newline at end of file
+    @RequestMapping(value = "advancedGenealogy/batchRecallTrace.csv", method = RequestMethod.GET)
+    public final void batchRecallTraceCsv(@RequestParam(value = "batchIds", required = false) final Long[] batchIds,
+            @RequestParam(value = "supplierId", required = false) final Long supplierId,
+            @RequestParam(value = "dateFrom", required = false) final String dateFrom,
+            @RequestParam(value = "dateTo", required = false) final String dateTo,
+            @RequestParam(value = "includeDrafts", required = false, defaultValue = "false") final Boolean includeDrafts,
+            final HttpServletResponse response) throws IOException {
+        List<Long> suspectBatchIds = Lists.newArrayList();
+
+        if (Objects.nonNull(batchIds)) {
+            suspectBatchIds.addAll(Lists.newArrayList(batchIds));
+        }
+
+        if (Objects.nonNull(supplierId)) {
+            suspectBatchIds.addAll(batchRecallTraceService.getSupplierBatchIds(supplierId, toDate(dateFrom, 0),
+                    toDate(dateTo, 1)));
+        }
+
+        response.setContentType("text/csv; charset=UTF-8");
+        response.setHeader("Content-disposition", "attachment; filename=batchRecallTrace.csv");
+
+        OutputStream outputStream = response.getOutputStream();
+
+        // UTF-8 BOM
+        outputStream.write(239);
+        outputStream.write(187);
+        outputStream.write(191);
+
+        batchRecallTraceService.writeTrace(suspectBatchIds, includeDrafts,
+                new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+    }
+
+    private Date toDate(final String date, final int plusDays) {
+        if (Objects.isNull(date) || date.isEmpty()) {
+            return null;
+        }
+
+        return Date.from(LocalDate.parse(date).plusDays(plusDays).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+}
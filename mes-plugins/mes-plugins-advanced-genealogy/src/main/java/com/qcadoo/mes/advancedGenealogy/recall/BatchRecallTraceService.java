@@ -0,0 +1,198 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy.recall;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.advancedGenealogy.tree.GenealogyGraphService;
+import com.qcadoo.plugin.api.PluginUtils;
+
+/**
+ * Writes recall traces - suspect batches together with all batches produced from them, and orders and deliveries of these
+ * batches - as CSV.
+ *
+ * Affected batches of all suspect batches are found in a single genealogy traversal, rows are written while they're read.
+ */
+@Service
+public class BatchRecallTraceService {
+
+    private static final String L_ADVANCED_GENEALOGY_FOR_ORDERS = "advancedGenealogyForOrders";
+
+    private static final String L_DELIVERIES = "deliveries";
+
+    private static final String L_SEPARATOR = ";";
+
+    private static final String L_QUOTE = "\"";
+
+    private static final String L_NEW_LINE = "\r\n";
+
+    private static final String L_SUSPECT = "suspect";
+
+    private static final String L_AFFECTED = "affected";
+
+    private static final int L_BATCHES_CHUNK_SIZE = 1000;
+
+    private static final String[] L_HEADER = { "batchNumber", "productNumber", "productName", "supplier", "type", "orders",
+            "deliveries" };
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private GenealogyGraphService genealogyGraphService;
+
+    /**
+     * Returns ids of batches of the given supplier created in the given period, dateTo is exclusive.
+     */
+    public List<Long> getSupplierBatchIds(final Long supplierId, final Date dateFrom, final Date dateTo) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT batch.id FROM advancedgenealogy_batch batch ");
+        query.append("WHERE batch.supplier_id = :supplierId ");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("supplierId", supplierId);
+
+        if (Objects.nonNull(dateFrom)) {
+            query.append("AND batch.createdate >= :dateFrom ");
+
+            params.put("dateFrom", dateFrom);
+        }
+
+        if (Objects.nonNull(dateTo)) {
+            query.append("AND batch.createdate < :dateTo ");
+
+            params.put("dateTo", dateTo);
+        }
+
+        query.append("ORDER BY batch.id");
+
+        return jdbcTemplate.queryForList(query.toString(), params, Long.class);
+    }
+
+    public void writeTrace(final Collection<Long> suspectBatchIds, final boolean includeDrafts, final Writer writer)
+            throws IOException {
+        Set<Long> suspectIds = Sets.newLinkedHashSet(suspectBatchIds);
+        Set<Long> batchIds = Sets.newLinkedHashSet(suspectIds);
+
+        batchIds.addAll(genealogyGraphService.getUsedToProduceBatchIds(suspectIds, includeDrafts));
+
+        writeRow(writer, L_HEADER);
+
+        String query = getTraceQuery(PluginUtils.isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS),
+                PluginUtils.isEnabled(L_DELIVERIES));
+
+        try {
+            for (List<Long> chunk : Lists.partition(Lists.newArrayList(batchIds), L_BATCHES_CHUNK_SIZE)) {
+                Map<String, Object> params = Maps.newHashMap();
+
+                params.put("batchIds", chunk);
+
+                jdbcTemplate.query(query, params, (RowCallbackHandler) resultSet -> {
+                    try {
+                        writeRow(writer, resultSet.getString("batchNumber"), resultSet.getString("productNumber"),
+                                resultSet.getString("productName"), resultSet.getString("supplierName"),
+                                suspectIds.contains(resultSet.getLong("batchId")) ? L_SUSPECT : L_AFFECTED,
+                                resultSet.getString("orderNumbers"), resultSet.getString("deliveryNumbers"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writer.flush();
+    }
+
+    private String getTraceQuery(final boolean withOrders, final boolean withDeliveries) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT batch.id AS batchId, batch.number AS batchNumber, ");
+        query.append("product.number AS productNumber, product.name AS productName, supplier.name AS supplierName, ");
+
+        if (withOrders) {
+            query.append("(SELECT string_agg(DISTINCT ordersorder.number, ', ') ");
+            query.append("FROM advancedgenealogy_trackingrecord trackingrecord ");
+            query.append("JOIN orders_order ordersorder ON ordersorder.id = trackingrecord.order_id ");
+            query.append("WHERE trackingrecord.producedbatch_id = batch.id) AS orderNumbers, ");
+        } else {
+            query.append("NULL AS orderNumbers, ");
+        }
+
+        if (withDeliveries) {
+            query.append("(SELECT string_agg(DISTINCT delivery.number, ', ') ");
+            query.append("FROM deliveries_deliveredproduct deliveredproduct ");
+            query.append("JOIN deliveries_delivery delivery ON delivery.id = deliveredproduct.delivery_id ");
+            query.append("WHERE deliveredproduct.batch_id = batch.id) AS deliveryNumbers ");
+        } else {
+            query.append("NULL AS deliveryNumbers ");
+        }
+
+        query.append("FROM advancedgenealogy_batch batch ");
+        query.append("JOIN basic_product product ON product.id = batch.product_id ");
+        query.append("LEFT JOIN basic_company supplier ON supplier.id = batch.supplier_id ");
+        query.append("WHERE batch.id IN (:batchIds) ");
+        query.append("ORDER BY batch.id");
+
+        return query.toString();
+    }
+
+    private void writeRow(final Writer writer, final String... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.append(L_SEPARATOR);
+            }
+
+            writer.append(L_QUOTE);
+
+            if (Objects.nonNull(values[i])) {
+                writer.append(values[i].replace(L_QUOTE, L_QUOTE + L_QUOTE));
+            }
+
+            writer.append(L_QUOTE);
+        }
+
+        writer.append(L_NEW_LINE);
+    }
+
+}
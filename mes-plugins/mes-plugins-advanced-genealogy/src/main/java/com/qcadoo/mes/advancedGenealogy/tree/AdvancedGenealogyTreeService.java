@@ -28,36 +28,40 @@ import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.GENEALOGY_T
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.NUMBER;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.PARENT;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.PRIORITY;
-import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.PRODUCT;
-import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.SUPPLIER;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.TRACKING_RECORDS;
-import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.STATE;
-import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.USED_BATCHES_SIMPLE;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
-import com.qcadoo.mes.advancedGenealogy.constants.BatchFields;
-import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields;
-import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
-import com.qcadoo.mes.advancedGenealogy.constants.UsedBatchSimpleFields;
-import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
-import com.qcadoo.mes.basic.constants.CompanyFields;
-import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginAccessor;
 
+/**
+ * Builds produced from and used to produce trees of batches.
+ *
+ * Edges are read by {@link GenealogyGraphService}, labels of all nodes - product, supplier and orders - are read with one query
+ * per chunk of batches, so building a tree doesn't load belongs to and has many fields node by node.
+ */
 @Service
 public class AdvancedGenealogyTreeService {
 
@@ -69,6 +73,21 @@ public class AdvancedGenealogyTreeService {
 
     private static final String L_ADVANCED_GENEALOGY_FOR_ORDERS = "advancedGenealogyForOrders";
 
+    private static final String L_BATCH_ID = "batchId";
+
+    private static final String L_PRODUCT_NAME = "productName";
+
+    private static final String L_PRODUCT_NUMBER = "productNumber";
+
+    private static final String L_SUPPLIER_NAME = "supplierName";
+
+    private static final String L_ORDER_NUMBERS = "orderNumbers";
+
+    private static final int L_BATCHES_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Autowired
     private PluginAccessor pluginAccessor;
 
@@ -78,192 +97,160 @@ public class AdvancedGenealogyTreeService {
     @Autowired
     private TranslationService translationService;
 
-    public List<Entity> getProducedFromTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
-        List<Entity> tree = new ArrayList<>();
+    @Autowired
+    private GenealogyGraphService genealogyGraphService;
 
-        addChild(tree, batch, makeIdsUnique);
+    public List<Entity> getProducedFromTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
+        Long batchId = batch.getId();
 
-        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
+        Multimap<Long, Long> edges = genealogyGraphService.getProducedFromEdges(Collections.singleton(batchId), includeDrafts);
 
-        return tree;
+        return createTree(batch, edges, makeIdsUnique);
     }
 
     public List<Entity> getUsedToProduceTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
+        Long batchId = batch.getId();
+
+        Multimap<Long, Long> edges = genealogyGraphService.getUsedToProduceEdges(Collections.singleton(batchId), includeDrafts);
+
+        return createTree(batch, edges, true);
+    }
+
+    private List<Entity> createTree(final Entity batch, final Multimap<Long, Long> edges, final boolean makeIdsUnique) {
         List<Entity> tree = new ArrayList<>();
 
-        long realParentId = batch.getId();
+        Long batchId = batch.getId();
 
-        addChild(tree, batch, true);
+        Set<Long> batchIds = Sets.newHashSet(edges.values());
 
-        generateUsedToProduceTree(batch, tree, includeDrafts, true, realParentId);
+        batchIds.add(batchId);
 
-        return tree;
-    }
+        Map<Long, String> labels = getGenealogyTreeNodeLabels(batchIds);
 
-    private boolean addChild(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
-        child.setField(PARENT, null);
-        String genealogyTreeNodeLabel = createGenealogyTreeNodeLabel(child);
-        child.setField(GENEALOGY_TREE_NODE_LABEL, genealogyTreeNodeLabel);
-        return addToList(tree, child, makeIdsUnique);
-    }
+        addChild(tree, batch, null, labels.get(batchId), makeIdsUnique);
 
-    private String createGenealogyTreeNodeLabel(Entity batch) {
-        Entity product = batch.getBelongsToField(PRODUCT);
-        Entity supplier = batch.getBelongsToField(SUPPLIER);
-        StringBuilder sb = new StringBuilder();
-        sb.append(" - ");
-        sb.append(product.getStringField(ProductFields.NAME));
-        sb.append(" (");
-        sb.append(product.getStringField(ProductFields.NUMBER));
-        sb.append(')');
-        if (supplier != null) {
-            sb.append(" - ");
-            sb.append(supplier.getStringField(CompanyFields.NAME));
-        }
-        String orders = getOrdersForBatch(batch);
-        if (!orders.isEmpty()) {
-            sb.append(" - ");
-            sb.append(translationService.translate("advancedGenealogy.batch.report.order", LocaleContextHolder.getLocale()));
-            sb.append(AdvancedGenealogyConstants.L_SPACER);
-            sb.append(orders);
-        }
-        return sb.toString();
+        Set<Long> path = Sets.newHashSet(batchId);
+
+        generateTree(batch, batchId, tree, edges, getBatches(edges.values()), labels, path, makeIdsUnique);
+
+        return tree;
     }
 
-    private boolean addChild(final List<Entity> tree, final Entity child, final Entity parent, final boolean makeIdsUnique) {
+    private void addChild(final List<Entity> tree, final Entity child, final Entity parent, final String genealogyTreeNodeLabel,
+            final boolean makeIdsUnique) {
         child.setField(PARENT, parent);
-        String genealogyTreeNodeLabel = createGenealogyTreeNodeLabel(child);
         child.setField(GENEALOGY_TREE_NODE_LABEL, genealogyTreeNodeLabel);
-        return addToList(tree, child, makeIdsUnique);
+        addToList(tree, child, makeIdsUnique);
     }
 
-    private boolean addToList(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
+    private void addToList(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
         child.setField(PRIORITY, 1);
         child.setField(ENTITY_TYPE, L_BATCH);
 
-        if (checkIfTreeContainsEntity(tree, child)) {
-            return false;
-        } else {
-            if (makeIdsUnique) {
-                child.setId((long) tree.size());
-            }
-            tree.add(child);
-            return true;
+        if (makeIdsUnique) {
+            child.setId((long) tree.size());
         }
+        tree.add(child);
     }
 
-    private boolean checkIfTreeContainsEntity(final List<Entity> tree, final Entity child) {
-        for (Entity entity : tree) {
-            if (child.getField(PARENT).equals(entity.getField(PARENT))
-                    && entity.getField(NUMBER).equals(child.getField(NUMBER))) {
-                return true;
+    private void generateTree(final Entity parent, final Long parentBatchId, final List<Entity> tree,
+            final Multimap<Long, Long> edges, final Map<Long, Entity> batches, final Map<Long, String> labels,
+            final Set<Long> path, final boolean makeIdsUnique) {
+        // children of a node are added only here, so batch numbers are unique per parent
+        Set<Object> numbers = Sets.newHashSet();
+
+        for (Long batchId : edges.get(parentBatchId)) {
+            Entity batch = batches.get(batchId);
+
+            // batch already on the path from the root means a cycle in genealogy data, it's not expanded again
+            if (Objects.isNull(batch) || path.contains(batchId) || !numbers.add(batch.getField(NUMBER))) {
+                continue;
             }
+
+            Entity child = batch.copy();
+
+            addChild(tree, child, parent, labels.get(batchId), makeIdsUnique);
+
+            path.add(batchId);
+            generateTree(child, batchId, tree, edges, batches, labels, path, makeIdsUnique);
+            path.remove(batchId);
         }
-        return false;
     }
 
-    private void generateUsedToProduceTree(final Entity parent, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique, final long realParentId) {
-        List<Entity> batches = getDD().find().list().getEntities();
-
-        for (Entity producedBatch : batches) {
-            EntityList trackingRecords = producedBatch.getHasManyField(TRACKING_RECORDS);
-            for (Entity trackingRecord : trackingRecords) {
-                String entityType = trackingRecord.getStringField(ENTITY_TYPE);
-                if (entityType == null) {
-                    continue;
-                }
-
-                String state = trackingRecord.getStringField(STATE);
-
-                if (!TrackingRecordState.ACCEPTED.getStringValue().equals(state)) {
-                    boolean isDraftAndWeIncludeDrafts = TrackingRecordState.DRAFT.getStringValue().equals(state) && includeDrafts;
-
-                    if (!isDraftAndWeIncludeDrafts) {
-                        continue;
-                    }
-                }
-
-                if (TrackingRecordType.SIMPLE.equals(entityType)) {
-                    EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
-                    for (Entity usedBatch : usedBatches) {
-                        Entity batch = usedBatch.getBelongsToField(UsedBatchSimpleFields.BATCH);
-                        if (batch.getId().equals(realParentId)) {
-                            long realId = producedBatch.getId();
-                            boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                            if (addedChild) {
-                                generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                            }
-                        }
-                    }
-                } else if (TrackingRecordType.FOR_ORDER.equals(entityType) && isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS)) {
-                    EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
-                    for (Entity genealogyProductInComponent : genealogyProductInComponents) {
-                        EntityList productInBatches = genealogyProductInComponent.getHasManyField("productInBatches");
-                        for (Entity producedInBatch : productInBatches) {
-                            Entity batch = producedInBatch.getBelongsToField(L_BATCH);
-                            if (batch == null) {
-                                continue;
-                            }
-                            if (batch.getId().equals(realParentId)) {
-                                long realId = producedBatch.getId();
-                                boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                                if (addedChild) {
-                                    generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                                }
-                            }
-                        }
-                    }
-                }
+    private Map<Long, String> getGenealogyTreeNodeLabels(final Collection<Long> batchIds) {
+        String query = getGenealogyTreeNodeLabelsQuery(isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS));
+        String orderLabel = translationService.translate("advancedGenealogy.batch.report.order", LocaleContextHolder.getLocale());
+
+        Map<Long, String> labels = Maps.newHashMap();
+
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(batchIds), L_BATCHES_CHUNK_SIZE)) {
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put("batchIds", chunk);
+
+            for (Map<String, Object> row : jdbcTemplate.queryForList(query, params)) {
+                labels.put(((Number) row.get(L_BATCH_ID)).longValue(), createGenealogyTreeNodeLabel(row, orderLabel));
             }
         }
+
+        return labels;
     }
 
-    private void generateProducedFromTree(final Entity producedBatch, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique) {
-        EntityList trackingRecords = producedBatch.getHasManyField(BatchFields.TRACKING_RECORDS);
-        for (Entity trackingRecord : trackingRecords) {
-            String type = trackingRecord.getStringField(TrackingRecordFields.ENTITY_TYPE);
-            if (type == null) {
-                continue;
-            }
+    private String getGenealogyTreeNodeLabelsQuery(final boolean withOrders) {
+        StringBuilder query = new StringBuilder();
 
-            String state = trackingRecord.getStringField(STATE);
+        query.append("SELECT batch.id AS batchId, product.name AS productName, product.number AS productNumber, ");
+        query.append("supplier.name AS supplierName, ");
 
-            if (!TrackingRecordState.ACCEPTED.getStringValue().equals(state)) {
-                boolean isDraftAndWeIncludeDrafts = TrackingRecordState.DRAFT.getStringValue().equals(state) && includeDrafts;
+        if (withOrders) {
+            query.append("(SELECT string_agg(DISTINCT ordersorder.number, ', ') ");
+            query.append("FROM advancedgenealogy_trackingrecord trackingrecord ");
+            query.append("JOIN orders_order ordersorder ON ordersorder.id = trackingrecord.order_id ");
+            query.append("WHERE trackingrecord.producedbatch_id = batch.id) AS orderNumbers ");
+        } else {
+            query.append("NULL AS orderNumbers ");
+        }
 
-                if (!isDraftAndWeIncludeDrafts) {
-                    continue;
-                }
-            }
+        query.append("FROM advancedgenealogy_batch batch ");
+        query.append("JOIN basic_product product ON product.id = batch.product_id ");
+        query.append("LEFT JOIN basic_company supplier ON supplier.id = batch.supplier_id ");
+        query.append("WHERE batch.id IN (:batchIds)");
+
+        return query.toString();
+    }
+
+    private String createGenealogyTreeNodeLabel(final Map<String, Object> row, final String orderLabel) {
+        String supplierName = (String) row.get(L_SUPPLIER_NAME);
+        String orders = (String) row.get(L_ORDER_NUMBERS);
+        StringBuilder sb = new StringBuilder();
+        sb.append(" - ");
+        sb.append(row.get(L_PRODUCT_NAME));
+        sb.append(" (");
+        sb.append(row.get(L_PRODUCT_NUMBER));
+        sb.append(')');
+        if (supplierName != null) {
+            sb.append(" - ");
+            sb.append(supplierName);
+        }
+        if (orders != null && !orders.isEmpty()) {
+            sb.append(" - ");
+            sb.append(orderLabel);
+            sb.append(AdvancedGenealogyConstants.L_SPACER);
+            sb.append(orders);
+        }
+        return sb.toString();
+    }
 
-            if (TrackingRecordType.SIMPLE.equals(type)) {
-                EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
-                for (Entity usedBatch : usedBatches) {
-                    Entity batch = usedBatch.getBelongsToField(UsedBatchSimpleFields.BATCH);
-                    boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                    if (addedChild) {
-                        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                    }
-                }
-            } else if (TrackingRecordType.FOR_ORDER.equals(type) && isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS)) {
-                EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
-                for (Entity genealogyProductInComponent : genealogyProductInComponents) {
-                    EntityList productInBatches = genealogyProductInComponent.getHasManyField("productInBatches");
-                    for (Entity producedInBatch : productInBatches) {
-                        Entity batch = producedInBatch.getBelongsToField(L_BATCH);
-                        if (batch == null) {
-                            continue;
-                        }
-                        boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                        if (addedChild) {
-                            generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                        }
-                    }
-                }
+    private Map<Long, Entity> getBatches(final Collection<Long> batchIds) {
+        Map<Long, Entity> batches = Maps.newHashMap();
+
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(Sets.newHashSet(batchIds)), L_BATCHES_CHUNK_SIZE)) {
+            for (Entity batch : getDD().find().add(SearchRestrictions.in("id", chunk)).list().getEntities()) {
+                batches.put(batch.getId(), batch);
             }
         }
+
+        return batches;
     }
 
     private DataDefinition getDD() {
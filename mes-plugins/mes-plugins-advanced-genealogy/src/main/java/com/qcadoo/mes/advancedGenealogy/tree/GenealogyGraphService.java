@@ -0,0 +1,193 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy.tree;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
+import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
+import com.qcadoo.plugin.api.PluginAccessor;
+
+/**
+ * Traverses batch genealogy level by level.
+ *
+ * Edges of simple tracking records and, if advancedGenealogyForOrders plugin is enabled, of tracking records for orders are
+ * read with one query per level and chunk of batches. Visited batches are kept in a hash set, so every batch is expanded once
+ * even if it's reachable by many paths.
+ */
+@Service
+public class GenealogyGraphService {
+
+    private static final String L_ADVANCED_GENEALOGY_FOR_ORDERS = "advancedGenealogyForOrders";
+
+    private static final String L_USED_BATCH_ID = "usedBatchId";
+
+    private static final String L_PRODUCED_BATCH_ID = "producedBatchId";
+
+    private static final int L_BATCHES_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PluginAccessor pluginAccessor;
+
+    /**
+     * Returns edges from used batches to batches produced from them, reachable from the given batches.
+     */
+    public Multimap<Long, Long> getUsedToProduceEdges(final Collection<Long> batchIds, final boolean includeDrafts) {
+        return getEdges(batchIds, includeDrafts, true);
+    }
+
+    /**
+     * Returns edges from produced batches to batches used to produce them, reachable from the given batches.
+     */
+    public Multimap<Long, Long> getProducedFromEdges(final Collection<Long> batchIds, final boolean includeDrafts) {
+        return getEdges(batchIds, includeDrafts, false);
+    }
+
+    public Set<Long> getUsedToProduceBatchIds(final Collection<Long> batchIds, final boolean includeDrafts) {
+        return Sets.newLinkedHashSet(getUsedToProduceEdges(batchIds, includeDrafts).values());
+    }
+
+    public Set<Long> getProducedFromBatchIds(final Collection<Long> batchIds, final boolean includeDrafts) {
+        return Sets.newLinkedHashSet(getProducedFromEdges(batchIds, includeDrafts).values());
+    }
+
+    private Multimap<Long, Long> getEdges(final Collection<Long> batchIds, final boolean includeDrafts,
+            final boolean usedToProduce) {
+        String query = getEdgesQuery(Objects.nonNull(pluginAccessor.getPlugin(L_ADVANCED_GENEALOGY_FOR_ORDERS)), usedToProduce);
+        List<String> states = getStates(includeDrafts);
+
+        Multimap<Long, Long> edges = LinkedHashMultimap.create();
+        Set<Long> visited = Sets.newHashSet(batchIds);
+        List<Long> level = Lists.newArrayList(visited);
+
+        while (!level.isEmpty()) {
+            List<Long> nextLevel = Lists.newArrayList();
+
+            for (List<Long> chunk : Lists.partition(level, L_BATCHES_CHUNK_SIZE)) {
+                for (Map.Entry<Long, Long> edge : getLevelEdges(query, chunk, states, usedToProduce).entries()) {
+                    edges.put(edge.getKey(), edge.getValue());
+
+                    if (visited.add(edge.getValue())) {
+                        nextLevel.add(edge.getValue());
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return edges;
+    }
+
+    private String getEdgesQuery(final boolean includeForOrders, final boolean usedToProduce) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT edge.usedBatchId, edge.producedBatchId FROM (");
+        query.append("SELECT usedbatchsimple.batch_id AS usedBatchId, trackingrecord.producedbatch_id AS producedBatchId, ");
+        query.append("trackingrecord.id AS trackingRecordId, usedbatchsimple.id AS usedBatchRowId ");
+        query.append("FROM advancedgenealogy_usedbatchsimple usedbatchsimple ");
+        query.append("JOIN advancedgenealogy_trackingrecord trackingrecord ");
+        query.append("ON trackingrecord.id = usedbatchsimple.trackingrecord_id ");
+        query.append("WHERE trackingrecord.entitytype = :simpleEntityType ");
+        query.append("AND trackingrecord.state IN (:states) ");
+
+        if (includeForOrders) {
+            query.append("UNION ALL ");
+            query.append("SELECT productinbatch.batch_id AS usedBatchId, trackingrecord.producedbatch_id AS producedBatchId, ");
+            query.append("trackingrecord.id AS trackingRecordId, productinbatch.id AS usedBatchRowId ");
+            query.append("FROM advancedgenealogyfororders_genealogyproductinbatch productinbatch ");
+            query.append("JOIN advancedgenealogyfororders_genealogyproductincomponent productincomponent ");
+            query.append("ON productincomponent.id = productinbatch.genealogyproductincomponent_id ");
+            query.append("JOIN advancedgenealogy_trackingrecord trackingrecord ");
+            query.append("ON trackingrecord.id = productincomponent.trackingrecord_id ");
+            query.append("WHERE trackingrecord.entitytype = :forOrderEntityType ");
+            query.append("AND trackingrecord.state IN (:states) ");
+            query.append("AND productinbatch.batch_id IS NOT NULL ");
+        }
+
+        query.append(") edge ");
+
+        if (usedToProduce) {
+            query.append("WHERE edge.usedBatchId IN (:batchIds) ");
+            query.append("ORDER BY edge.usedBatchId, edge.producedBatchId, edge.trackingRecordId ");
+        } else {
+            query.append("WHERE edge.producedBatchId IN (:batchIds) ");
+            query.append("ORDER BY edge.producedBatchId, edge.trackingRecordId, edge.usedBatchRowId ");
+        }
+
+        return query.toString();
+    }
+
+    private Multimap<Long, Long> getLevelEdges(final String query, final List<Long> batchIds, final List<String> states,
+            final boolean usedToProduce) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("simpleEntityType", TrackingRecordType.SIMPLE);
+        params.put("forOrderEntityType", TrackingRecordType.FOR_ORDER);
+        params.put("states", states);
+        params.put("batchIds", batchIds);
+
+        Multimap<Long, Long> edges = LinkedHashMultimap.create();
+
+        for (Map<String, Object> row : jdbcTemplate.queryForList(query, params)) {
+            Long usedBatchId = ((Number) row.get(L_USED_BATCH_ID)).longValue();
+            Long producedBatchId = ((Number) row.get(L_PRODUCED_BATCH_ID)).longValue();
+
+            if (usedToProduce) {
+                edges.put(usedBatchId, producedBatchId);
+            } else {
+                edges.put(producedBatchId, usedBatchId);
+            }
+        }
+
+        return edges;
+    }
+
+    private List<String> getStates(final boolean includeDrafts) {
+        List<String> states = Lists.newArrayList(TrackingRecordState.ACCEPTED.getStringValue());
+
+        if (includeDrafts) {
+            states.add(TrackingRecordState.DRAFT.getStringValue());
+        }
+
+        return states;
+    }
+
+}
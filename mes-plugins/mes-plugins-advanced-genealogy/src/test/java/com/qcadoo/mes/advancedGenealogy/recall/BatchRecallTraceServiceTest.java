@@ -0,0 +1,205 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy.recall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.advancedGenealogy.tree.GenealogyGraphService;
+import com.qcadoo.plugin.api.PluginUtils;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PluginUtils.class)
+public class BatchRecallTraceServiceTest {
+
+    private static final String L_HEADER = "\"batchNumber\";\"productNumber\";\"productName\";\"supplier\";\"type\";"
+            + "\"orders\";\"deliveries\"\r\n";
+
+    private BatchRecallTraceService batchRecallTraceService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private GenealogyGraphService genealogyGraphService;
+
+    private final List<ResultSet> rows = Lists.newArrayList();
+
+    @Before
+    public final void init() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+
+        batchRecallTraceService = new BatchRecallTraceService();
+
+        ReflectionTestUtils.setField(batchRecallTraceService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(batchRecallTraceService, "genealogyGraphService", genealogyGraphService);
+
+        PowerMockito.mockStatic(PluginUtils.class);
+
+        given(PluginUtils.isEnabled("advancedGenealogyForOrders")).willReturn(true);
+        given(PluginUtils.isEnabled("deliveries")).willReturn(true);
+
+        doAnswer(invocation -> {
+            RowCallbackHandler rowCallbackHandler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            for (ResultSet row : rows) {
+                rowCallbackHandler.processRow(row);
+            }
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public final void shouldWriteSuspectAndAffectedBatches() throws IOException, SQLException {
+        // given
+        given(genealogyGraphService.getUsedToProduceBatchIds(ImmutableSet.of(1L), true)).willReturn(ImmutableSet.of(2L, 3L));
+
+        mockRow(1L, "B1", "P1", "Product 1", "Supplier", null, "D1");
+        mockRow(2L, "B2", "P2", "Product 2", null, "O1, O2", null);
+        mockRow(3L, "B3", "P3", "Product \"3\"", null, "O3", null);
+
+        StringWriter writer = new StringWriter();
+
+        // when
+        batchRecallTraceService.writeTrace(Lists.newArrayList(1L), true, writer);
+
+        // then
+        assertEquals(L_HEADER + "\"B1\";\"P1\";\"Product 1\";\"Supplier\";\"suspect\";\"\";\"D1\"\r\n"
+                + "\"B2\";\"P2\";\"Product 2\";\"\";\"affected\";\"O1, O2\";\"\"\r\n"
+                + "\"B3\";\"P3\";\"Product \"\"3\"\"\";\"\";\"affected\";\"O3\";\"\"\r\n", writer.toString());
+        assertEquals(ImmutableSet.of(1L, 2L, 3L), ImmutableSet.copyOf(getQueriedBatchIds()));
+    }
+
+    @Test
+    public final void shouldWriteOnlyHeaderIfThereAreNoBatches() throws IOException {
+        // given
+        given(genealogyGraphService.getUsedToProduceBatchIds(ImmutableSet.of(), false)).willReturn(ImmutableSet.of());
+
+        StringWriter writer = new StringWriter();
+
+        // when
+        batchRecallTraceService.writeTrace(Lists.newArrayList(), false, writer);
+
+        // then
+        assertEquals(L_HEADER, writer.toString());
+    }
+
+    @Test
+    public final void shouldReadOrdersAndDeliveriesIfPluginsAreEnabled() throws IOException {
+        // given
+        given(genealogyGraphService.getUsedToProduceBatchIds(ImmutableSet.of(1L), true)).willReturn(ImmutableSet.of());
+
+        // when
+        batchRecallTraceService.writeTrace(Lists.newArrayList(1L), true, new StringWriter());
+
+        // then
+        String query = getQuery();
+
+        assertTrue(query.contains("advancedgenealogy_trackingrecord"));
+        assertTrue(query.contains("deliveries_deliveredproduct"));
+    }
+
+    @Test
+    public final void shouldNotReadOrdersAndDeliveriesIfPluginsAreDisabled() throws IOException {
+        // given
+        given(PluginUtils.isEnabled("advancedGenealogyForOrders")).willReturn(false);
+        given(PluginUtils.isEnabled("deliveries")).willReturn(false);
+        given(genealogyGraphService.getUsedToProduceBatchIds(ImmutableSet.of(1L), true)).willReturn(ImmutableSet.of());
+
+        // when
+        batchRecallTraceService.writeTrace(Lists.newArrayList(1L), true, new StringWriter());
+
+        // then
+        String query = getQuery();
+
+        assertFalse(query.contains("orders_order"));
+        assertFalse(query.contains("deliveries_"));
+        assertTrue(query.contains("NULL AS orderNumbers"));
+        assertTrue(query.contains("NULL AS deliveryNumbers"));
+    }
+
+    private void mockRow(final Long batchId, final String batchNumber, final String productNumber, final String productName,
+            final String supplierName, final String orderNumbers, final String deliveryNumbers) throws SQLException {
+        ResultSet row = mock(ResultSet.class);
+
+        given(row.getLong("batchId")).willReturn(batchId);
+        given(row.getString("batchNumber")).willReturn(batchNumber);
+        given(row.getString("productNumber")).willReturn(productNumber);
+        given(row.getString("productName")).willReturn(productName);
+        given(row.getString("supplierName")).willReturn(supplierName);
+        given(row.getString("orderNumbers")).willReturn(orderNumbers);
+        given(row.getString("deliveryNumbers")).willReturn(deliveryNumbers);
+
+        rows.add(row);
+    }
+
+    private String getQuery() {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), anyMap(), any(RowCallbackHandler.class));
+
+        return queryCaptor.getValue();
+    }
+
+    private Collection<Long> getQueriedBatchIds() {
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(anyString(), paramsCaptor.capture(), any(RowCallbackHandler.class));
+
+        return (Collection<Long>) paramsCaptor.getValue().get("batchIds");
+    }
+
+}
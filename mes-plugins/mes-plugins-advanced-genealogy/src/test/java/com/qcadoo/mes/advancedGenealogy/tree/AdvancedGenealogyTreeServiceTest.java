@@ -26,12 +26,16 @@ package com.qcadoo.mes.advancedGenealogy.tree;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -39,8 +43,12 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Maps;
+import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
 import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
 import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
@@ -49,6 +57,7 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchResult;
 import com.qcadoo.plugin.api.Plugin;
 import com.qcadoo.plugin.api.PluginAccessor;
@@ -60,9 +69,6 @@ public class AdvancedGenealogyTreeServiceTest {
     @Mock
     private Entity batch1, batch2;
 
-    @Mock
-    private Entity product1, product2;
-
     @Mock
     private DataDefinitionService dataDefinitionService;
 
@@ -72,6 +78,15 @@ public class AdvancedGenealogyTreeServiceTest {
     @Mock
     private PluginAccessor pluginAccessor;
 
+    @Mock
+    private GenealogyGraphService genealogyGraphService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TranslationService translationService;
+
     @Mock
     private SearchResult searchResult;
 
@@ -81,9 +96,16 @@ public class AdvancedGenealogyTreeServiceTest {
     @Mock
     private Entity parent1, parent2;
 
-    private String productName1 = "productName1";
-
-    private String productNumber1 = "productNumber1";
+    private Map<String, Object> labelRow(final Long batchId, final String productName, final String productNumber,
+            final String supplierName, final String orderNumbers) {
+        Map<String, Object> row = Maps.newHashMap();
+        row.put("batchId", batchId);
+        row.put("productName", productName);
+        row.put("productNumber", productNumber);
+        row.put("supplierName", supplierName);
+        row.put("orderNumbers", orderNumbers);
+        return row;
+    }
 
     private EntityList mockEntityList(List<Entity> list) {
         EntityList entityList = mock(EntityList.class);
@@ -99,6 +121,9 @@ public class AdvancedGenealogyTreeServiceTest {
 
         ReflectionTestUtils.setField(treeService, "dataDefinitionService", dataDefinitionService);
         ReflectionTestUtils.setField(treeService, "pluginAccessor", pluginAccessor);
+        ReflectionTestUtils.setField(treeService, "genealogyGraphService", genealogyGraphService);
+        ReflectionTestUtils.setField(treeService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(treeService, "translationService", translationService);
 
         when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(null);
 
@@ -120,23 +145,31 @@ public class AdvancedGenealogyTreeServiceTest {
         EntityList batch2Trs = mockEntityList(new LinkedList<Entity>());
         when(batch2.getHasManyField("trackingRecords")).thenReturn(batch2Trs);
 
+        when(genealogyGraphService.getProducedFromEdges(Mockito.anyCollection(), Mockito.anyBoolean()))
+                .thenReturn(ImmutableListMultimap.<Long, Long> of());
+        when(genealogyGraphService.getUsedToProduceEdges(Mockito.anyCollection(), Mockito.anyBoolean()))
+                .thenReturn(ImmutableListMultimap.<Long, Long> of());
+        when(genealogyGraphService.getProducedFromEdges(Collections.singleton(1L), true))
+                .thenReturn(ImmutableListMultimap.of(1L, 2L));
+        when(genealogyGraphService.getUsedToProduceEdges(Collections.singleton(2L), true))
+                .thenReturn(ImmutableListMultimap.of(2L, 1L));
+        when(batch1.copy()).thenReturn(batch1);
+        when(batch2.copy()).thenReturn(batch2);
+
         SearchCriteriaBuilder searchCriteriaBuilder = Mockito.mock(SearchCriteriaBuilder.class);
         when(dataDefinition.find()).thenReturn(searchCriteriaBuilder);
+        when(searchCriteriaBuilder.add(Mockito.any(SearchCriterion.class))).thenReturn(searchCriteriaBuilder);
         when(searchCriteriaBuilder.list()).thenReturn(searchResult);
-        when(searchResult.getEntities()).thenReturn(asList(batch1));
+        when(searchResult.getEntities()).thenReturn(asList(batch1, batch2));
+
+        when(jdbcTemplate.queryForList(Mockito.anyString(), Mockito.anyMap())).thenReturn(
+                asList(labelRow(1L, "productName1", "productNumber1", null, null),
+                        labelRow(2L, "productName2", "productNumber2", null, null)));
 
         String number1 = "QWD33";
         String number2 = "POS22";
-        String productName2 = "productName2";
-        String productNumber2 = "productNumber2";
         when(batch1.getField("parent")).thenReturn(parent1);
         when(batch2.getField("parent")).thenReturn(parent2);
-        when(batch1.getBelongsToField("product")).thenReturn(product1);
-        when(batch2.getBelongsToField("product")).thenReturn(product2);
-        when(product1.getStringField("name")).thenReturn(productName1);
-        when(product1.getStringField("number")).thenReturn(productNumber1);
-        when(product2.getStringField("name")).thenReturn(productName2);
-        when(product2.getStringField("number")).thenReturn(productNumber2);
         when(batch1.getField("number")).thenReturn(number1);
         when(batch2.getField("number")).thenReturn(number2);
     }
@@ -145,11 +178,6 @@ public class AdvancedGenealogyTreeServiceTest {
     public void shouldReturnOnlyTheRootIfThereAreNoRelatedBatchesForProducedFromTree() {
         // given
         Entity batch = mock(Entity.class);
-        when(batch.getBelongsToField("product")).thenReturn(product1);
-        when(product1.getStringField("name")).thenReturn(productName1);
-        when(product1.getStringField("number")).thenReturn(productNumber1);
-        EntityList trackingRecords = mockEntityList(new LinkedList<Entity>());
-        when(batch.getHasManyField("trackingRecords")).thenReturn(trackingRecords);
 
         // when
         List<Entity> tree = treeService.getProducedFromTree(batch, true, false);
@@ -163,11 +191,6 @@ public class AdvancedGenealogyTreeServiceTest {
     public void shouldReturnOnlyTheRootIfThereAreNoRelatedBatchesForUsedToProduceTree() {
         // given
         Entity batch = mock(Entity.class);
-        when(batch.getBelongsToField("product")).thenReturn(product1);
-        when(product1.getStringField("name")).thenReturn(productName1);
-        when(product1.getStringField("number")).thenReturn(productNumber1);
-
-        when(searchResult.getEntities()).thenReturn(new LinkedList<Entity>());
 
         // when
         List<Entity> tree = treeService.getUsedToProduceTree(batch, true, false);
@@ -215,6 +238,43 @@ public class AdvancedGenealogyTreeServiceTest {
         assertEquals(batch1, tree.get(0));
     }
 
+    @Test
+    public void shouldReadLabelsOfAllNodesWithOneQuery() {
+        // given
+        Plugin plugin = mock(Plugin.class);
+        when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(plugin);
+        when(translationService.translate(Mockito.eq("advancedGenealogy.batch.report.order"), Mockito.any(Locale.class)))
+                .thenReturn("Order");
+        when(jdbcTemplate.queryForList(Mockito.anyString(), Mockito.anyMap())).thenReturn(
+                asList(labelRow(1L, "productName1", "productNumber1", "supplier1", "O1, O2"),
+                        labelRow(2L, "productName2", "productNumber2", null, null)));
+
+        // when
+        List<Entity> tree = treeService.getProducedFromTree(batch1, true, false);
+
+        // then
+        assertEquals(2, tree.size());
+        verify(jdbcTemplate, times(1)).queryForList(Mockito.anyString(), Mockito.anyMap());
+        verify(batch1).setField("genealogyTreeNodeLabel",
+                " - productName1 (productNumber1) - supplier1 - Order" + AdvancedGenealogyConstants.L_SPACER + "O1, O2");
+        verify(batch2).setField("genealogyTreeNodeLabel", " - productName2 (productNumber2)");
+    }
+
+    @Test
+    public void shouldNotExpandBatchesOnPathAgainIfGenealogyHasCycle() {
+        // given
+        when(genealogyGraphService.getProducedFromEdges(Collections.singleton(1L), true))
+                .thenReturn(ImmutableListMultimap.of(1L, 2L, 2L, 1L));
+
+        // when
+        List<Entity> tree = treeService.getProducedFromTree(batch1, true, false);
+
+        // then
+        assertEquals(2, tree.size());
+        assertEquals(batch1, tree.get(0));
+        assertEquals(batch2, tree.get(1));
+    }
+
     @Test
     @Ignore
     public void shouldReturnCorrectProducedFromTreeForOrders() {
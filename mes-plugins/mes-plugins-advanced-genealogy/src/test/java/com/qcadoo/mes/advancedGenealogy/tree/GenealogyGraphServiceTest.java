@@ -0,0 +1,183 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.qcadoo.plugin.api.Plugin;
+import com.qcadoo.plugin.api.PluginAccessor;
+
+public class GenealogyGraphServiceTest {
+
+    private static final String L_ADVANCED_GENEALOGY_FOR_ORDERS = "advancedGenealogyForOrders";
+
+    private GenealogyGraphService genealogyGraphService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PluginAccessor pluginAccessor;
+
+    // used batch id, produced batch id
+    private final List<long[]> usedBatches = Lists.newArrayList();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        genealogyGraphService = new GenealogyGraphService();
+
+        ReflectionTestUtils.setField(genealogyGraphService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(genealogyGraphService, "pluginAccessor", pluginAccessor);
+
+        // 2 and 3 are used to produce 1, 4 is used to produce both 2 and 3, 5 is used to produce 4
+        addUsedBatch(2L, 1L);
+        addUsedBatch(3L, 1L);
+        addUsedBatch(4L, 2L);
+        addUsedBatch(4L, 3L);
+        addUsedBatch(5L, 4L);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willAnswer(invocation -> getRows(
+                (String) invocation.getArguments()[0], (Map<String, Object>) invocation.getArguments()[1]));
+    }
+
+    @Test
+    public final void shouldReturnProducedFromEdgesOfAllLevels() {
+        // when
+        Multimap<Long, Long> edges = genealogyGraphService.getProducedFromEdges(Collections.singleton(1L), true);
+
+        // then
+        assertEquals(5, edges.size());
+        assertTrue(edges.containsEntry(1L, 2L));
+        assertTrue(edges.containsEntry(1L, 3L));
+        assertTrue(edges.containsEntry(2L, 4L));
+        assertTrue(edges.containsEntry(3L, 4L));
+        assertTrue(edges.containsEntry(4L, 5L));
+    }
+
+    @Test
+    public final void shouldExpandBatchReachableByManyPathsOnlyOnce() {
+        // when
+        genealogyGraphService.getProducedFromEdges(Collections.singleton(1L), true);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(4)).queryForList(anyString(), paramsCaptor.capture());
+
+        List<Collection<Long>> levels = Lists.newArrayList();
+
+        for (Map params : paramsCaptor.getAllValues()) {
+            levels.add(ImmutableSet.copyOf((Collection<Long>) params.get("batchIds")));
+        }
+
+        assertEquals(Lists.newArrayList(ImmutableSet.of(1L), ImmutableSet.of(2L, 3L), ImmutableSet.of(4L), ImmutableSet.of(5L)),
+                levels);
+    }
+
+    @Test
+    public final void shouldReturnUsedToProduceBatchIds() {
+        // when
+        Collection<Long> batchIds = genealogyGraphService.getUsedToProduceBatchIds(Collections.singleton(5L), false);
+
+        // then
+        assertEquals(ImmutableSet.of(4L, 2L, 3L, 1L), batchIds);
+    }
+
+    @Test
+    public final void shouldNotReturnEdgesOfBatchWithoutGenealogy() {
+        // when
+        Multimap<Long, Long> edges = genealogyGraphService.getUsedToProduceEdges(Collections.singleton(1L), true);
+
+        // then
+        assertTrue(edges.isEmpty());
+    }
+
+    @Test
+    public final void shouldReadEdgesOfTrackingRecordsForOrdersOnlyIfPluginIsEnabled() {
+        // given
+        given(pluginAccessor.getPlugin(L_ADVANCED_GENEALOGY_FOR_ORDERS)).willReturn(null);
+
+        // when
+        genealogyGraphService.getProducedFromEdges(Collections.singleton(5L), true);
+
+        given(pluginAccessor.getPlugin(L_ADVANCED_GENEALOGY_FOR_ORDERS)).willReturn(mock(Plugin.class));
+
+        genealogyGraphService.getProducedFromEdges(Collections.singleton(5L), true);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate, times(2)).queryForList(queryCaptor.capture(), anyMap());
+
+        assertFalse(queryCaptor.getAllValues().get(0).contains("advancedgenealogyfororders_"));
+        assertTrue(queryCaptor.getAllValues().get(1).contains("advancedgenealogyfororders_"));
+    }
+
+    private void addUsedBatch(final Long usedBatchId, final Long producedBatchId) {
+        usedBatches.add(new long[] { usedBatchId, producedBatchId });
+    }
+
+    private List<Map<String, Object>> getRows(final String query, final Map<String, Object> params) {
+        boolean usedToProduce = query.contains("WHERE edge.usedBatchId IN");
+        Collection<Long> batchIds = (Collection<Long>) params.get("batchIds");
+
+        List<Map<String, Object>> rows = Lists.newArrayList();
+
+        for (long[] usedBatch : usedBatches) {
+            if (batchIds.contains(usedToProduce ? usedBatch[0] : usedBatch[1])) {
+                rows.add(ImmutableMap.<String, Object> of("usedBatchId", usedBatch[0], "producedBatchId", usedBatch[1]));
+            }
+        }
+
+        return rows;
+    }
+
+}
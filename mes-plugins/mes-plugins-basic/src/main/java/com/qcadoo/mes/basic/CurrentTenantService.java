@@ -0,0 +1,79 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.Collections;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Identifies the tenant of the current connection. Tenants share the application, but each of them has its own database
+ * schema, so ids of entities repeat between tenants and caches kept by services have to be keyed with the tenant.
+ *
+ * Inside a transaction the tenant is queried only once.
+ */
+@Service
+public class CurrentTenantService {
+
+    private static final String L_SELECT_TENANT = "SELECT current_database() || '.' || current_schema()";
+
+    private final Object tenantResourceKey = new Object();
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public String getTenant() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return queryTenant();
+        }
+
+        String tenant = (String) TransactionSynchronizationManager.getResource(tenantResourceKey);
+
+        if (Objects.isNull(tenant)) {
+            tenant = queryTenant();
+
+            TransactionSynchronizationManager.bindResource(tenantResourceKey, tenant);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(tenantResourceKey);
+                }
+
+            });
+        }
+
+        return tenant;
+    }
+
+    private String queryTenant() {
+        return jdbcTemplate.queryForObject(L_SELECT_TENANT, Collections.emptyMap(), String.class);
+    }
+
+}
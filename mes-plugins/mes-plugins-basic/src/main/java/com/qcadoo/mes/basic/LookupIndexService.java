@@ -0,0 +1,278 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.AdditionalCodeDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.PalletNumberDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+import com.qcadoo.mes.basic.lookup.LookupQuery;
+import com.qcadoo.mes.basic.lookup.LookupResult;
+import com.qcadoo.mes.basic.lookup.NgramIndex;
+
+/**
+ * Keeps in memory trigram indexes of active product numbers, additional codes and active pallet numbers used by typeahead
+ * lookups in {@link com.qcadoo.mes.basic.controllers.dataProvider.DataProvider}.
+ *
+ * Indexes are loaded on the first search. Product, additional code and pallet number hooks report changed rows, which are
+ * loaded on the next search after the change is committed. Indexes are loaded again when they get too many changes or get
+ * old, which also picks up rows changed without hooks.
+ *
+ * Every tenant has its own indexes, ids of changed rows are kept with the indexes of the tenant which changed them.
+ */
+@Service
+public class LookupIndexService {
+
+    private static final int MAX_CHANGES = 5000;
+
+    private static final long MAX_AGE_MILLIS = 15 * 60 * 1000L;
+
+    private static final Long NO_ID = -1L;
+
+    private static final String L_PRODUCTS_QUERY = "SELECT product.id AS id, product.number AS code, product.number AS number, "
+            + "product.unit AS unit, product.name AS name FROM basic_product product WHERE product.active = true";
+
+    private static final String L_ADDITIONAL_CODES_QUERY = "SELECT additionalcode.id AS id, additionalcode.code AS code, "
+            + "product.number AS productnumber FROM basic_additionalcode additionalcode "
+            + "JOIN basic_product product ON additionalcode.product_id = product.id WHERE true";
+
+    private static final String L_PALLET_NUMBERS_QUERY = "SELECT palletnumber.id AS id, palletnumber.number AS code, "
+            + "palletnumber.number AS number FROM basic_palletnumber palletnumber WHERE palletnumber.active = true";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, TenantIndexes> tenantIndexes = new ConcurrentHashMap<>();
+
+    public LookupResult<ProductDTO> searchProducts(final String query, final int limit) {
+        return getTenantIndexes().products.getIndex().search(LookupQuery.parse(query), limit);
+    }
+
+    public LookupResult<AdditionalCodeDTO> searchAdditionalCodes(final String query, final int limit) {
+        return getTenantIndexes().additionalCodes.getIndex().search(LookupQuery.parse(query), limit);
+    }
+
+    public LookupResult<PalletNumberDTO> searchPalletNumbers(final String query, final int limit) {
+        return getTenantIndexes().palletNumbers.getIndex().search(LookupQuery.parse(query), limit);
+    }
+
+    /**
+     * Reports saved or deleted entity, new entities may be reported without id.
+     */
+    public void onChanged(final String modelName, final Long id) {
+        // tenant is read now, after the completion there may be no connection to read it from
+        TenantIndexes indexes = getTenantIndexes();
+
+        if (BasicConstants.MODEL_PRODUCT.equals(modelName)) {
+            afterCompletion(() -> {
+                indexes.products.markChanged(id);
+                indexes.additionalCodes.markParentChanged(id);
+            });
+        } else if (BasicConstants.MODEL_ADDITIONAL_CODE.equals(modelName)) {
+            afterCompletion(() -> indexes.additionalCodes.markChanged(id));
+        } else if (BasicConstants.MODEL_PALLET_NUMBER.equals(modelName)) {
+            afterCompletion(() -> indexes.palletNumbers.markChanged(id));
+        }
+    }
+
+    private TenantIndexes getTenantIndexes() {
+        return tenantIndexes.computeIfAbsent(currentTenantService.getTenant(), tenant -> new TenantIndexes());
+    }
+
+    private void afterCompletion(final Runnable action) {
+        // changes are visible to other transactions after the commit only
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private final class TenantIndexes {
+
+        private final IndexHolder<ProductDTO> products = new IndexHolder<>(L_PRODUCTS_QUERY, "product.id", null,
+                ProductDTO.class, ProductDTO::getId, ProductDTO::getNumber);
+
+        private final IndexHolder<AdditionalCodeDTO> additionalCodes = new IndexHolder<>(L_ADDITIONAL_CODES_QUERY,
+                "additionalcode.id", "additionalcode.product_id", AdditionalCodeDTO.class, AdditionalCodeDTO::getId,
+                AdditionalCodeDTO::getCode);
+
+        private final IndexHolder<PalletNumberDTO> palletNumbers = new IndexHolder<>(L_PALLET_NUMBERS_QUERY, "palletnumber.id",
+                null, PalletNumberDTO.class, PalletNumberDTO::getId, PalletNumberDTO::getNumber);
+
+    }
+
+    private final class IndexHolder<T> {
+
+        private final String query;
+
+        private final String idColumn;
+
+        private final String parentColumn;
+
+        private final Class<T> rowClass;
+
+        private final ToLongFunction<T> idFunction;
+
+        private final Function<T, String> keyFunction;
+
+        private final Set<Long> changedIds = ConcurrentHashMap.newKeySet();
+
+        private final Set<Long> changedParentIds = ConcurrentHashMap.newKeySet();
+
+        private volatile boolean changed;
+
+        private volatile NgramIndex<T> index;
+
+        private volatile long loadedAt;
+
+        private IndexHolder(final String query, final String idColumn, final String parentColumn, final Class<T> rowClass,
+                final ToLongFunction<T> idFunction, final Function<T, String> keyFunction) {
+            this.query = query;
+            this.idColumn = idColumn;
+            this.parentColumn = parentColumn;
+            this.rowClass = rowClass;
+            this.idFunction = idFunction;
+            this.keyFunction = keyFunction;
+        }
+
+        private void markChanged(final Long id) {
+            if (Objects.nonNull(id)) {
+                changedIds.add(id);
+            }
+
+            changed = true;
+        }
+
+        private void markParentChanged(final Long parentId) {
+            if (Objects.nonNull(parentColumn) && Objects.nonNull(parentId)) {
+                changedParentIds.add(parentId);
+                changed = true;
+            }
+        }
+
+        private NgramIndex<T> getIndex() {
+            NgramIndex<T> current = index;
+
+            if (Objects.nonNull(current) && !changed && System.currentTimeMillis() - loadedAt < MAX_AGE_MILLIS) {
+                return current;
+            }
+
+            synchronized (this) {
+                if (Objects.isNull(index) || System.currentTimeMillis() - loadedAt >= MAX_AGE_MILLIS
+                        || index.getOverlaySize() + changedIds.size() > MAX_CHANGES) {
+                    load();
+                } else if (changed) {
+                    loadChanges();
+                }
+
+                return index;
+            }
+        }
+
+        private void load() {
+            changed = false;
+            changedIds.clear();
+            changedParentIds.clear();
+
+            long startedAt = System.currentTimeMillis();
+
+            List<T> values = jdbcTemplate.query(query, Collections.emptyMap(), BeanPropertyRowMapper.newInstance(rowClass));
+
+            index = NgramIndex.build(values, idFunction, keyFunction);
+            loadedAt = startedAt;
+        }
+
+        private void loadChanges() {
+            changed = false;
+
+            Set<Long> ids = drain(changedIds);
+            Set<Long> parentIds = drain(changedParentIds);
+
+            StringBuilder changesQuery = new StringBuilder(query);
+
+            changesQuery.append(" AND (").append(idColumn).append(" IN (:ids) OR ").append(idColumn).append(" > :maxId");
+
+            if (Objects.nonNull(parentColumn)) {
+                changesQuery.append(" OR ").append(parentColumn).append(" IN (:parentIds)");
+            }
+
+            changesQuery.append(")");
+
+            MapSqlParameterSource parameters = new MapSqlParameterSource();
+
+            parameters.addValue("ids", ids.isEmpty() ? Collections.singleton(NO_ID) : ids);
+            parameters.addValue("maxId", index.getMaxId());
+            parameters.addValue("parentIds", parentIds.isEmpty() ? Collections.singleton(NO_ID) : parentIds);
+
+            List<T> changedValues = jdbcTemplate.query(changesQuery.toString(), parameters,
+                    BeanPropertyRowMapper.newInstance(rowClass));
+            Set<Long> foundIds = changedValues.stream().map(idFunction::applyAsLong).collect(Collectors.toSet());
+
+            // rows deleted or no longer active
+            List<Long> removedIds = Lists.newArrayList(Sets.difference(ids, foundIds));
+
+            index = index.withChanges(changedValues, removedIds);
+        }
+
+        private Set<Long> drain(final Set<Long> source) {
+            Set<Long> drained = Sets.newHashSet(source);
+
+            source.removeAll(drained);
+
+            return drained;
+        }
+
+    }
+
+}
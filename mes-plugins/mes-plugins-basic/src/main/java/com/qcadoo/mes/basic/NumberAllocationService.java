@@ -0,0 +1,259 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Allocates numbers of entities from counters kept in numberSequence, by model and prefix.
+ *
+ * Numbers are reserved in blocks, committed in a separate transaction and handed out from memory, so concurrent allocations
+ * never wait for each other's transactions and never get the same number. Numbers of a block not used before a restart and
+ * numbers of rolled back transactions are skipped. A counter starts from the highest number already used in the model, and
+ * numbers already used (entered by hand or generated by NumberGeneratorService) are skipped too.
+ *
+ * Every tenant has its own blocks. Blocks used by a rolled back transaction are dropped, so the next allocation reserves a new
+ * block from the counter instead of handing out numbers left in memory.
+ */
+@Service
+public class NumberAllocationService {
+
+    private static final int BLOCK_SIZE = 20;
+
+    // counters are integers, longer numbers aren't taken into account
+    private static final int MAX_DIGITS_OF_COUNTER = 9;
+
+    private static final String L_NUMBERS = "numbers";
+
+    private static final String L_PLUGIN_IDENTIFIER = "pluginIdentifier";
+
+    private static final String L_MODEL_NAME = "modelName";
+
+    private static final String L_PREFIX = "prefix";
+
+    private static final String L_PREFIX_LENGTH = "prefixLength";
+
+    private static final String L_SIZE = "size";
+
+    private static final String L_LAST_NUMBER = "lastNumber";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, NumberBlock> blocks = new ConcurrentHashMap<>();
+
+    private final Object usedBlocksResourceKey = new Object();
+
+    public String allocateNumber(final String pluginIdentifier, final String modelName, final int digitsNumber) {
+        return allocateNumbers(pluginIdentifier, modelName, digitsNumber, StringUtils.EMPTY, 1).get(0);
+    }
+
+    public String allocateNumberWithPrefix(final String pluginIdentifier, final String modelName, final int digitsNumber,
+            final String prefix) {
+        return allocateNumbers(pluginIdentifier, modelName, digitsNumber, prefix, 1).get(0);
+    }
+
+    /**
+     * Allocates the given quantity of numbers with one reservation, numbers are ascending but not always consecutive.
+     */
+    public List<String> allocateNumbers(final String pluginIdentifier, final String modelName, final int digitsNumber,
+            final String prefix, final int quantity) {
+        String numberPrefix = StringUtils.defaultString(prefix);
+        String blockKey = currentTenantService.getTenant() + "." + pluginIdentifier + "." + modelName + "." + numberPrefix;
+        NumberBlock block = blocks.computeIfAbsent(blockKey, key -> new NumberBlock());
+
+        List<String> numbers = Lists.newArrayListWithCapacity(quantity);
+
+        synchronized (block) {
+            while (numbers.size() < quantity) {
+                int missing = quantity - numbers.size();
+
+                if (block.isEmpty()) {
+                    int size = Math.max(BLOCK_SIZE, missing);
+                    long lastNumber = reserveNumbers(pluginIdentifier, modelName, numberPrefix, size);
+
+                    block.reset(lastNumber - size + 1, lastNumber);
+                }
+
+                List<String> candidates = Lists.newArrayList();
+
+                while ((candidates.size() < missing) && !block.isEmpty()) {
+                    candidates.add(numberPrefix + StringUtils.leftPad(String.valueOf(block.next()), digitsNumber, '0'));
+                }
+
+                numbers.addAll(removeUsedNumbers(pluginIdentifier, modelName, candidates));
+            }
+        }
+
+        dropBlockOnRollback(blockKey, block);
+
+        return numbers;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dropBlockOnRollback(final String blockKey, final NumberBlock block) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        Map<String, NumberBlock> usedBlocks = (Map<String, NumberBlock>) TransactionSynchronizationManager
+                .getResource(usedBlocksResourceKey);
+
+        if (Objects.isNull(usedBlocks)) {
+            Map<String, NumberBlock> blocksOfTransaction = Maps.newHashMap();
+
+            TransactionSynchronizationManager.bindResource(usedBlocksResourceKey, blocksOfTransaction);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(usedBlocksResourceKey);
+
+                    if (status == TransactionSynchronization.STATUS_ROLLED_BACK) {
+                        // blocks replaced in the meantime by other transactions are kept
+                        blocksOfTransaction.forEach(blocks::remove);
+                    }
+                }
+
+            });
+
+            usedBlocks = blocksOfTransaction;
+        }
+
+        usedBlocks.put(blockKey, block);
+    }
+
+    private long reserveNumbers(final String pluginIdentifier, final String modelName, final String prefix, final int size) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+
+        parameters.addValue(L_PLUGIN_IDENTIFIER, pluginIdentifier);
+        parameters.addValue(L_MODEL_NAME, modelName);
+        parameters.addValue(L_PREFIX, prefix);
+        parameters.addValue(L_PREFIX_LENGTH, prefix.length());
+        parameters.addValue(L_SIZE, size);
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        return transactionTemplate.execute(status -> {
+            // other application instances share the counter, the first reservation creates it
+            jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext(:pluginIdentifier || '.' || :modelName), "
+                    + "hashtext(:prefix))", parameters, Object.class);
+
+            List<Long> lastNumbers = jdbcTemplate.queryForList(
+                    "UPDATE basic_numbersequence SET lastnumber = lastnumber + :size "
+                            + "WHERE pluginidentifier = :pluginIdentifier AND modelname = :modelName AND prefix = :prefix "
+                            + "RETURNING lastnumber::bigint",
+                    parameters, Long.class);
+
+            if (!lastNumbers.isEmpty()) {
+                return lastNumbers.get(0);
+            }
+
+            Long highestNumber = jdbcTemplate.queryForObject("SELECT max(substring(number FROM :prefixLength + 1)::bigint) FROM "
+                    + getTableName(pluginIdentifier, modelName) + " WHERE left(number, :prefixLength) = :prefix "
+                    + "AND substring(number FROM :prefixLength + 1) ~ '^[0-9]{1," + MAX_DIGITS_OF_COUNTER + "}$'", parameters,
+                    Long.class);
+
+            long lastNumber = (Objects.isNull(highestNumber) ? 0L : highestNumber) + size;
+
+            parameters.addValue(L_LAST_NUMBER, lastNumber);
+
+            jdbcTemplate.update("INSERT INTO basic_numbersequence (id, pluginidentifier, modelname, prefix, lastnumber) "
+                    + "VALUES (nextval('basic_numbersequence_id_seq'), :pluginIdentifier, :modelName, :prefix, :lastNumber)",
+                    parameters);
+
+            return lastNumber;
+        });
+    }
+
+    private List<String> removeUsedNumbers(final String pluginIdentifier, final String modelName,
+            final List<String> numbers) {
+        if (numbers.isEmpty()) {
+            return numbers;
+        }
+
+        List<String> usedNumbers = jdbcTemplate.queryForList(
+                "SELECT number FROM " + getTableName(pluginIdentifier, modelName) + " WHERE number IN (:numbers)",
+                new MapSqlParameterSource(L_NUMBERS, numbers), String.class);
+
+        if (!usedNumbers.isEmpty()) {
+            numbers.removeAll(Sets.newHashSet(usedNumbers));
+        }
+
+        return numbers;
+    }
+
+    private String getTableName(final String pluginIdentifier, final String modelName) {
+        return (pluginIdentifier + "_" + modelName).toLowerCase();
+    }
+
+    private static final class NumberBlock {
+
+        private long next;
+
+        private long last = -1;
+
+        private boolean isEmpty() {
+            return next > last;
+        }
+
+        private long next() {
+            return next++;
+        }
+
+        private void reset(final long first, final long last) {
+            this.next = first;
+            this.last = last;
+        }
+
+    }
+
+}
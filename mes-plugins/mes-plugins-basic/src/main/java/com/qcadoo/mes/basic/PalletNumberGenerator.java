@@ -43,6 +43,9 @@ public class PalletNumberGenerator {
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
+    @Autowired
+    private NumberAllocationService numberAllocationService;
+
     /**
      * Check if should insert number
      *
@@ -65,6 +68,29 @@ public class PalletNumberGenerator {
         return numberGeneratorService.generateNumber(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER, 6);
     }
 
+    /**
+     * Allocate number, which is never allocated again
+     *
+     * @return number
+     */
+    public String allocate() {
+        return numberAllocationService.allocateNumber(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER, 6);
+    }
+
+    /**
+     * Allocate numbers, which are never allocated again
+     *
+     * @param quantity
+     *            Quantity
+     *
+     * @return palletNumbers
+     *
+     */
+    public List<String> allocate(final int quantity) {
+        return numberAllocationService.allocateNumbers(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER, 6,
+                null, quantity);
+    }
+
     /**
      * Lists pallet numbers
      *
@@ -0,0 +1,123 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reads independent parts of a calculation in parallel. Each part is read by the application's async executor, which runs
+ * it in the tenant of the caller, within its own read-only transaction and with the caller's security context.
+ *
+ * Parts not yet taken by the executor when the caller waits for them are read by the caller itself, so callers running on the
+ * executor, like background report generations, never wait for parts queued behind them.
+ *
+ * Readers get only keys, so they have to load their entities by themselves and must not save anything - the caller saves
+ * results within its own transaction.
+ */
+@Service
+public class ParallelReadService {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    public <K, V> Map<K, V> read(final Collection<K> keys, final Function<K, V> reader) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        Map<K, FutureTask<V>> tasks = Maps.newLinkedHashMap();
+
+        for (K key : keys) {
+            FutureTask<V> task = new FutureTask<>(() -> readInTransaction(key, reader, securityContext));
+
+            tasks.put(key, task);
+
+            runAsync(task);
+        }
+
+        Map<K, V> results = Maps.newLinkedHashMap();
+
+        try {
+            for (Map.Entry<K, FutureTask<V>> task : tasks.entrySet()) {
+                // does nothing if the executor has already taken the part
+                task.getValue().run();
+
+                results.put(task.getKey(), task.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            tasks.values().forEach(task -> task.cancel(true));
+
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            tasks.values().forEach(task -> task.cancel(true));
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getMessage(), e.getCause());
+        }
+
+        return results;
+    }
+
+    @Async
+    public void runAsync(final Runnable task) {
+        task.run();
+    }
+
+    private <K, V> V readInTransaction(final K key, final Function<K, V> reader, final SecurityContext securityContext) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.setReadOnly(true);
+
+        // parts may be read on the calling thread, so its context is restored afterwards
+        SecurityContext callerSecurityContext = SecurityContextHolder.getContext();
+
+        SecurityContextHolder.setContext(securityContext);
+
+        try {
+            return transactionTemplate.execute(status -> reader.apply(key));
+        } finally {
+            SecurityContextHolder.setContext(callerSecurityContext);
+        }
+    }
+
+}
@@ -26,10 +26,15 @@ package com.qcadoo.mes.basic;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Preconditions;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -54,6 +59,13 @@ public class ParameterService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, AtomicLong> snapshotStamps = new ConcurrentHashMap<>();
+
+    private final Map<String, StampedSnapshot> snapshots = new ConcurrentHashMap<>();
+
     /**
      * Returns basic parameter entity id for current user
      * 
@@ -88,6 +100,61 @@ public class ParameterService {
         return parameter;
     }
 
+    /**
+     * Returns immutable snapshot of basic parameter entity of the current tenant, which is read from the database only after
+     * the parameter was saved. Changes made in the current transaction are visible in the snapshot after the transaction is
+     * completed, use {@link #getParameter()} to read them before.
+     * 
+     * @return parameter snapshot
+     */
+    public ParameterSnapshot getParameterSnapshot() {
+        String tenant = currentTenantService.getTenant();
+
+        StampedSnapshot current = snapshots.get(tenant);
+        long stamp = getSnapshotStamp(tenant).get();
+
+        if (Objects.nonNull(current) && current.stamp == stamp) {
+            return current.parameter;
+        }
+
+        Entity parameter = getParameter();
+
+        if (Objects.isNull(parameter)) {
+            return null;
+        }
+
+        ParameterSnapshot parameterSnapshot = ParameterSnapshot.of(parameter);
+
+        // parameter saved while the snapshot was read invalidates it again, so the next call reads it once more
+        snapshots.put(tenant, new StampedSnapshot(stamp, parameterSnapshot));
+
+        return parameterSnapshot;
+    }
+
+    /**
+     * Invalidates parameter snapshot after the current transaction is completed, called by hook of parameter model.
+     */
+    public void invalidateParameterSnapshot() {
+        AtomicLong snapshotStamp = getSnapshotStamp(currentTenantService.getTenant());
+
+        snapshotStamp.incrementAndGet();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    snapshotStamp.incrementAndGet();
+                }
+
+            });
+        }
+    }
+
+    private AtomicLong getSnapshotStamp(final String tenant) {
+        return snapshotStamps.computeIfAbsent(tenant, key -> new AtomicLong());
+    }
+
     private Entity createParameter(final DataDefinition dataDefinition) {
         Entity parameter = dataDefinition.create();
         parameter = dataDefinition.save(parameter);
@@ -124,4 +191,18 @@ public class ParameterService {
 
         return reportColumnWidthsMap;
     }
+
+    private static final class StampedSnapshot {
+
+        private final long stamp;
+
+        private final ParameterSnapshot parameter;
+
+        private StampedSnapshot(final long stamp, final ParameterSnapshot parameter) {
+            this.stamp = stamp;
+            this.parameter = parameter;
+        }
+
+    }
+
 }
@@ -0,0 +1,166 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Immutable copy of the basic parameter entity, which may be shared by many threads.
+ *
+ * Belongs to fields are kept as ids of related entities, has many fields are not copied.
+ *
+ * Typed getters cover settings read in loops of order generation and document acceptance. These fields are added to the
+ * parameter by other plugins, getters return false or null when the plugin is disabled.
+ *
+ * @see ParameterService#getParameterSnapshot()
+ */
+public final class ParameterSnapshot {
+
+    private static final String L_PPS_IS_AUTOMATIC = "ppsIsAutomatic";
+
+    private static final String L_CREATE_COLLECTIVE_ORDERS = "createCollectiveOrders";
+
+    private static final String L_ADVISE_START_DATE_OF_THE_ORDER = "adviseStartDateOfTheOrder";
+
+    private static final String L_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS = "automaticallyGenerateOrdersForComponents";
+
+    private static final String L_ORDERS_GENERATED_BY_COVERAGE = "ordersGeneratedByCoverage";
+
+    private static final String L_ORDERS_GENERATION_NOT_COMPLETE_DATES = "ordersGenerationNotCompleteDates";
+
+    private static final String L_DOCUMENTS_STATUS = "documentsStatus";
+
+    private final Long id;
+
+    private final Map<String, Object> values;
+
+    private ParameterSnapshot(final Long id, final Map<String, Object> values) {
+        this.id = id;
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    static ParameterSnapshot of(final Entity parameter) {
+        Map<String, Object> values = Maps.newHashMap();
+
+        for (String fieldName : parameter.getDataDefinition().getFields().keySet()) {
+            Object value = parameter.getField(fieldName);
+
+            if (value instanceof Collection) {
+                continue;
+            }
+
+            if (value instanceof Entity) {
+                value = ((Entity) value).getId();
+            } else if (value instanceof Date) {
+                value = new Date(((Date) value).getTime());
+            }
+
+            values.put(fieldName, value);
+        }
+
+        return new ParameterSnapshot(parameter.getId(), values);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public boolean getBooleanField(final String fieldName) {
+        return Boolean.TRUE.equals(values.get(fieldName));
+    }
+
+    public String getStringField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return Objects.isNull(value) ? null : value.toString();
+    }
+
+    public Integer getIntegerField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return value instanceof Number ? ((Number) value).intValue() : null;
+    }
+
+    public BigDecimal getDecimalField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+
+        return value instanceof Number ? new BigDecimal(value.toString()) : null;
+    }
+
+    public Date getDateField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return value instanceof Date ? new Date(((Date) value).getTime()) : null;
+    }
+
+    public boolean isPpsIsAutomatic() {
+        return getBooleanField(L_PPS_IS_AUTOMATIC);
+    }
+
+    public boolean isCreateCollectiveOrders() {
+        return getBooleanField(L_CREATE_COLLECTIVE_ORDERS);
+    }
+
+    public boolean isAdviseStartDateOfTheOrder() {
+        return getBooleanField(L_ADVISE_START_DATE_OF_THE_ORDER);
+    }
+
+    public boolean isAutomaticallyGenerateOrdersForComponents() {
+        return getBooleanField(L_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS);
+    }
+
+    public boolean isOrdersGeneratedByCoverage() {
+        return getBooleanField(L_ORDERS_GENERATED_BY_COVERAGE);
+    }
+
+    public boolean isOrdersGenerationNotCompleteDates() {
+        return getBooleanField(L_ORDERS_GENERATION_NOT_COMPLETE_DATES);
+    }
+
+    public String getDocumentsStatus() {
+        return getStringField(L_DOCUMENTS_STATUS);
+    }
+
+    /**
+     * Returns id of the entity related by the given belongs to field.
+     */
+    public Long getBelongsToId(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return value instanceof Long ? (Long) value : null;
+    }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftCalendarIndex;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps per production line working-interval indexes used by date arithmetic in {@link ShiftsService}.
+ *
+ * Indexes are built once per tenant, production line and exceptions mode from shifts and timetable exceptions loaded in bulk,
+ * and are dropped by shift, timetable exception and production line hooks of the tenant.
+ */
+@Service
+public class ShiftCalendarIndexService {
+
+    public static final int HORIZON_DAYS = 1000;
+
+    private static final int DAYS_BEFORE = 7;
+
+    private static final int DAYS_AFTER = HORIZON_DAYS + 60;
+
+    private static final long WITHOUT_PRODUCTION_LINE_ID = 0L;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<IndexKey, ShiftCalendarIndex> indexes = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> shiftsDefinedByTenant = new ConcurrentHashMap<>();
+
+    public boolean hasShifts() {
+        String tenant = currentTenantService.getTenant();
+        Boolean result = shiftsDefinedByTenant.get(tenant);
+
+        if (Objects.isNull(result)) {
+            result = !getShiftDD().find().setMaxResults(1).list().getEntities().isEmpty();
+
+            shiftsDefinedByTenant.put(tenant, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns index covering at least {@link #HORIZON_DAYS} days starting at the given date.
+     */
+    public ShiftCalendarIndex getIndex(final Entity productionLine, final DateTime dateFrom,
+            final boolean removeFreeTimeException) {
+        IndexKey key = new IndexKey(currentTenantService.getTenant(), getProductionLineId(productionLine),
+                removeFreeTimeException);
+        DateTime dayFrom = dateFrom.withTimeAtStartOfDay();
+        long horizonTo = dayFrom.plusDays(HORIZON_DAYS).getMillis();
+
+        ShiftCalendarIndex index = indexes.get(key);
+
+        if (Objects.isNull(index) || !index.covers(dateFrom.getMillis(), horizonTo)) {
+            index = buildIndex(productionLine, dayFrom.minusDays(DAYS_BEFORE), dayFrom.plusDays(DAYS_AFTER),
+                    removeFreeTimeException);
+
+            indexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    private ShiftCalendarIndex buildIndex(final Entity productionLine, final DateTime firstDay, final DateTime lastDay,
+            final boolean removeFreeTimeException) {
+        List<Shift> shifts = shiftsService.findAll(productionLine);
+        List<DateTimeRange> ranges = Lists.newArrayList();
+
+        for (Shift shift : shifts) {
+            List<Entity> exceptions = shiftExceptionService.getExceptions(productionLine, shift);
+
+            for (DateTime dateOfDay = firstDay; !dateOfDay.isAfter(lastDay); dateOfDay = dateOfDay.plusDays(1)) {
+                ranges.addAll(shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, exceptions,
+                        removeFreeTimeException));
+            }
+        }
+
+        // ranges of the first day may be incomplete because of shifts started a day before
+        return ShiftCalendarIndex.build(firstDay.plusDays(1).getMillis(), lastDay.plusDays(1).getMillis(), ranges);
+    }
+
+    public void invalidate() {
+        String tenant = currentTenantService.getTenant();
+
+        invalidateNowAndAfterCompletion(() -> {
+            shiftsDefinedByTenant.remove(tenant);
+            indexes.keySet().removeIf(key -> key.tenant.equals(tenant));
+        });
+    }
+
+    public void invalidate(final Entity productionLine) {
+        String tenant = currentTenantService.getTenant();
+        Long productionLineId = getProductionLineId(productionLine);
+
+        invalidateNowAndAfterCompletion(() -> indexes.keySet()
+                .removeIf(key -> key.tenant.equals(tenant) && key.productionLineId.equals(productionLineId)));
+    }
+
+    private void invalidateNowAndAfterCompletion(final Runnable invalidation) {
+        invalidation.run();
+
+        // indexes built by concurrent requests before the commit would still contain old data
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    private Long getProductionLineId(final Entity productionLine) {
+        if (Objects.isNull(productionLine) || Objects.isNull(productionLine.getId())) {
+            return WITHOUT_PRODUCTION_LINE_ID;
+        }
+
+        return productionLine.getId();
+    }
+
+    private DataDefinition getShiftDD() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT);
+    }
+
+    private static final class IndexKey {
+
+        private final String tenant;
+
+        private final Long productionLineId;
+
+        private final boolean removeFreeTimeException;
+
+        private IndexKey(final String tenant, final Long productionLineId, final boolean removeFreeTimeException) {
+            this.tenant = tenant;
+            this.productionLineId = productionLineId;
+            this.removeFreeTimeException = removeFreeTimeException;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof IndexKey)) {
+                return false;
+            }
+
+            IndexKey other = (IndexKey) obj;
+
+            return tenant.equals(other.tenant) && productionLineId.equals(other.productionLineId)
+                    && removeFreeTimeException == other.removeFreeTimeException;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenant, productionLineId, removeFreeTimeException);
+        }
+
+    }
+
+}
@@ -9,6 +9,7 @@ import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.Entity;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -16,6 +17,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Service
 public class ShiftExceptionService {
@@ -34,6 +36,12 @@ public class ShiftExceptionService {
             exceptions = timetableExceptionService.findFor(productionLine, shiftEntity, dateOfDay);
         }
 
+        return applyExceptions(shiftWorkDateTime, exceptions, shift, dateOfDay, removeFreeTimeException);
+    }
+
+    private List<DateTimeRange> applyExceptions(List<DateTimeRange> shiftWorkDateTime, final List<Entity> exceptions,
+            final Shift shift, final Date dateOfDay, final boolean removeFreeTimeException) {
+        Entity shiftEntity = shift.getEntity();
         Shift shiftForDay = new Shift(shiftEntity, new DateTime(dateOfDay), false);
 
         for (Entity exception : exceptions) {
@@ -68,6 +76,42 @@ public class ShiftExceptionService {
         return shiftWorkDateTime;
     }
 
+    public List<Entity> getExceptions(final Entity productionLine, final Shift shift) {
+        if (Objects.isNull(productionLine)) {
+            return shift.getEntity().getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+        }
+
+        return timetableExceptionService.findFor(productionLine, shift.getEntity());
+    }
+
+    public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, final DateTime dateOfDay,
+            final List<Entity> exceptions, final boolean removeFreeTimeException) {
+        List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
+
+        if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
+            for (TimeRange range : shift.findWorkTimeAt(dateOfDay.toLocalDate())) {
+                shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
+            }
+        }
+
+        List<Entity> exceptionsForDay = exceptions;
+
+        if (!Objects.isNull(productionLine)) {
+            LocalDate day = dateOfDay.toLocalDate();
+
+            exceptionsForDay = exceptions.stream().filter(exception -> isExceptionAt(exception, day)).collect(Collectors.toList());
+        }
+
+        return applyExceptions(shiftWorkDateTime, exceptionsForDay, shift, dateOfDay.toDate(), removeFreeTimeException);
+    }
+
+    private boolean isExceptionAt(final Entity exception, final LocalDate day) {
+        LocalDate fromDay = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
+        LocalDate toDay = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE));
+
+        return !fromDay.isAfter(day) && !toDay.isBefore(day);
+    }
+
     private List<DateTimeRange> removeFreeTimeException(final List<DateTimeRange> shiftWorkDateTime, final Entity exception,
             final Shift shift) {
         Optional<DateTimeRange> exceptionRange = getExceptionRange(exception, shift, false);
@@ -30,6 +30,7 @@ import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftCalendarIndex;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -52,6 +53,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
@@ -105,6 +107,9 @@ public class ShiftsServiceImpl implements ShiftsService {
     @Autowired
     private ShiftExceptionService shiftExceptionService;
 
+    @Autowired
+    private ShiftCalendarIndexService shiftCalendarIndexService;
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -162,14 +167,27 @@ public class ShiftsServiceImpl implements ShiftsService {
     @Override
     public Optional<DateTime> getNearestWorkingDate(DateTime dateFrom, Entity productionLine) {
         List<Shift> shifts = findAll(productionLine);
-        List<DateTimeRange> finalShiftWorkTimes = Lists.newArrayList();
-
-        DateTime currentDate = dateFrom.minusDays(1);
 
         if (shifts.stream().noneMatch(shift -> checkShiftWorkingAfterDate(dateFrom, productionLine, shift))) {
             return Optional.empty();
         }
 
+        OptionalLong nearestWorkingMillis = shiftCalendarIndexService.getIndex(productionLine, dateFrom, true)
+                .getNearestWorkingMillis(dateFrom.getMillis());
+
+        if (nearestWorkingMillis.isPresent()) {
+            return Optional.of(new DateTime(nearestWorkingMillis.getAsLong(), dateFrom.getZone()));
+        }
+
+        return findNearestWorkingDate(dateFrom, productionLine, shifts);
+    }
+
+    private Optional<DateTime> findNearestWorkingDate(final DateTime dateFrom, final Entity productionLine,
+            final List<Shift> shifts) {
+        List<DateTimeRange> finalShiftWorkTimes = Lists.newArrayList();
+
+        DateTime currentDate = dateFrom.minusDays(1);
+
         while (finalShiftWorkTimes.isEmpty()) {
             for (Shift shift : shifts) {
                 getNearestWorkingDateForShift(shift, productionLine, dateFrom, currentDate, finalShiftWorkTimes);
@@ -343,68 +361,41 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForProductionLine(final Date dateFrom, final long seconds, final Entity productionLine) {
-        if (getShiftDataDefinition().find().list().getTotalNumberOfEntities() == 0) {
+        if (!shiftCalendarIndexService.hasShifts()) {
             return Date.from(dateFrom.toInstant().plusSeconds(seconds));
         }
 
         DateTime dateFromDT = new DateTime(dateFrom, DateTimeZone.getDefault());
 
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        dateOfDay = dateOfDay.minusDays(1);
-        dateOfDay = dateOfDay.toLocalDate().toDateTimeAtStartOfDay();
-        long leftMilliseconds = seconds * MILLS;
-        int loopCount = 0;
-        while (leftMilliseconds > 0L) {
-            if (loopCount > MAX_LOOPS) {
-                return Date.from(dateFrom.toInstant().plusSeconds(seconds));
-            }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, true)) {
-                    if (dateFrom.after(dateOfDay.toDate())) {
-                        range = range.trimBefore(dateFromDT);
-                    }
-                    if (range != null) {
-                        if (leftMilliseconds > range.durationMillis()) {
-                            leftMilliseconds = leftMilliseconds - range.durationMillis();
-                        } else {
-                            return range.getFrom().plusMillis((int) leftMilliseconds).toDate();
-                        }
-                    }
-                }
-            }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
+        OptionalLong dateToMillis = shiftCalendarIndexService.getIndex(productionLine, dateFromDT, true)
+                .addWorkingMillis(dateFrom.getTime(), seconds * MILLS);
+
+        if (dateToMillis.isPresent()) {
+            return new Date(dateToMillis.getAsLong());
         }
 
         return Date.from(dateFrom.toInstant().plusSeconds(seconds));
     }
 
+    /**
+     * Returns working seconds of the production line between the given moments. Shifts are clipped to dateFrom and dateTo, so
+     * only the part of a shift which lies within the given period is counted, not the whole shifts of the days it touches.
+     */
     @Override
     public long getTotalAvailableTimeForProductionLine(final Date dateFrom, final Date dateTo, final Entity productionLine) {
-        if (getShiftDataDefinition().find().list().getTotalNumberOfEntities() == 0) {
+        if (!shiftCalendarIndexService.hasShifts()) {
             return (dateTo.getTime() - dateFrom.getTime()) / 1000;
         }
 
-        long totalAvailableTime = 0;
+        DateTime dateFromDT = new DateTime(dateFrom, DateTimeZone.getDefault());
 
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        int loopCount = 0;
-        while (!dateOfDay.isAfter(new DateTime(dateTo))) {
-            if (loopCount > MAX_LOOPS) {
-                return (dateTo.getTime() - dateFrom.getTime()) / 1000;
-            }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, false)) {
-                    totalAvailableTime += range.durationMillis();
-                }
-            }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
+        ShiftCalendarIndex index = shiftCalendarIndexService.getIndex(productionLine, dateFromDT, false);
+
+        if (!index.covers(dateFrom.getTime(), dateTo.getTime())) {
+            return (dateTo.getTime() - dateFrom.getTime()) / 1000;
         }
 
-        return totalAvailableTime / 1000;
+        return index.getWorkingMillisBetween(dateFrom.getTime(), dateTo.getTime()) / 1000;
     }
 
     @Override
@@ -25,6 +25,10 @@ class TimetableExceptionService {
         return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, null);
     }
 
+    List<Entity> findFor(final Entity productionLine, final Entity shift) {
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), null, null);
+    }
+
     List<Entity> findFor(final Entity productionLine, final Entity shift, final Date date, final String type) {
         return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, type);
     }
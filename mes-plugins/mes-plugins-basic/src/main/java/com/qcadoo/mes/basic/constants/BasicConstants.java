@@ -84,6 +84,8 @@ public final class BasicConstants {
 
     public static final String MODEL_PALLET_NUMBER_HELPER = "palletNumberHelper";
 
+    public static final String MODEL_NUMBER_SEQUENCE = "numberSequence";
+
     public static final String MODEL_FAULT_TYPE = "faultType";
 
     public static final String MODEL_LOG = "log";
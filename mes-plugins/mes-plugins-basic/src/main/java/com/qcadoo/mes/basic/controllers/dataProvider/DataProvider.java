@@ -3,6 +3,7 @@ package com.qcadoo.mes.basic.controllers.dataProvider;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.LookupIndexService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.SubassemblyFields;
 import com.qcadoo.mes.basic.constants.WorkstationFields;
@@ -25,6 +26,7 @@ import com.qcadoo.mes.basic.controllers.dataProvider.responses.FaultTypeResponse
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.ProductsGridResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.SubassembliesResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.WorkstationTypesResponse;
+import com.qcadoo.mes.basic.lookup.LookupResult;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.DictionaryService;
 import com.qcadoo.model.api.Entity;
@@ -55,17 +57,12 @@ public class DataProvider {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
-    public static final int MAX_RESULTS = 20;
+    @Autowired
+    private LookupIndexService lookupIndexService;
 
-    private String prepareProductsQuery() {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query ;";
-    }
+    public static final int MAX_RESULTS = 20;
 
-    private String prepareProductsQueryWithLimit(int limit) {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query LIMIT " + limit + ";";
-    }
+    private static final int TYPEAHEAD_MAX_RESULTS = 10;
 
     private String prepareAdditionalCodeQuery(final String productnumber) {
         String productNumberCondition = Strings.isNullOrEmpty(productnumber) ? "" : "AND product.number = '" + productnumber
@@ -84,11 +81,6 @@ public class DataProvider {
                 + "WHERE additionalcode.code ilike :query LIMIT " + limit + ";";
     }
 
-    private String preparePalletNumbersQuery() {
-        return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
-                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query;";
-    }
-
     private String prepareAttributesQuery() {
         StringBuilder builder = new StringBuilder();
         builder.append("SELECT av.id as id, av.value as value FROM basic_attributevalue av ");
@@ -107,12 +99,6 @@ public class DataProvider {
 
     }
 
-    private String preparePalletNumbersQueryWithLimit(int limit) {
-        return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
-                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query LIMIT "
-                + limit + ";";
-    }
-
     private int countQueryResults(final String preparedQuery, final String query, final Map<String, Object> paramMap) {
         String countQuery = "SELECT count(*) AS cnt FROM (" + preparedQuery.replace(";", "") + ") sq;";
 
@@ -123,16 +109,28 @@ public class DataProvider {
     }
 
     public DataResponse getProductsResponseByQuery(final String query) {
-        return getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap());
+        return getDataResponse(lookupIndexService.searchProducts(query, MAX_RESULTS));
     }
 
     public DataResponse getAdditionalCodesResponseByQuery(final String query, final String productnumber) {
+        if (Strings.isNullOrEmpty(productnumber)) {
+            return getDataResponse(lookupIndexService.searchAdditionalCodes(query, MAX_RESULTS));
+        }
+
         return getDataResponse(query, prepareAdditionalCodeQuery(productnumber), getAdditionalCodesByQuery(query, productnumber),
                 Maps.newHashMap());
     }
 
     public DataResponse getPalletNumbersResponseByQuery(final String query) {
-        return getDataResponse(query, preparePalletNumbersQuery(), getPalletNumbersByQuery(query), Maps.newHashMap());
+        return getDataResponse(lookupIndexService.searchPalletNumbers(query, MAX_RESULTS));
+    }
+
+    private DataResponse getDataResponse(final LookupResult<? extends AbstractDTO> result) {
+        if (result.getCount() > MAX_RESULTS) {
+            return new DataResponse(Lists.newArrayList(), result.getCount());
+        }
+
+        return new DataResponse(result.getValues(), result.getCount());
     }
 
     public DataResponse getDataResponse(final String query, final String preparedQuery,
@@ -142,6 +140,11 @@ public class DataProvider {
 
     public DataResponse getDataResponse(final String query, final String preparedQuery,
             final List<? extends AbstractDTO> entities, Map<String, Object> paramMap, boolean shouldCheckMaxResults) {
+        // entities are queried with at most MAX_RESULTS rows, so fewer rows are all matching ones
+        if (entities.size() < MAX_RESULTS) {
+            return new DataResponse(entities, entities.size());
+        }
+
         int numberOfResults = countQueryResults(preparedQuery, query, paramMap);
 
         if (shouldCheckMaxResults && (numberOfResults > MAX_RESULTS)) {
@@ -167,19 +170,8 @@ public class DataProvider {
     }
 
     public DataResponse getProductsTypeahead(String query) {
-        StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder
-                .append("SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name ");
-        queryBuilder
-                .append("FROM basic_product product WHERE product.active = true AND product.number ilike :query ORDER BY product.number ASC LIMIT 10 ");
+        List<ProductDTO> products = lookupIndexService.searchProducts(query, TYPEAHEAD_MAX_RESULTS).getValues();
 
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        String ilikeQuery = "%" + query + "%";
-        parameters.put("query", ilikeQuery);
-
-        List<ProductDTO> products = jdbcTemplate.query(queryBuilder.toString(), parameters, new BeanPropertyRowMapper(
-                ProductDTO.class));
         return new DataResponse(products, products.size());
     }
 
@@ -192,46 +184,38 @@ public class DataProvider {
         queryCount.append("SELECT COUNT(*) ");
         queryCount.append("FROM basic_product product WHERE product.active = true ");
 
-        appendProductsConditions(search, query);
-        appendProductsConditions(search, queryCount);
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        appendProductsConditions(search, query, parameters);
+        appendProductsConditions(search, queryCount, parameters);
 
         if (StringUtils.isNotEmpty(sort)) {
             query.append(" ORDER BY " + sort + " " + order);
         }
         query.append(String.format(" LIMIT %d OFFSET %d", limit, offset));
 
-        Integer countRecords = jdbcTemplate.queryForObject(queryCount.toString(),
-                new MapSqlParameterSource(Collections.EMPTY_MAP), Long.class).intValue();
+        Integer countRecords = jdbcTemplate.queryForObject(queryCount.toString(), parameters, Long.class).intValue();
 
-        List<ProductDTO> products = jdbcTemplate.query(query.toString(), new MapSqlParameterSource(Collections.EMPTY_MAP),
+        List<ProductDTO> products = jdbcTemplate.query(query.toString(), parameters,
                 new BeanPropertyRowMapper(ProductDTO.class));
 
         return new ProductsGridResponse(countRecords, products);
     }
 
-    private void appendProductsConditions(String search, StringBuilder query) {
+    private void appendProductsConditions(String search, StringBuilder query, Map<String, Object> parameters) {
         if (StringUtils.isNotEmpty(search)) {
             query.append(" AND (");
-            query.append("UPPER(product.number) LIKE '%").append(search.toUpperCase()).append("%' OR ");
-            query.append("UPPER(product.name) LIKE '%").append(search.toUpperCase()).append("%' OR ");
-            query.append("UPPER(product.unit) LIKE '%").append(search.toUpperCase()).append("%'");
+            query.append("UPPER(product.number) LIKE :search OR ");
+            query.append("UPPER(product.name) LIKE :search OR ");
+            query.append("UPPER(product.unit) LIKE :search");
             query.append(") ");
+
+            parameters.put("search", "%" + search.toUpperCase() + "%");
         }
     }
 
     public List<AbstractDTO> getProductsByQuery(final String query) {
-        String _query = prepareProductsQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        String ilikeQuery = buildConditionParameterForIlike(query);
-        parameters.put("query", ilikeQuery);
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
-
-        List<AbstractDTO> products = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(ProductDTO.class));
-
-        return products;
+        return Lists.newArrayList(lookupIndexService.searchProducts(query, MAX_RESULTS).getValues());
     }
 
     public List<AdditionalCodeDTO> getAllAdditionalCodes(final String sidx, final String sord) {
@@ -272,18 +256,7 @@ public class DataProvider {
     }
 
     public List<AbstractDTO> getPalletNumbersByQuery(final String query) {
-        String _query = preparePalletNumbersQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        String ilikeQuery = buildConditionParameterForIlike(query);
-        parameters.put("query", ilikeQuery);
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
-
-        List<AbstractDTO> pallets = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(PalletNumberDTO.class));
-
-        return pallets;
+        return Lists.newArrayList(lookupIndexService.searchPalletNumbers(query, MAX_RESULTS).getValues());
     }
 
     public List<AbstractDTO> getAttribiutesByQuery(final String attr, final String query) {
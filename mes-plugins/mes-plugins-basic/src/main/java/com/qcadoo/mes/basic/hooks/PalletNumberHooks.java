@@ -56,7 +56,7 @@ public class PalletNumberHooks {
         String number = palletNumber.getStringField(PalletNumberFields.NUMBER);
 
         if (StringUtils.isEmpty(number)) {
-            number = palletNumberGenerator.generate();
+            number = palletNumberGenerator.allocate();
         }
 
         palletNumber.setField(PalletNumberFields.NUMBER, number);
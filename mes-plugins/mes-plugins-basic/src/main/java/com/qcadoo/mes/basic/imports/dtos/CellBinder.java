@@ -103,6 +103,14 @@ public abstract class CellBinder {
 
     public abstract void bind(final String cellValue, final Entity entity, final CellErrorsAccessor errorsAccessor);
 
+    public abstract void bind(final String cellValue, final String dependentCellValue, final Entity entity,
+            final CellErrorsAccessor errorsAccessor);
+
+    /**
+     * Creates binder of the same field, which parses cells with the given parser.
+     */
+    public abstract CellBinder withCellParser(final CellParser cellParser);
+
     private static String formatCell(final Cell cell) {
         Locale locale = LocaleContextHolder.getLocale();
 
@@ -173,6 +181,22 @@ public abstract class CellBinder {
                         fieldValue -> entity.setField(getFieldName(), fieldValue));
             }
         }
+
+        @Override
+        public void bind(final String cellValue, final String dependentCellValue, final Entity entity,
+                final CellErrorsAccessor errorsAccessor) {
+            if (StringUtils.isEmpty(cellValue)) {
+                errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_MISSING);
+            } else {
+                getCellParser().parse(formatCell(cellValue), formatCell(StringUtils.defaultString(dependentCellValue)),
+                        errorsAccessor, fieldValue -> entity.setField(getFieldName(), fieldValue));
+            }
+        }
+
+        @Override
+        public CellBinder withCellParser(final CellParser cellParser) {
+            return new RequiredCellBinder(getFieldName(), getDependentFieldName(), cellParser);
+        }
     }
 
     private static class OptionalCellBinder extends CellBinder {
@@ -220,6 +244,22 @@ public abstract class CellBinder {
             }
         }
 
+        @Override
+        public void bind(final String cellValue, final String dependentCellValue, final Entity entity,
+                final CellErrorsAccessor errorsAccessor) {
+            if (StringUtils.isEmpty(cellValue)) {
+                setDefaultValue(entity, errorsAccessor);
+            } else {
+                getCellParser().parse(formatCell(cellValue), formatCell(StringUtils.defaultString(dependentCellValue)),
+                        errorsAccessor, fieldValue -> entity.setField(getFieldName(), fieldValue));
+            }
+        }
+
+        @Override
+        public CellBinder withCellParser(final CellParser cellParser) {
+            return new OptionalCellBinder(getFieldName(), getDependentFieldName(), cellParser);
+        }
+
         private void setDefaultValue(final Entity entity, final CellErrorsAccessor errorsAccessor) {
             if (getCellParser() instanceof BooleanCellParser) {
                 entity.setField(getFieldName(), false);
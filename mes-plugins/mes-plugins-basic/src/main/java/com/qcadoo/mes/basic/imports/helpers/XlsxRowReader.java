@@ -0,0 +1,162 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.imports.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads rows of the first sheet of xlsx file with event API, so the workbook is never kept in memory as a whole.
+ *
+ * Cell values are formatted like {@link DataFormatter#formatCellValue} formats cells of the workbook, blank cells are passed
+ * as nulls.
+ */
+public final class XlsxRowReader {
+
+    private static final String L_DISALLOW_DOCTYPE_DECL = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private XlsxRowReader() {
+    }
+
+    public interface RowConsumer {
+
+        /**
+         * @return false, if next rows shouldn't be read
+         */
+        boolean accept(final int rowIndex, final String[] cellValues);
+
+    }
+
+    public static void readRows(final InputStream inputStream, final int columnsCount, final RowConsumer rowConsumer)
+            throws IOException {
+        try (OPCPackage opcPackage = OPCPackage.open(inputStream)) {
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+
+            Locale locale = LocaleContextHolder.getLocale();
+            DataFormatter dataFormatter = new DataFormatter(Objects.isNull(locale) ? Locale.getDefault() : locale);
+
+            XMLReader xmlReader = createXmlReader();
+
+            xmlReader.setContentHandler(new XSSFSheetXMLHandler(xssfReader.getStylesTable(), null, sharedStrings,
+                    new RowsHandler(columnsCount, rowConsumer), dataFormatter, false));
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+
+            if (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    xmlReader.parse(new InputSource(sheet));
+                } catch (StopReadingException e) {
+                    // remaining rows were rejected by the consumer
+                }
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static XMLReader createXmlReader() throws ParserConfigurationException, SAXException {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+
+        saxParserFactory.setNamespaceAware(true);
+        saxParserFactory.setFeature(L_DISALLOW_DOCTYPE_DECL, true);
+
+        return saxParserFactory.newSAXParser().getXMLReader();
+    }
+
+    private static final class RowsHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final int columnsCount;
+
+        private final RowConsumer rowConsumer;
+
+        private String[] cellValues;
+
+        private int columnIndex;
+
+        private RowsHandler(final int columnsCount, final RowConsumer rowConsumer) {
+            this.columnsCount = columnsCount;
+            this.rowConsumer = rowConsumer;
+        }
+
+        @Override
+        public void startRow(final int rowIndex) {
+            cellValues = new String[columnsCount];
+            columnIndex = -1;
+        }
+
+        @Override
+        public void endRow(final int rowIndex) {
+            if (!rowConsumer.accept(rowIndex, cellValues)) {
+                throw new StopReadingException();
+            }
+        }
+
+        @Override
+        public void cell(final String cellReference, final String formattedValue, final XSSFComment comment) {
+            if (Objects.isNull(cellReference)) {
+                columnIndex++;
+            } else {
+                columnIndex = new CellReference(cellReference).getCol();
+            }
+
+            if ((columnIndex < columnsCount) && StringUtils.isNotEmpty(formattedValue)) {
+                cellValues[columnIndex] = formattedValue;
+            }
+        }
+
+        @Override
+        public void headerFooter(final String text, final boolean isHeader, final String tagName) {
+        }
+
+    }
+
+    private static final class StopReadingException extends RuntimeException {
+
+        private StopReadingException() {
+            super(null, null, false, false);
+        }
+
+    }
+
+}
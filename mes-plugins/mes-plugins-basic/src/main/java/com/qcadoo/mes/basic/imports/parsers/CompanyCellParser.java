@@ -23,14 +23,20 @@
  */
 package com.qcadoo.mes.basic.imports.parsers;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.CompanyFields;
+import com.qcadoo.mes.basic.imports.helpers.BulkCellParser;
 import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
 import com.qcadoo.mes.basic.imports.helpers.CellParser;
 import com.qcadoo.model.api.DataDefinition;
@@ -39,7 +45,7 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Component
-public class CompanyCellParser implements CellParser {
+public class CompanyCellParser implements BulkCellParser {
 
     private static final String L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND = "qcadooView.validate.field.error.lookupCodeNotFound";
 
@@ -49,8 +55,19 @@ public class CompanyCellParser implements CellParser {
     @Override
     public void parse(final String cellValue, final String dependentCellValue, final CellErrorsAccessor errorsAccessor,
             final Consumer<Object> valueConsumer) {
-        Entity company = getCompanyByNumber(cellValue);
+        parse(getCompanyByNumber(cellValue), errorsAccessor, valueConsumer);
+    }
+
+    @Override
+    public CellParser resolve(final Set<String> cellValues) {
+        Map<String, Entity> companies = getCompaniesByNumbers(cellValues);
+
+        return (cellValue, dependentCellValue, errorsAccessor, valueConsumer) -> parse(
+                companies.containsKey(cellValue) ? companies.get(cellValue) : getCompanyByNumber(cellValue), errorsAccessor,
+                valueConsumer);
+    }
 
+    private void parse(final Entity company, final CellErrorsAccessor errorsAccessor, final Consumer<Object> valueConsumer) {
         if (Objects.isNull(company)) {
             errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND);
         } else {
@@ -62,6 +79,16 @@ public class CompanyCellParser implements CellParser {
         return getCompanyDD().find().add(SearchRestrictions.eq(CompanyFields.NUMBER, number)).setMaxResults(1).uniqueResult();
     }
 
+    private Map<String, Entity> getCompaniesByNumbers(final Set<String> numbers) {
+        if (numbers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return getCompanyDD().find().add(SearchRestrictions.in(CompanyFields.NUMBER, numbers)).list().getEntities().stream()
+                .collect(Collectors.toMap(company -> company.getStringField(CompanyFields.NUMBER), Function.identity(),
+                        (first, second) -> first));
+    }
+
     private DataDefinition getCompanyDD() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_COMPANY);
     }
@@ -25,6 +25,7 @@ package com.qcadoo.mes.basic.imports.parsers;
 
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.imports.helpers.BulkCellParser;
 import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
 import com.qcadoo.mes.basic.imports.helpers.CellParser;
 import com.qcadoo.model.api.DataDefinition;
@@ -32,14 +33,19 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
-public class ProductCellParser implements CellParser {
+public class ProductCellParser implements BulkCellParser {
 
     private static final String L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND = "qcadooView.validate.field.error.lookupCodeNotFound";
 
@@ -48,8 +54,19 @@ public class ProductCellParser implements CellParser {
 
     @Override
     public void parse(final String cellValue, final String dependentCellValue, final CellErrorsAccessor errorsAccessor, final Consumer<Object> valueConsumer) {
-        Entity product = getProductByNumber(cellValue);
+        parse(getProductByNumber(cellValue), errorsAccessor, valueConsumer);
+    }
+
+    @Override
+    public CellParser resolve(final Set<String> cellValues) {
+        Map<String, Entity> products = getProductsByNumbers(cellValues);
+
+        return (cellValue, dependentCellValue, errorsAccessor, valueConsumer) -> parse(
+                products.containsKey(cellValue) ? products.get(cellValue) : getProductByNumber(cellValue), errorsAccessor,
+                valueConsumer);
+    }
 
+    private void parse(final Entity product, final CellErrorsAccessor errorsAccessor, final Consumer<Object> valueConsumer) {
         if (Objects.isNull(product)) {
             errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND);
         } else {
@@ -61,6 +78,16 @@ public class ProductCellParser implements CellParser {
         return getProductDD().find().add(SearchRestrictions.eq(ProductFields.NUMBER, number)).setMaxResults(1).uniqueResult();
     }
 
+    private Map<String, Entity> getProductsByNumbers(final Set<String> numbers) {
+        if (numbers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return getProductDD().find().add(SearchRestrictions.in(ProductFields.NUMBER, numbers)).list().getEntities().stream()
+                .collect(Collectors.toMap(product -> product.getStringField(ProductFields.NUMBER), Function.identity(),
+                        (first, second) -> first));
+    }
+
     private DataDefinition getProductDD() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
     }
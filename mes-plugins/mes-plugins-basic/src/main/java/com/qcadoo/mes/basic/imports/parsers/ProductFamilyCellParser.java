@@ -26,6 +26,7 @@ package com.qcadoo.mes.basic.imports.parsers;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.imports.helpers.BulkCellParser;
 import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
 import com.qcadoo.mes.basic.imports.helpers.CellParser;
 import com.qcadoo.model.api.DataDefinition;
@@ -33,14 +34,19 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
-public class ProductFamilyCellParser implements CellParser {
+public class ProductFamilyCellParser implements BulkCellParser {
 
     private static final String L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND = "qcadooView.validate.field.error.lookupCodeNotFound";
 
@@ -51,8 +57,20 @@ public class ProductFamilyCellParser implements CellParser {
 
     @Override
     public void parse(final String cellValue, final String dependentCellValue, final CellErrorsAccessor errorsAccessor, final Consumer<Object> valueConsumer) {
-        Entity productFamily = getProductFamilyByNumber(cellValue);
+        parse(getProductFamilyByNumber(cellValue), errorsAccessor, valueConsumer);
+    }
+
+    @Override
+    public CellParser resolve(final Set<String> cellValues) {
+        Map<String, Entity> productFamilies = getProductFamiliesByNumbers(cellValues);
+
+        return (cellValue, dependentCellValue, errorsAccessor, valueConsumer) -> parse(
+                productFamilies.containsKey(cellValue) ? productFamilies.get(cellValue) : getProductFamilyByNumber(cellValue),
+                errorsAccessor, valueConsumer);
+    }
 
+    private void parse(final Entity productFamily, final CellErrorsAccessor errorsAccessor,
+            final Consumer<Object> valueConsumer) {
         if (Objects.isNull(productFamily)) {
             errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND);
         } else if (!ProductFamilyElementType.PRODUCTS_FAMILY.getStringValue()
@@ -67,6 +85,16 @@ public class ProductFamilyCellParser implements CellParser {
         return getProductDD().find().add(SearchRestrictions.eq(ProductFields.NUMBER, number)).setMaxResults(1).uniqueResult();
     }
 
+    private Map<String, Entity> getProductFamiliesByNumbers(final Set<String> numbers) {
+        if (numbers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return getProductDD().find().add(SearchRestrictions.in(ProductFields.NUMBER, numbers)).list().getEntities().stream()
+                .collect(Collectors.toMap(productFamily -> productFamily.getStringField(ProductFields.NUMBER),
+                        Function.identity(), (first, second) -> first));
+    }
+
     private DataDefinition getProductDD() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
     }
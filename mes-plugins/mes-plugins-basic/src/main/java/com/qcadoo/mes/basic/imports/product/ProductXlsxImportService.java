@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Objects;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
@@ -53,6 +54,14 @@ public class ProductXlsxImportService extends XlsxImportService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Value("${productsImportChunkSize:500}")
+    private int chunkSize;
+
+    @Override
+    protected int getChunkSize() {
+        return chunkSize;
+    }
+
     @Override
     public Entity createEntity(final String pluginIdentifier, final String modelName) {
         Entity product = getDataDefinition(pluginIdentifier, modelName).create();
@@ -23,34 +23,54 @@
  */
 package com.qcadoo.mes.basic.imports.services;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.qcadoo.mes.basic.imports.dtos.CellBinder;
 import com.qcadoo.mes.basic.imports.dtos.CellBinderRegistry;
 import com.qcadoo.mes.basic.imports.dtos.ImportStatus;
+import com.qcadoo.mes.basic.imports.helpers.BulkCellParser;
 import com.qcadoo.mes.basic.imports.helpers.RowProcessorHelper;
+import com.qcadoo.mes.basic.imports.helpers.XlsxRowReader;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriterion;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class XlsxImportService extends ImportService {
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Transactional
     public ImportStatus importFile(final FileInputStream fis, final CellBinderRegistry cellBinderRegistry,
             final Boolean rollbackOnError, final String pluginIdentifier, final String modelName, final Entity belongsTo,
             final String belongsToName, final Boolean shouldUpdate, final Function<Entity, SearchCriterion> criteriaSupplier,
             final Function<Entity, Boolean> checkOnUpdate) throws IOException {
+        if (getChunkSize() > 0) {
+            return importFileInChunks(fis, cellBinderRegistry, rollbackOnError, pluginIdentifier, modelName, belongsTo,
+                    belongsToName, shouldUpdate, criteriaSupplier, checkOnUpdate);
+        }
+
         ImportStatus importStatus = new ImportStatus();
 
         XSSFWorkbook workbook = new XSSFWorkbook(fis);
@@ -105,6 +125,117 @@ public class XlsxImportService extends ImportService {
         return importStatus;
     }
 
+    /**
+     * Number of rows imported together, when greater than zero the file is read as a stream and cells referencing other
+     * entities are resolved once per chunk, otherwise the whole file is read as a workbook.
+     *
+     * Without rollbackOnError rows of chunks are committed before the next chunk is read, so imports with belongsTo entities
+     * saved in the current transaction have to be imported without chunks.
+     */
+    protected int getChunkSize() {
+        return 0;
+    }
+
+    /**
+     * Imports rows in chunks. When rollbackOnError is set, all chunks are imported in the current transaction, which is
+     * rolled back if any row of the file has errors. Otherwise each chunk is committed in a new transaction, rows with errors
+     * aren't saved and the import goes on.
+     */
+    private ImportStatus importFileInChunks(final FileInputStream fis, final CellBinderRegistry cellBinderRegistry,
+            final Boolean rollbackOnError, final String pluginIdentifier, final String modelName, final Entity belongsTo,
+            final String belongsToName, final Boolean shouldUpdate, final Function<Entity, SearchCriterion> criteriaSupplier,
+            final Function<Entity, Boolean> checkOnUpdate) throws IOException {
+        ImportStatus importStatus = new ImportStatus();
+
+        Consumer<List<ImportRow>> chunkImporter = rows -> importChunk(rows, cellBinderRegistry, importStatus, pluginIdentifier,
+                modelName, belongsTo, belongsToName, shouldUpdate, criteriaSupplier, checkOnUpdate);
+
+        if (!rollbackOnError) {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+            chunkImporter = rows -> transactionTemplate.execute(status -> {
+                importChunk(rows, cellBinderRegistry, importStatus, pluginIdentifier, modelName, belongsTo, belongsToName,
+                        shouldUpdate, criteriaSupplier, checkOnUpdate);
+
+                return null;
+            });
+        }
+
+        ChunkCollector chunkCollector = new ChunkCollector(getChunkSize(), chunkImporter);
+
+        XlsxRowReader.readRows(fis, cellBinderRegistry.getSize(), chunkCollector);
+
+        chunkCollector.importRemainingRows();
+
+        if (rollbackOnError && importStatus.hasErrors()) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+
+        return importStatus;
+    }
+
+    private void importChunk(final List<ImportRow> rows, final CellBinderRegistry cellBinderRegistry,
+            final ImportStatus importStatus, final String pluginIdentifier, final String modelName, final Entity belongsTo,
+            final String belongsToName, final Boolean shouldUpdate, final Function<Entity, SearchCriterion> criteriaSupplier,
+            final Function<Entity, Boolean> checkOnUpdate) {
+        CellBinderRegistry chunkCellBinderRegistry = resolveReferences(rows, cellBinderRegistry);
+
+        for (ImportRow row : rows) {
+            Entity entity = createEntity(pluginIdentifier, modelName);
+
+            if (Objects.nonNull(belongsTo) && Objects.nonNull(belongsToName)) {
+                entity.setField(belongsToName, belongsTo);
+            }
+
+            RowProcessorHelper rowProcessorHelper = new RowProcessorHelper(entity, chunkCellBinderRegistry, importStatus,
+                    row.getRowIndex());
+
+            for (int columnIndex = 0; columnIndex < chunkCellBinderRegistry.getSize(); columnIndex++) {
+                CellBinder cell = chunkCellBinderRegistry.getCellBinder(columnIndex);
+                String dependentFieldName = cell.getDependentFieldName();
+                if (StringUtils.isEmpty(dependentFieldName)) {
+                    rowProcessorHelper.append(row.getCellValue(columnIndex));
+                } else {
+                    int dependentIndex = getDependentIndex(dependentFieldName, chunkCellBinderRegistry);
+                    rowProcessorHelper.append(row.getCellValue(columnIndex), row.getCellValue(dependentIndex));
+                }
+            }
+
+            if (shouldUpdate && !Objects.isNull(criteriaSupplier)) {
+                Entity entityToUpdate = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+
+                rowProcessorHelper.update(entityToUpdate, checkOnUpdate);
+            }
+
+            validateEntity(entity, entity.getDataDefinition());
+
+            rowProcessorHelper.process();
+        }
+    }
+
+    private CellBinderRegistry resolveReferences(final List<ImportRow> rows, final CellBinderRegistry cellBinderRegistry) {
+        CellBinderRegistry chunkCellBinderRegistry = new CellBinderRegistry();
+
+        for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
+            CellBinder cellBinder = cellBinderRegistry.getCellBinder(columnIndex);
+
+            if (cellBinder.getCellParser() instanceof BulkCellParser) {
+                int referenceIndex = columnIndex;
+
+                Set<String> cellValues = rows.stream().map(row -> row.getCellValue(referenceIndex))
+                        .filter(StringUtils::isNotBlank).map(String::trim).collect(Collectors.toSet());
+
+                cellBinder = cellBinder.withCellParser(((BulkCellParser) cellBinder.getCellParser()).resolve(cellValues));
+            }
+
+            chunkCellBinderRegistry.setCellBinder(cellBinder);
+        }
+
+        return chunkCellBinderRegistry;
+    }
+
     private int getDependentIndex(final String dependentFieldName, final CellBinderRegistry cellBinderRegistry) {
         for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
             if (cellBinderRegistry.getCellBinder(columnIndex).getFieldName().equals(dependentFieldName)) {
@@ -118,4 +249,74 @@ public class XlsxImportService extends ImportService {
         return Files.getFileExtension(filePath).equalsIgnoreCase(L_XLSX);
     }
 
+    private static final class ChunkCollector implements XlsxRowReader.RowConsumer {
+
+        private final int chunkSize;
+
+        private final Consumer<List<ImportRow>> chunkImporter;
+
+        private final List<ImportRow> chunk = Lists.newArrayList();
+
+        private int nextRowIndex = 1;
+
+        private ChunkCollector(final int chunkSize, final Consumer<List<ImportRow>> chunkImporter) {
+            this.chunkSize = chunkSize;
+            this.chunkImporter = chunkImporter;
+        }
+
+        @Override
+        public boolean accept(final int rowIndex, final String[] cellValues) {
+            if (rowIndex == 0) {
+                return true;
+            }
+
+            // like in workbook import, the first missing or empty row ends the import
+            if ((rowIndex != nextRowIndex++) || Arrays.stream(cellValues).allMatch(Objects::isNull)) {
+                return false;
+            }
+
+            chunk.add(new ImportRow(rowIndex, cellValues));
+
+            if (chunk.size() >= chunkSize) {
+                importChunk();
+            }
+
+            return true;
+        }
+
+        private void importRemainingRows() {
+            if (!chunk.isEmpty()) {
+                importChunk();
+            }
+        }
+
+        private void importChunk() {
+            chunkImporter.accept(Lists.newArrayList(chunk));
+
+            chunk.clear();
+        }
+
+    }
+
+    private static final class ImportRow {
+
+        private final int rowIndex;
+
+        private final String[] cellValues;
+
+        private ImportRow(final int rowIndex, final String[] cellValues) {
+            this.rowIndex = rowIndex;
+            this.cellValues = cellValues;
+        }
+
+        private int getRowIndex() {
+            return rowIndex;
+        }
+
+        private String getCellValue(final int columnIndex) {
+            return (columnIndex < 0) ? null : cellValues[columnIndex];
+        }
+
+    }
+
 }
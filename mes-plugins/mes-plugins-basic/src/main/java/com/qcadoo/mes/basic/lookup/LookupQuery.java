@@ -0,0 +1,101 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.lookup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Lookup phrase matched like {@code ilike '%phrase%'}, where {@code *} and {@code %} stand for any sequence of characters.
+ */
+public final class LookupQuery {
+
+    public static final int RANK_EXACT = 0;
+
+    public static final int RANK_PREFIX = 1;
+
+    public static final int RANK_CONTAINS = 2;
+
+    public static final int NO_MATCH = -1;
+
+    private final String phrase;
+
+    private final List<String> segments;
+
+    private LookupQuery(final String phrase, final List<String> segments) {
+        this.phrase = phrase;
+        this.segments = segments;
+    }
+
+    public static LookupQuery parse(final String query) {
+        String phrase = normalize(query);
+        List<String> segments = Arrays.stream(phrase.split("[*%]")).filter(segment -> !segment.isEmpty())
+                .collect(Collectors.toList());
+
+        return new LookupQuery(phrase, segments);
+    }
+
+    public static String normalize(final String value) {
+        return Objects.isNull(value) ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    public List<String> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Returns rank of the given normalized key - the lower the better, or {@link #NO_MATCH}.
+     */
+    public int rank(final String key) {
+        if (segments.isEmpty()) {
+            return RANK_CONTAINS;
+        }
+
+        int from = 0;
+        int first = NO_MATCH;
+
+        for (String segment : segments) {
+            int index = key.indexOf(segment, from);
+
+            if (index < 0) {
+                return NO_MATCH;
+            }
+            if (first < 0) {
+                first = index;
+            }
+
+            from = index + segment.length();
+        }
+
+        if (key.equals(phrase)) {
+            return RANK_EXACT;
+        }
+
+        return first == 0 ? RANK_PREFIX : RANK_CONTAINS;
+    }
+
+}
@@ -0,0 +1,460 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.lookup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Immutable trigram index of lookup values, searched with {@link LookupQuery}.
+ *
+ * Values are kept in arrays together with sorted posting lists of their positions per trigram of the key, so a phrase with at
+ * least one trigram is checked against the values containing all of its trigrams only. Values changed after the index was
+ * built are kept in a small overlay scanned on every search, until the index is built again.
+ */
+public final class NgramIndex<T> {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final ToLongFunction<T> idFunction;
+
+    private final Function<T, String> keyFunction;
+
+    private final long[] ids;
+
+    private final String[] keys;
+
+    private final List<T> values;
+
+    private final GramTable grams;
+
+    private final int[][] postings;
+
+    private final Map<Long, T> overlay;
+
+    private final Set<Long> masked;
+
+    private NgramIndex(final ToLongFunction<T> idFunction, final Function<T, String> keyFunction, final long[] ids,
+            final String[] keys, final List<T> values, final GramTable grams, final int[][] postings,
+            final Map<Long, T> overlay, final Set<Long> masked) {
+        this.idFunction = idFunction;
+        this.keyFunction = keyFunction;
+        this.ids = ids;
+        this.keys = keys;
+        this.values = values;
+        this.grams = grams;
+        this.postings = postings;
+        this.overlay = overlay;
+        this.masked = masked;
+    }
+
+    public static <T> NgramIndex<T> build(final Collection<T> values, final ToLongFunction<T> idFunction,
+            final Function<T, String> keyFunction) {
+        List<T> list = ImmutableList.copyOf(values);
+        long[] ids = new long[list.size()];
+        String[] keys = new String[list.size()];
+        int[][] gramNumbers = new int[list.size()][];
+        GramTable grams = new GramTable(list.size());
+        int[] counts = new int[16];
+
+        // first pass numbers distinct trigrams and counts their occurrences
+        for (int position = 0; position < list.size(); position++) {
+            T value = list.get(position);
+
+            ids[position] = idFunction.applyAsLong(value);
+            keys[position] = LookupQuery.normalize(keyFunction.apply(value));
+
+            long[] keyGrams = grams(keys[position]);
+
+            gramNumbers[position] = new int[keyGrams.length];
+
+            for (int i = 0; i < keyGrams.length; i++) {
+                int number = grams.putIfAbsent(keyGrams[i]);
+
+                if (number == counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+
+                counts[number]++;
+                gramNumbers[position][i] = number;
+            }
+        }
+
+        int[][] postings = new int[grams.size()][];
+
+        for (int number = 0; number < postings.length; number++) {
+            postings[number] = new int[counts[number]];
+        }
+
+        // second pass fills posting lists, positions are added in ascending order
+        int[] sizes = new int[postings.length];
+
+        for (int position = 0; position < gramNumbers.length; position++) {
+            for (int number : gramNumbers[position]) {
+                postings[number][sizes[number]++] = position;
+            }
+        }
+
+        return new NgramIndex<>(idFunction, keyFunction, ids, keys, list, grams, postings, Collections.emptyMap(),
+                Collections.emptySet());
+    }
+
+    /**
+     * Returns index with the given values added or replaced and the values with given ids removed, sharing indexed values with
+     * this one.
+     */
+    public NgramIndex<T> withChanges(final Collection<T> changedValues, final Collection<Long> removedIds) {
+        Map<Long, T> changedOverlay = Maps.newLinkedHashMap(overlay);
+        Set<Long> changedMasked = Sets.newHashSet(masked);
+
+        for (Long removedId : removedIds) {
+            changedOverlay.remove(removedId);
+            changedMasked.add(removedId);
+        }
+        for (T value : changedValues) {
+            long id = idFunction.applyAsLong(value);
+
+            changedOverlay.put(id, value);
+            changedMasked.add(id);
+        }
+
+        return new NgramIndex<>(idFunction, keyFunction, ids, keys, values, grams, postings, ImmutableMap.copyOf(changedOverlay),
+                ImmutableSet.copyOf(changedMasked));
+    }
+
+    public int size() {
+        int size = overlay.size();
+
+        for (long id : ids) {
+            if (!masked.contains(id)) {
+                ++size;
+            }
+        }
+
+        return size;
+    }
+
+    public int getOverlaySize() {
+        return masked.size();
+    }
+
+    public long getMaxId() {
+        long maxId = 0L;
+
+        for (long id : ids) {
+            maxId = Math.max(maxId, id);
+        }
+        for (long id : masked) {
+            maxId = Math.max(maxId, id);
+        }
+
+        return maxId;
+    }
+
+    /**
+     * Returns at most {@code limit} best ranked values matching the given query together with the number of all matching
+     * values.
+     */
+    public LookupResult<T> search(final LookupQuery query, final int limit) {
+        PriorityQueue<Match<T>> best = new PriorityQueue<>(Math.max(limit, 1), Match.<T> comparator().reversed());
+        int count = 0;
+
+        int[] candidates = getCandidates(query);
+
+        if (candidates == null) {
+            for (int position = 0; position < keys.length; position++) {
+                count += offer(best, limit, query, position);
+            }
+        } else {
+            for (int position : candidates) {
+                count += offer(best, limit, query, position);
+            }
+        }
+
+        for (T value : overlay.values()) {
+            String key = LookupQuery.normalize(keyFunction.apply(value));
+            int rank = query.rank(key);
+
+            if (rank != LookupQuery.NO_MATCH) {
+                ++count;
+                offer(best, limit, new Match<>(rank, key, value));
+            }
+        }
+
+        List<Match<T>> matches = Lists.newArrayList(best);
+
+        matches.sort(Match.comparator());
+
+        return new LookupResult<>(matches.stream().map(Match::getValue).collect(Collectors.toList()), count);
+    }
+
+    private int offer(final PriorityQueue<Match<T>> best, final int limit, final LookupQuery query, final int position) {
+        if (!masked.isEmpty() && masked.contains(ids[position])) {
+            return 0;
+        }
+
+        int rank = query.rank(keys[position]);
+
+        if (rank == LookupQuery.NO_MATCH) {
+            return 0;
+        }
+
+        if (best.size() < limit || (!best.isEmpty() && Match.isBetter(rank, keys[position], best.peek()))) {
+            offer(best, limit, new Match<>(rank, keys[position], values.get(position)));
+        }
+
+        return 1;
+    }
+
+    private void offer(final PriorityQueue<Match<T>> best, final int limit, final Match<T> match) {
+        if (limit <= 0) {
+            return;
+        }
+
+        if (best.size() < limit) {
+            best.add(match);
+        } else if (Match.<T> comparator().compare(match, best.peek()) < 0) {
+            best.poll();
+            best.add(match);
+        }
+    }
+
+    // null means that the query has no trigram and all values have to be checked
+    private int[] getCandidates(final LookupQuery query) {
+        List<int[]> lists = Lists.newArrayList();
+
+        for (String segment : query.getSegments()) {
+            for (long gram : grams(segment)) {
+                int number = grams.get(gram);
+
+                lists.add(number < 0 ? NO_POSITIONS : postings[number]);
+            }
+        }
+
+        if (lists.isEmpty()) {
+            return null;
+        }
+
+        lists.sort(Comparator.comparingInt(positions -> positions.length));
+
+        int[] candidates = lists.get(0);
+
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+
+        return candidates;
+    }
+
+    private static int[] intersect(final int[] first, final int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    // distinct trigrams of the key, each packed into a long
+    private static long[] grams(final String key) {
+        if (key.length() < GRAM_LENGTH) {
+            return new long[0];
+        }
+
+        long[] grams = new long[key.length() - GRAM_LENGTH + 1];
+
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) key.charAt(i) << 32) | ((long) key.charAt(i + 1) << 16) | key.charAt(i + 2);
+        }
+
+        Arrays.sort(grams);
+
+        int size = 0;
+
+        for (int i = 0; i < grams.length; i++) {
+            if (size == 0 || grams[size - 1] != grams[i]) {
+                grams[size++] = grams[i];
+            }
+        }
+
+        return Arrays.copyOf(grams, size);
+    }
+
+    // open addressing hash table numbering distinct trigrams
+    private static final class GramTable {
+
+        private static final long EMPTY = -1L;
+
+        private long[] slots;
+
+        private int[] numbers;
+
+        private int size;
+
+        private GramTable(final int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+
+            slots = new long[capacity];
+            numbers = new int[capacity];
+            Arrays.fill(slots, EMPTY);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int get(final long gram) {
+            int mask = slots.length - 1;
+
+            for (int slot = hash(gram) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (slots[slot] == gram) {
+                    return numbers[slot];
+                }
+            }
+
+            return -1;
+        }
+
+        private int putIfAbsent(final long gram) {
+            if ((size + 1) * 2 > slots.length) {
+                resize();
+            }
+
+            int mask = slots.length - 1;
+            int slot = hash(gram) & mask;
+
+            for (; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (slots[slot] == gram) {
+                    return numbers[slot];
+                }
+            }
+
+            slots[slot] = gram;
+            numbers[slot] = size;
+
+            return size++;
+        }
+
+        private void resize() {
+            long[] oldSlots = slots;
+            int[] oldNumbers = numbers;
+
+            slots = new long[oldSlots.length * 2];
+            numbers = new int[oldSlots.length * 2];
+            Arrays.fill(slots, EMPTY);
+
+            int mask = slots.length - 1;
+
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != EMPTY) {
+                    int slot = hash(oldSlots[i]) & mask;
+
+                    while (slots[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    slots[slot] = oldSlots[i];
+                    numbers[slot] = oldNumbers[i];
+                }
+            }
+        }
+
+        private static int hash(final long gram) {
+            long hash = gram * 0x9E3779B97F4A7C15L;
+
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+    }
+
+    private static final class Match<T> {
+
+        private static final Comparator<Match<?>> COMPARATOR = Comparator.<Match<?>> comparingInt(match -> match.rank)
+                .thenComparingInt(match -> match.key.length()).thenComparing(match -> match.key);
+
+        private final int rank;
+
+        private final String key;
+
+        private final T value;
+
+        private Match(final int rank, final String key, final T value) {
+            this.rank = rank;
+            this.key = key;
+            this.value = value;
+        }
+
+        private T getValue() {
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Comparator<Match<T>> comparator() {
+            return (Comparator<Match<T>>) (Comparator<?>) COMPARATOR;
+        }
+
+        private static boolean isBetter(final int rank, final String key, final Match<?> worst) {
+            if (rank != worst.rank) {
+                return rank < worst.rank;
+            }
+            if (key.length() != worst.key.length()) {
+                return key.length() < worst.key.length();
+            }
+
+            return key.compareTo(worst.key) < 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print;
+
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.web.servlet.view.AbstractView;
+
+/**
+ * Base of xlsx reports generated on request, which write rows straight to the response with constant memory.
+ *
+ * @see StreamingXlsxDocumentService
+ */
+public abstract class AbstractStreamingXlsxView extends AbstractView {
+
+    public AbstractStreamingXlsxView() {
+        setContentType(StreamingXlsxDocumentService.XLSX_CONTENT_TYPE);
+    }
+
+    @Override
+    protected boolean generatesDownloadContent() {
+        return true;
+    }
+
+    @Override
+    protected final void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+            final HttpServletResponse response) throws Exception {
+        SXSSFWorkbook workbook = StreamingXlsxDocumentService.createWorkbook();
+
+        try {
+            buildExcelDocument(model, workbook, request, response);
+
+            response.setContentType(getContentType());
+
+            ServletOutputStream outputStream = response.getOutputStream();
+
+            workbook.write(outputStream);
+            outputStream.flush();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    protected abstract void buildExcelDocument(final Map<String, Object> model, final SXSSFWorkbook workbook,
+            final HttpServletRequest request, final HttpServletResponse response) throws Exception;
+
+}
@@ -0,0 +1,111 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Base of saved xlsx reports written by streaming workbook.
+ *
+ * Only last {@link #ROW_ACCESS_WINDOW_SIZE} rows of a sheet are kept in memory, older rows are flushed to a temporary file,
+ * so reports aren't limited by heap size nor by 65536 rows of a xls sheet. Rows have to be created in ascending order and
+ * flushed rows can't be read again. Generated report is saved as fileName of the entity with xlsx extension and may be
+ * downloaded from {@link #getReportUrl(String, String, Long)}.
+ */
+public abstract class StreamingXlsxDocumentService {
+
+    public static final String XLSX_EXTENSION = "xlsx";
+
+    public static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    protected static final int ROW_ACCESS_WINDOW_SIZE = 100;
+
+    private static final String L_FILE_NAME = "fileName";
+
+    public void generateDocument(final Entity entity, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = createWorkbook();
+
+        try (OutputStream outputStream = new FileOutputStream(getReportFileName(entity))) {
+            Sheet sheet = createSheet(workbook, getReportTitle(locale));
+
+            addHeader(sheet, locale, entity);
+            addSeries(sheet, entity);
+            addExtraSheets(workbook, entity, locale);
+
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    public static SXSSFWorkbook createWorkbook() {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
+
+        workbook.setCompressTempFiles(true);
+
+        return workbook;
+    }
+
+    /**
+     * Creates sheet which columns may be auto sized, widths of columns are computed while rows are flushed.
+     */
+    public static Sheet createSheet(final Workbook workbook, final String sheetName) {
+        Sheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
+
+        if (sheet instanceof SXSSFSheet) {
+            ((SXSSFSheet) sheet).trackAllColumnsForAutoSizing();
+        }
+
+        return sheet;
+    }
+
+    public static String getReportFileName(final Entity entity) {
+        return entity.getStringField(L_FILE_NAME) + "." + XLSX_EXTENSION;
+    }
+
+    public static String getReportUrl(final String pluginIdentifier, final String modelName, final Long id) {
+        return "/basic/generatedReport/" + pluginIdentifier + "/" + modelName + "." + XLSX_EXTENSION + "?id=" + id;
+    }
+
+    public abstract String getReportTitle(final Locale locale);
+
+    protected abstract void addHeader(final Sheet sheet, final Locale locale, final Entity entity);
+
+    protected abstract void addSeries(final Sheet sheet, final Entity entity);
+
+    protected void addExtraSheets(final Workbook workbook, final Entity entity, final Locale locale) {
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.OptionalLong;
+
+import com.google.common.base.Preconditions;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+/**
+ * Immutable index of working intervals of a production line within a fixed window.
+ *
+ * Intervals are kept merged and sorted in primitive arrays together with prefix sums of working time, so both adding working
+ * time to a date and measuring working time between two dates are binary searches.
+ */
+public final class ShiftCalendarIndex {
+
+    private final long windowFrom;
+
+    private final long windowTo;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    // prefix[i] - working millis of intervals 0..i-1, prefix.length == starts.length + 1
+    private final long[] prefix;
+
+    private ShiftCalendarIndex(final long windowFrom, final long windowTo, final long[] starts, final long[] ends) {
+        this.windowFrom = windowFrom;
+        this.windowTo = windowTo;
+        this.starts = starts;
+        this.ends = ends;
+        this.prefix = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            prefix[i + 1] = prefix[i] + ends[i] - starts[i];
+        }
+    }
+
+    public static ShiftCalendarIndex build(final long windowFrom, final long windowTo, final Collection<DateTimeRange> ranges) {
+        Preconditions.checkArgument(windowFrom <= windowTo, "Window lower bound is after upper bound.");
+
+        long[][] clipped = new long[ranges.size()][];
+        int size = 0;
+
+        for (DateTimeRange range : ranges) {
+            long from = Math.max(range.getFrom().getMillis(), windowFrom);
+            long to = Math.min(range.getTo().getMillis(), windowTo);
+
+            if (from < to) {
+                clipped[size++] = new long[] { from, to };
+            }
+        }
+
+        Arrays.sort(clipped, 0, size, (first, second) -> Long.compare(first[0], second[0]));
+
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            long[] interval = clipped[i];
+
+            if (count > 0 && interval[0] <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], interval[1]);
+            } else {
+                starts[count] = interval[0];
+                ends[count] = interval[1];
+                count++;
+            }
+        }
+
+        return new ShiftCalendarIndex(windowFrom, windowTo, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    public long getWindowFrom() {
+        return windowFrom;
+    }
+
+    public long getWindowTo() {
+        return windowTo;
+    }
+
+    public boolean covers(final long from, final long to) {
+        return windowFrom <= from && to <= windowTo;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns working millis between the given moments, both clipped to the index window.
+     */
+    public long getWorkingMillisBetween(final long from, final long to) {
+        if (to <= from) {
+            return 0L;
+        }
+
+        return getWorkingMillisBefore(to) - getWorkingMillisBefore(from);
+    }
+
+    /**
+     * Returns the moment at which given amount of working millis counted from the given moment elapses, or empty when the
+     * index window ends earlier.
+     */
+    public OptionalLong addWorkingMillis(final long from, final long millis) {
+        if (millis <= 0L) {
+            return OptionalLong.of(from);
+        }
+
+        long target = getWorkingMillisBefore(from) + millis;
+
+        if (target > prefix[starts.length]) {
+            return OptionalLong.empty();
+        }
+
+        int index = firstPrefixNotLessThan(target) - 1;
+
+        return OptionalLong.of(starts[index] + target - prefix[index]);
+    }
+
+    /**
+     * Returns the given moment if it is a working one, the start of the nearest working interval after it, or empty when
+     * there is no working interval till the end of the index window.
+     */
+    public OptionalLong getNearestWorkingMillis(final long from) {
+        int index = lastStartNotGreaterThan(from);
+
+        if (index >= 0 && from < ends[index]) {
+            return OptionalLong.of(from);
+        }
+
+        if (index + 1 < starts.length) {
+            return OptionalLong.of(starts[index + 1]);
+        }
+
+        return OptionalLong.empty();
+    }
+
+    private long getWorkingMillisBefore(final long moment) {
+        int index = lastStartNotGreaterThan(moment);
+
+        if (index < 0) {
+            return 0L;
+        }
+
+        return prefix[index] + Math.min(moment, ends[index]) - starts[index];
+    }
+
+    private int lastStartNotGreaterThan(final long moment) {
+        int low = 0;
+        int high = starts.length - 1;
+        int result = -1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+
+            if (starts[middle] <= moment) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return result;
+    }
+
+    private int firstPrefixNotLessThan(final long value) {
+        int low = 1;
+        int high = starts.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (prefix[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs queries which results are too big to be kept in memory, rows are passed to the given handler while they are read.
+ *
+ * PostgreSQL driver reads rows by cursor only inside a transaction, so queries join the current transaction or are run in
+ * a new read only one.
+ */
+@Service
+public class CursorQueryService {
+
+    public static final int FETCH_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(((JdbcTemplate) jdbcTemplate.getJdbcOperations()).getDataSource());
+
+        cursorTemplate.setFetchSize(FETCH_SIZE);
+
+        cursorJdbcTemplate = new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+
+    public void query(final String query, final Map<String, ?> parameters, final RowCallbackHandler rowCallbackHandler) {
+        query(query, new MapSqlParameterSource(parameters), rowCallbackHandler);
+    }
+
+    public void query(final String query, final SqlParameterSource parameters, final RowCallbackHandler rowCallbackHandler) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        transactionTemplate.setReadOnly(true);
+
+        transactionTemplate.execute(status -> {
+            cursorJdbcTemplate.query(query, parameters, rowCallbackHandler);
+
+            return null;
+        });
+    }
+
+}
@@ -41,6 +41,7 @@ QCD.dashboard = (function () {
 		registerChart();
 		registerButtons();
 		registerKanban();
+		registerKanbanRefresh();
 	}
 
 	function registerChart() {
@@ -127,7 +128,52 @@ QCD.dashboard = (function () {
     }
 
     function registerKanban() {
+        renderKanban();
+
+        $("#dashboardKanban .card.bg-light").each(function(index, element){
+            $(this).fadeIn((index + 1) * 250);
+        });
+    }
+
+    function registerKanbanRefresh() {
+        if (!$('#dashboardKanban').length) {
+            return;
+        }
+
+        // the snapshot is sent only when it has changed, otherwise the server answers 304 Not Modified
+        setInterval(refreshKanban, 15000);
+    }
+
+    function refreshKanban() {
+        $.ajax({
+            url : "/rest/dashboardKanban/snapshot",
+            type : "GET",
+            ifModified : true,
+            success : function(data, status) {
+                if (status === "notmodified" || !data) {
+                    return;
+                }
+
+                QCD.dashboardContext.ordersPending = data.ordersPending;
+                QCD.dashboardContext.ordersInProgress = data.ordersInProgress;
+                QCD.dashboardContext.ordersCompleted = data.ordersCompleted;
+
+                QCD.dashboardContext.operationalTasksPending = data.operationalTasksPending;
+                QCD.dashboardContext.operationalTasksInProgress = data.operationalTasksInProgress;
+                QCD.dashboardContext.operationalTasksCompleted = data.operationalTasksCompleted;
+
+                renderKanban();
+            },
+            error : function(data) {
+                console.log("error")
+            }
+        });
+    }
+
+    function renderKanban() {
         if ($('#dashboardKanban #ordersPending').length) {
+            $('#ordersPending, #ordersInProgress, #ordersCompleted').empty();
+
             $.each(QCD.dashboardContext.getOrdersPending(), function (i, order) {
                 appendOrder('ordersPending', order);
             });
@@ -140,6 +186,8 @@ QCD.dashboard = (function () {
             updateDropzones();
         }
         if ($('#dashboardKanban #operationalTasksPending').length) {
+            $('#operationalTasksPending, #operationalTasksInProgress, #operationalTasksCompleted').empty();
+
             $.each(QCD.dashboardContext.getOperationalTasksPending(), function (i, operationalTask) {
                 appendOperationalTask('operationalTasksPending', operationalTask);
             });
@@ -151,10 +199,6 @@ QCD.dashboard = (function () {
             });
         }
 
-        $("#dashboardKanban .card.bg-light").each(function(index, element){
-            $(this).fadeIn((index + 1) * 250);
-        });
-
         $("#dashboardKanban .items .card").hover(
             function() {
                 $(this).addClass('shadow-sm');
@@ -0,0 +1,164 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+import com.qcadoo.mes.basic.lookup.LookupResult;
+
+public class LookupIndexServiceTest {
+
+    private static final String L_TENANT_A = "mes.tenant_a";
+
+    private static final String L_TENANT_B = "mes.tenant_b";
+
+    private LookupIndexService lookupIndexService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private CurrentTenantService currentTenantService;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        lookupIndexService = new LookupIndexService();
+
+        ReflectionTestUtils.setField(lookupIndexService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(lookupIndexService, "currentTenantService", currentTenantService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldKeepSeparateIndexesOfTenants() {
+        // given
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(product(1L, "BOLT-M8")));
+
+        LookupResult<ProductDTO> tenantAResult = lookupIndexService.searchProducts("bolt", 10);
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_B);
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(product(1L, "NUT-M8")));
+
+        // when
+        LookupResult<ProductDTO> tenantBBoltResult = lookupIndexService.searchProducts("bolt", 10);
+        LookupResult<ProductDTO> tenantBNutResult = lookupIndexService.searchProducts("nut", 10);
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+
+        LookupResult<ProductDTO> tenantANutResult = lookupIndexService.searchProducts("nut", 10);
+        LookupResult<ProductDTO> tenantABoltResult = lookupIndexService.searchProducts("bolt", 10);
+
+        // then
+        verify(jdbcTemplate, times(2)).query(anyString(), anyMap(), any(RowMapper.class));
+
+        assertEquals(Lists.newArrayList("BOLT-M8"), numbers(tenantAResult));
+        assertEquals(0, tenantBBoltResult.getCount());
+        assertEquals(Lists.newArrayList("NUT-M8"), numbers(tenantBNutResult));
+        assertEquals(0, tenantANutResult.getCount());
+        assertEquals(Lists.newArrayList("BOLT-M8"), numbers(tenantABoltResult));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldLoadChangesOnlyForTenantWhichChangedRows() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(product(1L, "BOLT-M8")));
+        given(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(product(1L, "BOLT-M10")));
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+        lookupIndexService.searchProducts("bolt", 10);
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_B);
+        lookupIndexService.searchProducts("bolt", 10);
+
+        lookupIndexService.onChanged(BasicConstants.MODEL_PRODUCT, 1L);
+
+        // when
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+
+        LookupResult<ProductDTO> tenantAResult = lookupIndexService.searchProducts("bolt", 10);
+
+        verify(jdbcTemplate, never()).query(anyString(), any(SqlParameterSource.class), any(RowMapper.class));
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_B);
+
+        LookupResult<ProductDTO> tenantBResult = lookupIndexService.searchProducts("bolt", 10);
+
+        // then
+        ArgumentCaptor<SqlParameterSource> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource.class);
+
+        verify(jdbcTemplate).query(anyString(), parametersCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(((Collection<Long>) parametersCaptor.getValue().getValue("ids")).contains(1L));
+        assertEquals(Lists.newArrayList("BOLT-M8"), numbers(tenantAResult));
+        assertEquals(Lists.newArrayList("BOLT-M10"), numbers(tenantBResult));
+    }
+
+    private ProductDTO product(final Long id, final String number) {
+        ProductDTO product = new ProductDTO();
+
+        product.setId(id);
+        product.setCode(number);
+        product.setNumber(number);
+
+        return product;
+    }
+
+    private List<String> numbers(final LookupResult<ProductDTO> result) {
+        return result.getValues().stream().map(ProductDTO::getNumber).collect(Collectors.toList());
+    }
+
+}
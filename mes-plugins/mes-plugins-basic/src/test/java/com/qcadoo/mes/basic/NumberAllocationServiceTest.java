@@ -0,0 +1,256 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+
+public class NumberAllocationServiceTest {
+
+    private static final String L_PLUGIN_IDENTIFIER = "basic";
+
+    private static final String L_MODEL_NAME = "palletNumber";
+
+    private static final String L_TENANT_A = "mes.public";
+
+    private static final String L_TENANT_B = "mes.other";
+
+    private static final int L_THREADS = 8;
+
+    private static final int L_ALLOCATIONS_PER_THREAD = 500;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private CurrentTenantService currentTenantService;
+
+    // counter row of numberSequence, shared by all application instances
+    private final AtomicLong lastNumber = new AtomicLong();
+
+    private final AtomicInteger reservations = new AtomicInteger();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        given(jdbcTemplate.queryForList(startsWith("UPDATE basic_numbersequence"), any(SqlParameterSource.class),
+                eq(Long.class))).willAnswer(invocation -> {
+                    MapSqlParameterSource parameters = (MapSqlParameterSource) invocation.getArguments()[1];
+
+                    reservations.incrementAndGet();
+
+                    return Lists.newArrayList(lastNumber.addAndGet((Integer) parameters.getValue("size")));
+                });
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+    }
+
+    private NumberAllocationService createNumberAllocationService() {
+        NumberAllocationService numberAllocationService = new NumberAllocationService();
+
+        ReflectionTestUtils.setField(numberAllocationService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(numberAllocationService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(numberAllocationService, "currentTenantService", currentTenantService);
+
+        return numberAllocationService;
+    }
+
+    @Test
+    public final void shouldAllocatePaddedNumbersFromReservedBlock() {
+        // given
+        NumberAllocationService numberAllocationService = createNumberAllocationService();
+
+        // when
+        String first = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+        List<String> next = numberAllocationService.allocateNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6, null, 3);
+        String withPrefix = numberAllocationService.allocateNumberWithPrefix(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, "MO-");
+
+        // then
+        assertEquals("000001", first);
+        assertEquals(Lists.newArrayList("000002", "000003", "000004"), next);
+        assertEquals("MO-021", withPrefix);
+        assertEquals(2, reservations.get());
+    }
+
+    @Test
+    public final void shouldSkipNumbersAlreadyUsedInModel() {
+        // given
+        NumberAllocationService numberAllocationService = createNumberAllocationService();
+
+        given(jdbcTemplate.queryForList(startsWith("SELECT number FROM basic_palletnumber"), any(SqlParameterSource.class),
+                eq(String.class))).willReturn(Lists.newArrayList("000002", "000003"), Lists.newArrayList());
+
+        // when
+        List<String> numbers = numberAllocationService.allocateNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6, null, 3);
+
+        // then
+        assertEquals(Lists.newArrayList("000001", "000004", "000005"), numbers);
+    }
+
+    @Test
+    public final void shouldReserveBlockForBulkAllocationAtOnce() {
+        // given
+        NumberAllocationService numberAllocationService = createNumberAllocationService();
+
+        // when
+        List<String> numbers = numberAllocationService.allocateNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6, null, 150);
+
+        // then
+        assertEquals(150, numbers.size());
+        assertEquals("000150", numbers.get(149));
+        assertEquals(1, reservations.get());
+    }
+
+    @Test
+    public final void shouldKeepBlocksPerTenant() {
+        // given
+        NumberAllocationService numberAllocationService = createNumberAllocationService();
+
+        // when
+        String first = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_B);
+
+        String otherTenant = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+
+        String second = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+
+        // then
+        assertEquals("000001", first);
+        assertEquals("000021", otherTenant);
+        assertEquals("000002", second);
+        assertEquals(2, reservations.get());
+    }
+
+    @Test
+    public final void shouldDropBlockUsedByRolledBackTransaction() {
+        // given
+        NumberAllocationService numberAllocationService = createNumberAllocationService();
+
+        // when
+        String committed = allocateNumberInTransaction(numberAllocationService, TransactionSynchronization.STATUS_COMMITTED);
+        String afterCommit = allocateNumberInTransaction(numberAllocationService, TransactionSynchronization.STATUS_ROLLED_BACK);
+        String afterRollback = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+
+        // then
+        assertEquals("000001", committed);
+        assertEquals("000002", afterCommit);
+        assertEquals("000021", afterRollback);
+        assertEquals(2, reservations.get());
+    }
+
+    private String allocateNumberInTransaction(final NumberAllocationService numberAllocationService, final int status) {
+        TransactionSynchronizationManager.initSynchronization();
+
+        try {
+            String number = numberAllocationService.allocateNumber(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 6);
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(status));
+
+            return number;
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public final void shouldNeverAllocateSameNumberConcurrently() throws Exception {
+        // given
+        List<NumberAllocationService> instances = Lists.newArrayList(createNumberAllocationService(),
+                createNumberAllocationService());
+        Set<String> numbers = ConcurrentHashMap.newKeySet();
+        AtomicInteger allocated = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(L_THREADS);
+        List<Future<?>> futures = Lists.newArrayList();
+
+        // when
+        for (int thread = 0; thread < L_THREADS; thread++) {
+            NumberAllocationService numberAllocationService = instances.get(thread % instances.size());
+            int quantity = (thread % 3) + 1;
+
+            futures.add(executorService.submit(() -> {
+                start.await();
+
+                for (int allocation = 0; allocation < L_ALLOCATIONS_PER_THREAD; allocation++) {
+                    List<String> allocatedNumbers = numberAllocationService.allocateNumbers(L_PLUGIN_IDENTIFIER,
+                            L_MODEL_NAME, 6, null, quantity);
+
+                    allocated.addAndGet(allocatedNumbers.size());
+                    numbers.addAll(allocatedNumbers);
+                }
+
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executorService.shutdown();
+
+        // then
+        assertEquals(allocated.get(), numbers.size());
+        assertTrue(numbers.size() <= lastNumber.get());
+    }
+
+}
@@ -25,10 +25,16 @@ package com.qcadoo.mes.basic;
 
 import static com.qcadoo.mes.basic.constants.BasicConstants.MODEL_PARAMETER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.Collections;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -40,6 +46,7 @@ import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.FieldDefinition;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchQueryBuilder;
@@ -57,11 +64,15 @@ public class ParameterServiceTest {
     @Mock
     private SearchQueryBuilder searchQueryBuilder;
 
+    @Mock
+    private CurrentTenantService currentTenantService;
+
     @Before
     public final void init() {
         MockitoAnnotations.initMocks(this);
         parameterService = new ParameterService();
         ReflectionTestUtils.setField(parameterService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(parameterService, "currentTenantService", currentTenantService);
 
         given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, MODEL_PARAMETER)).willReturn(parameterDD);
         given(parameterDD.find(Mockito.anyString())).willReturn(searchQueryBuilder);
@@ -135,4 +146,81 @@ public class ParameterServiceTest {
         parameterService.getParameter();
     }
 
+    @Test
+    public void shouldKeepParameterSnapshotPerTenant() throws Exception {
+        // given
+        FieldDefinition ppsIsAutomaticField = mock(FieldDefinition.class);
+        Entity tenantAParameter = parameter(1L, true);
+        Entity tenantBParameter = parameter(2L, false);
+
+        given(parameterDD.getFields()).willReturn(Collections.singletonMap("ppsIsAutomatic", ppsIsAutomaticField));
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_a");
+        given(searchQueryBuilder.uniqueResult()).willReturn(tenantAParameter);
+
+        ParameterSnapshot tenantASnapshot = parameterService.getParameterSnapshot();
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_b");
+        given(searchQueryBuilder.uniqueResult()).willReturn(tenantBParameter);
+
+        // when
+        ParameterSnapshot tenantBSnapshot = parameterService.getParameterSnapshot();
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_a");
+
+        ParameterSnapshot tenantASnapshotAgain = parameterService.getParameterSnapshot();
+
+        // then
+        verify(searchQueryBuilder, times(2)).uniqueResult();
+
+        assertTrue(tenantASnapshot.isPpsIsAutomatic());
+        assertFalse(tenantBSnapshot.isPpsIsAutomatic());
+        assertEquals(Long.valueOf(2L), tenantBSnapshot.getId());
+        assertSame(tenantASnapshot, tenantASnapshotAgain);
+    }
+
+    @Test
+    public void shouldInvalidateParameterSnapshotOnlyOfCurrentTenant() throws Exception {
+        // given
+        FieldDefinition ppsIsAutomaticField = mock(FieldDefinition.class);
+        Entity tenantAParameter = parameter(1L, true);
+        Entity tenantBParameter = parameter(2L, false);
+
+        given(parameterDD.getFields()).willReturn(Collections.singletonMap("ppsIsAutomatic", ppsIsAutomaticField));
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_a");
+        given(searchQueryBuilder.uniqueResult()).willReturn(tenantAParameter);
+
+        ParameterSnapshot tenantASnapshot = parameterService.getParameterSnapshot();
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_b");
+        given(searchQueryBuilder.uniqueResult()).willReturn(tenantBParameter);
+
+        parameterService.getParameterSnapshot();
+
+        // when
+        parameterService.invalidateParameterSnapshot();
+
+        parameterService.getParameterSnapshot();
+
+        given(currentTenantService.getTenant()).willReturn("mes.tenant_a");
+
+        ParameterSnapshot tenantASnapshotAgain = parameterService.getParameterSnapshot();
+
+        // then
+        verify(searchQueryBuilder, times(3)).uniqueResult();
+
+        assertSame(tenantASnapshot, tenantASnapshotAgain);
+    }
+
+    private Entity parameter(final Long id, final boolean ppsIsAutomatic) {
+        Entity parameter = mock(Entity.class);
+
+        given(parameter.getId()).willReturn(id);
+        given(parameter.getDataDefinition()).willReturn(parameterDD);
+        given(parameter.getField("ppsIsAutomatic")).willReturn(ppsIsAutomatic);
+
+        return parameter;
+    }
+
 }
@@ -24,16 +24,22 @@
 package com.qcadoo.mes.basic;
 
 import static junit.framework.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.when;
 
 import java.util.Date;
 
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.shift.ShiftCalendarIndex;
+import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -48,6 +54,9 @@ public class ShiftsServiceTest {
     @Mock
     private DataDefinition dataDefinition;
 
+    @Mock
+    private ShiftCalendarIndexService shiftCalendarIndexService;
+
     @Mock
     private Entity entity;
 
@@ -57,6 +66,7 @@ public class ShiftsServiceTest {
         MockitoAnnotations.initMocks(this);
 
         ReflectionTestUtils.setField(shiftsService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(shiftsService, "shiftCalendarIndexService", shiftCalendarIndexService);
     }
 
     @Test
@@ -135,4 +145,38 @@ public class ShiftsServiceTest {
         shiftsService.validateShiftHoursField(dataDefinition, entity);
         // then
     }
+
+    @Test
+    public void shouldCountOnlyPartsOfShiftsWithinPeriodAsAvailableTime() throws Exception {
+        // given
+        DateTime monday = new DateTime(2020, 3, 2, 0, 0);
+        ShiftCalendarIndex index = ShiftCalendarIndex.build(monday.getMillis(), monday.plusDays(2).getMillis(),
+                Lists.newArrayList(new DateTimeRange(monday.withHourOfDay(6), monday.withHourOfDay(14)),
+                        new DateTimeRange(monday.plusDays(1).withHourOfDay(6), monday.plusDays(1).withHourOfDay(14))));
+
+        when(shiftCalendarIndexService.hasShifts()).thenReturn(true);
+        when(shiftCalendarIndexService.getIndex(any(Entity.class), any(DateTime.class), anyBoolean())).thenReturn(index);
+
+        // when
+        long availableTime = shiftsService.getTotalAvailableTimeForProductionLine(monday.withHourOfDay(10).toDate(),
+                monday.plusDays(1).withHourOfDay(8).toDate(), entity);
+
+        // then
+        assertEquals(6 * 3600L, availableTime);
+    }
+
+    @Test
+    public void shouldReturnWholePeriodAsAvailableTimeWhenThereAreNoShifts() throws Exception {
+        // given
+        DateTime monday = new DateTime(2020, 3, 2, 0, 0);
+
+        when(shiftCalendarIndexService.hasShifts()).thenReturn(false);
+
+        // when
+        long availableTime = shiftsService.getTotalAvailableTimeForProductionLine(monday.withHourOfDay(10).toDate(),
+                monday.plusDays(1).withHourOfDay(8).toDate(), entity);
+
+        // then
+        assertEquals(22 * 3600L, availableTime);
+    }
 }
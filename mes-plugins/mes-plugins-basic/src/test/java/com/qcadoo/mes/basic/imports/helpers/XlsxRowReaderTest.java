@@ -0,0 +1,152 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.imports.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class XlsxRowReaderTest {
+
+    @Test
+    public final void shouldReadFormattedCellValuesOfRows() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        XSSFRow header = sheet.createRow(0);
+        header.createCell(0).setCellValue("number");
+        header.createCell(1).setCellValue("quantity");
+
+        XSSFRow row = sheet.createRow(1);
+        row.createCell(0).setCellValue("P1");
+        row.createCell(1).setCellValue(5);
+
+        // when
+        Map<Integer, String[]> rows = readRows(workbook, 2);
+
+        // then
+        assertEquals(Lists.newArrayList(0, 1), Lists.newArrayList(rows.keySet()));
+        assertArrayEquals(new String[] { "number", "quantity" }, rows.get(0));
+        assertArrayEquals(new String[] { "P1", "5" }, rows.get(1));
+    }
+
+    @Test
+    public final void shouldPassMissingAndBlankCellsAsNulls() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        XSSFRow row = sheet.createRow(0);
+        row.createCell(1).setCellValue("name");
+        row.createCell(2);
+        row.createCell(3).setCellValue("");
+        row.createCell(5).setCellValue("beyond columns");
+
+        // when
+        Map<Integer, String[]> rows = readRows(workbook, 4);
+
+        // then
+        assertArrayEquals(new String[] { null, "name", null, null }, rows.get(0));
+    }
+
+    @Test
+    public final void shouldPassBlankRowsAndSkipMissingRows() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        sheet.createRow(0).createCell(0).setCellValue("number");
+        sheet.createRow(1).createCell(0).setCellValue("P1");
+        sheet.createRow(2).createCell(0);
+        sheet.createRow(4).createCell(0).setCellValue("P4");
+
+        // when
+        Map<Integer, String[]> rows = readRows(workbook, 2);
+
+        // then
+        assertEquals(Lists.newArrayList(0, 1, 2, 4), Lists.newArrayList(rows.keySet()));
+        assertArrayEquals(new String[] { null, null }, rows.get(2));
+        assertArrayEquals(new String[] { "P4", null }, rows.get(4));
+    }
+
+    @Test
+    public final void shouldStopReadingWhenRowIsRejected() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        sheet.createRow(0).createCell(0).setCellValue("number");
+        sheet.createRow(1).createCell(0).setCellValue("P1");
+        sheet.createRow(2).createCell(0).setCellValue("P2");
+        sheet.createRow(3).createCell(0).setCellValue("P3");
+
+        Map<Integer, String[]> rows = Maps.newLinkedHashMap();
+
+        // when
+        XlsxRowReader.readRows(toInputStream(workbook), 1, (rowIndex, cellValues) -> {
+            rows.put(rowIndex, cellValues);
+
+            return rowIndex < 1;
+        });
+
+        // then
+        assertEquals(Lists.newArrayList(0, 1), Lists.newArrayList(rows.keySet()));
+    }
+
+    private Map<Integer, String[]> readRows(final XSSFWorkbook workbook, final int columnsCount) throws IOException {
+        Map<Integer, String[]> rows = Maps.newLinkedHashMap();
+
+        XlsxRowReader.readRows(toInputStream(workbook), columnsCount, (rowIndex, cellValues) -> {
+            rows.put(rowIndex, cellValues);
+
+            return true;
+        });
+
+        return rows;
+    }
+
+    private InputStream toInputStream(final XSSFWorkbook workbook) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        workbook.write(outputStream);
+        workbook.close();
+
+        return new ByteArrayInputStream(outputStream.toByteArray());
+    }
+
+}
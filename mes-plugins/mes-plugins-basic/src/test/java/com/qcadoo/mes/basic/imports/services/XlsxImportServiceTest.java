@@ -0,0 +1,282 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.imports.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.imports.dtos.CellBinder;
+import com.qcadoo.mes.basic.imports.dtos.CellBinderRegistry;
+import com.qcadoo.mes.basic.imports.dtos.ImportError;
+import com.qcadoo.mes.basic.imports.dtos.ImportStatus;
+import com.qcadoo.mes.basic.imports.helpers.BulkCellParser;
+import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
+import com.qcadoo.mes.basic.imports.helpers.CellParser;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionAspectSupport.class)
+@PowerMockIgnore({ "javax.xml.*", "org.xml.*", "org.w3c.*", "com.sun.org.apache.*" })
+public class XlsxImportServiceTest {
+
+    private static final String L_PLUGIN_IDENTIFIER = "basic";
+
+    private static final String L_MODEL_NAME = "product";
+
+    private static final String L_NUMBER = "number";
+
+    private static final String L_SUPPLIER = "supplier";
+
+    private static final int L_CHUNK_SIZE = 2;
+
+    private XlsxImportService xlsxImportService;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private DataDefinition dataDefinition;
+
+    @Mock
+    private Entity entity;
+
+    @Mock
+    private BulkCellParser supplierCellParser;
+
+    @Mock
+    private CellParser resolvedSupplierCellParser;
+
+    private CellBinderRegistry cellBinderRegistry;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(TransactionAspectSupport.class);
+
+        xlsxImportService = new XlsxImportService() {
+
+            @Override
+            protected int getChunkSize() {
+                return L_CHUNK_SIZE;
+            }
+
+        };
+
+        ReflectionTestUtils.setField(xlsxImportService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(xlsxImportService, "transactionManager", transactionManager);
+
+        given(TransactionAspectSupport.currentTransactionStatus()).willReturn(transactionStatus);
+        given(transactionManager.getTransaction(any(TransactionDefinition.class))).willReturn(transactionStatus);
+
+        given(dataDefinitionService.get(L_PLUGIN_IDENTIFIER, L_MODEL_NAME)).willReturn(dataDefinition);
+        given(dataDefinition.create()).willReturn(entity);
+        given(dataDefinition.save(entity)).willReturn(entity);
+        given(entity.getDataDefinition()).willReturn(dataDefinition);
+        given(entity.isValid()).willReturn(true);
+
+        given(supplierCellParser.resolve(anySetOf(String.class))).willReturn(resolvedSupplierCellParser);
+
+        cellBinderRegistry = new CellBinderRegistry();
+        cellBinderRegistry.setCellBinder(CellBinder.required(L_NUMBER));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(L_SUPPLIER, L_NUMBER, supplierCellParser));
+    }
+
+    @Test
+    public final void shouldMergeRowErrorsOfChunksAndRollbackOnError() throws IOException {
+        // given
+        File file = createFile(new String[][] { { L_NUMBER, L_SUPPLIER }, { "P1", "S1" }, { null, "S2" }, { "P3", "S1" },
+                { null, "S3" } });
+
+        // when
+        ImportStatus importStatus = importFile(file, true);
+
+        // then
+        assertEquals(4, importStatus.getRowsProcessed());
+        assertEquals(Sets.newHashSet(2, 4), getRowIndexesWithErrors(importStatus));
+
+        verify(supplierCellParser).resolve(Sets.newHashSet("S1", "S2"));
+        verify(supplierCellParser).resolve(Sets.newHashSet("S1", "S3"));
+        verify(dataDefinition, times(2)).save(entity);
+        verify(transactionStatus).setRollbackOnly();
+        verifyZeroInteractions(transactionManager);
+    }
+
+    @Test
+    public final void shouldCommitEachChunkInNewTransactionWithoutRollbackOnError() throws IOException {
+        // given
+        File file = createFile(new String[][] { { L_NUMBER, L_SUPPLIER }, { "P1", "S1" }, { null, "S2" }, { "P3", "S1" },
+                { null, "S3" }, { "P5", "S1" } });
+
+        ArgumentCaptor<TransactionDefinition> transactionDefinitionCaptor = ArgumentCaptor.forClass(TransactionDefinition.class);
+
+        // when
+        ImportStatus importStatus = importFile(file, false);
+
+        // then
+        assertEquals(5, importStatus.getRowsProcessed());
+        assertEquals(Sets.newHashSet(2, 4), getRowIndexesWithErrors(importStatus));
+
+        verify(transactionManager, times(3)).getTransaction(transactionDefinitionCaptor.capture());
+        verify(transactionManager, times(3)).commit(transactionStatus);
+        verify(transactionStatus, never()).setRollbackOnly();
+
+        for (TransactionDefinition transactionDefinition : transactionDefinitionCaptor.getAllValues()) {
+            assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, transactionDefinition.getPropagationBehavior());
+        }
+    }
+
+    @Test
+    public final void shouldPassDependentCellValueToResolvedParser() throws IOException {
+        // given
+        File file = createFile(new String[][] { { L_NUMBER, L_SUPPLIER }, { "P1", "S1" } });
+
+        // when
+        ImportStatus importStatus = importFile(file, true);
+
+        // then
+        assertEquals(1, importStatus.getRowsProcessed());
+
+        verify(resolvedSupplierCellParser).parse(eq("S1"), eq("P1"), any(CellErrorsAccessor.class), any(Consumer.class));
+        verify(supplierCellParser, never()).parse(any(String.class), any(String.class), any(CellErrorsAccessor.class),
+                any(Consumer.class));
+        verify(transactionStatus, never()).setRollbackOnly();
+    }
+
+    @Test
+    public final void shouldStopImportOnEmptyRow() throws IOException {
+        // given
+        File file = createFile(new String[][] { { L_NUMBER, L_SUPPLIER }, { "P1", "S1" }, { "P2", "S1" }, { "P3", "S1" },
+                { null, null }, { "P5", "S1" } });
+
+        // when
+        ImportStatus importStatus = importFile(file, true);
+
+        // then
+        assertEquals(3, importStatus.getRowsProcessed());
+
+        verify(entity, never()).setField(L_NUMBER, "P5");
+    }
+
+    @Test
+    public final void shouldStopImportOnMissingRow() throws IOException {
+        // given
+        File file = createFile(new String[][] { { L_NUMBER, L_SUPPLIER }, { "P1", "S1" }, null, { "P3", "S1" } });
+
+        // when
+        ImportStatus importStatus = importFile(file, true);
+
+        // then
+        assertEquals(1, importStatus.getRowsProcessed());
+
+        verify(entity, never()).setField(L_NUMBER, "P3");
+    }
+
+    private ImportStatus importFile(final File file, final boolean rollbackOnError) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            return xlsxImportService.importFile(fis, cellBinderRegistry, rollbackOnError, L_PLUGIN_IDENTIFIER, L_MODEL_NAME,
+                    null, null);
+        }
+    }
+
+    private Set<Integer> getRowIndexesWithErrors(final ImportStatus importStatus) {
+        return importStatus.getErrors().stream().map(ImportError::getRowIndex).collect(Collectors.toSet());
+    }
+
+    private File createFile(final String[][] rows) throws IOException {
+        File file = temporaryFolder.newFile("import.xlsx");
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); FileOutputStream fos = new FileOutputStream(file)) {
+            XSSFSheet sheet = workbook.createSheet();
+
+            for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+                if (rows[rowIndex] == null) {
+                    continue;
+                }
+
+                XSSFRow row = sheet.createRow(rowIndex);
+
+                for (int columnIndex = 0; columnIndex < rows[rowIndex].length; columnIndex++) {
+                    if (rows[rowIndex][columnIndex] == null) {
+                        row.createCell(columnIndex);
+                    } else {
+                        row.createCell(columnIndex).setCellValue(rows[rowIndex][columnIndex]);
+                    }
+                }
+            }
+
+            workbook.write(fos);
+        }
+
+        return file;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.lookup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class NgramIndexTest {
+
+    private NgramIndex<Entry<Long, String>> index;
+
+    @Before
+    public final void init() {
+        index = NgramIndex.build(Lists.newArrayList(entry(1L, "BOLT-M8x20"), entry(2L, "bolt-m8"), entry(3L, "NUT-M8"),
+                entry(4L, "WASHER-M8"), entry(5L, "SCREW-M10"), entry(6L, "m8")), Entry::getKey, Entry::getValue);
+    }
+
+    @Test
+    public final void shouldFindValuesContainingPhraseIgnoringCase() {
+        // when
+        LookupResult<Entry<Long, String>> result = index.search(LookupQuery.parse("Bolt"), 10);
+
+        // then
+        assertEquals(2, result.getCount());
+        assertEquals(Lists.newArrayList("bolt-m8", "BOLT-M8x20"), keys(result));
+    }
+
+    @Test
+    public final void shouldRankExactMatchesAndPrefixesFirst() {
+        // when
+        LookupResult<Entry<Long, String>> result = index.search(LookupQuery.parse("m8"), 3);
+
+        // then
+        assertEquals(5, result.getCount());
+        assertEquals(Lists.newArrayList("m8", "NUT-M8", "bolt-m8"), keys(result));
+    }
+
+    @Test
+    public final void shouldMatchWildcards() {
+        // when
+        LookupResult<Entry<Long, String>> result = index.search(LookupQuery.parse("bolt*20"), 10);
+
+        // then
+        assertEquals(Lists.newArrayList("BOLT-M8x20"), keys(result));
+    }
+
+    @Test
+    public final void shouldReturnNothingWhenTrigramIsMissing() {
+        // when
+        LookupResult<Entry<Long, String>> result = index.search(LookupQuery.parse("xyz"), 10);
+
+        // then
+        assertEquals(0, result.getCount());
+        assertEquals(Collections.emptyList(), result.getValues());
+    }
+
+    @Test
+    public final void shouldApplyChangesOverIndexedValues() {
+        // when
+        NgramIndex<Entry<Long, String>> changed = index.withChanges(
+                Lists.newArrayList(entry(3L, "NUT-M12"), entry(7L, "NUT-M8-A")), Lists.newArrayList(4L));
+        LookupResult<Entry<Long, String>> result = changed.search(LookupQuery.parse("-m8"), 10);
+
+        // then
+        assertEquals(Lists.newArrayList("bolt-m8", "NUT-M8-A", "BOLT-M8x20"), keys(result));
+        assertEquals(6, changed.size());
+        assertEquals(7L, changed.getMaxId());
+    }
+
+    private List<String> keys(final LookupResult<Entry<Long, String>> result) {
+        return result.getValues().stream().map(Entry::getValue).collect(Collectors.toList());
+    }
+
+    private Entry<Long, String> entry(final Long id, final String key) {
+        return new SimpleEntry<>(id, key);
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+public class ShiftCalendarIndexTest {
+
+    private static final DateTime MONDAY = new DateTime(2020, 3, 2, 0, 0);
+
+    private ShiftCalendarIndex index;
+
+    @Before
+    public final void init() {
+        // two days with 06:00-14:00 and overlapping 12:00-16:00 (merged into 06:00-16:00)
+        index = ShiftCalendarIndex.build(MONDAY.getMillis(), MONDAY.plusDays(2).getMillis(), Lists.newArrayList(
+                range(MONDAY.plusDays(1), 6, 14), range(MONDAY, 6, 14), range(MONDAY, 12, 16), range(MONDAY.plusDays(1), 12, 16)));
+    }
+
+    @Test
+    public final void shouldMergeOverlappingRanges() {
+        // then
+        assertEquals(2, index.size());
+        assertEquals(20 * 3600 * 1000L, index.getWorkingMillisBetween(MONDAY.getMillis(), MONDAY.plusDays(2).getMillis()));
+    }
+
+    @Test
+    public final void shouldCountWorkingTimeBetweenDates() {
+        // when
+        long millis = index.getWorkingMillisBetween(MONDAY.withHourOfDay(15).getMillis(),
+                MONDAY.plusDays(1).withHourOfDay(7).getMillis());
+
+        // then
+        assertEquals(2 * 3600 * 1000L, millis);
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeAcrossNonWorkingGap() {
+        // when
+        long dateTo = index.addWorkingMillis(MONDAY.withHourOfDay(15).getMillis(), 2 * 3600 * 1000L).getAsLong();
+
+        // then
+        assertEquals(MONDAY.plusDays(1).withHourOfDay(7).getMillis(), dateTo);
+    }
+
+    @Test
+    public final void shouldFinishAtEndOfRangeWhenWorkingTimeFitsExactly() {
+        // when
+        long dateTo = index.addWorkingMillis(MONDAY.withHourOfDay(6).getMillis(), 10 * 3600 * 1000L).getAsLong();
+
+        // then
+        assertEquals(MONDAY.withHourOfDay(16).getMillis(), dateTo);
+    }
+
+    @Test
+    public final void shouldReturnEmptyWhenWorkingTimeExceedsWindow() {
+        // then
+        assertFalse(index.addWorkingMillis(MONDAY.getMillis(), 21 * 3600 * 1000L).isPresent());
+    }
+
+    @Test
+    public final void shouldFindNearestWorkingDate() {
+        // then
+        assertEquals(MONDAY.withHourOfDay(6).getMillis(), index.getNearestWorkingMillis(MONDAY.getMillis()).getAsLong());
+        assertEquals(MONDAY.withHourOfDay(9).getMillis(),
+                index.getNearestWorkingMillis(MONDAY.withHourOfDay(9).getMillis()).getAsLong());
+        assertEquals(MONDAY.plusDays(1).withHourOfDay(6).getMillis(),
+                index.getNearestWorkingMillis(MONDAY.withHourOfDay(16).getMillis()).getAsLong());
+        assertFalse(index.getNearestWorkingMillis(MONDAY.plusDays(1).withHourOfDay(17).getMillis()).isPresent());
+    }
+
+    private DateTimeRange range(final DateTime day, final int hourFrom, final int hourTo) {
+        return new DateTimeRange(day.withHourOfDay(hourFrom), day.withHourOfDay(hourTo));
+    }
+
+}
@@ -1,10 +1,10 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.sourceCost;
 
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.DataFormat;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
 
 public class ReportStyleFactory {
 
@@ -16,21 +16,21 @@ public class ReportStyleFactory {
 
     private static final HorizontalAlignment RIGHT = HorizontalAlignment.RIGHT;
 
-    private HSSFCellStyle firstLeftWhite;
+    private CellStyle firstLeftWhite;
 
-    private HSSFCellStyle firstRightWhite;
+    private CellStyle firstRightWhite;
 
-    private HSSFCellStyle leftWhite;
+    private CellStyle leftWhite;
 
-    private HSSFCellStyle rightWhite;
+    private CellStyle rightWhite;
 
     private DataFormat dataFormat;
 
-    public ReportStyleFactory(final HSSFWorkbook workbook) {
+    public ReportStyleFactory(final Workbook workbook) {
         init(workbook);
     }
 
-    private void init(HSSFWorkbook workbook) {
+    private void init(Workbook workbook) {
         dataFormat = workbook.createDataFormat();
         firstLeftWhite = createStyle(workbook, true, LEFT);
         firstRightWhite = createStyle(workbook, true, RIGHT);
@@ -38,8 +38,8 @@ public class ReportStyleFactory {
         rightWhite = createStyle(workbook, false, RIGHT);
     }
 
-    private HSSFCellStyle createStyle(final HSSFWorkbook workbook, boolean isFirst, HorizontalAlignment horizontalAlignment) {
-        HSSFCellStyle style = workbook.createCellStyle();
+    private CellStyle createStyle(final Workbook workbook, boolean isFirst, HorizontalAlignment horizontalAlignment) {
+        CellStyle style = workbook.createCellStyle();
         if (isFirst) {
             style.setBorderTop(BorderStyle.THIN);
         }
@@ -50,7 +50,7 @@ public class ReportStyleFactory {
         return style;
     }
 
-    public HSSFCellStyle getStyle() {
+    public CellStyle getStyle() {
         if (isFirst) {
             if (alignment == LEFT) {
                 return firstLeftWhite;
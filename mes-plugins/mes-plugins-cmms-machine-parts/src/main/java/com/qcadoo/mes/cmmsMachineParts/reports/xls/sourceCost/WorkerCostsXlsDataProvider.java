@@ -3,14 +3,15 @@ package com.qcadoo.mes.cmmsMachineParts.reports.xls.sourceCost;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.CursorQueryService;
 import com.qcadoo.mes.cmmsMachineParts.constants.SourceCostReportFilterFields;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.sourceCost.dto.WorkerCostsDTO;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventStateStringValues;
@@ -20,7 +21,7 @@ import com.qcadoo.mes.cmmsMachineParts.states.constants.PlannedEventStateStringV
 public class WorkerCostsXlsDataProvider {
 
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private CursorQueryService cursorQueryService;
 
     private final static String plannedEventQuery = "SELECT cost.id as id, cost.number as sourcecost, worker.surname || ' ' || worker.name as worker,\n"
             + "event.number, event.type, realization.duration as worktime\n"
@@ -44,9 +45,11 @@ public class WorkerCostsXlsDataProvider {
             + allowedMaintenanceStates()
             + ")";
 
-    public List<WorkerCostsDTO> getCosts(Map<String, Object> filters) {
+    public void forEachCost(Map<String, Object> filters, Consumer<WorkerCostsDTO> workerCostConsumer) {
         String query = prepareQuery(filters, plannedEventQuery, maintenanceEventQuery);
-        return jdbcTemplate.query(query, filters, new WorkerCostsRowMapper());
+        WorkerCostsRowMapper rowMapper = new WorkerCostsRowMapper();
+        cursorQueryService.query(query, filters, resultSet -> workerCostConsumer.accept(rowMapper.mapRow(resultSet,
+                resultSet.getRow())));
     }
 
 
@@ -9,17 +9,19 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.security.constants.QcadooSecurityConstants;
-import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service public class WorkerCostsXlsService {
@@ -38,33 +40,50 @@ import java.util.stream.Collectors;
     @Autowired
     private EventFieldsForTypeFactory fieldsForTypeFactory;
 
+    private static final String L_FONT_ARIAL = "Arial";
+
     private ReportStyleFactory reportStyleFactory;
 
     public String getReportTitle(final Locale locale) {
         return translationService.translate(WorkerCostsXlsConstants.REPORT_TITLE, locale);
     }
 
-    public void buildExcelContent(final HSSFWorkbook workbook, final HSSFSheet sheet, Map<String, Object> filters,
+    public void buildExcelContent(final Workbook workbook, final Sheet sheet, Map<String, Object> filters,
             final Locale locale) {
         reportStyleFactory = new ReportStyleFactory(workbook);
-        List<WorkerCostsDTO> usages = workerCostsXLSDataProvider.getCosts((Map<String, Object>) filters.get("filtersMap"));
-        fillSums(usages);
         fillHeaderData(workbook, sheet, 0, locale, (Map<String, Object>) filters.get("filtersMap"));
         fillHeaderRow(workbook, sheet, 4, locale);
-        int rowCounter = 5;
-        fillUsages(workbook, sheet, usages, rowCounter, locale);
+
+        // rows are ordered by source cost, so only rows of the current source cost are kept until its sums are known
+        List<WorkerCostsDTO> group = Lists.newArrayList();
+        int[] rowCounter = { 5 };
+
+        workerCostsXLSDataProvider.forEachCost((Map<String, Object>) filters.get("filtersMap"), workerCost -> {
+            if (!group.isEmpty() && !Objects.equals(group.get(0).getSourceCost(), workerCost.getSourceCost())) {
+                rowCounter[0] = fillGroup(workbook, sheet, group, rowCounter[0], locale);
+            }
+            group.add(workerCost);
+        });
+        fillGroup(workbook, sheet, group, rowCounter[0], locale);
         setColumnsWidths(sheet);
     }
 
-    private void fillSums(List<WorkerCostsDTO> workerCosts) {
-        Map<String, List<WorkerCostsDTO>> groups = workerCosts.stream().collect(
-                Collectors.groupingBy(WorkerCostsDTO::getSourceCost));
-        for (Entry<String, List<WorkerCostsDTO>> group : groups.entrySet()) {
-            sumGroup(group.getValue());
-            Integer sum = group.getValue().stream().filter(g -> g.getWorkerTimeSum() != null)
-                    .mapToInt(WorkerCostsDTO::getWorkerTimeSum).sum();
-            group.getValue().get(0).setCostSourceTimeSum(sum);
+    private int fillGroup(final Workbook workbook, final Sheet sheet, final List<WorkerCostsDTO> group, int rowCounter,
+            final Locale locale) {
+        if (group.isEmpty()) {
+            return rowCounter;
         }
+        fillSums(group);
+        fillUsages(workbook, sheet, group, rowCounter, locale);
+        int nextRow = rowCounter + group.size();
+        group.clear();
+        return nextRow;
+    }
+
+    private void fillSums(List<WorkerCostsDTO> group) {
+        sumGroup(group);
+        Integer sum = group.stream().filter(g -> g.getWorkerTimeSum() != null).mapToInt(WorkerCostsDTO::getWorkerTimeSum).sum();
+        group.get(0).setCostSourceTimeSum(sum);
     }
 
 
@@ -76,7 +95,7 @@ import java.util.stream.Collectors;
         }
     }
 
-    private void setColumnsWidths(HSSFSheet sheet) {
+    private void setColumnsWidths(Sheet sheet) {
         sheet.setColumnWidth(0, 5000);
         sheet.setColumnWidth(1, 4000);
         sheet.setColumnWidth(2, 3500);
@@ -86,42 +105,42 @@ import java.util.stream.Collectors;
         sheet.setColumnWidth(6, 6000);
     }
 
-    private void fillHeaderData(final HSSFWorkbook workbook, final HSSFSheet sheet, Integer rowNum, final Locale locale,
+    private void fillHeaderData(final Workbook workbook, final Sheet sheet, Integer rowNum, final Locale locale,
             Map<String, Object> filters) {
         Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
+        font.setFontName(L_FONT_ARIAL);
         font.setFontHeightInPoints((short) 10);
         font.setBold(true);
-        HSSFCellStyle style = workbook.createCellStyle();
+        CellStyle style = workbook.createCellStyle();
         style.setFont(font);
 
-        HSSFRow titleRow = sheet.createRow(0);
-        HSSFCell titleCell = titleRow.createCell(0);
+        Row titleRow = sheet.createRow(0);
+        Cell titleCell = titleRow.createCell(0);
         titleCell.setCellValue(translationService.translate("cmmsMachineParts.workerCostsReport.report.title", locale));
         titleCell.setCellStyle(style);
 
-        HSSFRow datesRow = sheet.createRow(1);
-        HSSFCell startingFromLabelCell = datesRow.createCell(0);
+        Row datesRow = sheet.createRow(1);
+        Cell startingFromLabelCell = datesRow.createCell(0);
         startingFromLabelCell.setCellValue(translationService.translate("cmmsMachineParts.workerCostsReport.report.startingFrom",
                 locale));
         startingFromLabelCell.setCellStyle(style);
         if (filters.containsKey(SourceCostReportFilterFields.FROM_DATE)) {
-            HSSFCell startingFromCell = datesRow.createCell(1);
+            Cell startingFromCell = datesRow.createCell(1);
             startingFromCell.setCellValue(getDateOnly((Date) filters.get(SourceCostReportFilterFields.FROM_DATE)));
         }
-        HSSFCell toLabelCell = datesRow.createCell(2);
+        Cell toLabelCell = datesRow.createCell(2);
         toLabelCell.setCellValue(translationService.translate("cmmsMachineParts.workerCostsReport.report.to", locale));
         toLabelCell.setCellStyle(style);
         if (filters.containsKey(SourceCostReportFilterFields.TO_DATE)) {
-            HSSFCell toCell = datesRow.createCell(3);
+            Cell toCell = datesRow.createCell(3);
             toCell.setCellValue(getDateOnly((Date) filters.get(SourceCostReportFilterFields.TO_DATE)));
         }
 
-        HSSFRow authorRow = sheet.createRow(2);
-        HSSFCell authorLabelCell = authorRow.createCell(0);
+        Row authorRow = sheet.createRow(2);
+        Cell authorLabelCell = authorRow.createCell(0);
         authorLabelCell.setCellValue(translationService.translate("cmmsMachineParts.workerCostsReport.report.generatedBy", locale));
         authorLabelCell.setCellStyle(style);
-        HSSFCell authorCell = authorRow.createCell(1);
+        Cell authorCell = authorRow.createCell(1);
         authorCell.setCellValue(getUserString());
     }
 
@@ -137,14 +156,14 @@ import java.util.stream.Collectors;
         return builder.toString();
     }
 
-    private void fillHeaderRow(final HSSFWorkbook workbook, final HSSFSheet sheet, Integer rowNum, final Locale locale) {
-        HSSFRow headerLine = sheet.createRow(rowNum);
+    private void fillHeaderRow(final Workbook workbook, final Sheet sheet, Integer rowNum, final Locale locale) {
+        Row headerLine = sheet.createRow(rowNum);
         headerLine.setHeight((short) 800);
         Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
+        font.setFontName(L_FONT_ARIAL);
         font.setFontHeightInPoints((short) 10);
         font.setBold(false);
-        HSSFCellStyle style = workbook.createCellStyle();
+        CellStyle style = workbook.createCellStyle();
         style.setFont(font);
         style.setBorderBottom(BorderStyle.THIN);
         style.setBorderTop(BorderStyle.THIN);
@@ -158,27 +177,27 @@ import java.util.stream.Collectors;
 
         int colNumber = 0;
         for (String column : WorkerCostsXlsConstants.ALL_COLUMNS) {
-            HSSFCell headerCell = headerLine.createCell(colNumber);
+            Cell headerCell = headerLine.createCell(colNumber);
             headerCell.setCellValue(translationService.translate(column, locale));
             headerCell.setCellStyle(style);
             colNumber++;
         }
     }
 
-    private void fillUsages(final HSSFWorkbook workbook, final HSSFSheet sheet,
+    private void fillUsages(final Workbook workbook, final Sheet sheet,
  final List<WorkerCostsDTO> group,
             int rowCounter, final Locale locale) {
         Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
+        font.setFontName(L_FONT_ARIAL);
         font.setFontHeightInPoints((short) 10);
         font.setBold(false);
 
         int usagesCounter = 0;
 
         for (WorkerCostsDTO workerCost : group) {
-                HSSFRow usageRow = sheet.createRow(rowCounter + usagesCounter);
-            HSSFCellStyle style = getLeftAlignedStyle(workbook, workerCost.getWorkerTimeSum() != null);
-            HSSFCellStyle styleRight = getRightAlignedStyle(workbook, workerCost.getWorkerTimeSum() != null);
+                Row usageRow = sheet.createRow(rowCounter + usagesCounter);
+            CellStyle style = getLeftAlignedStyle(workbook, workerCost.getWorkerTimeSum() != null);
+            CellStyle styleRight = getRightAlignedStyle(workbook, workerCost.getWorkerTimeSum() != null);
                 addNewRow(usageRow, workerCost, locale, style, styleRight);
             if (workerCost.getWorkerTimeSum() != null) {
                 addNewCell(usageRow, workerCost.getWorkerTimeSum(), 5, styleRight);
@@ -193,8 +212,8 @@ import java.util.stream.Collectors;
 
     }
 
-    private void addNewRow(HSSFRow usageRow, WorkerCostsDTO timeUsage, Locale locale, HSSFCellStyle style,
-            HSSFCellStyle styleAlignRight) {
+    private void addNewRow(Row usageRow, WorkerCostsDTO timeUsage, Locale locale, CellStyle style,
+            CellStyle styleAlignRight) {
         addNewCell(usageRow, timeUsage.getSourceCost(), 0, style);
         addNewCell(usageRow, timeUsage.getWorker(), 1, style);
         addNewCell(usageRow, timeUsage.getEvent(), 2, style);
@@ -202,20 +221,20 @@ import java.util.stream.Collectors;
         addNewCell(usageRow, timeUsage.getWorkTime(), 4, styleAlignRight);
     }
 
-    private void addNewCell(HSSFRow row, String value, int column, HSSFCellStyle style) {
-        HSSFCell cell = row.createCell(column);
+    private void addNewCell(Row row, String value, int column, CellStyle style) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(value);
         cell.setCellStyle(style);
     }
 
-    private void addNewCell(HSSFRow row, Integer value, int column, HSSFCellStyle style) {
-        HSSFCell cell = row.createCell(column);
+    private void addNewCell(Row row, Integer value, int column, CellStyle style) {
+        Cell cell = row.createCell(column);
         cell.setCellType(Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(value / 86400.0D);
         cell.setCellStyle(style);
     }
 
-    private HSSFCellStyle getStyle(final HSSFWorkbook workbook, boolean isFirst, boolean isLeft) {
+    private CellStyle getStyle(final Workbook workbook, boolean isFirst, boolean isLeft) {
         reportStyleFactory.setFirst(isFirst);
         if (isLeft) {
             reportStyleFactory.setLeftAligned();
@@ -225,11 +244,11 @@ import java.util.stream.Collectors;
         return reportStyleFactory.getStyle();
     }
 
-    private HSSFCellStyle getRightAlignedStyle(final HSSFWorkbook workbook, boolean isFirst) {
+    private CellStyle getRightAlignedStyle(final Workbook workbook, boolean isFirst) {
         return getStyle(workbook, isFirst, false);
     }
 
-    private HSSFCellStyle getLeftAlignedStyle(final HSSFWorkbook workbook, boolean isFirst) {
+    private CellStyle getLeftAlignedStyle(final Workbook workbook, boolean isFirst) {
         return getStyle(workbook, isFirst, true);
     }
 
@@ -9,18 +9,19 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Component;
-import org.springframework.web.servlet.view.document.AbstractExcelView;
 
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.print.AbstractStreamingXlsxView;
+import com.qcadoo.mes.basic.print.StreamingXlsxDocumentService;
 
 @Component
-public class WorkerCostsXlsView  extends AbstractExcelView {
+public class WorkerCostsXlsView  extends AbstractStreamingXlsxView {
 
     @Autowired
     private WorkerCostsXlsService workerCostsXlsService;
@@ -30,12 +31,13 @@ public class WorkerCostsXlsView  extends AbstractExcelView {
 
     private final String localePrefix = "cmmsMachineParts.workerCostsReport.report.filename";
 
-    @Override protected void buildExcelDocument(Map<String, Object> filters, HSSFWorkbook hssfWorkbook,
+    @Override protected void buildExcelDocument(Map<String, Object> filters, SXSSFWorkbook workbook,
             HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse){
         String fileName = generateFilename();
-        httpServletResponse.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + ".xls\"");
-        HSSFSheet sheet = hssfWorkbook.createSheet(workerCostsXlsService.getReportTitle(LocaleContextHolder.getLocale()));
-        workerCostsXlsService.buildExcelContent(hssfWorkbook, sheet, filters, LocaleContextHolder.getLocale());
+        httpServletResponse.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "."
+                + StreamingXlsxDocumentService.XLSX_EXTENSION + "\"");
+        Sheet sheet = workbook.createSheet(workerCostsXlsService.getReportTitle(LocaleContextHolder.getLocale()));
+        workerCostsXlsService.buildExcelContent(workbook, sheet, filters, LocaleContextHolder.getLocale());
     }
 
     private String generateFilename() {
@@ -30,8 +30,11 @@ import com.qcadoo.mes.basic.util.CurrencyService;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
+import com.qcadoo.mes.costCalculation.print.CostCalculationProgressService;
+import com.qcadoo.mes.costCalculation.print.CostCalculationProgressService.Progress;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.*;
 import com.qcadoo.view.api.ribbon.RibbonActionItem;
@@ -76,6 +79,9 @@ public class CostCalculationDetailsHooks {
     @Autowired
     private NumberService numbersService;
 
+    @Autowired
+    private CostCalculationProgressService costCalculationProgressService;
+
     public void onBeforeRender(final ViewDefinitionState view) {
         fillOverheadsFromParameters(view);
         setFieldsEnabled(view);
@@ -262,6 +268,7 @@ public class CostCalculationDetailsHooks {
         boolean pdf = form.getPersistedEntityWithIncludedFormValues().getBooleanField(CostCalculationFields.PDF);
 
         boolean entityExists = form.getEntityId() != null;
+        boolean generationInProgress = entityExists && showGenerationProgress(form);
 
         if (entityExists) {
             CheckBoxComponent generatedField = (CheckBoxComponent) view.getComponentByReference(CostCalculationFields.GENERATED);
@@ -272,7 +279,12 @@ public class CostCalculationDetailsHooks {
             saveNominalCosts.setEnabled(generatedField.isChecked());
             saveNominalCosts.requestUpdate(true);
             if (generatedField.isChecked()) {
-                if (pdf) {
+                if (generationInProgress) {
+                    pdfButton.setEnabled(false);
+                    pdfButton.setMessage("costCalculation.ribbon.message.generationInProgress");
+                    xlsButton.setEnabled(false);
+                    xlsButton.setMessage("costCalculation.ribbon.message.generationInProgress");
+                } else if (pdf) {
                     pdfButton.setEnabled(true);
                     pdfButton.requestUpdate(true);
                 } else {
@@ -319,4 +331,27 @@ public class CostCalculationDetailsHooks {
         }
         cancel.requestUpdate(true);
     }
+
+    /**
+     * @return true if the report is still generated in background
+     */
+    private boolean showGenerationProgress(final FormComponent form) {
+        Progress progress = costCalculationProgressService.getProgress(form.getEntityId());
+
+        if (progress == null) {
+            return false;
+        }
+        if (progress.isFailed()) {
+            form.addMessage("costCalculation.messages.failure.generationFailed", MessageType.FAILURE);
+            costCalculationProgressService.clearFailure(form.getEntityId());
+
+            return false;
+        }
+
+        form.addMessage("costCalculation.messages.info.generationInProgress", MessageType.INFO, false,
+                String.valueOf(progress.getTechnologiesWithCalculatedMaterials()),
+                String.valueOf(progress.getCalculatedTechnologies()), String.valueOf(progress.getTechnologiesCount()));
+
+        return true;
+    }
 }
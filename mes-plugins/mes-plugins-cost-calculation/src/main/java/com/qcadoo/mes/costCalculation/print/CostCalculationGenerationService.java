@@ -0,0 +1,181 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.file.FileService;
+
+/**
+ * Generates cost calculation reports in background, so calculations of many technologies don't block the request which
+ * started them. Generations run on the application's async executor, in the tenant of the request which started them.
+ * Progress of the generation is available in {@link CostCalculationProgressService}.
+ */
+@Service
+public class CostCalculationGenerationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostCalculationGenerationService.class);
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CostCalculationXlsService costCalculationXlsService;
+
+    @Autowired
+    private CostCalculationProgressService costCalculationProgressService;
+
+    /**
+     * Starts generation of the given cost calculation once the current transaction is committed.
+     *
+     * @return false if generation of the given cost calculation is already in progress
+     */
+    public boolean generateAfterCommit(final Long costCalculationId, final Locale locale) {
+        if (!costCalculationProgressService.start(costCalculationId)) {
+            return false;
+        }
+
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // generated flag and date saved by the request have to be visible for the background transaction
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == STATUS_COMMITTED) {
+                        generate(costCalculationId, locale, securityContext);
+                    } else {
+                        costCalculationProgressService.finish(costCalculationId);
+                    }
+                }
+
+            });
+        } else {
+            generate(costCalculationId, locale, securityContext);
+        }
+
+        return true;
+    }
+
+    @Async
+    public void generate(final Long costCalculationId, final Locale locale, final SecurityContext securityContext) {
+        // when the executor is saturated the generation runs on the calling thread, so its context is restored afterwards
+        SecurityContext callerSecurityContext = SecurityContextHolder.getContext();
+
+        SecurityContextHolder.setContext(securityContext);
+
+        boolean generated = false;
+
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+            transactionTemplate.execute(status -> {
+                Entity costCalculation = getCostCalculationDD().get(costCalculationId);
+
+                Entity costCalculationWithFileName = fileService.updateReportFileName(costCalculation,
+                        CostCalculationFields.DATE, "costCalculation.costCalculation.report.fileName");
+
+                try {
+                    costCalculationXlsService.generateDocument(costCalculationWithFileName, locale);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+
+                return null;
+            });
+
+            generated = true;
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Generation of cost calculation %d failed", costCalculationId), e);
+        } finally {
+            // errors thrown by the generation have to end its progress as well, otherwise it stays in progress forever
+            if (generated) {
+                costCalculationProgressService.finish(costCalculationId);
+            } else {
+                costCalculationProgressService.fail(costCalculationId);
+
+                resetGenerated(costCalculationId);
+            }
+
+            SecurityContextHolder.setContext(callerSecurityContext);
+        }
+    }
+
+    private void resetGenerated(final Long costCalculationId) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        try {
+            transactionTemplate.execute(status -> {
+                Entity costCalculation = getCostCalculationDD().get(costCalculationId);
+
+                if (Objects.nonNull(costCalculation)) {
+                    costCalculation.setField(CostCalculationFields.GENERATED, false);
+                    costCalculation.setField(CostCalculationFields.DATE, null);
+                    costCalculation.setField(CostCalculationFields.FILE_NAME, null);
+
+                    costCalculation.getDataDefinition().save(costCalculation);
+                }
+
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Cost calculation %d could not be reset after failed generation", costCalculationId), e);
+        }
+    }
+
+    private DataDefinition getCostCalculationDD() {
+        return dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION);
+    }
+
+}
@@ -24,7 +24,9 @@
 package com.qcadoo.mes.costCalculation.print;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ParallelReadService;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.print.dto.CostCalculationMaterial;
 import com.qcadoo.mes.costCalculation.print.dto.MaterialCostKey;
@@ -32,16 +34,18 @@ import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
 import com.qcadoo.mes.technologies.constants.*;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
-import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class CostCalculationMaterialsService {
@@ -66,22 +70,57 @@ public class CostCalculationMaterialsService {
     @Autowired
     private ProductQuantitiesWithComponentsService productQuantitiesWithComponentsService;
 
+    @Autowired
+    private ParallelReadService parallelReadService;
+
+    @Autowired
+    private CostCalculationProgressService costCalculationProgressService;
+
+    /**
+     * Calculates materials of many technologies by the application's async executor, each technology in its own read only
+     * transaction. Product costs are shared by all technologies through the given price cache.
+     *
+     * Workers get only ids and read the cost calculation and the technology by themselves, so the cost calculation has to be
+     * committed before, as it is when reports are generated in background.
+     *
+     * @return materials by technology id, in order of the given technologies
+     */
+    public Map<Long, List<CostCalculationMaterial>> getSortedMaterialsFromProductQuantities(final Entity costCalculation,
+            final List<Entity> technologies, final CostCalculationPriceCache priceCache) {
+        Long costCalculationId = costCalculation.getId();
+        List<Long> technologyIds = technologies.stream().map(Entity::getId).collect(Collectors.toList());
+
+        return parallelReadService.read(technologyIds, technologyId -> {
+            List<CostCalculationMaterial> technologyMaterialCosts = getSortedMaterialsFromProductQuantities(
+                    getCostCalculation(costCalculationId), getTechnology(technologyId), priceCache);
+
+            costCalculationProgressService.materialsCalculated(costCalculationId);
+
+            return technologyMaterialCosts;
+        });
+    }
+
     public List<CostCalculationMaterial> getSortedMaterialsFromProductQuantities(final Entity costCalculation,
             final Entity technology) {
+        return getSortedMaterialsFromProductQuantities(costCalculation, technology,
+                new CostCalculationPriceCache(costCalculation));
+    }
+
+    public List<CostCalculationMaterial> getSortedMaterialsFromProductQuantities(final Entity costCalculation,
+            final Entity technology, final CostCalculationPriceCache priceCache) {
         List<CostCalculationMaterial> materialCosts = Lists.newArrayList();
         BigDecimal quantity = costCalculation.getDecimalField(CostCalculationFields.QUANTITY);
         Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = getNeededProductQuantitiesByOPC(
                 costCalculation, technology, quantity);
-        DataDefinition operationProductComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+        Map<Long, Entity> operationProductComponents = getOperationProductComponents(materialQuantitiesByOPC.keySet());
         String technologyNumber = technology.getStringField(TechnologyFields.NUMBER);
         String finalProductNumber = technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER);
         for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC.entrySet()) {
             Entity product = neededProductQuantity.getKey().getProduct();
-            Entity operationProductComponent = operationProductComponentDD
+            Entity operationProductComponent = operationProductComponents
                     .get(neededProductQuantity.getKey().getOperationProductComponentId());
-            BigDecimal costPerUnit = productsCostCalculationService.calculateOperationProductCostPerUnit(costCalculation, product,
-                    operationProductComponent);
+            BigDecimal costPerUnit = productsCostCalculationService.calculateOperationProductCostPerUnit(product,
+                    operationProductComponent, priceCache);
 
             BigDecimal productQuantity = neededProductQuantity.getValue();
             BigDecimal costForGivenQuantity = costPerUnit.multiply(productQuantity, numberService.getMathContext());
@@ -117,6 +156,31 @@ public class CostCalculationMaterialsService {
         return groupMaterialCosts(materialCosts);
     }
 
+    private Map<Long, Entity> getOperationProductComponents(final Collection<OperationProductComponentHolder> holders) {
+        Set<Long> operationProductComponentIds = holders.stream()
+                .map(OperationProductComponentHolder::getOperationProductComponentId).collect(Collectors.toSet());
+
+        if (operationProductComponentIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return dataDefinitionService
+                .get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT).find()
+                .add(SearchRestrictions.in("id", operationProductComponentIds)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, Function.identity()));
+    }
+
+    private Entity getCostCalculation(final Long costCalculationId) {
+        return dataDefinitionService
+                .get(CostCalculationConstants.PLUGIN_IDENTIFIER, CostCalculationConstants.MODEL_COST_CALCULATION)
+                .get(costCalculationId);
+    }
+
+    private Entity getTechnology(final Long technologyId) {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY)
+                .get(technologyId);
+    }
+
     private List<CostCalculationMaterial> groupMaterialCosts(List<CostCalculationMaterial> materialCosts) {
         List<CostCalculationMaterial> groupedMaterialCostsList = new ArrayList<>();
         Map<MaterialCostKey, CostCalculationMaterial> groupedMaterialCosts = new HashMap<>();
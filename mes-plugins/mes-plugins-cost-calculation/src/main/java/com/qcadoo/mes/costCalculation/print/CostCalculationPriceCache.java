@@ -0,0 +1,71 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.model.api.Entity;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Product costs per unit resolved during a single cost calculation run.
+ *
+ * Costs depend only on the product and on cost settings of the calculation, so materials repeated in many technologies are
+ * priced once. Safe for use by concurrent workers of the run.
+ */
+public class CostCalculationPriceCache {
+
+    private final String materialCostsUsed;
+
+    private final boolean useNominalCostPriceNotSpecified;
+
+    private final Map<Long, BigDecimal> productCostsPerUnit = new ConcurrentHashMap<>();
+
+    public CostCalculationPriceCache(final Entity costCalculation) {
+        this.materialCostsUsed = costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED);
+        this.useNominalCostPriceNotSpecified = costCalculation
+                .getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED);
+    }
+
+    public String getMaterialCostsUsed() {
+        return materialCostsUsed;
+    }
+
+    public boolean isUseNominalCostPriceNotSpecified() {
+        return useNominalCostPriceNotSpecified;
+    }
+
+    public BigDecimal getProductCostPerUnit(final Entity product, final Function<Entity, BigDecimal> costCalculator) {
+        if (Objects.isNull(product.getId())) {
+            return costCalculator.apply(product);
+        }
+
+        return productCostsPerUnit.computeIfAbsent(product.getId(), productId -> costCalculator.apply(product));
+    }
+
+}
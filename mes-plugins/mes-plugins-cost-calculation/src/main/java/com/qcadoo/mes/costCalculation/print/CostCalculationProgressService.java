@@ -0,0 +1,143 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks cost calculations generated in background, so the details view can show how many technologies were already
+ * calculated and whether the generation has failed.
+ */
+@Service
+public class CostCalculationProgressService {
+
+    private final Map<Long, Progress> progresses = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if generation of the given cost calculation is already in progress
+     */
+    public boolean start(final Long costCalculationId) {
+        Progress started = new Progress();
+
+        Progress current = progresses.compute(costCalculationId,
+                (id, progress) -> Objects.nonNull(progress) && progress.isInProgress() ? progress : started);
+
+        return current == started;
+    }
+
+    public void setTechnologiesCount(final Long costCalculationId, final int technologiesCount) {
+        Progress progress = progresses.get(costCalculationId);
+
+        if (Objects.nonNull(progress)) {
+            progress.technologiesCount = technologiesCount;
+        }
+    }
+
+    public void materialsCalculated(final Long costCalculationId) {
+        Progress progress = progresses.get(costCalculationId);
+
+        if (Objects.nonNull(progress)) {
+            progress.technologiesWithCalculatedMaterials.incrementAndGet();
+        }
+    }
+
+    public void technologyCalculated(final Long costCalculationId) {
+        Progress progress = progresses.get(costCalculationId);
+
+        if (Objects.nonNull(progress)) {
+            progress.calculatedTechnologies.incrementAndGet();
+        }
+    }
+
+    public void finish(final Long costCalculationId) {
+        progresses.remove(costCalculationId);
+    }
+
+    public void fail(final Long costCalculationId) {
+        Progress progress = progresses.get(costCalculationId);
+
+        if (Objects.nonNull(progress)) {
+            progress.failed = true;
+        }
+    }
+
+    public Progress getProgress(final Long costCalculationId) {
+        if (Objects.isNull(costCalculationId)) {
+            return null;
+        }
+
+        return progresses.get(costCalculationId);
+    }
+
+    public boolean isInProgress(final Long costCalculationId) {
+        Progress progress = getProgress(costCalculationId);
+
+        return Objects.nonNull(progress) && progress.isInProgress();
+    }
+
+    /**
+     * Removes progress of failed generation, once its failure was shown.
+     */
+    public void clearFailure(final Long costCalculationId) {
+        progresses.computeIfPresent(costCalculationId, (id, progress) -> progress.failed ? null : progress);
+    }
+
+    public static final class Progress {
+
+        private final AtomicInteger technologiesWithCalculatedMaterials = new AtomicInteger();
+
+        private final AtomicInteger calculatedTechnologies = new AtomicInteger();
+
+        private volatile int technologiesCount;
+
+        private volatile boolean failed;
+
+        public int getTechnologiesWithCalculatedMaterials() {
+            return technologiesWithCalculatedMaterials.get();
+        }
+
+        public int getCalculatedTechnologies() {
+            return calculatedTechnologies.get();
+        }
+
+        public int getTechnologiesCount() {
+            return technologiesCount;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public boolean isInProgress() {
+            return !failed;
+        }
+
+    }
+
+}
@@ -28,7 +28,6 @@ import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ComponentState.MessageType;
@@ -41,7 +40,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -52,13 +50,13 @@ public class CostCalculationReportService {
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private FileService fileService;
+    private ReportService reportService;
 
     @Autowired
-    private ReportService reportService;
+    private CostCalculationGenerationService costCalculationGenerationService;
 
     @Autowired
-    private CostCalculationXlsService costCalculationXlsService;
+    private CostCalculationProgressService costCalculationProgressService;
 
     public void printCostCalculationReport(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         reportService.printGeneratedReport(view, state, new String[] { args[0], CostCalculationConstants.PLUGIN_IDENTIFIER,
@@ -76,7 +74,8 @@ public class CostCalculationReportService {
                 state.addMessage("qcadooView.message.entityNotFound", MessageType.FAILURE);
 
                 return;
-            } else if (StringUtils.hasText(costCalculation.getStringField(CostCalculationFields.FILE_NAME))) {
+            } else if (StringUtils.hasText(costCalculation.getStringField(CostCalculationFields.FILE_NAME))
+                    || costCalculationProgressService.isInProgress(costCalculation.getId())) {
                 state.addMessage("qcadooReport.errorMessage.documentsWasNotGenerated", MessageType.FAILURE);
 
                 return;
@@ -100,20 +99,11 @@ public class CostCalculationReportService {
                 return;
             }
 
-            costCalculation = getCostCalculation((Long) state.getFieldValue());
-
-            try {
-                Entity costCalculationWithFileName = fileService.updateReportFileName(costCalculation, CostCalculationFields.DATE,
-                        "costCalculation.costCalculation.report.fileName");
+            costCalculationGenerationService.generateAfterCommit((Long) state.getFieldValue(), state.getLocale());
 
-                costCalculationXlsService.generateDocument(costCalculationWithFileName, state.getLocale());
-
-                state.performEvent(view, "reset");
-                view.getComponentByReference(QcadooViewConstants.L_FORM)
-                        .addMessage("costCalculation.messages.success.calculationComplete", MessageType.SUCCESS);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+            state.performEvent(view, "reset");
+            view.getComponentByReference(QcadooViewConstants.L_FORM)
+                    .addMessage("costCalculation.messages.info.generationStarted", MessageType.INFO);
         }
     }
 
@@ -75,6 +75,9 @@ public class CostCalculationXlsService extends XlsDocumentService {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private CostCalculationProgressService costCalculationProgressService;
+
     private static final List<String> CALCULATION_RESULTS_HEADERS = Lists.newArrayList("technologyNumber", "technologyName",
             "productNumber", "quantity", "unit", "materialCosts", "labourCost", "productionCosts", "materialCostMargin",
             "materialCostMarginValue", "labourCostMargin", "labourCostMarginValue", "additionalOverhead", "totalCost",
@@ -116,9 +119,14 @@ public class CostCalculationXlsService extends XlsDocumentService {
         HSSFSheet sheet = workbook.getSheetAt(0);
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        for (Entity technology : entity.getHasManyField(CostCalculationFields.TECHNOLOGIES)) {
-            List<CostCalculationMaterial> technologyMaterialCosts = costCalculationMaterialsService
-                    .getSortedMaterialsFromProductQuantities(entity, technology);
+        List<Entity> technologies = entity.getHasManyField(CostCalculationFields.TECHNOLOGIES);
+        CostCalculationPriceCache priceCache = new CostCalculationPriceCache(entity);
+        costCalculationProgressService.setTechnologiesCount(entity.getId(), technologies.size());
+        // materials of technologies are independent, operation costs rewrite operation tree of the calculation one by one
+        Map<Long, List<CostCalculationMaterial>> materialCostsByTechnology = costCalculationMaterialsService
+                .getSortedMaterialsFromProductQuantities(entity, technologies, priceCache);
+        for (Entity technology : technologies) {
+            List<CostCalculationMaterial> technologyMaterialCosts = materialCostsByTechnology.get(technology.getId());
             materialCosts.addAll(technologyMaterialCosts);
             BigDecimal technologyMaterialsCostsSum = BigDecimal.ZERO;
             boolean noMaterialPrice = false;
@@ -145,9 +153,10 @@ public class CostCalculationXlsService extends XlsDocumentService {
             }
             calculationResults.add(costCalculationService.createCalculationResults(entity, technology,
                     technologyMaterialsCostsSum, labourCost, noMaterialPrice));
+            costCalculationProgressService.technologyCalculated(entity.getId());
         }
         if (includeComponents) {
-            for (Entity technology : entity.getHasManyField(CostCalculationFields.TECHNOLOGIES)) {
+            for (Entity technology : technologies) {
                 Collection<ComponentsCalculationHolder> technologyComponentCosts = costCalculationComponentsService
                         .getComponentCosts(entity, technology, calculationOperationComponents);
                 componentCosts.addAll(technologyComponentCosts);
@@ -164,7 +173,7 @@ public class CostCalculationXlsService extends XlsDocumentService {
         createMaterialsBySizeSheet(entity,
                 createSheet(workbook,
                         translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialsBySize", locale)),
-                locale);
+                priceCache, locale);
         if (!SourceOfOperationCosts.STANDARD_LABOR_COSTS.equals(
                 SourceOfOperationCosts.parseString(entity.getStringField(CostCalculationFields.SOURCE_OF_OPERATION_COSTS)))) {
             createLabourCostSheet(calculationOperationComponents,
@@ -291,7 +300,8 @@ public class CostCalculationXlsService extends XlsDocumentService {
         }
     }
 
-    private void createMaterialsBySizeSheet(Entity entity, HSSFSheet sheet, Locale locale) {
+    private void createMaterialsBySizeSheet(Entity entity, HSSFSheet sheet, CostCalculationPriceCache priceCache,
+            Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
@@ -316,9 +326,7 @@ public class CostCalculationXlsService extends XlsDocumentService {
                 BasicConstants.MODEL_PRODUCT);
         for (CostCalculationMaterialBySize costCalculationMaterialBySize : costCalculationService.getMaterialsBySize(entity)) {
             Entity product = costCalculationMaterialBySize.getProductEntity(productDataDefinition);
-            BigDecimal costPerUnit = productsCostCalculationService.calculateProductCostPerUnit(product,
-                    entity.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                    entity.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED));
+            BigDecimal costPerUnit = productsCostCalculationService.calculateProductCostPerUnit(product, priceCache);
             row = sheet.createRow(rowOffset + rowCounter);
             createRegularCell(stylesContainer, row, 0, costCalculationMaterialBySize.getTechnologyNumber());
             createRegularCell(stylesContainer, row, 1, costCalculationMaterialBySize.getProductNumber());
@@ -31,7 +31,12 @@ public interface ProductsCostCalculationService {
 
     BigDecimal calculateOperationProductCostPerUnit(Entity costCalculation, Entity product, Entity operationProductComponent);
 
+    BigDecimal calculateOperationProductCostPerUnit(Entity product, Entity operationProductComponent,
+            CostCalculationPriceCache priceCache);
+
     BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
             final boolean useNominalCostPriceNotSpecified);
 
+    BigDecimal calculateProductCostPerUnit(final Entity product, final CostCalculationPriceCache priceCache);
+
 }
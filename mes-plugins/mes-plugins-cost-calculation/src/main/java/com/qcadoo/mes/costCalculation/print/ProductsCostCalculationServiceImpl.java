@@ -23,7 +23,6 @@
  */
 package com.qcadoo.mes.costCalculation.print;
 
-import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costNormsForMaterials.constants.ProductsCostFields;
 import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.ProductBySizeGroupFields;
@@ -46,6 +45,13 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
     @Override
     public BigDecimal calculateOperationProductCostPerUnit(Entity costCalculation, Entity product,
             Entity operationProductComponent) {
+        return calculateOperationProductCostPerUnit(product, operationProductComponent,
+                new CostCalculationPriceCache(costCalculation));
+    }
+
+    @Override
+    public BigDecimal calculateOperationProductCostPerUnit(final Entity product, final Entity operationProductComponent,
+            final CostCalculationPriceCache priceCache) {
         BigDecimal costPerUnit;
         if (operationProductComponent.getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES)) {
             List<Entity> productBySizeGroups = operationProductComponent
@@ -53,10 +59,8 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
             if (!productBySizeGroups.isEmpty()) {
                 BigDecimal productBySizeGroupsCost = BigDecimal.ZERO;
                 for (Entity productBySizeGroup : productBySizeGroups) {
-                    productBySizeGroupsCost = productBySizeGroupsCost.add(
-                            calculateProductCostPerUnit(productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.PRODUCT),
-                                    costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                                    costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED)),
+                    productBySizeGroupsCost = productBySizeGroupsCost.add(calculateProductCostPerUnit(
+                            productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.PRODUCT), priceCache),
                             numberService.getMathContext());
                 }
                 costPerUnit = productBySizeGroupsCost.divide(new BigDecimal(productBySizeGroups.size()),
@@ -65,9 +69,7 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                 costPerUnit = BigDecimal.ZERO;
             }
         } else if (product != null) {
-            costPerUnit = calculateProductCostPerUnit(product,
-                    costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                    costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED));
+            costPerUnit = calculateProductCostPerUnit(product, priceCache);
         } else {
             costPerUnit = BigDecimalUtils.convertNullToZero(
                     operationProductComponent.getBelongsToField(OperationProductInComponentFields.TECHNOLOGY_INPUT_PRODUCT_TYPE)
@@ -76,6 +78,12 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
         return costPerUnit;
     }
 
+    @Override
+    public BigDecimal calculateProductCostPerUnit(final Entity product, final CostCalculationPriceCache priceCache) {
+        return priceCache.getProductCostPerUnit(product, cachedProduct -> calculateProductCostPerUnit(cachedProduct,
+                priceCache.getMaterialCostsUsed(), priceCache.isUseNominalCostPriceNotSpecified()));
+    }
+
     @Override
     public BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
             final boolean useNominalCostPriceNotSpecified) {
@@ -23,22 +23,20 @@
  */
 package com.qcadoo.mes.deliveriesMinState;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.qcadoo.mes.basic.CompanyService;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ParameterFields;
-import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
 import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
-import com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP;
 import com.qcadoo.mes.deliveries.DeliveriesService;
-import com.qcadoo.mes.deliveries.constants.CompanyProductFields;
 import com.qcadoo.mes.deliveries.constants.DeliveriesConstants;
 import com.qcadoo.mes.deliveries.constants.DeliveryFields;
-import com.qcadoo.mes.deliveries.constants.OrderedProductFields;
 import com.qcadoo.mes.deliveries.states.constants.DeliveryState;
+import com.qcadoo.mes.deliveriesMinState.dto.MinimalStateShortfall;
 import com.qcadoo.mes.deliveriesMinState.notifications.constants.StaffNotificationFieldsMS;
 import com.qcadoo.mes.deliveriesMinState.notifications.service.MailingService;
 import com.qcadoo.mes.emailNotifications.constants.EmailNotificationsConstants;
@@ -54,22 +52,74 @@ import com.qcadoo.view.api.utils.NumberGeneratorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Creates draft deliveries of products which stock and quantity ordered in open deliveries are lower than their minimal
+ * state in a warehouse.
+ *
+ * Minimal states of all warehouses, together with default suppliers, quantities ordered in open deliveries and direct unit
+ * conversions of their products, are read by a single query. Stocks are read once per warehouse by
+ * {@link #getWarehouseStockWithTooSmallMinState(Entity, List)} and compared by
+ * {@link WarehouseMinimalStateHelper#checkIfLowerThanMinimum(long, BigDecimal, BigDecimal)}, both extended by aspects of
+ * other plugins. One delivery is created for each warehouse and supplier, its positions are inserted in one batch.
+ */
 @Service
 public class DeliveriesMinStateHelper {
 
     private static final Logger LOG = LoggerFactory.getLogger(DeliveriesMinStateHelper.class);
 
+    private static final String L_MINIMAL_STATES_QUERY = "WITH minimum_states AS ("
+            + "SELECT state.location_id, state.product_id, SUM(state.minimumstate) AS minimumstate, "
+            + "MAX(state.optimalorderquantity) AS optimalorderquantity "
+            + "FROM warehouseminimalstate_warehouseminimumstate state WHERE state.minimumstate > 0 "
+            + "GROUP BY state.location_id, state.product_id), "
+            + "ordered_quantities AS (SELECT delivery.location_id, orderedproduct.product_id, "
+            + "SUM(orderedproduct.orderedquantity) AS quantity FROM deliveries_orderedproduct orderedproduct "
+            + "JOIN deliveries_delivery delivery ON delivery.id = orderedproduct.delivery_id "
+            + "JOIN minimum_states ON minimum_states.location_id = delivery.location_id "
+            + "AND minimum_states.product_id = orderedproduct.product_id "
+            + "WHERE delivery.active = true AND delivery.state IN ('01draft', '02prepared', '03duringCorrection', '05approved') "
+            + "GROUP BY delivery.location_id, orderedproduct.product_id), "
+            + "candidates AS (SELECT minimum_states.location_id AS locationId, product.id AS productId, "
+            + "product.number AS productNumber, product.unit, product.additionalunit AS additionalUnit, "
+            + "minimum_states.minimumstate AS minimumState, COALESCE(ordered_quantities.quantity, 0) AS orderedQuantity, "
+            + "minimum_states.optimalorderquantity AS optimalOrderQuantity, product.lastpurchasecost AS lastPurchaseCost, "
+            + "COALESCE((SELECT companyproductsfamily.company_id FROM deliveries_companyproductsfamily companyproductsfamily "
+            + "WHERE companyproductsfamily.product_id = product.parent_id AND companyproductsfamily.isdefault = true "
+            + "ORDER BY companyproductsfamily.id LIMIT 1), "
+            + "(SELECT companyproduct.company_id FROM deliveries_companyproduct companyproduct "
+            + "WHERE companyproduct.product_id = product.id AND companyproduct.isdefault = true "
+            + "ORDER BY companyproduct.id LIMIT 1)) AS supplierId, "
+            + "conversion.quantityfrom AS quantityFrom, conversion.quantityto AS quantityTo "
+            + "FROM minimum_states JOIN basic_product product ON product.id = minimum_states.product_id "
+            + "LEFT JOIN ordered_quantities ON ordered_quantities.location_id = minimum_states.location_id "
+            + "AND ordered_quantities.product_id = minimum_states.product_id "
+            + "LEFT JOIN LATERAL (SELECT item.quantityfrom, item.quantityto FROM qcadoomodel_unitconversionitem item "
+            + "WHERE item.product_id = product.id AND item.unitfrom = product.unit AND item.unitto = product.additionalunit "
+            + "ORDER BY item.id LIMIT 1) conversion ON true "
+            + "WHERE product.entitytype = :particularProduct) "
+            + "SELECT * FROM candidates WHERE supplierId IS NOT NULL ORDER BY locationId, supplierId, productNumber";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Autowired
     private NumberService numberService;
 
@@ -82,17 +132,14 @@ public class DeliveriesMinStateHelper {
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
-    @Autowired
-    private CompanyService companyService;
-
     @Autowired
     private MailingService mailingService;
 
     @Autowired
-    private WarehouseMinimalStateHelper warehouseMinimalStateHelper;
+    private UnitConversionService unitConversionService;
 
     @Autowired
-    private UnitConversionService unitConversionService;
+    private WarehouseMinimalStateHelper warehouseMinimalStateHelper;
 
     private void sendEmailNotifications(final List<String> createdDeliveries) {
         if (!createdDeliveries.isEmpty()) {
@@ -107,59 +154,73 @@ public class DeliveriesMinStateHelper {
 
     }
 
-    private String createDeliveries(final Entity location, final Entity supplier, final List<Entity> warehouseMinimumStates) {
+    private Entity createDelivery(final Entity location, final Entity supplier, final Entity currency) {
         DataDefinition deliveryDataDefinition = deliveriesService.getDeliveryDD();
         Entity delivery = deliveryDataDefinition.create();
 
-        String generatedNumber = getNewDeliveryNumber();
-        delivery.setField(DeliveryFields.NUMBER, generatedNumber);
+        delivery.setField(DeliveryFields.NUMBER, getNewDeliveryNumber());
         delivery.setField(DeliveryFields.SUPPLIER, supplier);
         delivery.setField(DeliveryFields.LOCATION, location);
         delivery.setField(DeliveryFields.STATE, DeliveryState.DRAFT);
-        delivery.setField(DeliveryFields.CURRENCY, getNewDeliveryCurrency());
+        delivery.setField(DeliveryFields.CURRENCY, currency);
         delivery.setField(DeliveryFields.DELIVERY_ADDRESS, deliveriesService.getDeliveryAddressDefaultValue());
         delivery.setField(DeliveryFields.EXTERNAL_SYNCHRONIZED, true);
         delivery = deliveryDataDefinition.save(delivery);
 
-        setDeliveryProducts(delivery, warehouseMinimumStates);
-
         if (LOG.isDebugEnabled()) {
             LOG.debug(String.format("Delivery created with number: %s", delivery.getField(DeliveryFields.NUMBER)));
         }
-        return generatedNumber;
+        return delivery;
+    }
+
+    private SqlParameterSource createOrderedProduct(final Long deliveryId, final MinimalStateShortfall shortfall,
+            final int succession) {
+        BigDecimal orderedQuantity = BigDecimalUtils.convertNullToZero(shortfall.getOptimalOrderQuantity());
+        BigDecimal conversion = getConversion(shortfall);
+        BigDecimal pricePerUnit = shortfall.getLastPurchaseCost();
+        BigDecimal totalPrice = null;
+
+        // like in ordered product save hook
+        if (Objects.nonNull(pricePerUnit)) {
+            totalPrice = numberService.setScaleWithDefaultMathContext(BigDecimal.ZERO.compareTo(orderedQuantity) == 0
+                    ? BigDecimal.ZERO : pricePerUnit.multiply(orderedQuantity, numberService.getMathContext()));
+        }
+
+        return new MapSqlParameterSource("deliveryId", deliveryId).addValue("productId", shortfall.getProductId())
+                .addValue("orderedQuantity", orderedQuantity).addValue("pricePerUnit", pricePerUnit)
+                .addValue("totalPrice", totalPrice).addValue("conversion", conversion)
+                .addValue("additionalQuantity", numberService
+                        .setScaleWithDefaultMathContext(orderedQuantity.multiply(conversion, numberService.getMathContext())))
+                .addValue("succession", succession);
     }
 
-    private List<Entity> setDeliveryProducts(final Entity delivery, final List<Entity> warehouseMinimumStates) {
-        List<Entity> products = Lists.newArrayList();
-
-        for (Entity minimumState : warehouseMinimumStates) {
-            Entity deliveredProduct = deliveriesService.getOrderedProductDD().create();
-            Entity product = minimumState.getBelongsToField("product");
-            BigDecimal orderedQuantity = BigDecimalUtils.convertNullToZero(minimumState.getField("optimalOrderQuantity"));
-            BigDecimal conversion = getConversion(product);
-
-            deliveredProduct.setField(OrderedProductFields.DELIVERY, delivery);
-            deliveredProduct.setField(OrderedProductFields.PRODUCT, product);
-            deliveredProduct.setField(OrderedProductFields.ORDERED_QUANTITY, orderedQuantity);
-            deliveredProduct.setField(OrderedProductFields.PRICE_PER_UNIT,
-                    product.getDecimalField(ProductFieldsCNFP.LAST_PURCHASE_COST));
-            deliveredProduct.setField(OrderedProductFields.CONVERSION, conversion);
-            deliveredProduct.setField(OrderedProductFields.ADDITIONAL_QUANTITY,
-                    orderedQuantity.multiply(conversion, numberService.getMathContext()));
-            products.add(deliveriesService.getOrderedProductDD().save(deliveredProduct));
+    private void insertOrderedProducts(final List<SqlParameterSource> orderedProducts) {
+        if (orderedProducts.isEmpty()) {
+            return;
         }
-        return products;
+
+        String query = "INSERT INTO deliveries_orderedproduct (delivery_id, product_id, orderedquantity, priceperunit, "
+                + "totalprice, conversion, additionalquantity, succession) VALUES (:deliveryId, :productId, :orderedQuantity, "
+                + ":pricePerUnit, :totalPrice, :conversion, :additionalQuantity, :succession)";
+
+        jdbcTemplate.batchUpdate(query, orderedProducts.toArray(new SqlParameterSource[0]));
     }
 
-    private BigDecimal getConversion(Entity product) {
-        String unit = product.getStringField(ProductFields.UNIT);
-        String additionalUnit = product.getStringField(ProductFields.ADDITIONAL_UNIT);
+    private BigDecimal getConversion(final MinimalStateShortfall shortfall) {
+        String unit = shortfall.getUnit();
+        String additionalUnit = shortfall.getAdditionalUnit();
         if (additionalUnit == null) {
             return BigDecimal.ONE;
         }
+        if (Objects.nonNull(shortfall.getQuantityFrom()) && Objects.nonNull(shortfall.getQuantityTo())
+                && BigDecimal.ZERO.compareTo(shortfall.getQuantityFrom()) != 0) {
+            return shortfall.getQuantityTo().divide(shortfall.getQuantityFrom(), numberService.getMathContext());
+        }
+        // conversions through other units or global conversions
         PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
                 searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                        UnitConversionItemFieldsB.PRODUCT, product)));
+                        UnitConversionItemFieldsB.PRODUCT, BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT,
+                        shortfall.getProductId())));
         if (unitConversions.isDefinedFor(additionalUnit)) {
             return unitConversions.asUnitToConversionMap().get(additionalUnit);
         } else {
@@ -180,81 +241,107 @@ public class DeliveriesMinStateHelper {
         return number;
     }
 
-    public Map<Long, Multimap<Long, Entity>> createDeliveriesFromMinimalState() {
-        Map<Long, Multimap<Long, Entity>> minimalStatePerWarehousesAndSupplier = Maps.newHashMap();
-
-        List<Entity> warehouses = getWarehousesFromMinimalState();
+    /**
+     * @return numbers of created deliveries
+     */
+    public List<String> createDeliveriesFromMinimalState() {
+        List<MinimalStateShortfall> minimalStates = getMinimalStates();
+        Map<Long, List<MinimalStateShortfall>> minimalStatesPerWarehouse = minimalStates.stream().collect(
+                Collectors.groupingBy(MinimalStateShortfall::getLocationId, Maps::newLinkedHashMap, Collectors.toList()));
+
+        Map<Long, Entity> warehouses = getEntitiesByIds(minimalStatesPerWarehouse.keySet(),
+                dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION));
+        Map<Long, Entity> products = getEntitiesByIds(
+                minimalStates.stream().map(MinimalStateShortfall::getProductId).collect(Collectors.toSet()),
+                dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT));
+
+        List<MinimalStateShortfall> shortfalls = Lists.newArrayList();
+        Map<Long, Multimap<Long, MinimalStateShortfall>> shortfallsPerWarehousesAndSupplier = Maps.newLinkedHashMap();
+
+        minimalStatesPerWarehouse.forEach((warehouseId, warehouseMinimalStates) -> {
+            for (MinimalStateShortfall shortfall : getShortfalls(warehouses.get(warehouseId), warehouseMinimalStates, products)) {
+                shortfalls.add(shortfall);
+                shortfallsPerWarehousesAndSupplier.computeIfAbsent(warehouseId, id -> LinkedListMultimap.create())
+                        .put(shortfall.getSupplierId(), shortfall);
+            }
+        });
         if (LOG.isDebugEnabled()) {
-            LOG.debug(String.format("CreateDeliveriesFromMinimalState invoked with: %d warehouses.", warehouses.size()));
+            LOG.debug(String.format("CreateDeliveriesFromMinimalState invoked with: %d warehouses, %d products.",
+                    shortfallsPerWarehousesAndSupplier.size(), shortfalls.size()));
         }
+
+        Map<Long, Entity> suppliers = getEntitiesByIds(
+                shortfalls.stream().map(MinimalStateShortfall::getSupplierId).collect(Collectors.toSet()),
+                dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_COMPANY));
+        Entity currency = getNewDeliveryCurrency();
+
         List<String> createdDeliveries = Lists.newArrayList();
-        warehouses.forEach(w -> fillPositions(w, minimalStatePerWarehousesAndSupplier));
-        minimalStatePerWarehousesAndSupplier.keySet().forEach(
-                p -> createdDeliveries.addAll(createDeliveries(p, minimalStatePerWarehousesAndSupplier.get(p))));
+        List<SqlParameterSource> orderedProducts = Lists.newArrayList();
+
+        shortfallsPerWarehousesAndSupplier.forEach((warehouseId, shortfallsPerSupplier) -> {
+            for (Long supplierId : shortfallsPerSupplier.keySet()) {
+                Entity delivery = createDelivery(warehouses.get(warehouseId), suppliers.get(supplierId), currency);
+
+                if (!delivery.isValid()) {
+                    LOG.warn(String.format("Delivery from minimal state of warehouse %d and supplier %d was not created.",
+                            warehouseId, supplierId));
+                    continue;
+                }
+
+                createdDeliveries.add(delivery.getStringField(DeliveryFields.NUMBER));
+
+                int succession = 0;
+                for (MinimalStateShortfall shortfall : shortfallsPerSupplier.get(supplierId)) {
+                    orderedProducts.add(createOrderedProduct(delivery.getId(), shortfall, ++succession));
+                }
+            }
+        });
+
+        insertOrderedProducts(orderedProducts);
 
         sendEmailNotifications(createdDeliveries);
-        return minimalStatePerWarehousesAndSupplier;
+        return createdDeliveries;
     }
 
-    private List<String> createDeliveries(Long warehouse, Multimap<Long, Entity> multiMap) {
-        List<String> deliveriesNumbers = Lists.newArrayList();
-        multiMap.keySet().forEach(p -> deliveriesNumbers.add(createDelivery(warehouse, p, multiMap.get(p))));
-        return deliveriesNumbers;
+    private List<MinimalStateShortfall> getShortfalls(final Entity warehouse, final List<MinimalStateShortfall> minimalStates,
+            final Map<Long, Entity> products) {
+        List<Entity> stocks = getWarehouseStockWithTooSmallMinState(warehouse, minimalStates.stream()
+                .map(minimalState -> products.get(minimalState.getProductId())).collect(Collectors.toList()));
+        Map<Long, Entity> stocksByProduct = stocks.stream().collect(
+                Collectors.toMap(stock -> stock.getIntegerField("product_id").longValue(), Function.identity(), (a, b) -> a));
+
+        return minimalStates.stream().filter(minimalState -> isLowerThanMinimum(minimalState,
+                stocksByProduct.get(minimalState.getProductId()))).collect(Collectors.toList());
     }
 
-    private String createDelivery(Long warehouseId, Long supplierId, Collection<Entity> minimalStates) {
-        Entity warehouse = null;
-        if (warehouseId != null) {
-            warehouse = dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION)
-                    .get(warehouseId);
+    private boolean isLowerThanMinimum(final MinimalStateShortfall minimalState, final Entity stock) {
+        if (Objects.isNull(stock)) {
+            return warehouseMinimalStateHelper.checkIfLowerThanMinimum(minimalState.getProductId(),
+                    minimalState.getOrderedQuantity(), minimalState.getMinimumState());
         }
-        Entity supplier = companyService.getCompany(supplierId);
-        return createDeliveries(warehouse, supplier, Lists.newArrayList(minimalStates));
+
+        BigDecimal statePlusOrder = BigDecimalUtils.convertNullToZero(stock.getDecimalField("orderedQuantity"))
+                .add(BigDecimalUtils.convertNullToZero(stock.getDecimalField("quantity")), numberService.getMathContext());
+
+        return warehouseMinimalStateHelper.checkIfLowerThanMinimum(minimalState.getProductId(), statePlusOrder,
+                stock.getDecimalField("minimumState"));
     }
 
-    private void fillPositions(final Entity warehouse,
-            final Map<Long, Multimap<Long, Entity>> minimalStatePerWarehousesAndSupplier) {
-
-        List<Entity> minmialStates = getMinimalStateGreaterThanZeroForWarehouse(warehouse);
-        Map<Long, Entity> minmialStatesByProduct = minmialStates.stream().collect(
-                Collectors.toMap(res -> res.getBelongsToField("product").getId(), res -> res));
-        List<Entity> stocks = getWarehouseStockWithTooSmallMinState(warehouse,
-                minmialStates.stream().map(res -> res.getBelongsToField("product")).collect(Collectors.toList()));
-        Map<Long, Entity> stocksByProduct = stocks.stream()
-                .collect(Collectors.toMap(res -> res.getIntegerField("product_id").longValue(), res -> res));
-        Multimap<Long, Entity> positions = ArrayListMultimap.create();
-        minmialStatesByProduct.keySet().forEach(
-                productId -> createPositions(positions, warehouse.getId(), productId, minmialStatesByProduct, stocksByProduct));
-        minimalStatePerWarehousesAndSupplier.put(warehouse.getId(), positions);
+    private List<MinimalStateShortfall> getMinimalStates() {
+        return jdbcTemplate.query(L_MINIMAL_STATES_QUERY,
+                new MapSqlParameterSource("particularProduct", ProductFamilyElementType.PARTICULAR_PRODUCT.getStringValue()),
+                BeanPropertyRowMapper.newInstance(MinimalStateShortfall.class));
     }
 
-    private void createPositions(Multimap<Long, Entity> positions, Long warehouseId, Long productId,
-            Map<Long, Entity> minmialStatesByProduct, Map<Long, Entity> stocksByProduct) {
-
-        Entity stock = stocksByProduct.get(productId);
-        Entity minimalState = minmialStatesByProduct.get(productId);
-        if (stock == null) {
-            deliveriesService.getDefaultSupplier(productId).ifPresent(supplier -> {
-                BigDecimal ordered = warehouseMinimalStateHelper.getOrderedQuantityForProductAndLocation(warehouseId, productId);
-                if (warehouseMinimalStateHelper.checkIfLowerThanMinimum(productId, ordered,
-                        minimalState.getDecimalField("minimumState"))) {
-                    positions.put(supplier.getBelongsToField(CompanyProductFields.COMPANY).getId(), minimalState);
-                }
-            });
-        } else {
-            BigDecimal statePlusOrder = BigDecimalUtils.convertNullToZero(stock.getDecimalField("orderedQuantity"))
-                    .add(BigDecimalUtils.convertNullToZero(stock.getDecimalField("quantity")), numberService.getMathContext());
-            if (warehouseMinimalStateHelper.checkIfLowerThanMinimum(productId, statePlusOrder,
-                    stock.getDecimalField("minimumState"))) {
-                deliveriesService.getDefaultSupplier(productId).ifPresent(supplier -> positions
-                        .put(supplier.getBelongsToField(CompanyProductFields.COMPANY).getId(), minimalState));
-            }
+    private Map<Long, Entity> getEntitiesByIds(final Collection<Long> ids, final DataDefinition dataDefinition) {
+        Set<Long> notNullIds = ids.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+
+        if (notNullIds.isEmpty()) {
+            return Maps.newHashMap();
         }
-    }
 
-    private List<Entity> getWarehousesFromMinimalState() {
-        String query = "select distinct state.location from #warehouseMinimalState_warehouseMinimumState state";
-        return getWarehouseMinimumStateDD().find(query).list().getEntities();
+        return dataDefinition.find().add(SearchRestrictions.in("id", notNullIds)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, Function.identity()));
     }
 
     public List<Entity> getMinimalStateGreaterThanZeroForWarehouse(final Entity warehouse) {
@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.deliveriesMinState.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Minimal state of a product in a warehouse, with quantity ordered in open deliveries and data needed to order the product
+ * from its default supplier.
+ */
+public class MinimalStateShortfall {
+
+    private Long locationId;
+
+    private Long supplierId;
+
+    private Long productId;
+
+    private String unit;
+
+    private String additionalUnit;
+
+    private BigDecimal minimumState;
+
+    private BigDecimal orderedQuantity;
+
+    private BigDecimal optimalOrderQuantity;
+
+    private BigDecimal lastPurchaseCost;
+
+    private BigDecimal quantityFrom;
+
+    private BigDecimal quantityTo;
+
+    public Long getLocationId() {
+        return locationId;
+    }
+
+    public void setLocationId(final Long locationId) {
+        this.locationId = locationId;
+    }
+
+    public Long getSupplierId() {
+        return supplierId;
+    }
+
+    public void setSupplierId(final Long supplierId) {
+        this.supplierId = supplierId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(final Long productId) {
+        this.productId = productId;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void setUnit(final String unit) {
+        this.unit = unit;
+    }
+
+    public String getAdditionalUnit() {
+        return additionalUnit;
+    }
+
+    public void setAdditionalUnit(final String additionalUnit) {
+        this.additionalUnit = additionalUnit;
+    }
+
+    public BigDecimal getMinimumState() {
+        return minimumState;
+    }
+
+    public void setMinimumState(final BigDecimal minimumState) {
+        this.minimumState = minimumState;
+    }
+
+    public BigDecimal getOrderedQuantity() {
+        return orderedQuantity;
+    }
+
+    public void setOrderedQuantity(final BigDecimal orderedQuantity) {
+        this.orderedQuantity = orderedQuantity;
+    }
+
+    public BigDecimal getOptimalOrderQuantity() {
+        return optimalOrderQuantity;
+    }
+
+    public void setOptimalOrderQuantity(final BigDecimal optimalOrderQuantity) {
+        this.optimalOrderQuantity = optimalOrderQuantity;
+    }
+
+    public BigDecimal getLastPurchaseCost() {
+        return lastPurchaseCost;
+    }
+
+    public void setLastPurchaseCost(final BigDecimal lastPurchaseCost) {
+        this.lastPurchaseCost = lastPurchaseCost;
+    }
+
+    public BigDecimal getQuantityFrom() {
+        return quantityFrom;
+    }
+
+    public void setQuantityFrom(final BigDecimal quantityFrom) {
+        this.quantityFrom = quantityFrom;
+    }
+
+    public BigDecimal getQuantityTo() {
+        return quantityTo;
+    }
+
+    public void setQuantityTo(final BigDecimal quantityTo) {
+        this.quantityTo = quantityTo;
+    }
+
+}
@@ -12,8 +12,6 @@ import org.springframework.context.i18n.LocaleContextHolder;
 
 public class GenerationOrderResult {
 
-    private static final String PARAMETER_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS = "automaticallyGenerateOrdersForComponents";
-
     private TranslationService translationService;
 
     private ParameterService parameterService;
@@ -104,7 +102,7 @@ public class GenerationOrderResult {
         }
 
         if (!ordersWithNoGeneratedSubOrders.isEmpty()
-                && parameterService.getParameter().getBooleanField(PARAMETER_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS)) {
+                && parameterService.getParameterSnapshot().isAutomaticallyGenerateOrdersForComponents()) {
             view.addMessage("masterOrders.masterOrder.generationOrder.ordersWithNoGeneratedSubOrders",
                     ComponentState.MessageType.INFO, false, String.join(", ", ordersWithNoGeneratedSubOrders));
         }
@@ -171,7 +169,7 @@ public class GenerationOrderResult {
         }
 
         if (!ordersWithNoGeneratedSubOrders.isEmpty()
-                && parameterService.getParameter().getBooleanField(PARAMETER_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS)) {
+                && parameterService.getParameterSnapshot().isAutomaticallyGenerateOrdersForComponents()) {
             messages.add(translationService.translate("masterOrders.masterOrder.generationOrder.ordersWithNoGeneratedSubOrders",
                     LocaleContextHolder.getLocale(), String.join(", ", ordersWithNoGeneratedSubOrders)));
         }
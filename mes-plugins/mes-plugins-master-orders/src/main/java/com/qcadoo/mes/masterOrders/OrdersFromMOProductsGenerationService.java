@@ -3,7 +3,9 @@ package com.qcadoo.mes.masterOrders;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.NumberAllocationService;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.ParameterSnapshot;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderPositionDtoFields;
@@ -53,8 +55,6 @@ public class OrdersFromMOProductsGenerationService {
 
     private static final String L_IS_SUBCONTRACTED = "isSubcontracted";
 
-    private static final String L_CREATE_COLLECTIVE_ORDERS = "createCollectiveOrders";
-
     private static final String L_MASTER_ORDER_POSITION_STATUS = "masterOrderPositionStatus";
 
     private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
@@ -64,8 +64,6 @@ public class OrdersFromMOProductsGenerationService {
 
     private static final String L_COPY_NOTES_FROM_MASTER_ORDER_POSITION = "copyNotesFromMasterOrderPosition";
 
-    private static final String L_PPS_IS_AUTOMATIC = "ppsIsAutomatic";
-
     private static final String L_IGNORE_MISSING_COMPONENTS = "ignoreMissingComponents";
 
     private static final String L_AUTOMATICALLY_GENERATE_ORDERS_FOR_COMPONENTS = "automaticallyGenerateOrdersForComponents";
@@ -84,6 +82,9 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
+    @Autowired
+    private NumberAllocationService numberAllocationService;
+
     @Autowired
     private NumberService numberService;
 
@@ -106,7 +107,11 @@ public class OrdersFromMOProductsGenerationService {
             final boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService, parameterService);
 
-        boolean automaticPps = parameterService.getParameter().getBooleanField(L_PPS_IS_AUTOMATIC);
+        ParameterSnapshot parameterSnapshot = parameterService.getParameterSnapshot();
+        // parameter entity is read once for all generated orders, it's needed for realization locations
+        Entity parameter = parameterService.getParameter();
+
+        boolean automaticPps = parameterSnapshot.isPpsIsAutomatic();
 
         List<Entity> masterOrderProductsEntities = Lists.newArrayList();
 
@@ -121,7 +126,7 @@ public class OrdersFromMOProductsGenerationService {
             }
         });
 
-        boolean createCollectiveOrders = parameterService.getParameter().getBooleanField(L_CREATE_COLLECTIVE_ORDERS);
+        boolean createCollectiveOrders = parameterSnapshot.isCreateCollectiveOrders();
         if (createCollectiveOrders) {
             Map<ProductTechnologyKey, List<Entity>> groupedMap = groupPositions(masterOrderProductsEntities);
 
@@ -143,7 +148,7 @@ public class OrdersFromMOProductsGenerationService {
                         .quantityRemainingToOrder(quantityRemainingToOrderResult.getDecimalField("quantityRemainingToOrder"))
                         .build();
 
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                generateOrder(parameter, generatePPS, automaticPps, result, masterOrderProduct, start, finish);
             }
         } else {
             masterOrderProductsEntities.forEach(mop -> {
@@ -159,7 +164,7 @@ public class OrdersFromMOProductsGenerationService {
                         .comments(mop.getStringField(MasterOrderProductFields.COMMENTS))
                         .quantityRemainingToOrder(quantityRemainingToOrder).masterOrderProduct(mop).build();
 
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                generateOrder(parameter, generatePPS, automaticPps, result, masterOrderProduct, start, finish);
             });
         }
 
@@ -195,14 +200,13 @@ public class OrdersFromMOProductsGenerationService {
         return groupedMap;
     }
 
-    private void generateOrder(final boolean generatePPS, final boolean automaticPps, final GenerationOrderResult result,
-            final MasterOrderProduct masterOrderProduct, final Date start, final Date finish) {
+    private void generateOrder(final Entity parameter, final boolean generatePPS, final boolean automaticPps,
+            final GenerationOrderResult result, final MasterOrderProduct masterOrderProduct, final Date start,
+            final Date finish) {
         if (PluginUtils.isEnabled("integrationBaseLinker")) {
             createDocuments();
         }
 
-        Entity parameter = parameterService.getParameter();
-
         boolean realizationFromStock = parameter.getBooleanField(ParameterFieldsO.REALIZATION_FROM_STOCK);
         boolean alwaysOrderItemsWithPersonalization = parameter
                 .getBooleanField(ParameterFieldsO.ALWAYS_ORDER_ITEMS_WITH_PERSONALIZATION)
@@ -241,8 +245,8 @@ public class OrdersFromMOProductsGenerationService {
 
             result.addRealizationFromStock(masterOrderProduct.getProduct().getStringField(ProductFields.NUMBER));
         } else {
-            Entity order = createOrder(masterOrderProduct, realizationFromStock, quantityRemainingToOrder, stockQuantity, start,
-                    finish);
+            Entity order = createOrder(parameter, masterOrderProduct, realizationFromStock, quantityRemainingToOrder,
+                    stockQuantity, start, finish);
 
             order = getOrderDD().save(order);
 
@@ -291,7 +295,7 @@ public class OrdersFromMOProductsGenerationService {
                 for (Entity ord : orders) {
                     Date calculatedOrderStartDate = null;
 
-                    if (parameterService.getParameter().getBooleanField(ParameterFieldsO.ADVISE_START_DATE_OF_THE_ORDER)) {
+                    if (parameterService.getParameterSnapshot().isAdviseStartDateOfTheOrder()) {
                         calculatedOrderStartDate = order.getDateField(OrderFields.START_DATE);
                     } else {
                         if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
@@ -365,10 +369,9 @@ public class OrdersFromMOProductsGenerationService {
 
     }
 
-    private Entity createOrder(final MasterOrderProduct masterOrderProduct, final boolean realizationFromStock,
-            final BigDecimal quantityRemainingToOrder, final BigDecimal stockQuantity, final Date start, final Date finish) {
-        Entity parameter = parameterService.getParameter();
-
+    private Entity createOrder(final Entity parameter, final MasterOrderProduct masterOrderProduct,
+            final boolean realizationFromStock, final BigDecimal quantityRemainingToOrder, final BigDecimal stockQuantity,
+            final Date start, final Date finish) {
         Entity product = masterOrderProduct.getProduct();
         Entity technology = getTechnology(masterOrderProduct);
 
@@ -544,7 +547,7 @@ public class OrdersFromMOProductsGenerationService {
 
     private String generateOrderNumber(final MasterOrderProduct masterOrderProduct) {
         if (masterOrderProduct.isCreateCollectiveOrders()) {
-            return numberGeneratorService.generateNumber(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 6);
+            return numberAllocationService.allocateNumber(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 6);
         } else {
             return numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER,
                     3, masterOrderProduct.getMasterOrder().getStringField(MasterOrderFields.NUMBER) + "-");
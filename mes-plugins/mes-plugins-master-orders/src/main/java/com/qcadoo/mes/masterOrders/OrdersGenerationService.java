@@ -1,5 +1,6 @@
 package com.qcadoo.mes.masterOrders;
 
+import com.qcadoo.mes.basic.NumberAllocationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -22,7 +23,6 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.view.api.utils.NumberGeneratorService;
 
 import java.math.BigDecimal;
 import java.util.Collections;
@@ -78,7 +78,7 @@ public class OrdersGenerationService {
     private TechnologyServiceO technologyServiceO;
 
     @Autowired
-    private NumberGeneratorService numberGeneratorService;
+    private NumberAllocationService numberAllocationService;
 
     public void createOrders(GenerationOrderResult result, Set<Long> ids, BigDecimal plannedQuantity, Date dateFrom, Date dateTo) {
         Entity parameters = parameterService.getParameter();
@@ -122,7 +122,7 @@ public class OrdersGenerationService {
             for (Entity ord : orders) {
                 Date calculatedOrderStartDate = null;
 
-                if (parameterService.getParameter().getBooleanField(ParameterFieldsO.ADVISE_START_DATE_OF_THE_ORDER)) {
+                if (parameterService.getParameterSnapshot().isAdviseStartDateOfTheOrder()) {
                     calculatedOrderStartDate = order.getDateField(OrderFields.START_DATE);
                 } else {
                     if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
@@ -180,7 +180,7 @@ public class OrdersGenerationService {
         Entity technology = technologyServiceO.getDefaultTechnology(product);
         Entity order = getOrderDD().create();
         order.setField(OrderFields.NUMBER,
-                numberGeneratorService.generateNumber(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER));
+                numberAllocationService.allocateNumber(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 6));
         order.setField(OrderFields.NAME, orderService.makeDefaultName(product, technology, LocaleContextHolder.getLocale()));
         order.setField(OrderFields.PRODUCT, product);
         order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, technology);
@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.service.StockBalanceService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -24,9 +25,14 @@ public class MaterialFlowResourcesOnStartupService extends Module {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private StockBalanceService stockBalanceService;
+
     @Override
     public void enableOnStartup() {
         setDocumentPositionParameters();
+
+        stockBalanceService.fillStockBalancesTrigger();
     }
 
     @Override
@@ -34,6 +40,11 @@ public class MaterialFlowResourcesOnStartupService extends Module {
         setDocumentPositionParameters();
     }
 
+    @Override
+    public void multiTenantEnable() {
+        stockBalanceService.fillStockBalances();
+    }
+
     @Transactional
     private void setDocumentPositionParameters() {
 
@@ -47,6 +47,8 @@ public final class MaterialFlowResourcesConstants {
 
     public static final String MODEL_RESOURCE_STOCK_DTO = "resourceStockDto";
 
+    public static final String MODEL_STOCK_BALANCE = "stockBalance";
+
     public static final String MODEL_RESOURCE = "resource";
 
     public static final String MODEL_DOCUMENT = "document";
@@ -0,0 +1,20 @@
+package com.qcadoo.mes.materialFlowResources.constants;
+
+public final class StockBalanceFields {
+
+    private StockBalanceFields() {
+    }
+
+    public static final String LOCATION = "location";
+
+    public static final String PRODUCT = "product";
+
+    public static final String STORAGE_LOCATION = "storageLocation";
+
+    public static final String QUANTITY = "quantity";
+
+    public static final String RESERVED_QUANTITY = "reservedQuantity";
+
+    public static final String AVAILABLE_QUANTITY = "availableQuantity";
+
+}
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.StockBalanceService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import org.apache.commons.lang3.StringUtils;
@@ -43,6 +44,9 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private StockBalanceService stockBalanceService;
+
     public void onSave(final DataDefinition resourceDD, final Entity resource) {
         if (StringUtils.isEmpty(resource.getStringField(ResourceFields.NUMBER))) {
             Date time = resource.getDateField(ResourceFields.TIME);
@@ -60,6 +64,14 @@ public class ResourceModelHooks {
 
             resource.setField(ResourceFields.NUMBER, number);
         }
+
+        stockBalanceService.markChanged(resource);
+    }
+
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        stockBalanceService.markChanged(resource);
+
+        return true;
     }
 
     public void onCreate(final DataDefinition resourceDD, final Entity resource) {
@@ -65,7 +65,7 @@ public class ReceiptDocumentForReleaseHelper {
 
         Entity connectedDocument;
 
-        if (parameterService.getParameter().getStringField("documentsStatus").equals("01accepted")) {
+        if ("01accepted".equals(parameterService.getParameterSnapshot().getDocumentsStatus())) {
             connectedDocument = documentBuilder.setAccepted().build();
         } else {
             connectedDocument = documentBuilder.build();
@@ -23,9 +23,9 @@
  */
 package com.qcadoo.mes.materialFlowResources.service;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.commons.functional.Either;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.ParameterService;
@@ -43,20 +43,32 @@ import com.qcadoo.security.api.UserService;
 import com.qcadoo.security.constants.UserFields;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
+import org.apache.commons.beanutils.MethodUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.classic.Session;
+import org.hibernate.engine.EntityKey;
 import org.hibernate.exception.LockAcquisitionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.security.util.FieldUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class ResourceManagementServiceImpl implements ResourceManagementService {
@@ -65,6 +77,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     public static final String L_ORDER = "order";
 
+    private static final int L_RESOURCES_CHUNK_SIZE = 1000;
+
+    private static final String L_RESOURCE_ENTITY_NAME = "com.qcadoo.model.beans.materialFlowResources."
+            + "MaterialFlowResourcesResource";
+
+    private static final int MAX_QUANTITY_SCALE = 5;
+
+    private static final int MAX_QUANTITY_UNSCALED_DIGITS = 9;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -92,6 +113,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StockBalanceService stockBalanceService;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -284,102 +311,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     }
 
-    public Multimap<Long, BigDecimal> getQuantitiesInWarehouse(final Entity warehouse,
-            final Multimap<Entity, Entity> productsAndPositions) {
-        Multimap<Long, BigDecimal> result = ArrayListMultimap.create();
-
-        for (Map.Entry<Entity, Entity> productAndPosition : productsAndPositions.entries()) {
-            Entity additionalCode = productAndPosition.getValue().getBelongsToField(PositionFields.ADDITIONAL_CODE);
-            BigDecimal conversion = productAndPosition.getValue().getDecimalField(PositionFields.CONVERSION);
-            Entity batch = productAndPosition.getValue().getBelongsToField(PositionFields.BATCH);
-
-            List<Entity> resources = Lists.newArrayList();
-
-            if (additionalCode != null) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
-                        warehouse);
-
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
-
-                if (Objects.nonNull(batch)) {
-                    scb.add(SearchRestrictions.belongsTo(ResourceFields.BATCH, batch));
-                }
-                resources = scb.add(SearchRestrictions.belongsTo(ResourceFields.ADDITIONAL_CODE, additionalCode)).list()
-                        .getEntities();
-
-                scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(), warehouse);
-
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
-
-                if (Objects.nonNull(batch)) {
-                    scb.add(SearchRestrictions.belongsTo(ResourceFields.BATCH, batch));
-                }
-
-                resources.addAll(scb
-                        .add(SearchRestrictions.or(SearchRestrictions.isNull(ResourceFields.ADDITIONAL_CODE),
-                                SearchRestrictions.ne("additionalCode.id", additionalCode.getId()))).list().getEntities());
-            }
-
-            if (resources.isEmpty()) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
-                        warehouse);
-
-                if (Objects.nonNull(batch)) {
-                    scb.add(SearchRestrictions.belongsTo(ResourceFields.BATCH, batch));
-                }
-
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
-
-                resources = scb.list().getEntities();
-            }
-
-            if (result.containsKey(productAndPosition.getKey().getId())) {
-                BigDecimal currentQuantity = result.get(productAndPosition.getKey().getId()).stream()
-                        .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-                result.put(productAndPosition.getKey().getId(),
-                        (resources.stream().map(res -> res.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).reduce(
-                                BigDecimal.ZERO, BigDecimal::add)).add(currentQuantity));
-            } else {
-                result.put(
-                        productAndPosition.getKey().getId(),
-                        resources.stream().map(res -> res.getDecimalField(ResourceFields.AVAILABLE_QUANTITY))
-                                .reduce(BigDecimal.ZERO, BigDecimal::add));
-            }
-        }
-
-        return result;
-    }
-
-    private Multimap<Entity, Entity> getProductsAndPositionsFromDocument(final Entity document) {
-        Multimap<Entity, Entity> map = ArrayListMultimap.create();
-
-        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
-
-        positions.forEach(position -> map.put(position.getBelongsToField(PositionFields.PRODUCT), position));
-
-        return map;
-    }
-
-    private BigDecimal getQuantityOfProductFromMultimap(final Multimap<Long, BigDecimal> quantitiesForWarehouse,
-            final Entity product) {
-        List<BigDecimal> quantities = Lists.newArrayList(quantitiesForWarehouse.get(product.getId()));
-
-        return quantities.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
-    }
-
     private void updateResourcesForReleaseDocuments(final Entity document) {
         Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
 
@@ -391,11 +322,19 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourcesAllocation resourcesAllocation = allocateResources(warehouse, positions);
+        Map<Long, BigDecimal> reservedQuantities = deleteReservations(document, positions);
+
+        List<Long> positionIdsToDelete = Lists.newArrayList();
+        List<Entity> positionsToSave = Lists.newArrayList();
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
             Either<BigDecimal, List<Entity>> eitherPositions = updateResources(warehouse, position, warehouseAlgorithm,
-                    isFromOrder);
+                    isFromOrder, resourcesAllocation, reservedQuantities);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -407,29 +346,74 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 List<Entity> generatedPositions = eitherPositions.getRight();
                 if (generatedPositions.size() > 1) {
                     if (Objects.nonNull(position.getId())) {
-                        position.getDataDefinition().delete(position.getId());
+                        positionIdsToDelete.add(position.getId());
                     }
 
                     for (Entity newPosition : generatedPositions) {
                         newPosition.setField(PositionFields.DOCUMENT, document);
 
-                        Entity saved = newPosition.getDataDefinition().save(newPosition);
-                        addPositionErrors(document, saved);
+                        positionsToSave.add(newPosition);
                     }
                 } else {
                     copyPositionValues(position, generatedPositions.get(0));
 
-                    Entity saved = position.getDataDefinition().save(position);
-                    addPositionErrors(document, saved);
+                    positionsToSave.add(position);
                 }
             }
         }
 
+        savePositions(document, positionIdsToDelete, positionsToSave);
+        saveAllocatedResources(resourcesAllocation);
+
         if (!enoughResources) {
             NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouse, errorMessageHolder);
         }
     }
 
+    // positions split between resources replace the original ones, which are deleted at once; positions are still saved one
+    // by one, as their hooks create reservations and their validators report errors of each position
+    private void savePositions(final Entity document, final List<Long> positionIdsToDelete, final List<Entity> positionsToSave) {
+        if (!positionIdsToDelete.isEmpty()) {
+            getPositionDD().delete(positionIdsToDelete.toArray(new Long[0]));
+        }
+
+        for (Entity position : positionsToSave) {
+            addPositionErrors(document, position.getDataDefinition().save(position));
+        }
+    }
+
+    /**
+     * Deletes reservations of all positions of the document with two queries per chunk of positions.
+     *
+     * @return reserved quantities by position id, which are available again for the positions
+     */
+    private Map<Long, BigDecimal> deleteReservations(final Entity document, final List<Entity> positions) {
+        Map<Long, BigDecimal> reservedQuantities = Maps.newHashMap();
+
+        List<Long> positionIds = positions.stream().map(Entity::getId).filter(Objects::nonNull).collect(Collectors.toList());
+
+        if (positionIds.isEmpty()) {
+            return reservedQuantities;
+        }
+
+        boolean reservationsEnabled = reservationsService.reservationsEnabledForDocumentPositions(document);
+
+        for (List<Long> positionIdsChunk : Lists.partition(positionIds, L_RESOURCES_CHUNK_SIZE)) {
+            Map<String, Object> params = Collections.singletonMap("positionIds", positionIdsChunk);
+
+            jdbcTemplate.query("SELECT reservation.position_id AS positionId, reservation.quantity "
+                    + "FROM materialflowresources_reservation reservation WHERE reservation.position_id IN (:positionIds) "
+                    + "ORDER BY reservation.id", params, (RowCallbackHandler) resultSet -> reservedQuantities.putIfAbsent(
+                    resultSet.getLong("positionId"), resultSet.getBigDecimal("quantity")));
+
+            if (reservationsEnabled) {
+                jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE position_id IN (:positionIds)", params);
+            }
+        }
+
+        return reservedQuantities;
+    }
+
     private void addPositionErrors(final Entity document, final Entity saved) {
         if (!saved.isValid()) {
             document.setNotValid();
@@ -474,14 +458,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Either<BigDecimal, List<Entity>> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder) {
+            final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder, final ResourcesAllocation resourcesAllocation,
+            final Map<Long, BigDecimal> reservedQuantities) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
-
-        reservationsService.deleteReservationFromDocumentPosition(position);
+        List<Entity> resources = getAllocatedResources(resourcesAllocation, product, position, warehouseAlgorithm,
+                reservedQuantities);
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
@@ -524,11 +508,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    resourcesAllocation.delete(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
@@ -538,11 +518,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    resourcesAllocation.update(resource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY,
@@ -567,11 +543,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                resourcesAllocation.update(resource);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
                 newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
@@ -602,11 +574,19 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourcesAllocation resourcesAllocation = allocateResources(warehouseFrom, positions);
+        Map<Long, BigDecimal> reservedQuantities = deleteReservations(document, positions);
+
+        List<Long> positionIdsToDelete = Lists.newArrayList();
+        List<Entity> positionsToSave = Lists.newArrayList();
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
             Either<BigDecimal, List<Entity>> eitherPositions = moveResources(warehouseFrom, warehouseTo, position, date,
-                    warehouseAlgorithm, isFromOrder);
+                    warehouseAlgorithm, isFromOrder, resourcesAllocation, reservedQuantities);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -618,25 +598,26 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 List<Entity> generatedPositions = eitherPositions.getRight();
                 if (generatedPositions.size() > 1) {
                     if (Objects.nonNull(position.getId())) {
-                        position.getDataDefinition().delete(position.getId());
+                        positionIdsToDelete.add(position.getId());
                     }
 
                     for (Entity newPosition : generatedPositions) {
                         newPosition.setField(PositionFields.DOCUMENT, document);
 
-                        Entity saved = newPosition.getDataDefinition().save(newPosition);
-                        addPositionErrors(document, saved);
+                        positionsToSave.add(newPosition);
                     }
                 } else {
                     copyPositionValues(position, generatedPositions.get(0));
                     copyPositionErrors(position, generatedPositions.get(0));
 
-                    Entity saved = position.getDataDefinition().save(position);
-                    addPositionErrors(document, saved);
+                    positionsToSave.add(position);
                 }
             }
         }
 
+        savePositions(document, positionIdsToDelete, positionsToSave);
+        saveAllocatedResources(resourcesAllocation);
+
         if (!enoughResources) {
             NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouseFrom, errorMessageHolder);
         }
@@ -649,14 +630,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Either<BigDecimal, List<Entity>> moveResources(final Entity warehouseFrom, final Entity warehouseTo,
-            final Entity position, final Object date, final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder) {
+            final Entity position, final Object date, final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder,
+            final ResourcesAllocation resourcesAllocation, final Map<Long, BigDecimal> reservedQuantities) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouseFrom, product, position, warehouseAlgorithm);
-
-        reservationsService.deleteReservationFromDocumentPosition(position);
+        List<Entity> resources = getAllocatedResources(resourcesAllocation, product, position, warehouseAlgorithm,
+                reservedQuantities);
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
@@ -699,11 +680,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    resourcesAllocation.delete(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
@@ -713,11 +690,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    resourcesAllocation.update(resource);
                 }
 
                 Entity newResource = createResource(position, warehouseTo, resource, resourceAvailableQuantity, date);
@@ -750,11 +723,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                resourcesAllocation.update(resource);
 
                 Entity newResource = createResource(position, warehouseTo, resource, quantity, date);
 
@@ -787,6 +756,208 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         }
     }
 
+    private ResourcesAllocation allocateResources(final Entity warehouse, final List<Entity> positions) {
+        Set<Long> productIds = Sets.newHashSet();
+        Set<Long> resourceIds = Sets.newHashSet();
+
+        for (Entity position : positions) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+            Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+            if (Objects.nonNull(product)) {
+                productIds.add(product.getId());
+            }
+
+            if (Objects.nonNull(resource) && Objects.nonNull(resource.getId())) {
+                resourceIds.add(resource.getId());
+            }
+        }
+
+        List<Entity> resources = Lists.newArrayList();
+
+        if (!productIds.isEmpty()) {
+            // locking in the order of ids prevents deadlocks between documents accepted at the same time
+            StringBuilder query = new StringBuilder();
+
+            query.append("SELECT resource.id FROM materialflowresources_resource resource ");
+            query.append("WHERE (resource.location_id = :locationId AND resource.product_id IN (:productIds) ");
+            query.append("AND resource.availablequantity > 0) ");
+
+            if (!resourceIds.isEmpty()) {
+                query.append("OR resource.id IN (:resourceIds) ");
+            }
+
+            query.append("ORDER BY resource.id FOR UPDATE");
+
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put("locationId", warehouse.getId());
+            params.put("productIds", productIds);
+            params.put("resourceIds", resourceIds);
+
+            List<Long> ids = jdbcTemplate.queryForList(query.toString(), params, Long.class);
+
+            for (List<Long> idsChunk : Lists.partition(ids, L_RESOURCES_CHUNK_SIZE)) {
+                resources.addAll(getResourceDD().find().add(SearchRestrictions.in("id", idsChunk)).list().getEntities());
+            }
+        }
+
+        return new ResourcesAllocation(resources, isFillResourceIrrespectiveOfConversion());
+    }
+
+    private List<Entity> getAllocatedResources(final ResourcesAllocation resourcesAllocation, final Entity product,
+            final Entity position, final WarehouseAlgorithm warehouseAlgorithm, final Map<Long, BigDecimal> reservedQuantities) {
+        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+        if (Objects.isNull(resource)) {
+            return resourcesAllocation.getResources(product, position, warehouseAlgorithm);
+        }
+
+        List<Entity> resources = Lists.newArrayList();
+
+        if (Objects.nonNull(resource.getId())) {
+            resource = resourcesAllocation.getResource(resource.getId());
+        }
+
+        if (Objects.nonNull(resource)) {
+            BigDecimal reservationQuantity = reservedQuantities.get(position.getId());
+
+            if (Objects.nonNull(reservationQuantity)) {
+                BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+                resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity.add(reservationQuantity));
+            }
+
+            resources.add(resource);
+        }
+
+        return resources;
+    }
+
+    // Only quantities of updated resources change here, so they skip the data definition: ResourceModelValidators check
+    // fields which are not written, the onSave hook only numbers resources without a number and marks stock balance,
+    // which is done below. Resources with quantities which wouldn't pass the field validators are saved as before.
+    // The session is flushed before the update, so changes saved earlier don't overwrite it, and updated resources are
+    // evicted from it after the update, as their entity versions in the session are no longer current.
+    private void saveAllocatedResources(final ResourcesAllocation resourcesAllocation) {
+        List<Entity> updatedResources = Lists.newArrayList();
+
+        for (Entity resource : resourcesAllocation.getUpdatedResources()) {
+            if (hasValidQuantities(resource)) {
+                updatedResources.add(resource);
+            } else {
+                Entity savedResource = getResourceDD().save(resource);
+
+                if (!savedResource.isValid()) {
+                    throw new InvalidResourceException(savedResource);
+                }
+            }
+        }
+
+        if (!updatedResources.isEmpty()) {
+            Session session = getCurrentSession();
+
+            session.flush();
+
+            String query = "UPDATE materialflowresources_resource SET quantity = :quantity, "
+                    + "availablequantity = :availableQuantity, quantityinadditionalunit = :quantityInAdditionalUnit, "
+                    + "reservedquantity = :reservedQuantity, entityversion = entityversion + 1 WHERE id = :id";
+
+            SqlParameterSource[] batchArgs = updatedResources.stream().map(resource -> new MapSqlParameterSource()
+                    .addValue("id", resource.getId())
+                    .addValue("quantity", resource.getDecimalField(ResourceFields.QUANTITY))
+                    .addValue("availableQuantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY))
+                    .addValue("quantityInAdditionalUnit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT))
+                    .addValue("reservedQuantity", resource.getDecimalField(ResourceFields.RESERVED_QUANTITY)))
+                    .toArray(SqlParameterSource[]::new);
+
+            jdbcTemplate.batchUpdate(query, batchArgs);
+
+            evictResources(session, updatedResources);
+
+            updatedResources.forEach(stockBalanceService::markChanged);
+        }
+
+        List<Entity> deletedResources = resourcesAllocation.getDeletedResources();
+
+        if (!deletedResources.isEmpty()) {
+            Map<Long, Entity> palletNumbersToDispose = Maps.newLinkedHashMap();
+
+            for (Entity resource : deletedResources) {
+                Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+                if (Objects.nonNull(palletNumber)) {
+                    palletNumbersToDispose.putIfAbsent(palletNumber.getId(), palletNumber);
+                }
+            }
+
+            getResourceDD().delete(deletedResources.stream().map(Entity::getId).toArray(Long[]::new));
+
+            palletNumbersToDispose.values().forEach(palletNumberDisposalService::tryToDispose);
+        }
+    }
+
+    private void evictResources(final Session session, final List<Entity> resources) {
+        Set<Long> resourceIds = resources.stream().map(Entity::getId).collect(Collectors.toSet());
+
+        for (Object key : Lists.newArrayList(session.getStatistics().getEntityKeys())) {
+            EntityKey entityKey = (EntityKey) key;
+
+            if (L_RESOURCE_ENTITY_NAME.equals(entityKey.getEntityName()) && resourceIds.contains(entityKey.getIdentifier())) {
+                session.evict(session.get(entityKey.getEntityName(), entityKey.getIdentifier()));
+            }
+        }
+    }
+
+    private Session getCurrentSession() {
+        Object dataAccessService = FieldUtils.getProtectedFieldValue("dataAccessService", getResourceDD());
+        Object hibernateService = FieldUtils.getProtectedFieldValue("hibernateService", dataAccessService);
+
+        try {
+            return (Session) MethodUtils.invokeExactMethod(hibernateService, "getCurrentSession", new Object[0]);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private boolean hasValidQuantities(final Entity resource) {
+        BigDecimal quantity = resource.getDecimalField(ResourceFields.QUANTITY);
+
+        return Objects.nonNull(quantity) && isValidQuantity(quantity, true)
+                && isValidQuantity(resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT), true)
+                && isValidQuantity(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY), false)
+                && isValidQuantity(resource.getDecimalField(ResourceFields.RESERVED_QUANTITY), false);
+    }
+
+    private boolean isValidQuantity(final BigDecimal quantity, final boolean positive) {
+        if (Objects.isNull(quantity)) {
+            return true;
+        }
+
+        int signum = quantity.signum();
+
+        return (positive ? signum > 0 : signum >= 0) && quantity.scale() <= MAX_QUANTITY_SCALE
+                && quantity.precision() - quantity.scale() <= MAX_QUANTITY_UNSCALED_DIGITS;
+    }
+
+    private boolean isFillResourceIrrespectiveOfConversion() {
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        return documentPositionParameters
+                .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
+    }
+
+    private DataDefinition getPositionDD() {
+        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_POSITION);
+    }
+
+    private DataDefinition getResourceDD() {
+        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+    }
+
     private List<Entity> getResourcesForWarehouseProductAndAlgorithm(final Entity warehouse, final Entity product,
             final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
         List<Entity> resources = Lists.newArrayList();
@@ -891,13 +1062,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         List<Entity> resources = getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, false,
                 searchOrders);
 
-        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
-                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
-
-        boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
-                .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
-
-        if (fillResourceIrrespectiveOfConversion) {
+        if (isFillResourceIrrespectiveOfConversion()) {
             resources.addAll(getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, true,
                     searchOrders));
         }
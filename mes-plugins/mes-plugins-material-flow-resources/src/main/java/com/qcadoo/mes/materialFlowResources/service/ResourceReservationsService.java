@@ -1,6 +1,7 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,12 +23,16 @@ public class ResourceReservationsService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private StockBalanceService stockBalanceService;
+
     void updateResourceQuantites(Map<String, Object> params, BigDecimal quantityToAdd) {
         if (params.get("resource_id") != null) {
             params.put("quantity_to_add", quantityToAdd);
             String query = "UPDATE materialflowresources_resource SET reservedquantity = reservedquantity + :quantity_to_add, "
                     + "availablequantity = availablequantity - :quantity_to_add WHERE id = :resource_id";
             jdbcTemplate.update(query, params);
+            stockBalanceService.markChangedForResources(Collections.singletonList((Long) params.get("resource_id")));
         }
     }
 
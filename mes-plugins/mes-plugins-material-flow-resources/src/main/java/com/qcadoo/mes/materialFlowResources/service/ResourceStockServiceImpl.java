@@ -62,12 +62,15 @@ public class ResourceStockServiceImpl implements ResourceStockService {
 
     @Override
     public BigDecimal getResourceStockQuantity(final Entity product, final Entity location) {
-        BigDecimal quantity = BigDecimal.ZERO;
-        Optional<ResourceStockDto> resourceStock = getResourceStockForProductAndLocation(product, location);
-        if (resourceStock.isPresent()) {
-            quantity = resourceStock.get().getQuantity();
-        }
-        return quantity;
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT COALESCE(SUM(sb.quantity), 0) ");
+        query.append("FROM materialflowresources_stockbalance sb ");
+        query.append("WHERE sb.location_id = :locationId AND sb.product_id = :productId");
+
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("locationId", location.getId());
+        params.put("productId", product.getId());
+        return jdbcTemplate.queryForObject(query.toString(), params, BigDecimal.class);
     }
 
     private Optional<ResourceStockDto> getResourceStockForProductAndLocation(Entity product, Entity location) {
@@ -0,0 +1,212 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Resources of a document locked at the beginning of its acceptance.
+ *
+ * Resources are consumed in memory by positions in the order of the warehouse algorithm, changed resources are written back
+ * once after all positions are processed.
+ */
+public class ResourcesAllocation {
+
+    private final Map<Long, Entity> resources = Maps.newLinkedHashMap();
+
+    private final Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+    private final Set<Long> updatedResourceIds = Sets.newLinkedHashSet();
+
+    private final Set<Long> deletedResourceIds = Sets.newLinkedHashSet();
+
+    private final boolean fillResourceIrrespectiveOfConversion;
+
+    public ResourcesAllocation(final Collection<Entity> resources, final boolean fillResourceIrrespectiveOfConversion) {
+        this.fillResourceIrrespectiveOfConversion = fillResourceIrrespectiveOfConversion;
+
+        for (Entity resource : resources) {
+            this.resources.put(resource.getId(), resource);
+
+            resourcesByProduct.computeIfAbsent(resource.getBelongsToField(ResourceFields.PRODUCT).getId(),
+                    key -> Lists.newArrayList()).add(resource);
+        }
+    }
+
+    public Entity getResource(final Long resourceId) {
+        if (deletedResourceIds.contains(resourceId)) {
+            return null;
+        }
+
+        return resources.get(resourceId);
+    }
+
+    /**
+     * Returns resources of the product matching the position, in the same order as database queries of
+     * {@link ResourceManagementServiceImpl} return them.
+     */
+    public List<Entity> getResources(final Entity product, final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+        List<Entity> result = getResources(product, position, warehouseAlgorithm, false);
+
+        if (fillResourceIrrespectiveOfConversion) {
+            result.addAll(getResources(product, position, warehouseAlgorithm, true));
+        }
+
+        return result;
+    }
+
+    private List<Entity> getResources(final Entity product, final Entity position, final WarehouseAlgorithm warehouseAlgorithm,
+            final boolean resourceIrrespectiveOfConversion) {
+        BigDecimal conversion = BigDecimal.ONE;
+
+        if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            conversion = position.getDecimalField(PositionFields.CONVERSION);
+        }
+
+        Entity batch = position.getBelongsToField(PositionFields.BATCH);
+        Entity additionalCode = position.getBelongsToField(PositionFields.ADDITIONAL_CODE);
+
+        List<Entity> candidates = Lists.newArrayList();
+
+        for (Entity resource : resourcesByProduct.getOrDefault(product.getId(), Lists.newArrayList())) {
+            if (isAvailable(resource) && matchesConversion(resource, conversion, resourceIrrespectiveOfConversion)
+                    && (Objects.isNull(batch) || hasId(resource.getBelongsToField(ResourceFields.BATCH), batch.getId()))) {
+                candidates.add(resource);
+            }
+        }
+
+        candidates.sort(getComparator(warehouseAlgorithm));
+
+        List<Entity> result = Lists.newArrayList();
+
+        if (Objects.nonNull(additionalCode)) {
+            Predicate<Entity> hasAdditionalCode = resource -> hasId(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE),
+                    additionalCode.getId());
+
+            result.addAll(candidates.stream().filter(hasAdditionalCode).collect(Collectors.toList()));
+            result.addAll(candidates.stream().filter(hasAdditionalCode.negate()).collect(Collectors.toList()));
+        }
+
+        if (result.isEmpty()) {
+            result = candidates;
+        }
+
+        return result;
+    }
+
+    public void update(final Entity resource) {
+        updatedResourceIds.add(resource.getId());
+    }
+
+    public void delete(final Entity resource) {
+        deletedResourceIds.add(resource.getId());
+    }
+
+    public List<Entity> getUpdatedResources() {
+        return updatedResourceIds.stream().filter(resourceId -> !deletedResourceIds.contains(resourceId))
+                .map(resources::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    public List<Entity> getDeletedResources() {
+        return deletedResourceIds.stream().map(resources::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private boolean isAvailable(final Entity resource) {
+        BigDecimal availableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+        return !deletedResourceIds.contains(resource.getId()) && Objects.nonNull(availableQuantity)
+                && availableQuantity.compareTo(BigDecimal.ZERO) > 0
+                && !resource.getBooleanField(ResourceFields.BLOCKED_FOR_QUALITY_CONTROL);
+    }
+
+    // like conversion = ? and conversion <> ? in database, null never matches either of them
+    private boolean matchesConversion(final Entity resource, final BigDecimal conversion,
+            final boolean resourceIrrespectiveOfConversion) {
+        BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
+
+        if (Objects.isNull(conversion) || Objects.isNull(resourceConversion)) {
+            return false;
+        }
+
+        return (resourceConversion.compareTo(conversion) == 0) != resourceIrrespectiveOfConversion;
+    }
+
+    private boolean hasId(final Entity entity, final Long id) {
+        return Objects.nonNull(entity) && id.equals(entity.getId());
+    }
+
+    // nulls are last in ascending and first in descending order, like in database
+    private Comparator<Entity> getComparator(final WarehouseAlgorithm warehouseAlgorithm) {
+        Comparator<Entity> comparator;
+
+        if (WarehouseAlgorithm.FIFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing(this::getTime, Comparator.nullsLast(Comparator.naturalOrder()));
+        } else if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing(this::getTime, Comparator.nullsFirst(Comparator.reverseOrder()));
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing(this::getExpirationDate, Comparator.nullsLast(Comparator.naturalOrder()));
+            comparator = comparator.thenComparing(this::getAvailableQuantity);
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing(this::getExpirationDate, Comparator.nullsFirst(Comparator.reverseOrder()));
+            comparator = comparator.thenComparing(this::getAvailableQuantity);
+        } else {
+            comparator = (first, second) -> 0;
+        }
+
+        return comparator.thenComparing(Entity::getId);
+    }
+
+    private Date getTime(final Entity resource) {
+        return resource.getDateField(ResourceFields.TIME);
+    }
+
+    private Date getExpirationDate(final Entity resource) {
+        return resource.getDateField(ResourceFields.EXPIRATION_DATE);
+    }
+
+    private BigDecimal getAvailableQuantity(final Entity resource) {
+        return resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+    }
+
+}
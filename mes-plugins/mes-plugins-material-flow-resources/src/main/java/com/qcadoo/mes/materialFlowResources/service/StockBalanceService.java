@@ -0,0 +1,322 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.beanutils.MethodUtils;
+import org.hibernate.classic.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.util.FieldUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+/**
+ * Maintains stock balances - sums of resource quantities by location, product and storage location.
+ *
+ * Writers of resources mark changed locations and products, balances of them are recalculated from resources once, just
+ * before the commit of the transaction. Balances are filled on startup if there are none yet, balances changed outside of
+ * the application are fixed by a nightly consistency check.
+ */
+@Service
+public class StockBalanceService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StockBalanceService.class);
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private static final String L_RESOURCE_IDS = "resourceIds";
+
+    private static final int L_PRODUCTS_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    public void markChanged(final Entity resource) {
+        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
+        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
+
+        if (Objects.nonNull(location) && Objects.nonNull(product)) {
+            markChanged(location.getId(), Sets.newHashSet(product.getId()));
+        }
+    }
+
+    public void markChanged(final Long locationId, final Collection<Long> productIds) {
+        if (Objects.isNull(locationId) || productIds.isEmpty()) {
+            return;
+        }
+
+        ChangedStockBalances changedStockBalances = getChangedStockBalances();
+
+        if (Objects.isNull(changedStockBalances)) {
+            refresh(locationId, productIds);
+        } else {
+            changedStockBalances.add(locationId, productIds);
+        }
+    }
+
+    public void markChangedForResources(final Collection<Long> resourceIds) {
+        if (resourceIds.isEmpty()) {
+            return;
+        }
+
+        String query = "SELECT DISTINCT resource.location_id AS locationId, resource.product_id AS productId "
+                + "FROM materialflowresources_resource resource WHERE resource.id IN (:resourceIds)";
+
+        Map<Long, Set<Long>> productIdsByLocation = Maps.newHashMap();
+
+        jdbcTemplate.query(query, Collections.singletonMap(L_RESOURCE_IDS, resourceIds),
+                (RowCallbackHandler) resultSet -> productIdsByLocation.computeIfAbsent(resultSet.getLong("locationId"),
+                        key -> Sets.newHashSet()).add(resultSet.getLong("productId")));
+
+        productIdsByLocation.forEach(this::markChanged);
+    }
+
+    public void markLocationChanged(final Long locationId) {
+        String query = "SELECT DISTINCT resource.product_id FROM materialflowresources_resource resource "
+                + "WHERE resource.location_id = :locationId "
+                + "UNION SELECT stockBalance.product_id FROM materialflowresources_stockbalance stockBalance "
+                + "WHERE stockBalance.location_id = :locationId";
+
+        List<Long> productIds = jdbcTemplate.queryForList(query, Collections.singletonMap(L_LOCATION_ID, locationId), Long.class);
+
+        markChanged(locationId, productIds);
+    }
+
+    private ChangedStockBalances getChangedStockBalances() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        ChangedStockBalances changedStockBalances = (ChangedStockBalances) TransactionSynchronizationManager
+                .getResource(ChangedStockBalances.class);
+
+        if (Objects.isNull(changedStockBalances)) {
+            ChangedStockBalances newChangedStockBalances = new ChangedStockBalances();
+
+            TransactionSynchronizationManager.bindResource(ChangedStockBalances.class, newChangedStockBalances);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void beforeCommit(final boolean readOnly) {
+                    // resources changed in the session have to be written before they are summed up
+                    flushSession();
+
+                    newChangedStockBalances.productIdsByLocation.forEach(StockBalanceService.this::refresh);
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ChangedStockBalances.class);
+                }
+            });
+
+            changedStockBalances = newChangedStockBalances;
+        }
+
+        return changedStockBalances;
+    }
+
+    private void refresh(final Long locationId, final Collection<Long> productIds) {
+        for (List<Long> productIdsChunk : Lists.partition(productIds.stream().sorted().collect(Collectors.toList()),
+                L_PRODUCTS_CHUNK_SIZE)) {
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put(L_LOCATION_ID, locationId);
+            params.put(L_PRODUCT_IDS, productIdsChunk);
+
+            // balances of the same product recalculated by two transactions at once would be doubled
+            jdbcTemplate.queryForList(
+                    "SELECT pg_advisory_xact_lock(CAST(:locationId AS integer), CAST(productId AS integer)) "
+                            + "FROM unnest(ARRAY[:productIds]) AS productId ORDER BY productId", params, Object.class);
+
+            jdbcTemplate.update("DELETE FROM materialflowresources_stockbalance "
+                    + "WHERE location_id = :locationId AND product_id IN (:productIds)", params);
+
+            jdbcTemplate.update("INSERT INTO materialflowresources_stockbalance "
+                    + "(id, location_id, product_id, storagelocation_id, quantity, reservedquantity, availablequantity) "
+                    + "SELECT nextval('materialflowresources_stockbalance_id_seq'), resource.location_id, resource.product_id, "
+                    + "resource.storagelocation_id, SUM(resource.quantity), SUM(COALESCE(resource.reservedquantity, 0)), "
+                    + "SUM(COALESCE(resource.availablequantity, 0)) FROM materialflowresources_resource resource "
+                    + "WHERE resource.location_id = :locationId AND resource.product_id IN (:productIds) "
+                    + "GROUP BY resource.location_id, resource.product_id, resource.storagelocation_id", params);
+        }
+    }
+
+    public void fillStockBalancesTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                // the lock taken while filling has to be held until the balances are committed
+                new TransactionTemplate(transactionManager).execute(status -> fillStockBalances());
+            }
+
+        });
+    }
+
+    /**
+     * Fills stock balances from resources when there are none yet, e.g. after the upgrade which introduced them, so they don't
+     * read zero until the nightly consistency check.
+     *
+     * @return true if balances were filled
+     */
+    @Transactional
+    public boolean fillStockBalances() {
+        boolean withoutStockBalances = jdbcTemplate.queryForList(
+                "SELECT stockBalance.id FROM materialflowresources_stockbalance stockBalance LIMIT 1", Maps.newHashMap(),
+                Long.class).isEmpty();
+
+        if (!withoutStockBalances) {
+            return false;
+        }
+
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext('materialflowresources_stockbalance'))",
+                Maps.newHashMap(), Object.class);
+
+        int count = jdbcTemplate.update("INSERT INTO materialflowresources_stockbalance "
+                + "(id, location_id, product_id, storagelocation_id, quantity, reservedquantity, availablequantity) "
+                + "SELECT nextval('materialflowresources_stockbalance_id_seq'), resource.location_id, resource.product_id, "
+                + "resource.storagelocation_id, SUM(resource.quantity), SUM(COALESCE(resource.reservedquantity, 0)), "
+                + "SUM(COALESCE(resource.availablequantity, 0)) FROM materialflowresources_resource resource "
+                + "WHERE NOT EXISTS (SELECT 1 FROM materialflowresources_stockbalance stockBalance) "
+                + "GROUP BY resource.location_id, resource.product_id, resource.storagelocation_id", Maps.newHashMap());
+
+        if (count > 0) {
+            LOGGER.info("Stock balances filled from resources, " + count + " balances created");
+        }
+
+        return count > 0;
+    }
+
+    public void checkStockBalancesTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                checkStockBalances();
+            }
+
+        });
+    }
+
+    /**
+     * Compares stock balances with sums of resources and recalculates the ones that differ.
+     *
+     * @return number of recalculated locations and products
+     */
+    @Transactional
+    public int checkStockBalances() {
+        String query = "WITH resources AS (SELECT resource.location_id, resource.product_id, resource.storagelocation_id, "
+                + "SUM(resource.quantity) AS quantity, SUM(COALESCE(resource.reservedquantity, 0)) AS reservedquantity, "
+                + "SUM(COALESCE(resource.availablequantity, 0)) AS availablequantity "
+                + "FROM materialflowresources_resource resource "
+                + "GROUP BY resource.location_id, resource.product_id, resource.storagelocation_id) "
+                + "SELECT DISTINCT COALESCE(resources.location_id, stockBalance.location_id) AS locationId, "
+                + "COALESCE(resources.product_id, stockBalance.product_id) AS productId FROM resources "
+                + "FULL JOIN materialflowresources_stockbalance stockBalance ON stockBalance.location_id = resources.location_id "
+                + "AND stockBalance.product_id = resources.product_id "
+                + "AND stockBalance.storagelocation_id IS NOT DISTINCT FROM resources.storagelocation_id "
+                + "WHERE resources.location_id IS NULL OR stockBalance.id IS NULL "
+                + "OR stockBalance.quantity IS DISTINCT FROM resources.quantity "
+                + "OR stockBalance.reservedquantity IS DISTINCT FROM resources.reservedquantity "
+                + "OR stockBalance.availablequantity IS DISTINCT FROM resources.availablequantity";
+
+        Map<Long, Set<Long>> productIdsByLocation = Maps.newHashMap();
+
+        jdbcTemplate.query(query, Maps.newHashMap(), (RowCallbackHandler) resultSet -> productIdsByLocation
+                .computeIfAbsent(resultSet.getLong("locationId"), key -> Sets.newHashSet()).add(resultSet.getLong("productId")));
+
+        int count = productIdsByLocation.values().stream().mapToInt(Set::size).sum();
+
+        if (count > 0) {
+            LOGGER.warn("Stock balances of " + count + " products in locations differ from resources, recalculating");
+
+            productIdsByLocation.forEach(this::refresh);
+        }
+
+        return count;
+    }
+
+    void flushSession() {
+        DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+        Object dataAccessService = FieldUtils.getProtectedFieldValue("dataAccessService", resourceDD);
+        Object hibernateService = FieldUtils.getProtectedFieldValue("hibernateService", dataAccessService);
+
+        try {
+            ((Session) MethodUtils.invokeExactMethod(hibernateService, "getCurrentSession", new Object[0])).flush();
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static final class ChangedStockBalances {
+
+        private final Map<Long, Set<Long>> productIdsByLocation = Maps.newHashMap();
+
+        private void add(final Long locationId, final Collection<Long> productIds) {
+            productIdsByLocation.computeIfAbsent(locationId, key -> Sets.newHashSet()).addAll(productIds);
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package com.qcadoo.mes.materialFlowResources.storagelocation.imports;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlowResources.service.StockBalanceService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.security.api.SecurityService;
@@ -45,6 +46,9 @@ public class ImportStorageLocationService {
     @Autowired
     private FileService fileService;
 
+    @Autowired
+    private StockBalanceService stockBalanceService;
+
     @Autowired
     private SecurityService securityService;
 
@@ -122,7 +126,12 @@ public class ImportStorageLocationService {
         query.append("WHERE res.location_id=:location_id");
         Map<String, Object> parameters = new HashMap<String, Object>();
         parameters.put("location_id", warehouse);
-        return jdbcTemplate.update(query.toString(), parameters);
+
+        int updated = jdbcTemplate.update(query.toString(), parameters);
+
+        stockBalanceService.markLocationChanged(warehouse);
+
+        return updated;
     }
 
     private Set<String> findStorageLocationsToClearProduct(Set<String> storageLocationsDB,
@@ -0,0 +1,110 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+public class ResourcesAllocationTest {
+
+    private static final Long PRODUCT_ID = 1L;
+
+    private Entity product;
+
+    private Entity resourceWithConversion;
+
+    private Entity resourceWithOtherConversion;
+
+    private Entity resourceWithoutConversion;
+
+    @Before
+    public final void init() {
+        product = mock(Entity.class);
+
+        given(product.getId()).willReturn(PRODUCT_ID);
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn("kg");
+
+        resourceWithConversion = mockResource(1L, new BigDecimal("2.00000"));
+        resourceWithOtherConversion = mockResource(2L, new BigDecimal("3"));
+        resourceWithoutConversion = mockResource(3L, null);
+    }
+
+    @Test
+    public final void shouldTakeResourcesWithEqualConversion() {
+        // given
+        ResourcesAllocation resourcesAllocation = createResourcesAllocation(false);
+
+        // when
+        List<Entity> resources = resourcesAllocation.getResources(product, mockPosition(new BigDecimal("2")),
+                WarehouseAlgorithm.FIFO);
+
+        // then
+        assertEquals(Lists.newArrayList(resourceWithConversion), resources);
+    }
+
+    @Test
+    public final void shouldTakeResourcesWithOtherConversionAfterEqualOnesButNeverWithoutConversion() {
+        // given
+        ResourcesAllocation resourcesAllocation = createResourcesAllocation(true);
+
+        // when
+        List<Entity> resources = resourcesAllocation.getResources(product, mockPosition(new BigDecimal("2")),
+                WarehouseAlgorithm.FIFO);
+
+        // then
+        assertEquals(Lists.newArrayList(resourceWithConversion, resourceWithOtherConversion), resources);
+    }
+
+    @Test
+    public final void shouldNotMatchAnyResourceWhenPositionHasNoConversion() {
+        // given
+        ResourcesAllocation resourcesAllocation = createResourcesAllocation(true);
+
+        // when
+        List<Entity> resources = resourcesAllocation.getResources(product, mockPosition(null), WarehouseAlgorithm.FIFO);
+
+        // then
+        assertTrue(resources.isEmpty());
+    }
+
+    private ResourcesAllocation createResourcesAllocation(final boolean fillResourceIrrespectiveOfConversion) {
+        return new ResourcesAllocation(
+                Lists.newArrayList(resourceWithConversion, resourceWithOtherConversion, resourceWithoutConversion),
+                fillResourceIrrespectiveOfConversion);
+    }
+
+    private Entity mockPosition(final BigDecimal conversion) {
+        Entity position = mock(Entity.class);
+
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(conversion);
+
+        return position;
+    }
+
+    private Entity mockResource(final Long id, final BigDecimal conversion) {
+        Entity resource = mock(Entity.class);
+
+        given(resource.getId()).willReturn(id);
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getDecimalField(ResourceFields.CONVERSION)).willReturn(conversion);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.TEN);
+        given(resource.getDateField(ResourceFields.TIME)).willReturn(new Date(id * 1000L));
+
+        return resource;
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.ResultSet;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+
+public class StockBalanceServiceTest {
+
+    private static final Long LOCATION_ID = 5L;
+
+    private StockBalanceService stockBalanceService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stockBalanceService = spy(new StockBalanceService());
+
+        ReflectionTestUtils.setField(stockBalanceService, "jdbcTemplate", jdbcTemplate);
+
+        doNothing().when(stockBalanceService).flushSession();
+    }
+
+    @After
+    public final void clear() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public final void shouldRecalculateBalancesAtOnceOutsideOfTransaction() {
+        // given
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        stockBalanceService.markChanged(LOCATION_ID, Lists.newArrayList(3L, 1L));
+
+        // then
+        verify(jdbcTemplate).queryForList(startsWith("SELECT pg_advisory_xact_lock"), anyMap(), eq(Object.class));
+        verify(jdbcTemplate).update(startsWith("DELETE FROM materialflowresources_stockbalance"), paramsCaptor.capture());
+        verify(jdbcTemplate).update(startsWith("INSERT INTO materialflowresources_stockbalance"), anyMap());
+
+        assertEquals(LOCATION_ID, paramsCaptor.getValue().get("locationId"));
+        assertEquals(Lists.newArrayList(1L, 3L), paramsCaptor.getValue().get("productIds"));
+    }
+
+    @Test
+    public final void shouldRecalculateMarkedBalancesOnceBeforeCommit() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        stockBalanceService.markChanged(LOCATION_ID, Lists.newArrayList(2L));
+        stockBalanceService.markChanged(LOCATION_ID, Lists.newArrayList(1L, 2L));
+
+        // then
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+
+        // when
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        // then
+        verify(stockBalanceService).flushSession();
+        verify(jdbcTemplate, times(1)).update(startsWith("DELETE FROM materialflowresources_stockbalance"),
+                paramsCaptor.capture());
+
+        assertEquals(Lists.newArrayList(1L, 2L), paramsCaptor.getValue().get("productIds"));
+    }
+
+    @Test
+    public final void shouldFillStockBalancesWhenThereAreNone() {
+        // given
+        given(jdbcTemplate.queryForList(startsWith("SELECT stockBalance.id"), anyMap(), eq(Long.class))).willReturn(
+                Lists.<Long> newArrayList());
+        given(jdbcTemplate.update(startsWith("INSERT INTO materialflowresources_stockbalance"), anyMap())).willReturn(10);
+
+        // when
+        boolean filled = stockBalanceService.fillStockBalances();
+
+        // then
+        assertTrue(filled);
+    }
+
+    @Test
+    public final void shouldNotFillStockBalancesWhenThereAreSome() {
+        // given
+        given(jdbcTemplate.queryForList(startsWith("SELECT stockBalance.id"), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(1L));
+
+        // when
+        boolean filled = stockBalanceService.fillStockBalances();
+
+        // then
+        assertFalse(filled);
+
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+    }
+
+    @Test
+    public final void shouldRecalculateBalancesDifferentFromResources() {
+        // given
+        doAnswer(invocation -> {
+            RowCallbackHandler rowCallbackHandler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            for (long productId = 1; productId <= 2; productId++) {
+                ResultSet resultSet = mock(ResultSet.class);
+
+                given(resultSet.getLong("locationId")).willReturn(LOCATION_ID);
+                given(resultSet.getLong("productId")).willReturn(productId);
+
+                rowCallbackHandler.processRow(resultSet);
+            }
+
+            return null;
+        }).when(jdbcTemplate).query(startsWith("WITH resources"), anyMap(), any(RowCallbackHandler.class));
+
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        int count = stockBalanceService.checkStockBalances();
+
+        // then
+        assertEquals(2, count);
+
+        verify(jdbcTemplate).update(startsWith("DELETE FROM materialflowresources_stockbalance"), paramsCaptor.capture());
+
+        assertEquals(Lists.newArrayList(1L, 2L), paramsCaptor.getValue().get("productIds"));
+    }
+
+}
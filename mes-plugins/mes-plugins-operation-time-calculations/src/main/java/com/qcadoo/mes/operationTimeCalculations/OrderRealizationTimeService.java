@@ -104,6 +104,20 @@ public interface OrderRealizationTimeService {
             BigDecimal plannedQuantity, boolean includeTpz, boolean includeAdditionalTime,
             Entity productionLine);
 
+    /**
+     * 
+     * Same as {@link #estimateMaxOperationTimeConsumptionForWorkstation(Entity, EntityTreeNode, BigDecimal, boolean, boolean, Entity)}
+     * but with already calculated product quantities and operation runs of the technology.
+     * 
+     * @param operationRuns
+     *            operation runs calculated together with productComponentQuantities
+     * @param productComponentQuantities
+     *            product quantities of the technology for planned quantity of the order
+     */
+    @Transactional int estimateMaxOperationTimeConsumptionForWorkstation(Entity order, EntityTreeNode operationComponent,
+            boolean includeTpz, boolean includeAdditionalTime, Map<Long, BigDecimal> operationRuns, Entity productionLine,
+            OperationProductComponentWithQuantityContainer productComponentQuantities);
+
     /**
      * 
      * @param entity
@@ -114,6 +114,15 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
                 operationRunsFromProductionQuantities, productionLine, true, productComponentQuantities);
     }
 
+    @Override
+    @Transactional
+    public int estimateMaxOperationTimeConsumptionForWorkstation(final Entity order, final EntityTreeNode operationComponent,
+            final boolean includeTpz, final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns,
+            final Entity productionLine, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+        return evaluateOperationTime(order, operationComponent, includeTpz, includeAdditionalTime, operationRuns, productionLine,
+                true, productComponentQuantities);
+    }
+
     @Override
     public Map<Entity, Integer> estimateOperationTimeConsumptions(final Entity entity, final BigDecimal plannedQuantity,
             final boolean includeTpz, final boolean includeAdditionalTime, final Entity productionLine) {
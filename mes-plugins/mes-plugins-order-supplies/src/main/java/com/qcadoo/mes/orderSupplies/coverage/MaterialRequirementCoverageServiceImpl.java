@@ -27,6 +27,7 @@ import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.deliveries.DeliveriesService;
 import com.qcadoo.mes.deliveries.constants.DeliveriesConstants;
@@ -47,8 +48,11 @@ import com.qcadoo.mes.orderSupplies.constants.CoverageType;
 import com.qcadoo.mes.orderSupplies.constants.MaterialRequirementCoverageFields;
 import com.qcadoo.mes.orderSupplies.constants.OrderSuppliesConstants;
 import com.qcadoo.mes.orderSupplies.constants.ProductType;
+import com.qcadoo.mes.orderSupplies.register.RegisterRow;
 import com.qcadoo.mes.orderSupplies.register.RegisterService;
+import com.qcadoo.mes.orderSupplies.register.RegisterSnapshotService;
 import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.states.constants.TechnologyState;
@@ -69,6 +73,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
@@ -92,6 +98,15 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private static final String L_PLANNED_QUANTITY = "planedQuantity";
 
+    private static final int L_BATCH_SIZE = 1000;
+
+    private static final List<String> L_ORDER_INPUT_EVENT_TYPES = Lists.newArrayList(
+            CoverageProductLoggingEventType.ORDER_INPUT.getStringValue(),
+            CoverageProductLoggingEventType.OPERATION_INPUT.getStringValue());
+
+    private static final List<String> L_ORDER_OUTPUT_EVENT_TYPES = Lists.newArrayList(
+            CoverageProductLoggingEventType.ORDER_OUTPUT.getStringValue());
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -107,6 +122,9 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     @Autowired
     private RegisterService registerService;
 
+    @Autowired
+    private RegisterSnapshotService registerSnapshotService;
+
     @Autowired
     private DeliveriesService deliveriesService;
 
@@ -229,38 +247,17 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private void estimateProductProducedInTime(final Map<Long, Entity> productAndCoverageProducts, final Date coverageToDate,
             final Date actualDate, final List<Entity> orderStates) {
-        List<String> states = Lists.newArrayList();
-
-        if (orderStates != null && !orderStates.isEmpty()) {
-            states = orderStates.stream().map(o -> o.getStringField(CoverageOrderStateFields.STATE)).collect(Collectors.toList());
-        }
-
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_coverageRegister AS registry ");
-
-        if (!states.isEmpty()) {
-            query.append("JOIN registry.order AS ord ");
-        }
-
-        query.append("WHERE registry.date <= :dateTo AND eventType IN ('05orderOutput') ");
-
-        if (!states.isEmpty()) {
-            query.append("AND ord.state IN (:states)");
-        }
-
-        SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query.toString()).setParameter("dateTo", coverageToDate);
+        List<RegisterRow> regs = getRegisterRows(coverageToDate, L_ORDER_OUTPUT_EVENT_TYPES, getStates(orderStates), null);
 
-        if (!states.isEmpty()) {
-            queryBuilder.setParameterList("states", states);
-        }
+        Map<Long, Entity> products = getEntities(getProductDD(), regs, RegisterRow::getProductId);
+        Map<Long, Entity> orders = getEntities(getOrderDD(), regs, RegisterRow::getOrderId);
+        Map<Long, Entity> operations = getEntities(getOperationDD(), regs, RegisterRow::getOperationId);
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createProductLoggingForOrderProduced(reg, actualDate, coverageToDate);
+        for (RegisterRow reg : regs) {
+            if (BigDecimal.ZERO.compareTo(reg.getQuantity()) < 0) {
+                Entity coverageProductLogging = createProductLoggingForOrderProduced(reg, orders, operations, actualDate);
 
-                fillCoverageProductForOrderProduced(productAndCoverageProducts, reg.getBelongsToField("product"),
+                fillCoverageProductForOrderProduced(productAndCoverageProducts, products.get(reg.getProductId()),
                         coverageProductLogging);
             }
         }
@@ -296,20 +293,18 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         productAndCoverageProducts.put(product.getId(), addedCoverageProduct);
     }
 
-    private Entity createProductLoggingForOrderProduced(final Entity registerEntry, final Date actualDate,
-            final Date coverageToDate) {
+    private Entity createProductLoggingForOrderProduced(final RegisterRow registerEntry, final Map<Long, Entity> orders,
+            final Map<Long, Entity> operations, final Date actualDate) {
         Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
 
-        coverageProductLogging
-                .setField(
-                        CoverageProductLoggingFields.DATE,
-                        getCoverageProductLoggingDateForOrderProduced(registerEntry.getDateField(CoverageRegisterFields.DATE),
-                                actualDate));
-        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, registerEntry.getBelongsToField("order"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION, registerEntry.getBelongsToField("operation"));
+        coverageProductLogging.setField(CoverageProductLoggingFields.DATE,
+                getCoverageProductLoggingDateForOrderProduced(registerEntry.getDate(), actualDate));
+        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, getEntity(orders, registerEntry.getOrderId()));
+        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION,
+                getEntity(operations, registerEntry.getOperationId()));
         coverageProductLogging.setField(CoverageProductLoggingFields.CHANGES,
-                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getStringField("eventType"));
+                numberService.setScaleWithDefaultMathContext(registerEntry.getQuantity()));
+        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getEventType());
 
         return coverageProductLogging;
     }
@@ -329,55 +324,76 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     private void saveCoverage(final Entity materialRequirementCoverage, final List<Entity> entities) {
         List<Entity> selectedOrders = materialRequirementCoverage.getHasManyField("coverageOrders");
 
+        List<Entity> coverageProducts = entities;
+
         if (!selectedOrders.isEmpty()) {
-            List<Entity> filtredEntities = entities.stream()
-                    .filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER)).collect(Collectors.toList());
+            coverageProducts = entities.stream().filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER))
+                    .collect(Collectors.toList());
+        }
 
-            for (Entity covProduct : filtredEntities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
-        } else {
-            for (Entity covProduct : entities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
+        for (List<Entity> coverageProductsChunk : Lists.partition(coverageProducts, L_BATCH_SIZE)) {
+            saveCoverageProducts(materialRequirementCoverage, coverageProductsChunk);
         }
     }
 
-    private void saveCoverageProductLogging(final Entity log) {
-        String sqlLog = "INSERT INTO ordersupplies_coverageproductlogging(coverageproduct_id, date, "
-                + "order_id, delivery_id, operation_id, reservemissingquantity, changes, eventtype, state, warehouseNumber, deliveryNumberExternal) "
-                + "VALUES (currval('ordersupplies_coverageproduct_id_seq'), :date, :order_id, :delivery_id, :operation_id, "
-                + ":reservemissingquantity, :changes, :eventtype, :state, :warehouseNumber, :deliveryNumberExternal);";
+    private void saveCoverageProducts(final Entity materialRequirementCoverage, final List<Entity> coverageProducts) {
+        List<Long> coverageProductIds = getCoverageProductIds(coverageProducts.size());
 
-        Map<String, Object> parametersLogg = Maps.newHashMap();
+        List<Map<String, Object>> coverageProductsParameters = Lists.newArrayListWithCapacity(coverageProducts.size());
+        List<Map<String, Object>> coverageProductLoggingsParameters = Lists.newArrayList();
 
-        parametersLogg.put("date", log.getDateField(CoverageProductLoggingFields.DATE));
+        for (int i = 0; i < coverageProducts.size(); i++) {
+            Entity coverageProduct = coverageProducts.get(i);
+            Long coverageProductId = coverageProductIds.get(i);
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.DELIVERY) != null) {
-            parametersLogg.put("delivery_id", log.getBelongsToField(CoverageProductLoggingFields.DELIVERY).getId());
-        } else {
-            parametersLogg.put("delivery_id", null);
+            Map<String, Object> parameters = getCoverageProductParameters(materialRequirementCoverage, coverageProduct);
+
+            parameters.put("id", coverageProductId);
+
+            coverageProductsParameters.add(parameters);
+
+            for (Entity log : coverageProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
+                coverageProductLoggingsParameters.add(getCoverageProductLoggingParameters(coverageProductId, log));
+            }
         }
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.ORDER) != null) {
-            parametersLogg.put("order_id", log.getBelongsToField(CoverageProductLoggingFields.ORDER).getId());
-        } else {
-            parametersLogg.put("order_id", null);
+        batchInsert("ordersupplies_coverageproduct", coverageProductsParameters);
+
+        for (List<Map<String, Object>> loggingsChunk : Lists.partition(coverageProductLoggingsParameters, L_BATCH_SIZE)) {
+            batchInsert("ordersupplies_coverageproductlogging", loggingsChunk);
         }
+    }
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.OPERATION) != null) {
-            parametersLogg.put("operation_id", log.getBelongsToField(CoverageProductLoggingFields.OPERATION).getId());
-        } else {
-            parametersLogg.put("operation_id", null);
+    private List<Long> getCoverageProductIds(final int count) {
+        String sql = "SELECT nextval('ordersupplies_coverageproduct_id_seq') FROM generate_series(1, :count)";
+
+        return jdbcTemplate.queryForList(sql, new MapSqlParameterSource("count", count), Long.class);
+    }
 
+    private void batchInsert(final String table, final List<Map<String, Object>> rowsParameters) {
+        if (rowsParameters.isEmpty()) {
+            return;
         }
 
+        Set<String> columns = rowsParameters.get(0).keySet();
+
+        String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + columns.stream().map(column -> ":" + column).collect(Collectors.joining(", ")) + ")";
+
+        SqlParameterSource[] batch = rowsParameters.stream().map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(sql, batch);
+    }
+
+    private Map<String, Object> getCoverageProductLoggingParameters(final Long coverageProductId, final Entity log) {
+        Map<String, Object> parametersLogg = Maps.newLinkedHashMap();
+
+        parametersLogg.put("coverageproduct_id", coverageProductId);
+        parametersLogg.put("date", log.getDateField(CoverageProductLoggingFields.DATE));
+        parametersLogg.put("order_id", getId(log.getBelongsToField(CoverageProductLoggingFields.ORDER)));
+        parametersLogg.put("delivery_id", getId(log.getBelongsToField(CoverageProductLoggingFields.DELIVERY)));
+        parametersLogg.put("operation_id", getId(log.getBelongsToField(CoverageProductLoggingFields.OPERATION)));
         parametersLogg.put("reservemissingquantity", log.getDecimalField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY));
         parametersLogg.put("changes", log.getDecimalField(CoverageProductLoggingFields.CHANGES));
         parametersLogg.put("eventtype", log.getStringField(CoverageProductLoggingFields.EVENT_TYPE));
@@ -385,33 +401,19 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         parametersLogg.put("warehouseNumber", log.getStringField(CoverageProductLoggingFields.WAREHOUSE_NUMBER));
         parametersLogg.put("deliveryNumberExternal", log.getStringField("deliveryNumberExternal"));
 
-        SqlParameterSource nParameters = new MapSqlParameterSource(parametersLogg);
-
-        jdbcTemplate.update(sqlLog, nParameters);
+        return parametersLogg;
     }
 
-    private void saveCoverageProduct(final Entity materialRequirementCoverage, final Entity coverageProduct) {
-        String sql = "INSERT INTO ordersupplies_coverageproduct "
-                + "(materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
-                + "reservemissingquantity, deliveredquantity, locationsquantity, state, productnumber, productname, "
-                + "productunit, produceQuantity, fromSelectedOrder, allProductsType, company_id) "
-                + "VALUES (:materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
-                + ":reservemissingquantity, :deliveredquantity, :locationsquantity, :state, :productnumber, :productname, "
-                + ":productunit, :produceQuantity, :fromSelectedOrder, :allProductsType, :company_id)";
+    // Do not remove, around by aspect
+    public Map<String, Object> getCoverageProductParameters(final Entity materialRequirementCoverage,
+            final Entity coverageProduct) {
+        Map<String, Object> parameters = Maps.newLinkedHashMap();
 
-        Map<String, Object> parameters = Maps.newHashMap();
+        Entity product = coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT);
 
         parameters.put("materialrequirementcoverage_id", materialRequirementCoverage.getId());
-        parameters.put("product_id", coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getId());
-
-        Entity company = coverageProduct.getBelongsToField(CoverageProductFields.COMPANY);
-
-        if (company != null) {
-            parameters.put("company_id", company.getId());
-        } else {
-            parameters.put("company_id", null);
-        }
-
+        parameters.put("product_id", product.getId());
+        parameters.put("company_id", getId(coverageProduct.getBelongsToField(CoverageProductFields.COMPANY)));
         parameters.put("lackfromdate", coverageProduct.getDateField(CoverageProductFields.LACK_FROM_DATE));
         parameters.put("demandquantity", coverageProduct.getDecimalField(CoverageProductFields.DEMAND_QUANTITY));
         parameters.put("coveredquantity", coverageProduct.getDecimalField(CoverageProductFields.COVERED_QUANTITY));
@@ -420,18 +422,21 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         parameters.put("locationsquantity", coverageProduct.getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY));
         parameters.put("produceQuantity", coverageProduct.getDecimalField(CoverageProductFields.PRODUCE_QUANTITY));
         parameters.put("state", coverageProduct.getStringField(CoverageProductFields.STATE));
-        parameters.put("productnumber",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.NUMBER));
-        parameters.put("productname",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.NAME));
-        parameters.put("productunit",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.UNIT));
+        parameters.put("productnumber", product.getStringField(ProductFields.NUMBER));
+        parameters.put("productname", product.getStringField(ProductFields.NAME));
+        parameters.put("productunit", product.getStringField(ProductFields.UNIT));
         parameters.put("fromSelectedOrder", coverageProduct.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER));
         parameters.put("allProductsType", coverageProduct.getStringField(CoverageProductFields.ALL_PRODUCTS_TYPE));
 
-        SqlParameterSource namedParameters = new MapSqlParameterSource(parameters);
+        return parameters;
+    }
+
+    private Long getId(final Entity entity) {
+        if (Objects.isNull(entity)) {
+            return null;
+        }
 
-        jdbcTemplate.update(sql, namedParameters);
+        return entity.getId();
     }
 
     // Do not remove, around by aspect
@@ -563,80 +568,90 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private void fillFromRegistry(final Map<Long, Entity> productAndCoverageProducts, final Date coverageToDate,
             final Date actualDate, final List<Entity> orderStates) {
-        List<String> states = Lists.newArrayList();
-
-        if (!orderStates.isEmpty()) {
-            states = orderStates.stream().map(order -> order.getStringField(CoverageOrderStateFields.STATE))
-                    .collect(Collectors.toList());
-        }
+        fillFromRegistryRows(productAndCoverageProducts,
+                getRegisterRows(coverageToDate, L_ORDER_INPUT_EVENT_TYPES, getStates(orderStates), null), actualDate);
+    }
 
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_coverageRegister AS registry ");
+    private void fillFromRegistryAssignedOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity assignedOrder,
+            final Date coverageToDate, final Date actualDate) {
+        fillFromRegistryRows(productAndCoverageProducts,
+                getRegisterRows(coverageToDate, L_ORDER_INPUT_EVENT_TYPES, Collections.emptyList(), assignedOrder.getId()),
+                actualDate);
+    }
 
-        if (!states.isEmpty()) {
-            query.append("JOIN registry.order AS ord ");
-        }
+    private void fillFromRegistryRows(final Map<Long, Entity> productAndCoverageProducts, final List<RegisterRow> regs,
+            final Date actualDate) {
+        Map<Long, Entity> products = getEntities(getProductDD(), regs, RegisterRow::getProductId);
+        Map<Long, Entity> orders = getEntities(getOrderDD(), regs, RegisterRow::getOrderId);
+        Map<Long, Entity> operations = getEntities(getOperationDD(), regs, RegisterRow::getOperationId);
 
-        query.append("WHERE registry.date <= :dateTo AND eventType IN ('04orderInput','03operationInput') ");
+        for (RegisterRow reg : regs) {
+            if (BigDecimal.ZERO.compareTo(reg.getQuantity()) < 0) {
+                Entity coverageProductLogging = createCoverageProductLoggingForOrder(reg, orders, operations, actualDate);
 
-        if (!states.isEmpty()) {
-            query.append("AND ord.state IN (:states)");
+                fillCoverageProductForOrder(productAndCoverageProducts, products.get(reg.getProductId()), reg.getProductType(),
+                        coverageProductLogging);
+            }
         }
+    }
 
-        SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query.toString()).setParameter("dateTo", coverageToDate);
-
-        if (!states.isEmpty()) {
-            queryBuilder.setParameterList("states", states);
+    private List<String> getStates(final List<Entity> orderStates) {
+        if (Objects.isNull(orderStates)) {
+            return Collections.emptyList();
         }
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createCoverageProductLoggingForOrder(reg, actualDate);
+        return orderStates.stream().map(orderState -> orderState.getStringField(CoverageOrderStateFields.STATE))
+                .collect(Collectors.toList());
+    }
 
-                fillCoverageProductForOrder(productAndCoverageProducts, reg.getBelongsToField("product"),
-                        reg.getStringField("productType"), coverageProductLogging);
-            }
-        }
+    private List<RegisterRow> getRegisterRows(final Date coverageToDate, final List<String> eventTypes,
+            final List<String> states, final Long orderId) {
+        return registerSnapshotService.getRows().stream()
+                .filter(row -> Objects.nonNull(row.getDate()) && !row.getDate().after(coverageToDate))
+                .filter(row -> Objects.nonNull(row.getQuantity()) && eventTypes.contains(row.getEventType()))
+                .filter(row -> states.isEmpty() || states.contains(row.getOrderState()))
+                .filter(row -> Objects.isNull(orderId) || orderId.equals(row.getOrderId())).collect(Collectors.toList());
     }
 
-    private void fillFromRegistryAssignedOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity assignedOrder,
-            final Date coverageToDate, final Date actualDate) {
-        String query = "SELECT registry FROM #orderSupplies_coverageRegister AS registry "
-                + "WHERE registry.date <= :dateTo AND eventType IN ('04orderInput','03operationInput') "
-                + "AND order_id = :orderId ";
-        SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query).setParameter("dateTo", coverageToDate);
+    private Map<Long, Entity> getEntities(final DataDefinition dataDefinition, final List<RegisterRow> regs,
+            final Function<RegisterRow, Long> idGetter) {
+        List<Long> ids = regs.stream().map(idGetter).filter(Objects::nonNull).distinct().collect(Collectors.toList());
 
-        queryBuilder.setParameter("orderId", assignedOrder.getId());
+        Map<Long, Entity> entities = Maps.newHashMap();
 
-        List<Entity> regs = queryBuilder.list().getEntities();
+        for (List<Long> idsChunk : Lists.partition(ids, L_BATCH_SIZE)) {
+            dataDefinition.find().add(SearchRestrictions.in("id", idsChunk)).list().getEntities()
+                    .forEach(entity -> entities.put(entity.getId(), entity));
+        }
 
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createCoverageProductLoggingForOrder(reg, actualDate);
-                fillCoverageProductForOrder(productAndCoverageProducts, reg.getBelongsToField("product"),
-                        reg.getStringField("productType"), coverageProductLogging);
-            }
+        return entities;
+    }
+
+    private Entity getEntity(final Map<Long, Entity> entities, final Long id) {
+        if (Objects.isNull(id)) {
+            return null;
         }
+
+        return entities.get(id);
     }
 
-    private Entity createCoverageProductLoggingForOrder(final Entity registerEntry, final Date actualDate) {
+    private Entity createCoverageProductLoggingForOrder(final RegisterRow registerEntry, final Map<Long, Entity> orders,
+            final Map<Long, Entity> operations, final Date actualDate) {
         Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
 
         coverageProductLogging.setField(CoverageProductLoggingFields.DATE,
-                getCoverageProductLoggingDateForOrder(registerEntry, actualDate));
-        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, registerEntry.getBelongsToField("order"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION, registerEntry.getBelongsToField("operation"));
+                getCoverageProductLoggingDateForOrder(registerEntry.getDate(), actualDate));
+        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, getEntity(orders, registerEntry.getOrderId()));
+        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION,
+                getEntity(operations, registerEntry.getOperationId()));
         coverageProductLogging.setField(CoverageProductLoggingFields.CHANGES,
-                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getStringField("eventType"));
+                numberService.setScaleWithDefaultMathContext(registerEntry.getQuantity()));
+        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getEventType());
 
         return coverageProductLogging;
     }
 
-    private Date getCoverageProductLoggingDateForOrder(final Entity registerEntry, final Date actualDate) {
-        Date startDate = registerEntry.getDateField("date");
+    private Date getCoverageProductLoggingDateForOrder(final Date startDate, final Date actualDate) {
         Date coverageDate;
 
         if (startDate.before(actualDate)) {
@@ -814,11 +829,12 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         for (Entity coverageLocation : coverageLocations) {
             Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
 
-            String sql = "SELECT resource.product.id AS product, SUM(resource.quantity) AS quantity "
-                    + "FROM #materialFlowResources_resource AS resource "
-                    + "WHERE resource.location.id = :locationId GROUP BY resource.product.id";
+            String sql = "SELECT stockBalance.product.id AS product, SUM(stockBalance.quantity) AS quantity "
+                    + "FROM #materialFlowResources_stockBalance AS stockBalance "
+                    + "WHERE stockBalance.location.id = :locationId GROUP BY stockBalance.product.id";
 
-            List<Entity> resources = getResourceDD().find(sql).setParameter("locationId", location.getId()).list().getEntities();
+            List<Entity> resources = getStockBalanceDD().find(sql).setParameter("locationId", location.getId()).list()
+                    .getEntities();
 
             Map<Long, BigDecimal> map = resources.stream().collect(
                     Collectors.toMap(res -> (Long) res.getField("product"), res -> res.getDecimalField("quantity")));
@@ -1058,9 +1074,21 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                 .get(OrderSuppliesConstants.PLUGIN_IDENTIFIER, OrderSuppliesConstants.MODEL_COVERAGE_REGISTER);
     }
 
-    private DataDefinition getResourceDD() {
+    private DataDefinition getProductDD() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
+    }
+
+    private DataDefinition getOrderDD() {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
+    }
+
+    private DataDefinition getOperationDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_OPERATION);
+    }
+
+    private DataDefinition getStockBalanceDD() {
         return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+                MaterialFlowResourcesConstants.MODEL_STOCK_BALANCE);
     }
 
     private DataDefinition getDeliveryDD() {
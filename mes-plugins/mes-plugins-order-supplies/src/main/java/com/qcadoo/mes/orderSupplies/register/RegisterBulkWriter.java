@@ -0,0 +1,201 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.orderSupplies.constants.CoverageRegisterFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Writes coverage register entries of an order as JDBC batches instead of saving them one by one through the data definition.
+ *
+ * Updated rows get their entityversion incremented, as the data definition would do, so entries loaded before the write
+ * can't be saved over it.
+ */
+@Service
+public class RegisterBulkWriter {
+
+    private static final String L_COLUMNS = "fromproductioncountingquantity, product_id, productnumber, order_id, ordernumber, "
+            + "delivery_id, operation_id, technologyoperationcomponent_id, date, quantity, productioncountingquantities, "
+            + "eventtype, state, producttype";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RegisterSnapshotService registerSnapshotService;
+
+    /**
+     * Makes stored coverage register entries of the given order equal to the given ones - only inserts, updates and deletes
+     * needed to get there are executed.
+     *
+     * @return number of written rows
+     */
+    public int writeEntries(final Entity order, final Collection<Entity> entries) {
+        List<RegisterRow> desiredRows = entries.stream().map(entry -> mapToRow(order.getId(), entry))
+                .collect(Collectors.toList());
+
+        RegisterRowsDiff diff = RegisterRowsDiff.between(getRows(order.getId()), desiredRows);
+
+        insertRows(diff.getRowsToInsert());
+        updateRows(diff.getRowsToUpdate());
+        deleteRows(diff.getRowsToDelete());
+
+        registerSnapshotService.markChanged(order);
+
+        return diff.getRowsToInsert().size() + diff.getRowsToUpdate().size() + diff.getRowsToDelete().size();
+    }
+
+    public void deleteEntries(final Entity order) {
+        jdbcTemplate.update("DELETE FROM ordersupplies_coverageregister WHERE order_id = :orderId",
+                new MapSqlParameterSource("orderId", order.getId()));
+
+        registerSnapshotService.markChanged(order);
+    }
+
+    /**
+     * Stores quantities of the given, already saved coverage register entries.
+     */
+    public void updateQuantities(final Collection<Entity> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        String query = "UPDATE ordersupplies_coverageregister SET quantity = :quantity, "
+                + "productioncountingquantities = :productionCountingQuantities, entityversion = entityversion + 1 "
+                + "WHERE id = :id";
+
+        SqlParameterSource[] batch = entries.stream()
+                .map(entry -> new MapSqlParameterSource("id", entry.getId())
+                        .addValue("quantity", entry.getDecimalField(CoverageRegisterFields.QUANTITY))
+                        .addValue("productionCountingQuantities",
+                                entry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES)))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(query, batch);
+
+        entries.stream().map(entry -> getId(entry.getField(CoverageRegisterFields.ORDER))).distinct()
+                .forEach(registerSnapshotService::markChanged);
+    }
+
+    private List<RegisterRow> getRows(final Long orderId) {
+        String query = "SELECT id, fromproductioncountingquantity, product_id, productnumber, order_id, ordernumber, "
+                + "delivery_id, operation_id, technologyoperationcomponent_id AS technologyOperationComponentId, date, "
+                + "quantity, productioncountingquantities, eventtype, state, producttype "
+                + "FROM ordersupplies_coverageregister WHERE order_id = :orderId ORDER BY id";
+
+        return jdbcTemplate.query(query, new MapSqlParameterSource("orderId", orderId),
+                BeanPropertyRowMapper.newInstance(RegisterRow.class));
+    }
+
+    private void insertRows(final List<RegisterRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        String query = "INSERT INTO ordersupplies_coverageregister (" + L_COLUMNS + ") VALUES (:fromProductionCountingQuantity, "
+                + ":productId, :productNumber, :orderId, :orderNumber, :deliveryId, :operationId, "
+                + ":technologyOperationComponentId, :date, :quantity, :productionCountingQuantities, :eventType, :state, "
+                + ":productType)";
+
+        jdbcTemplate.batchUpdate(query, toParameters(rows));
+    }
+
+    private void updateRows(final List<RegisterRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        String query = "UPDATE ordersupplies_coverageregister SET "
+                + "fromproductioncountingquantity = :fromProductionCountingQuantity, product_id = :productId, "
+                + "productnumber = :productNumber, order_id = :orderId, ordernumber = :orderNumber, delivery_id = :deliveryId, "
+                + "operation_id = :operationId, technologyoperationcomponent_id = :technologyOperationComponentId, "
+                + "date = :date, quantity = :quantity, productioncountingquantities = :productionCountingQuantities, "
+                + "eventtype = :eventType, state = :state, producttype = :productType, entityversion = entityversion + 1 "
+                + "WHERE id = :id";
+
+        jdbcTemplate.batchUpdate(query, toParameters(rows));
+    }
+
+    private void deleteRows(final List<RegisterRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update("DELETE FROM ordersupplies_coverageregister WHERE id IN (:ids)", new MapSqlParameterSource("ids",
+                rows.stream().map(RegisterRow::getId).collect(Collectors.toList())));
+    }
+
+    private SqlParameterSource[] toParameters(final List<RegisterRow> rows) {
+        return rows.stream().map(BeanPropertySqlParameterSource::new).toArray(SqlParameterSource[]::new);
+    }
+
+    private RegisterRow mapToRow(final Long orderId, final Entity entry) {
+        RegisterRow row = new RegisterRow();
+
+        row.setId(entry.getId());
+        row.setFromProductionCountingQuantity(entry.getBooleanField(CoverageRegisterFields.FROM_PRODUCTION_COUNTING_QUANTITY));
+        row.setProductId(getId(entry.getField(CoverageRegisterFields.PRODUCT)));
+        row.setProductNumber(entry.getStringField(CoverageRegisterFields.PRODUCT_NUMBER));
+        row.setOrderId(orderId);
+        row.setOrderNumber(entry.getStringField(CoverageRegisterFields.ORDER_NUMBER));
+        row.setDeliveryId(getId(entry.getField(CoverageRegisterFields.DELIVERY)));
+        row.setOperationId(getId(entry.getField(CoverageRegisterFields.OPERATION)));
+        row.setTechnologyOperationComponentId(getId(entry.getField(CoverageRegisterFields.TECHNOLOGY_OPERATION_COMPONENT)));
+        row.setDate(entry.getDateField(CoverageRegisterFields.DATE));
+        row.setQuantity(entry.getDecimalField(CoverageRegisterFields.QUANTITY));
+        row.setProductionCountingQuantities(entry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES));
+        row.setEventType(entry.getStringField(CoverageRegisterFields.EVENT_TYPE));
+        row.setState(entry.getStringField(CoverageRegisterFields.STATE));
+        row.setProductType(entry.getStringField(CoverageRegisterFields.PRODUCT_TYPE));
+
+        return row;
+    }
+
+    // belongsTo fields of entries built by register events are set either to entities or to ids
+    private Long getId(final Object value) {
+        if (Objects.isNull(value)) {
+            return null;
+        } else if (value instanceof Entity) {
+            return ((Entity) value).getId();
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        return Long.valueOf(value.toString());
+    }
+
+}
@@ -92,7 +92,21 @@ public class RegisterEvents {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private RegisterBulkWriter registerBulkWriter;
+
+    @Autowired
+    private RegisterSnapshotService registerSnapshotService;
+
     public void onSaveOrder(final DataDefinition orderDD, final Entity order) {
+        registerSnapshotService.markChanged(order);
+
+        fillRegistryEntries(orderDD, order);
+
+        registerService.writeRegistryEntries(order);
+    }
+
+    private void fillRegistryEntries(final DataDefinition orderDD, final Entity order) {
 
         Entity orderDB = null;
         if (OrderState.of(order) == OrderState.ABANDONED || OrderState.of(order) == OrderState.COMPLETED
@@ -156,6 +170,8 @@ public class RegisterEvents {
     }
 
     public void onDeleteOrder(final DataDefinition orderDD, final Entity order) {
+        registerSnapshotService.markChanged(order);
+
         registerService.removeEntriesForOrder(order, true);
     }
 
@@ -171,9 +187,8 @@ public class RegisterEvents {
                 return;
             }
             order.setField(OrderFields.TECHNOLOGY, technology);
-            registerService.removeEntriesFromOrder(order);
             createRegistryEntriesForOrder(order, true);
-            registerService.saveRegistryEntries(order.getHasManyField(OrderFieldsOS.COVERAGE_REGISTERS));
+            registerService.saveRegistryEntries(order);
         }
 
     }
@@ -206,7 +221,6 @@ public class RegisterEvents {
                                 numberService.getMathContext());
 
                 registerEntry.setField(CoverageRegisterFields.QUANTITY, demandQuantity);
-                registerEntry.getDataDefinition().save(registerEntry);
 
             } else {
                 BigDecimal demandQuantity = registerEntry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES)
@@ -219,9 +233,10 @@ public class RegisterEvents {
                     usedQuantity = BigDecimal.ZERO;
                     registerEntry.setField(CoverageRegisterFields.QUANTITY, demandQuantity);
                 }
-                registerEntry.getDataDefinition().save(registerEntry);
             }
         }
+
+        registerBulkWriter.updateQuantities(registerEntries);
     }
 
     public void onDeleteProductionCountingQuantity(final DataDefinition productionCountingQuantityDD,
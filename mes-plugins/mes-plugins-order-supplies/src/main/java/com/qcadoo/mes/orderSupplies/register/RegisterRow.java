@@ -0,0 +1,287 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Objects;
+
+public class RegisterRow {
+
+    private Long id;
+
+    private boolean fromProductionCountingQuantity;
+
+    private Long productId;
+
+    private String productNumber;
+
+    private Long orderId;
+
+    private String orderNumber;
+
+    private Long deliveryId;
+
+    private Long operationId;
+
+    private Long technologyOperationComponentId;
+
+    private Date date;
+
+    private BigDecimal quantity;
+
+    private BigDecimal productionCountingQuantities;
+
+    private String eventType;
+
+    private String state;
+
+    private String productType;
+
+    private String orderState;
+
+    private Long entityVersion;
+
+    private Long orderEntityVersion;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(final Long id) {
+        this.id = id;
+    }
+
+    public boolean isFromProductionCountingQuantity() {
+        return fromProductionCountingQuantity;
+    }
+
+    public void setFromProductionCountingQuantity(final boolean fromProductionCountingQuantity) {
+        this.fromProductionCountingQuantity = fromProductionCountingQuantity;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(final Long productId) {
+        this.productId = productId;
+    }
+
+    public String getProductNumber() {
+        return productNumber;
+    }
+
+    public void setProductNumber(final String productNumber) {
+        this.productNumber = productNumber;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(final Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getOrderNumber() {
+        return orderNumber;
+    }
+
+    public void setOrderNumber(final String orderNumber) {
+        this.orderNumber = orderNumber;
+    }
+
+    public Long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public void setDeliveryId(final Long deliveryId) {
+        this.deliveryId = deliveryId;
+    }
+
+    public Long getOperationId() {
+        return operationId;
+    }
+
+    public void setOperationId(final Long operationId) {
+        this.operationId = operationId;
+    }
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(final Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(final Date date) {
+        this.date = date;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(final BigDecimal quantity) {
+        this.quantity = quantity;
+    }
+
+    public BigDecimal getProductionCountingQuantities() {
+        return productionCountingQuantities;
+    }
+
+    public void setProductionCountingQuantities(final BigDecimal productionCountingQuantities) {
+        this.productionCountingQuantities = productionCountingQuantities;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(final String eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(final String state) {
+        this.state = state;
+    }
+
+    public String getProductType() {
+        return productType;
+    }
+
+    public void setProductType(final String productType) {
+        this.productType = productType;
+    }
+
+    public String getOrderState() {
+        return orderState;
+    }
+
+    public void setOrderState(final String orderState) {
+        this.orderState = orderState;
+    }
+
+    public Long getEntityVersion() {
+        return entityVersion;
+    }
+
+    public void setEntityVersion(final Long entityVersion) {
+        this.entityVersion = entityVersion;
+    }
+
+    public Long getOrderEntityVersion() {
+        return orderEntityVersion;
+    }
+
+    public void setOrderEntityVersion(final Long orderEntityVersion) {
+        this.orderEntityVersion = orderEntityVersion;
+    }
+
+    Key getKey() {
+        return new Key(productId, technologyOperationComponentId, eventType, fromProductionCountingQuantity);
+    }
+
+    boolean hasSameValues(final RegisterRow other) {
+        return fromProductionCountingQuantity == other.fromProductionCountingQuantity
+                && Objects.equals(productId, other.productId) && Objects.equals(productNumber, other.productNumber)
+                && Objects.equals(orderId, other.orderId) && Objects.equals(orderNumber, other.orderNumber)
+                && Objects.equals(deliveryId, other.deliveryId) && Objects.equals(operationId, other.operationId)
+                && Objects.equals(technologyOperationComponentId, other.technologyOperationComponentId)
+                && isSameDate(date, other.date) && isSameDecimal(quantity, other.quantity)
+                && isSameDecimal(productionCountingQuantities, other.productionCountingQuantities)
+                && Objects.equals(eventType, other.eventType) && Objects.equals(state, other.state)
+                && Objects.equals(productType, other.productType);
+    }
+
+    private static boolean isSameDate(final Date first, final Date second) {
+        if (Objects.isNull(first) || Objects.isNull(second)) {
+            return Objects.isNull(first) && Objects.isNull(second);
+        }
+
+        return first.getTime() == second.getTime();
+    }
+
+    private static boolean isSameDecimal(final BigDecimal first, final BigDecimal second) {
+        if (Objects.isNull(first) || Objects.isNull(second)) {
+            return Objects.isNull(first) && Objects.isNull(second);
+        }
+
+        return first.compareTo(second) == 0;
+    }
+
+    static final class Key {
+
+        private final Long productId;
+
+        private final Long technologyOperationComponentId;
+
+        private final String eventType;
+
+        private final boolean fromProductionCountingQuantity;
+
+        private Key(final Long productId, final Long technologyOperationComponentId, final String eventType,
+                final boolean fromProductionCountingQuantity) {
+            this.productId = productId;
+            this.technologyOperationComponentId = technologyOperationComponentId;
+            this.eventType = eventType;
+            this.fromProductionCountingQuantity = fromProductionCountingQuantity;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return Objects.equals(productId, other.productId)
+                    && Objects.equals(technologyOperationComponentId, other.technologyOperationComponentId)
+                    && Objects.equals(eventType, other.eventType)
+                    && fromProductionCountingQuantity == other.fromProductionCountingQuantity;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productId, technologyOperationComponentId, eventType, fromProductionCountingQuantity);
+        }
+
+    }
+
+}
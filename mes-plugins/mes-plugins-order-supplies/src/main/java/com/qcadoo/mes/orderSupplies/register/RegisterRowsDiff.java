@@ -0,0 +1,129 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Difference between coverage register rows stored for an order and rows which should be stored for it.
+ *
+ * Desired rows are matched with stored ones by id first and then by product, technology operation component, event type and
+ * origin, so recalculating an unchanged order results in no writes at all.
+ */
+public final class RegisterRowsDiff {
+
+    private final List<RegisterRow> rowsToInsert = Lists.newArrayList();
+
+    private final List<RegisterRow> rowsToUpdate = Lists.newArrayList();
+
+    private final List<RegisterRow> rowsToDelete = Lists.newArrayList();
+
+    private RegisterRowsDiff() {
+    }
+
+    public static RegisterRowsDiff between(final Collection<RegisterRow> currentRows, final Collection<RegisterRow> desiredRows) {
+        RegisterRowsDiff diff = new RegisterRowsDiff();
+
+        Map<Long, RegisterRow> unmatchedById = new LinkedHashMap<>();
+        Map<RegisterRow.Key, Deque<RegisterRow>> unmatchedByKey = Maps.newHashMap();
+
+        for (RegisterRow currentRow : currentRows) {
+            unmatchedById.put(currentRow.getId(), currentRow);
+            unmatchedByKey.computeIfAbsent(currentRow.getKey(), key -> new ArrayDeque<>()).add(currentRow);
+        }
+
+        for (RegisterRow desiredRow : desiredRows) {
+            RegisterRow currentRow = null;
+
+            if (Objects.nonNull(desiredRow.getId())) {
+                currentRow = unmatchedById.get(desiredRow.getId());
+            }
+
+            if (Objects.isNull(currentRow)) {
+                currentRow = pollUnmatched(unmatchedByKey.get(desiredRow.getKey()), unmatchedById);
+            }
+
+            if (Objects.isNull(currentRow)) {
+                desiredRow.setId(null);
+
+                diff.rowsToInsert.add(desiredRow);
+            } else {
+                unmatchedById.remove(currentRow.getId());
+
+                desiredRow.setId(currentRow.getId());
+
+                if (!currentRow.hasSameValues(desiredRow)) {
+                    diff.rowsToUpdate.add(desiredRow);
+                }
+            }
+        }
+
+        diff.rowsToDelete.addAll(unmatchedById.values());
+
+        return diff;
+    }
+
+    private static RegisterRow pollUnmatched(final Deque<RegisterRow> rows, final Map<Long, RegisterRow> unmatchedById) {
+        if (Objects.isNull(rows)) {
+            return null;
+        }
+
+        // rows matched by id earlier are still queued under their key
+        while (!rows.isEmpty()) {
+            RegisterRow row = rows.poll();
+
+            if (unmatchedById.containsKey(row.getId())) {
+                return row;
+            }
+        }
+
+        return null;
+    }
+
+    public List<RegisterRow> getRowsToInsert() {
+        return rowsToInsert;
+    }
+
+    public List<RegisterRow> getRowsToUpdate() {
+        return rowsToUpdate;
+    }
+
+    public List<RegisterRow> getRowsToDelete() {
+        return rowsToDelete;
+    }
+
+    public boolean isEmpty() {
+        return rowsToInsert.isEmpty() && rowsToUpdate.isEmpty() && rowsToDelete.isEmpty();
+    }
+
+}
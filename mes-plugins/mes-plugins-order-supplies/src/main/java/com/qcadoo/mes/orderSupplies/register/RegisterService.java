@@ -47,6 +47,7 @@ import com.qcadoo.mes.technologies.states.constants.TechnologyState;
 import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
@@ -58,6 +59,7 @@ import org.springframework.stereotype.Service;
 import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -73,6 +75,9 @@ public class RegisterService {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private RegisterBulkWriter registerBulkWriter;
+
     public List<Entity> getOPICForTechnology(final Entity technology) {
         String sql = "select opic as opic, product.id as productId, product.number as productNumber, product.entityType as productEntityType, "
                 + "operation.id as operationId, toc.id as tocId from #technologies_operationProductInComponent opic "
@@ -176,18 +181,29 @@ public class RegisterService {
         return scb.setMaxResults(1).uniqueResult() != null;
     }
 
-    public void saveRegistryEntries(List<Entity> entries) {
-        for (Entity entry : entries) {
-            entry.getDataDefinition().save(entry);
+    public void saveRegistryEntries(final Entity order) {
+        registerBulkWriter.writeEntries(order, order.getHasManyField(OrderFieldsOS.COVERAGE_REGISTERS));
+    }
+
+    /**
+     * Writes entries assigned to already saved order by register events, so that they are not cascade saved one by one
+     * together with the order.
+     */
+    public void writeRegistryEntries(final Entity order) {
+        Object entries = order.getField(OrderFieldsOS.COVERAGE_REGISTERS);
+
+        if (Objects.isNull(order.getId()) || !(entries instanceof List) || entries instanceof EntityList) {
+            return;
         }
 
+        registerBulkWriter.writeEntries(order, (List<Entity>) entries);
+
+        order.setField(OrderFieldsOS.COVERAGE_REGISTERS,
+                order.getDataDefinition().get(order.getId()).getHasManyField(OrderFieldsOS.COVERAGE_REGISTERS));
     }
 
     public void removeEntriesFromOrder(Entity order) {
-        List<Entity> entries = order.getHasManyField(OrderFieldsOS.COVERAGE_REGISTERS);
-        for (Entity entry : entries) {
-            entry.getDataDefinition().delete(entry.getId());
-        }
+        registerBulkWriter.deleteEntries(order);
     }
 
     public Entity findRegistryEntry(Entity order, Entity product) {
@@ -239,8 +255,11 @@ public class RegisterService {
 
     public void updateRegistryEntriesForOrder(Entity order) {
         List<Entity> registryEntries = order.getHasManyField(OrderFieldsOS.COVERAGE_REGISTERS);
+        Map<Long, Entity> entriesDBByProduct = findRegistryEntries(order).stream().collect(
+                Collectors.toMap(entryDB -> entryDB.getBelongsToField(CoverageRegisterFields.PRODUCT).getId(),
+                        entryDB -> entryDB, (first, second) -> first));
         for (Entity entry : registryEntries) {
-            Entity entryDB = findRegistryEntry(order, entry.getBelongsToField(CoverageRegisterFields.PRODUCT));
+            Entity entryDB = entriesDBByProduct.get(entry.getBelongsToField(CoverageRegisterFields.PRODUCT).getId());
             BigDecimal registredQuantity = entryDB.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES)
                     .subtract(entryDB.getDecimalField(CoverageRegisterFields.QUANTITY), numberService.getMathContext());
             BigDecimal quantity = entry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES).subtract(
@@ -332,7 +351,7 @@ public class RegisterService {
             registerEntry.setField(CoverageRegisterFields.QUANTITY, demandQuantity);
         }
 
-        registerEntry.getDataDefinition().save(registerEntry);
+        registerBulkWriter.updateQuantities(Collections.singletonList(registerEntry));
     }
 
     public void updateRegistryEntriesOnProductionTracking(List<Entity> registerEntries, BigDecimal trackedQuantity) {
@@ -348,8 +367,9 @@ public class RegisterService {
                 usedQuantity = BigDecimal.ZERO;
                 registerEntry.setField(CoverageRegisterFields.QUANTITY, demandQuantity);
             }
-            registerEntry.getDataDefinition().save(registerEntry);
         }
+
+        registerBulkWriter.updateQuantities(registerEntries);
     }
 
     public Entity createRegisterEntryFromPCQ(Entity productionCountingQuantity) {
@@ -0,0 +1,213 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.CurrentTenantService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps coverage register rows used by material requirement coverage between its runs, separately for each tenant.
+ *
+ * Register writers mark their orders as changed, which sets the version of the order's rows in the coverageRegisterVersion
+ * table to the id of the writing transaction. Each run reads only versions set by transactions which could have committed
+ * since the previous run - ids of those transactions aren't lower than the oldest transaction running at that time - and
+ * reloads rows of orders whose versions differ from the ones already read, so changes made by other application instances
+ * are noticed too, without reading the whole register.
+ */
+@Service
+public class RegisterSnapshotService {
+
+    private static final Long L_WITHOUT_ORDER_ID = 0L;
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_SELECT_ROWS = "SELECT registry.id, registry.product_id, registry.order_id, "
+            + "registry.operation_id, registry.date, registry.quantity, registry.eventtype, registry.producttype, "
+            + "COALESCE(registry.entityversion, 0) AS entityVersion, ord.state AS orderState, "
+            + "COALESCE(ord.entityversion, 0) AS orderEntityVersion FROM ordersupplies_coverageregister registry "
+            + "LEFT JOIN orders_order ord ON ord.id = registry.order_id ";
+
+    private static final String L_SELECT_OLDEST_RUNNING_TRANSACTION = "SELECT txid_snapshot_xmin(txid_current_snapshot())";
+
+    private static final String L_SELECT_VERSIONS = "SELECT registerVersion.orderid AS orderId, "
+            + "registerVersion.version AS version FROM ordersupplies_coverageregisterversion registerVersion "
+            + "WHERE registerVersion.version >= :since";
+
+    private static final String L_UPDATE_VERSION = "UPDATE ordersupplies_coverageregisterversion "
+            + "SET version = txid_current() WHERE orderid = :orderId";
+
+    private static final String L_INSERT_VERSION = "INSERT INTO ordersupplies_coverageregisterversion (id, orderid, version) "
+            + "VALUES (nextval('ordersupplies_coverageregisterversion_id_seq'), :orderId, txid_current())";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final Object markedOrderIdsResourceKey = new Object();
+
+    public List<RegisterRow> getRows() {
+        Snapshot snapshot = snapshots.computeIfAbsent(currentTenantService.getTenant(), tenant -> new Snapshot());
+
+        synchronized (snapshot) {
+            if (snapshot.loaded) {
+                refresh(snapshot);
+            } else {
+                reload(snapshot);
+            }
+
+            return snapshot.rowsByOrder.values().stream().flatMap(List::stream).collect(Collectors.toList());
+        }
+    }
+
+    public void markChanged(final Entity order) {
+        if (Objects.nonNull(order)) {
+            markChanged(order.getId());
+        }
+    }
+
+    public void markChanged(final Long orderId) {
+        Long key = getOrderKey(orderId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive() && !getMarkedOrderIds().add(key)) {
+            return;
+        }
+
+        Map<String, Object> params = Collections.singletonMap(L_ORDER_ID, key);
+
+        if (jdbcTemplate.update(L_UPDATE_VERSION, params) == 0) {
+            // two transactions inserting the version of the same order at once would duplicate it
+            jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext('ordersupplies_coverageregisterversion'), "
+                    + "CAST(:orderId AS integer))", params, Object.class);
+
+            if (jdbcTemplate.update(L_UPDATE_VERSION, params) == 0) {
+                jdbcTemplate.update(L_INSERT_VERSION, params);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> getMarkedOrderIds() {
+        Set<Long> markedOrderIds = (Set<Long>) TransactionSynchronizationManager.getResource(markedOrderIdsResourceKey);
+
+        if (Objects.isNull(markedOrderIds)) {
+            markedOrderIds = Sets.newHashSet();
+
+            TransactionSynchronizationManager.bindResource(markedOrderIdsResourceKey, markedOrderIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(markedOrderIdsResourceKey);
+                }
+            });
+        }
+
+        return markedOrderIds;
+    }
+
+    private void reload(final Snapshot snapshot) {
+        long since = getOldestRunningTransaction();
+
+        snapshot.rowsByOrder.clear();
+        snapshot.versions.clear();
+
+        putRows(snapshot, jdbcTemplate.query(L_SELECT_ROWS, BeanPropertyRowMapper.newInstance(RegisterRow.class)));
+
+        snapshot.since = since;
+        snapshot.loaded = true;
+    }
+
+    private void refresh(final Snapshot snapshot) {
+        long since = getOldestRunningTransaction();
+
+        Map<Long, Long> versions = Maps.newHashMap();
+
+        jdbcTemplate.query(L_SELECT_VERSIONS, new MapSqlParameterSource("since", snapshot.since), resultSet -> {
+            versions.put(resultSet.getLong(L_ORDER_ID), resultSet.getLong("version"));
+        });
+
+        List<Long> orderIds = versions.entrySet().stream()
+                .filter(version -> !Objects.equals(version.getValue(), snapshot.versions.get(version.getKey())))
+                .map(Map.Entry::getKey).collect(Collectors.toList());
+
+        orderIds.forEach(snapshot.rowsByOrder::remove);
+
+        for (List<Long> orderIdsChunk : Lists.partition(orderIds, 1000)) {
+            putRows(snapshot, jdbcTemplate.query(L_SELECT_ROWS + "WHERE COALESCE(registry.order_id, 0) IN (:orderIds)",
+                    new MapSqlParameterSource("orderIds", orderIdsChunk), BeanPropertyRowMapper.newInstance(RegisterRow.class)));
+        }
+
+        snapshot.versions.putAll(versions);
+        snapshot.since = since;
+    }
+
+    private void putRows(final Snapshot snapshot, final Collection<RegisterRow> rows) {
+        rows.stream().collect(Collectors.groupingBy(row -> getOrderKey(row.getOrderId()))).forEach(snapshot.rowsByOrder::put);
+    }
+
+    private Long getOrderKey(final Long orderId) {
+        return Objects.isNull(orderId) ? L_WITHOUT_ORDER_ID : orderId;
+    }
+
+    private long getOldestRunningTransaction() {
+        return jdbcTemplate.queryForObject(L_SELECT_OLDEST_RUNNING_TRANSACTION, Collections.emptyMap(), Long.class);
+    }
+
+    private static final class Snapshot {
+
+        private final Map<Long, List<RegisterRow>> rowsByOrder = Maps.newHashMap();
+
+        private final Map<Long, Long> versions = Maps.newHashMap();
+
+        private long since;
+
+        private boolean loaded;
+
+    }
+
+}
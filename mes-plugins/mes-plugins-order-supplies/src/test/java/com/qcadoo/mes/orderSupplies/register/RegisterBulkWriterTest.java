@@ -0,0 +1,203 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orderSupplies.constants.CoverageRegisterFields;
+import com.qcadoo.model.api.Entity;
+
+public class RegisterBulkWriterTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_TOC_ID = 7L;
+
+    private static final Date L_DATE = new Date(1_500_000_000_000L);
+
+    private RegisterBulkWriter registerBulkWriter;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private RegisterSnapshotService registerSnapshotService;
+
+    @Mock
+    private Entity order;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        registerBulkWriter = new RegisterBulkWriter();
+
+        ReflectionTestUtils.setField(registerBulkWriter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(registerBulkWriter, "registerSnapshotService", registerSnapshotService);
+
+        given(order.getId()).willReturn(L_ORDER_ID);
+
+        doReturn(Lists.newArrayList(createRow(1L, 1L, BigDecimal.TEN), createRow(2L, 2L, BigDecimal.TEN))).when(jdbcTemplate)
+                .query(startsWith("SELECT"), any(SqlParameterSource.class), any(RowMapper.class));
+    }
+
+    @Test
+    public void shouldInsertUpdateAndDeleteChangedEntriesOnly() {
+        // given
+        List<Entity> entries = Lists.newArrayList(createEntry(1L, 1L, BigDecimal.ONE), createEntry(null, 3L, BigDecimal.TEN));
+
+        ArgumentCaptor<SqlParameterSource[]> insertCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        ArgumentCaptor<SqlParameterSource[]> updateCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        ArgumentCaptor<SqlParameterSource> deleteCaptor = ArgumentCaptor.forClass(SqlParameterSource.class);
+
+        // when
+        int written = registerBulkWriter.writeEntries(order, entries);
+
+        // then
+        assertEquals(3, written);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT"), insertCaptor.capture());
+        verify(jdbcTemplate).batchUpdate(startsWith("UPDATE"), updateCaptor.capture());
+        verify(jdbcTemplate).update(startsWith("DELETE"), deleteCaptor.capture());
+
+        assertEquals(1, insertCaptor.getValue().length);
+        assertEquals(3L, insertCaptor.getValue()[0].getValue("productId"));
+        assertEquals(L_ORDER_ID, insertCaptor.getValue()[0].getValue("orderId"));
+
+        assertEquals(1, updateCaptor.getValue().length);
+        assertEquals(1L, updateCaptor.getValue()[0].getValue("id"));
+        assertEquals(BigDecimal.ONE, updateCaptor.getValue()[0].getValue("quantity"));
+
+        assertEquals(Lists.newArrayList(2L), deleteCaptor.getValue().getValue("ids"));
+
+        verify(registerSnapshotService).markChanged(order);
+    }
+
+    @Test
+    public void shouldIncrementEntityVersionOfUpdatedEntries() {
+        // given
+        List<Entity> entries = Lists.newArrayList(createEntry(1L, 1L, BigDecimal.ONE), createEntry(2L, 2L, BigDecimal.TEN));
+
+        // when
+        registerBulkWriter.writeEntries(order, entries);
+
+        // then
+        verify(jdbcTemplate).batchUpdate(contains("entityversion = entityversion + 1"), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldNotWriteUnchangedEntries() {
+        // given
+        List<Entity> entries = Lists.newArrayList(createEntry(1L, 1L, BigDecimal.TEN), createEntry(2L, 2L, BigDecimal.TEN));
+
+        // when
+        int written = registerBulkWriter.writeEntries(order, entries);
+
+        // then
+        assertEquals(0, written);
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldIncrementEntityVersionWhenUpdatingQuantities() {
+        // given
+        Entity entry = createEntry(1L, 1L, BigDecimal.ONE);
+
+        given(entry.getField(CoverageRegisterFields.ORDER)).willReturn(order);
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        // when
+        registerBulkWriter.updateQuantities(Lists.newArrayList(entry));
+
+        // then
+        verify(jdbcTemplate).batchUpdate(queryCaptor.capture(), any(SqlParameterSource[].class));
+
+        assertTrue(queryCaptor.getValue().contains("entityversion = entityversion + 1"));
+
+        verify(registerSnapshotService).markChanged(L_ORDER_ID);
+    }
+
+    private Entity createEntry(final Long id, final Long productId, final BigDecimal quantity) {
+        Entity entry = mock(Entity.class);
+
+        given(entry.getId()).willReturn(id);
+        given(entry.getField(CoverageRegisterFields.PRODUCT)).willReturn(productId);
+        given(entry.getStringField(CoverageRegisterFields.PRODUCT_NUMBER)).willReturn("P" + productId);
+        given(entry.getStringField(CoverageRegisterFields.ORDER_NUMBER)).willReturn("O1");
+        given(entry.getField(CoverageRegisterFields.TECHNOLOGY_OPERATION_COMPONENT)).willReturn(L_TOC_ID);
+        given(entry.getDateField(CoverageRegisterFields.DATE)).willReturn(new Date(L_DATE.getTime()));
+        given(entry.getDecimalField(CoverageRegisterFields.QUANTITY)).willReturn(quantity);
+        given(entry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES)).willReturn(quantity);
+        given(entry.getStringField(CoverageRegisterFields.EVENT_TYPE)).willReturn("04orderInput");
+        given(entry.getStringField(CoverageRegisterFields.PRODUCT_TYPE)).willReturn("01component");
+
+        return entry;
+    }
+
+    private RegisterRow createRow(final Long id, final Long productId, final BigDecimal quantity) {
+        RegisterRow row = new RegisterRow();
+
+        row.setId(id);
+        row.setProductId(productId);
+        row.setProductNumber("P" + productId);
+        row.setOrderId(L_ORDER_ID);
+        row.setOrderNumber("O1");
+        row.setTechnologyOperationComponentId(L_TOC_ID);
+        row.setDate(new Date(L_DATE.getTime()));
+        row.setQuantity(quantity);
+        row.setProductionCountingQuantities(quantity);
+        row.setEventType("04orderInput");
+        row.setProductType("01component");
+
+        return row;
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RegisterRowsDiffTest {
+
+    private static final int L_INPUT_PRODUCTS = 500;
+
+    private static final int L_ROUNDS = 200;
+
+    private static final long L_MAX_MILLIS = 1000L;
+
+    private static final long L_TOC_ID = 7L;
+
+    private static final Date L_DATE = new Date(1_500_000_000_000L);
+
+    private List<RegisterRow> currentRows;
+
+    @Before
+    public void init() {
+        currentRows = createRows(L_INPUT_PRODUCTS, BigDecimal.TEN, true);
+    }
+
+    @Test
+    public void shouldNotWriteAnythingWhenEntriesDidNotChange() {
+        // when
+        RegisterRowsDiff diff = RegisterRowsDiff.between(currentRows,
+                createRows(L_INPUT_PRODUCTS, new BigDecimal("10.000"), false));
+
+        // then
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void shouldUpdateMatchedEntriesInsertNewAndDeleteRemovedOnes() {
+        // given
+        List<RegisterRow> desiredRows = createRows(L_INPUT_PRODUCTS, BigDecimal.TEN, false);
+
+        desiredRows.get(0).setQuantity(BigDecimal.ONE);
+        desiredRows.remove(1);
+        desiredRows.add(createRow(null, 1000L, BigDecimal.TEN));
+
+        // when
+        RegisterRowsDiff diff = RegisterRowsDiff.between(currentRows, desiredRows);
+
+        // then
+        assertEquals(1, diff.getRowsToUpdate().size());
+        assertEquals(Long.valueOf(1L), diff.getRowsToUpdate().get(0).getId());
+        assertEquals(1, diff.getRowsToInsert().size());
+        assertEquals(1, diff.getRowsToDelete().size());
+        assertEquals(Long.valueOf(2L), diff.getRowsToDelete().get(0).getId());
+    }
+
+    @Test
+    public void shouldMatchEntriesByIdBeforeMatchingByKey() {
+        // given
+        RegisterRow first = createRow(1L, 1L, BigDecimal.ONE);
+        RegisterRow second = createRow(2L, 1L, BigDecimal.TEN);
+        RegisterRow desired = createRow(2L, 1L, BigDecimal.TEN);
+
+        // when
+        RegisterRowsDiff diff = RegisterRowsDiff.between(Lists.newArrayList(first, second), Lists.newArrayList(desired));
+
+        // then
+        assertTrue(diff.getRowsToUpdate().isEmpty());
+        assertEquals(1, diff.getRowsToDelete().size());
+        assertEquals(Long.valueOf(1L), diff.getRowsToDelete().get(0).getId());
+    }
+
+    @Test
+    public void shouldUpdateAllEntriesOfOrderWithFiveHundredInputProducts() {
+        // when
+        RegisterRowsDiff diff = RegisterRowsDiff.between(currentRows, createRows(L_INPUT_PRODUCTS, BigDecimal.ONE, false));
+
+        // then
+        assertEquals(L_INPUT_PRODUCTS, diff.getRowsToUpdate().size());
+        assertTrue(diff.getRowsToInsert().isEmpty());
+        assertTrue(diff.getRowsToDelete().isEmpty());
+    }
+
+    @Test
+    @Ignore("benchmark depends on the machine, run it manually")
+    public void shouldDiffOrderWithFiveHundredInputProductsTwoHundredTimesInLessThanSecond() {
+        // given
+        List<List<RegisterRow>> desiredRows = Lists.newArrayList();
+
+        for (int round = 0; round < L_ROUNDS; round++) {
+            desiredRows.add(createRows(L_INPUT_PRODUCTS, BigDecimal.valueOf(round), false));
+        }
+
+        // warm up
+        RegisterRowsDiff.between(currentRows, desiredRows.get(0));
+
+        // when
+        int writes = 0;
+
+        long started = System.currentTimeMillis();
+
+        for (List<RegisterRow> rows : desiredRows) {
+            writes += RegisterRowsDiff.between(currentRows, rows).getRowsToUpdate().size();
+        }
+
+        long elapsed = System.currentTimeMillis() - started;
+
+        // then
+        assertEquals((L_ROUNDS - 1) * L_INPUT_PRODUCTS, writes);
+        assertTrue(String.format("Register rows diffed in %d ms", elapsed), elapsed < L_MAX_MILLIS);
+    }
+
+    private List<RegisterRow> createRows(final int count, final BigDecimal quantity, final boolean withIds) {
+        List<RegisterRow> rows = Lists.newArrayList();
+
+        for (long productId = 1; productId <= count; productId++) {
+            rows.add(createRow(withIds ? productId : null, productId, quantity));
+        }
+
+        return rows;
+    }
+
+    private RegisterRow createRow(final Long id, final Long productId, final BigDecimal quantity) {
+        RegisterRow row = new RegisterRow();
+
+        row.setId(id);
+        row.setProductId(productId);
+        row.setProductNumber("P" + productId);
+        row.setOrderId(1L);
+        row.setOrderNumber("O1");
+        row.setTechnologyOperationComponentId(L_TOC_ID);
+        row.setDate(new Date(L_DATE.getTime()));
+        row.setQuantity(quantity);
+        row.setProductionCountingQuantities(quantity);
+        row.setEventType("04orderInput");
+        row.setProductType("01component");
+
+        return row;
+    }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.register;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CurrentTenantService;
+
+public class RegisterSnapshotServiceTest {
+
+    private static final String L_TENANT_A = "mes.tenant_a";
+
+    private static final String L_TENANT_B = "mes.tenant_b";
+
+    private RegisterSnapshotService registerSnapshotService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private CurrentTenantService currentTenantService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        registerSnapshotService = new RegisterSnapshotService();
+
+        ReflectionTestUtils.setField(registerSnapshotService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(registerSnapshotService, "currentTenantService", currentTenantService);
+
+        given(jdbcTemplate.queryForObject(startsWith("SELECT txid_snapshot_xmin"), anyMap(), eq(Long.class))).willReturn(
+                100L);
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public final void shouldKeepRowsOfEachTenantSeparately() {
+        // given
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+
+        doReturn(Lists.newArrayList(createRow(1L, 1L, BigDecimal.ONE))).when(jdbcTemplate)
+                .query(startsWith("SELECT registry"), any(RowMapper.class));
+
+        List<RegisterRow> rowsOfTenantA = registerSnapshotService.getRows();
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_B);
+
+        doReturn(Lists.newArrayList(createRow(1L, 1L, BigDecimal.TEN), createRow(2L, 2L, BigDecimal.TEN))).when(jdbcTemplate)
+                .query(startsWith("SELECT registry"), any(RowMapper.class));
+
+        // when
+        List<RegisterRow> rowsOfTenantB = registerSnapshotService.getRows();
+
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+        List<RegisterRow> rowsOfTenantAAgain = registerSnapshotService.getRows();
+
+        // then
+        assertEquals(1, rowsOfTenantA.size());
+        assertEquals(BigDecimal.ONE, rowsOfTenantA.get(0).getQuantity());
+        assertEquals(2, rowsOfTenantB.size());
+        assertEquals(BigDecimal.TEN, rowsOfTenantB.get(0).getQuantity());
+        assertEquals(1, rowsOfTenantAAgain.size());
+        assertEquals(BigDecimal.ONE, rowsOfTenantAAgain.get(0).getQuantity());
+
+        verify(jdbcTemplate, times(2)).query(startsWith("SELECT registry"), any(RowMapper.class));
+    }
+
+    @Test
+    public final void shouldReloadOnlyOrdersWithChangedVersions() {
+        // given
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+
+        doReturn(Lists.newArrayList(createRow(1L, 1L, BigDecimal.ONE), createRow(2L, 2L, BigDecimal.ONE))).when(jdbcTemplate)
+                .query(startsWith("SELECT registry"), any(RowMapper.class));
+        doReturn(Lists.newArrayList(createRow(3L, 2L, BigDecimal.TEN))).when(jdbcTemplate)
+                .query(startsWith("SELECT registry"), any(SqlParameterSource.class), any(RowMapper.class));
+
+        givenVersions(2L, 150L);
+
+        registerSnapshotService.getRows();
+
+        // when
+        List<RegisterRow> rows = registerSnapshotService.getRows();
+        List<RegisterRow> rowsAgain = registerSnapshotService.getRows();
+
+        // then
+        assertEquals(Lists.newArrayList(1L, 3L), rows.stream().map(RegisterRow::getId).sorted().collect(Collectors.toList()));
+        assertEquals(Lists.newArrayList(1L, 3L),
+                rowsAgain.stream().map(RegisterRow::getId).sorted().collect(Collectors.toList()));
+
+        verify(jdbcTemplate, times(1)).query(startsWith("SELECT registry"), any(RowMapper.class));
+        verify(jdbcTemplate, times(1)).query(startsWith("SELECT registry"), any(SqlParameterSource.class),
+                any(RowMapper.class));
+    }
+
+    @Test
+    public final void shouldSetVersionOfOrderOncePerTransaction() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        given(jdbcTemplate.update(startsWith("UPDATE"), anyMapOf(String.class, Object.class))).willReturn(1);
+
+        // when
+        registerSnapshotService.markChanged(1L);
+        registerSnapshotService.markChanged(1L);
+        registerSnapshotService.markChanged(2L);
+
+        // then
+        verify(jdbcTemplate, times(2)).update(startsWith("UPDATE"), anyMapOf(String.class, Object.class));
+        verify(jdbcTemplate, never()).update(startsWith("INSERT"), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public final void shouldInsertVersionOfOrderUnderLockWhenThereIsNone() {
+        // given
+        given(jdbcTemplate.update(startsWith("UPDATE"), anyMapOf(String.class, Object.class))).willReturn(0);
+
+        // when
+        registerSnapshotService.markChanged((Long) null);
+
+        // then
+        verify(jdbcTemplate).queryForList(contains("pg_advisory_xact_lock"), anyMapOf(String.class, Object.class),
+                eq(Object.class));
+        verify(jdbcTemplate, times(2)).update(startsWith("UPDATE"), anyMapOf(String.class, Object.class));
+        verify(jdbcTemplate).update(startsWith("INSERT"), anyMapOf(String.class, Object.class));
+    }
+
+    private void givenVersions(final Long orderId, final Long version) {
+        doAnswer(invocation -> {
+            ResultSet resultSet = mock(ResultSet.class);
+
+            given(resultSet.getLong("orderId")).willReturn(orderId);
+            given(resultSet.getLong("version")).willReturn(version);
+
+            ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT registerVersion"), any(SqlParameterSource.class),
+                any(RowCallbackHandler.class));
+    }
+
+    private RegisterRow createRow(final Long id, final Long orderId, final BigDecimal quantity) {
+        RegisterRow row = new RegisterRow();
+
+        row.setId(id);
+        row.setProductId(id);
+        row.setOrderId(orderId);
+        row.setQuantity(quantity);
+
+        return row;
+    }
+
+}
@@ -4,6 +4,8 @@ import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.controllers.dataProvider.DashboardKanbanDataProvider;
+import com.qcadoo.mes.orders.controllers.dataProvider.DashboardKanbanSnapshotService;
+import com.qcadoo.mes.orders.controllers.dto.DashboardKanbanSnapshot;
 import com.qcadoo.mes.orders.controllers.dto.OperationalTaskHolder;
 import com.qcadoo.mes.orders.controllers.dto.OrderHolder;
 import com.qcadoo.mes.orders.controllers.responses.OrderResponse;
@@ -16,14 +18,19 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.qcadoo.mes.orders.constants.OrderFields.STATE;
@@ -38,6 +45,9 @@ public class DashboardKanbanController {
     @Autowired
     private DashboardKanbanDataProvider dashboardKanbanDataProvider;
 
+    @Autowired
+    private DashboardKanbanSnapshotService dashboardKanbanSnapshotService;
+
     @Autowired
     private OrderStateChangeAspect orderStateChangeAspect;
 
@@ -50,40 +60,46 @@ public class DashboardKanbanController {
     @Autowired
     private TranslationService translationService;
 
-    @ResponseBody
+    @RequestMapping(value = "/snapshot", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DashboardKanbanSnapshot> getSnapshot(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, snapshot -> snapshot);
+    }
+
     @RequestMapping(value = "/ordersPending", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OrderHolder> getOrdersPending() {
-        return dashboardKanbanDataProvider.getOrdersPending();
+    public ResponseEntity<List<OrderHolder>> getOrdersPending(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOrdersPending);
     }
 
-    @ResponseBody
     @RequestMapping(value = "/ordersInProgress", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OrderHolder> getOrdersInProgress() {
-        return dashboardKanbanDataProvider.getOrdersInProgress();
+    public ResponseEntity<List<OrderHolder>> getOrdersInProgress(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOrdersInProgress);
     }
 
-    @ResponseBody
     @RequestMapping(value = "/ordersCompleted", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OrderHolder> getOrdersCompleted() {
-        return dashboardKanbanDataProvider.getOrdersCompleted();
+    public ResponseEntity<List<OrderHolder>> getOrdersCompleted(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOrdersCompleted);
     }
 
-    @ResponseBody
     @RequestMapping(value = "/operationalTasksPending", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OperationalTaskHolder> getOperationalTasksPending() {
-        return dashboardKanbanDataProvider.getOperationalTasksPending();
+    public ResponseEntity<List<OperationalTaskHolder>> getOperationalTasksPending(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOperationalTasksPending);
     }
 
-    @ResponseBody
     @RequestMapping(value = "/operationalTasksInProgress", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OperationalTaskHolder> getOperationalTasksInProgress() {
-        return dashboardKanbanDataProvider.getOperationalTasksInProgress();
+    public ResponseEntity<List<OperationalTaskHolder>> getOperationalTasksInProgress(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOperationalTasksInProgress);
     }
 
-    @ResponseBody
     @RequestMapping(value = "/operationalTasksCompleted", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<OperationalTaskHolder> getOperationalTasksCompleted() {
-        return dashboardKanbanDataProvider.getOperationalTasksCompleted();
+    public ResponseEntity<List<OperationalTaskHolder>> getOperationalTasksCompleted(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        return getConditionally(ifNoneMatch, DashboardKanbanSnapshot::getOperationalTasksCompleted);
     }
 
     @ResponseBody
@@ -116,4 +132,20 @@ public class DashboardKanbanController {
         return orderResponse;
     }
 
+    private <T> ResponseEntity<T> getConditionally(final String ifNoneMatch,
+            final Function<DashboardKanbanSnapshot, T> column) {
+        DashboardKanbanSnapshot snapshot = dashboardKanbanSnapshotService.getSnapshot();
+        String eTag = "\"" + snapshot.getVersion() + "\"";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(eTag);
+        headers.setCacheControl("no-cache");
+
+        if (eTag.equals(ifNoneMatch)) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+
+        return new ResponseEntity<>(column.apply(snapshot), headers, HttpStatus.OK);
+    }
+
 }
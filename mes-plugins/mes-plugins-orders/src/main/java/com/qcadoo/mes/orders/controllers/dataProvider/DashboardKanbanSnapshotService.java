@@ -0,0 +1,199 @@
+package com.qcadoo.mes.orders.controllers.dataProvider;
+
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.CurrentTenantService;
+import com.qcadoo.mes.orders.controllers.dto.DashboardKanbanSnapshot;
+import com.qcadoo.mes.orders.controllers.dto.OperationalTaskHolder;
+import com.qcadoo.mes.orders.controllers.dto.OrderHolder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps snapshot of dashboard kanban columns shared by all dashboards of a tenant.
+ *
+ * Order columns and operational task columns are queried again only after a state change of an order or an operational task
+ * was committed, after the day has changed or after {@link #MAX_AGE_MILLIS}, which covers quantities registered in production
+ * tracking. Version of the snapshot changes only when any column has changed, so dashboards polling with the version as ETag
+ * get the columns only when they have changed.
+ *
+ * Every tenant has its own snapshot, a state change invalidates columns of the tenant which made it only.
+ */
+@Service
+public class DashboardKanbanSnapshotService {
+
+    private static final long MAX_AGE_MILLIS = 30 * 1000L;
+
+    @Autowired
+    private DashboardKanbanDataProvider dashboardKanbanDataProvider;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, TenantSnapshot> tenantSnapshots = new ConcurrentHashMap<>();
+
+    public DashboardKanbanSnapshot getSnapshot() {
+        return getTenantSnapshot().getSnapshot();
+    }
+
+    public void invalidateOrders() {
+        invalidateAfterCompletion(getTenantSnapshot().ordersStamp);
+    }
+
+    public void invalidateOperationalTasks() {
+        invalidateAfterCompletion(getTenantSnapshot().operationalTasksStamp);
+    }
+
+    private TenantSnapshot getTenantSnapshot() {
+        return tenantSnapshots.computeIfAbsent(currentTenantService.getTenant(), tenant -> new TenantSnapshot());
+    }
+
+    private void invalidateAfterCompletion(final AtomicLong stamp) {
+        // columns queried before the commit would still contain old states
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            stamp.incrementAndGet();
+
+            return;
+        }
+
+        // state changes of many orders or operational tasks in one transaction invalidate columns once
+        InvalidationSynchronization invalidation = TransactionSynchronizationManager.getSynchronizations().stream()
+                .filter(InvalidationSynchronization.class::isInstance).map(InvalidationSynchronization.class::cast).findFirst()
+                .orElse(null);
+
+        if (Objects.isNull(invalidation)) {
+            invalidation = new InvalidationSynchronization();
+
+            TransactionSynchronizationManager.registerSynchronization(invalidation);
+        }
+
+        invalidation.stamps.add(stamp);
+    }
+
+    private final class TenantSnapshot {
+
+        private final AtomicLong ordersStamp = new AtomicLong();
+
+        private final AtomicLong operationalTasksStamp = new AtomicLong();
+
+        private volatile Columns<OrderHolder> orders;
+
+        private volatile Columns<OperationalTaskHolder> operationalTasks;
+
+        private volatile DashboardKanbanSnapshot snapshot;
+
+        // starts from the current time, so ETags cached by dashboards before a restart never match
+        private long version = System.currentTimeMillis();
+
+        private DashboardKanbanSnapshot getSnapshot() {
+            DashboardKanbanSnapshot current = snapshot;
+
+            if (Objects.nonNull(current) && isFresh(LocalDate.now(), System.currentTimeMillis())) {
+                return current;
+            }
+
+            synchronized (this) {
+                LocalDate today = LocalDate.now();
+                long now = System.currentTimeMillis();
+
+                if (Objects.nonNull(snapshot) && isFresh(today, now)) {
+                    return snapshot;
+                }
+
+                Columns<OrderHolder> ordersColumns = orders;
+
+                if (!isFresh(ordersColumns, ordersStamp.get(), today, now)) {
+                    ordersColumns = new Columns<>(ordersStamp.get(), today, now, dashboardKanbanDataProvider::getOrdersPending,
+                            dashboardKanbanDataProvider::getOrdersInProgress, dashboardKanbanDataProvider::getOrdersCompleted);
+
+                    orders = ordersColumns;
+                }
+
+                Columns<OperationalTaskHolder> operationalTasksColumns = operationalTasks;
+
+                if (!isFresh(operationalTasksColumns, operationalTasksStamp.get(), today, now)) {
+                    operationalTasksColumns = new Columns<>(operationalTasksStamp.get(), today, now,
+                            dashboardKanbanDataProvider::getOperationalTasksPending,
+                            dashboardKanbanDataProvider::getOperationalTasksInProgress,
+                            dashboardKanbanDataProvider::getOperationalTasksCompleted);
+
+                    operationalTasks = operationalTasksColumns;
+                }
+
+                DashboardKanbanSnapshot rebuilt = new DashboardKanbanSnapshot(version + 1, ordersColumns.pending,
+                        ordersColumns.inProgress, ordersColumns.completed, operationalTasksColumns.pending,
+                        operationalTasksColumns.inProgress, operationalTasksColumns.completed);
+
+                if (Objects.isNull(snapshot) || !snapshot.hasSameColumns(rebuilt)) {
+                    version = rebuilt.getVersion();
+                    snapshot = rebuilt;
+                }
+
+                return snapshot;
+            }
+        }
+
+        private boolean isFresh(final LocalDate today, final long now) {
+            return isFresh(orders, ordersStamp.get(), today, now)
+                    && isFresh(operationalTasks, operationalTasksStamp.get(), today, now);
+        }
+
+        private boolean isFresh(final Columns<?> columns, final long stamp, final LocalDate today, final long now) {
+            return Objects.nonNull(columns) && columns.stamp == stamp && columns.day.equals(today)
+                    && now - columns.builtAt < MAX_AGE_MILLIS;
+        }
+
+    }
+
+    private final class InvalidationSynchronization extends TransactionSynchronizationAdapter {
+
+        private final Set<AtomicLong> stamps = Sets.newHashSet();
+
+        @Override
+        public void afterCompletion(final int status) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                stamps.forEach(AtomicLong::incrementAndGet);
+            }
+        }
+
+    }
+
+    private static final class Columns<T> {
+
+        private final long stamp;
+
+        private final LocalDate day;
+
+        private final long builtAt;
+
+        private final List<T> pending;
+
+        private final List<T> inProgress;
+
+        private final List<T> completed;
+
+        private Columns(final long stamp, final LocalDate day, final long builtAt, final Supplier<List<T>> pending,
+                final Supplier<List<T>> inProgress, final Supplier<List<T>> completed) {
+            this.stamp = stamp;
+            this.day = day;
+            this.builtAt = builtAt;
+            this.pending = pending.get();
+            this.inProgress = inProgress.get();
+            this.completed = completed.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.qcadoo.mes.orders.controllers.dto;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+public class DashboardKanbanSnapshot {
+
+    private final long version;
+
+    private final List<OrderHolder> ordersPending;
+
+    private final List<OrderHolder> ordersInProgress;
+
+    private final List<OrderHolder> ordersCompleted;
+
+    private final List<OperationalTaskHolder> operationalTasksPending;
+
+    private final List<OperationalTaskHolder> operationalTasksInProgress;
+
+    private final List<OperationalTaskHolder> operationalTasksCompleted;
+
+    public DashboardKanbanSnapshot(final long version, final List<OrderHolder> ordersPending,
+            final List<OrderHolder> ordersInProgress, final List<OrderHolder> ordersCompleted,
+            final List<OperationalTaskHolder> operationalTasksPending,
+            final List<OperationalTaskHolder> operationalTasksInProgress,
+            final List<OperationalTaskHolder> operationalTasksCompleted) {
+        this.version = version;
+        this.ordersPending = ImmutableList.copyOf(ordersPending);
+        this.ordersInProgress = ImmutableList.copyOf(ordersInProgress);
+        this.ordersCompleted = ImmutableList.copyOf(ordersCompleted);
+        this.operationalTasksPending = ImmutableList.copyOf(operationalTasksPending);
+        this.operationalTasksInProgress = ImmutableList.copyOf(operationalTasksInProgress);
+        this.operationalTasksCompleted = ImmutableList.copyOf(operationalTasksCompleted);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<OrderHolder> getOrdersPending() {
+        return ordersPending;
+    }
+
+    public List<OrderHolder> getOrdersInProgress() {
+        return ordersInProgress;
+    }
+
+    public List<OrderHolder> getOrdersCompleted() {
+        return ordersCompleted;
+    }
+
+    public List<OperationalTaskHolder> getOperationalTasksPending() {
+        return operationalTasksPending;
+    }
+
+    public List<OperationalTaskHolder> getOperationalTasksInProgress() {
+        return operationalTasksInProgress;
+    }
+
+    public List<OperationalTaskHolder> getOperationalTasksCompleted() {
+        return operationalTasksCompleted;
+    }
+
+    public boolean hasSameColumns(final DashboardKanbanSnapshot other) {
+        return ordersPending.equals(other.ordersPending) && ordersInProgress.equals(other.ordersInProgress)
+                && ordersCompleted.equals(other.ordersCompleted) && operationalTasksPending.equals(other.operationalTasksPending)
+                && operationalTasksInProgress.equals(other.operationalTasksInProgress)
+                && operationalTasksCompleted.equals(other.operationalTasksCompleted);
+    }
+
+}
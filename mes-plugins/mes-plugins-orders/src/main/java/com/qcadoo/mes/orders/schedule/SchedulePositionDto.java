@@ -0,0 +1,140 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders.schedule;
+
+import java.util.Date;
+
+public class SchedulePositionDto {
+
+    private Long id;
+
+    private Long orderId;
+
+    private Long orderParentId;
+
+    private Long technologyOperationComponentId;
+
+    private Long technologyOperationComponentParentId;
+
+    private Integer machineWorkTime;
+
+    private Integer additionalTime;
+
+    private Date startTime;
+
+    private Date endTime;
+
+    private Long workstationId;
+
+    private boolean assigned;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getOrderParentId() {
+        return orderParentId;
+    }
+
+    public void setOrderParentId(Long orderParentId) {
+        this.orderParentId = orderParentId;
+    }
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public Long getTechnologyOperationComponentParentId() {
+        return technologyOperationComponentParentId;
+    }
+
+    public void setTechnologyOperationComponentParentId(Long technologyOperationComponentParentId) {
+        this.technologyOperationComponentParentId = technologyOperationComponentParentId;
+    }
+
+    public Integer getMachineWorkTime() {
+        return machineWorkTime;
+    }
+
+    public void setMachineWorkTime(Integer machineWorkTime) {
+        this.machineWorkTime = machineWorkTime;
+    }
+
+    public Integer getAdditionalTime() {
+        return additionalTime;
+    }
+
+    public void setAdditionalTime(Integer additionalTime) {
+        this.additionalTime = additionalTime;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Date startTime) {
+        this.startTime = startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Date endTime) {
+        this.endTime = endTime;
+    }
+
+    public Long getWorkstationId() {
+        return workstationId;
+    }
+
+    public void setWorkstationId(Long workstationId) {
+        this.workstationId = workstationId;
+    }
+
+    public boolean isAssigned() {
+        return assigned;
+    }
+
+    public void setAssigned(boolean assigned) {
+        this.assigned = assigned;
+    }
+
+}
@@ -0,0 +1,368 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders.schedule;
+
+import static java.util.Map.Entry.comparingByValue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.orders.constants.ScheduleFields;
+import com.qcadoo.mes.orders.constants.ScheduleSortOrder;
+import com.qcadoo.mes.orders.constants.ScheduleWorkstationAssignCriterion;
+import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.mes.technologies.constants.AssignedToOperation;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.plugin.api.PluginManager;
+
+/**
+ * Assigns schedule positions to workstations in memory.
+ *
+ * Positions, operation tree relations, workstation candidates and operational tasks horizons are loaded with a few set-based
+ * queries, assignment runs without touching the database and results are written back with one batch update.
+ */
+@Service
+public class ScheduleWorkstationAssignmentService {
+
+    private static final String L_SCHEDULE_ID = "scheduleId";
+
+    private static final String L_START_TIME = "startTime";
+
+    private static final String L_WORKSTATIONS_IDS = "workstationsIds";
+
+    private static final String L_REJECTED = "04rejected";
+
+    private static final String ORDERS_FOR_SUBPRODUCTS_GENERATION = "ordersForSubproductsGeneration";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PluginManager pluginManager;
+
+    public int assignOperationsToWorkstations(final Entity schedule) {
+        boolean withOrderChildren = pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION);
+        Date scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
+
+        List<SchedulePositionDto> positions = getPositions(schedule, withOrderChildren);
+        Map<Long, List<WorkstationCandidate>> workstationsByOperation = getWorkstationsByOperation(schedule.getId());
+        Map<Long, Date> operationalTasksFinishDates = getOperationalTasksMaxFinishDates(workstationsByOperation,
+                scheduleStartTime);
+        Map<Long, Entity> productionLines = getProductionLines(workstationsByOperation);
+
+        Map<String, List<SchedulePositionDto>> positionsByParentOperation = positions.stream()
+                .filter(position -> Objects.nonNull(position.getTechnologyOperationComponentParentId()))
+                .collect(Collectors.groupingBy(position -> getParentOperationKey(position.getOrderId(),
+                        position.getTechnologyOperationComponentParentId())));
+        Map<Long, List<SchedulePositionDto>> rootPositionsByParentOrder = Maps.newHashMap();
+
+        if (withOrderChildren) {
+            rootPositionsByParentOrder = positions.stream()
+                    .filter(position -> Objects.nonNull(position.getOrderParentId())
+                            && Objects.isNull(position.getTechnologyOperationComponentParentId()))
+                    .collect(Collectors.groupingBy(SchedulePositionDto::getOrderParentId));
+        }
+
+        boolean shortestTime = ScheduleWorkstationAssignCriterion.SHORTEST_TIME.getStringValue()
+                .equals(schedule.getStringField(ScheduleFields.WORKSTATION_ASSIGN_CRITERION));
+        Map<Long, Date> workstationsFinishDates = Maps.newHashMap();
+        Set<Long> ordersToAvoid = Sets.newHashSet();
+        List<SchedulePositionDto> assignedPositions = Lists.newArrayList();
+
+        for (SchedulePositionDto position : positions) {
+            if (ordersToAvoid.contains(position.getOrderId())) {
+                continue;
+            }
+
+            List<WorkstationCandidate> workstations = workstationsByOperation
+                    .getOrDefault(position.getTechnologyOperationComponentId(), Collections.emptyList());
+
+            if (workstations.isEmpty() || position.getMachineWorkTime() == 0) {
+                ordersToAvoid.add(position.getOrderId());
+
+                continue;
+            }
+
+            List<SchedulePositionDto> children = Lists.newArrayList(positionsByParentOperation.getOrDefault(
+                    getParentOperationKey(position.getOrderId(), position.getTechnologyOperationComponentId()),
+                    Collections.emptyList()));
+
+            children.addAll(rootPositionsByParentOrder.getOrDefault(position.getOrderId(), Collections.emptyList()));
+
+            Date childrenFinishDate = getChildrenFinishDate(children);
+
+            Map<Long, Date> operationWorkstationsFinishDates = Maps.newLinkedHashMap();
+            Map<Long, Date> operationWorkstationsStartDates = Maps.newHashMap();
+
+            for (WorkstationCandidate workstation : workstations) {
+                Date finishDate = workstationsFinishDates.get(workstation.getId());
+
+                if (Objects.isNull(finishDate)) {
+                    finishDate = operationalTasksFinishDates.get(workstation.getId());
+
+                    if (Objects.nonNull(finishDate)) {
+                        workstationsFinishDates.put(workstation.getId(), finishDate);
+                    }
+                }
+                if (Objects.isNull(finishDate)) {
+                    finishDate = scheduleStartTime;
+                }
+                if (Objects.nonNull(childrenFinishDate) && childrenFinishDate.after(finishDate)) {
+                    finishDate = childrenFinishDate;
+                }
+
+                Entity productionLine = productionLines.get(workstation.getProductionLineId());
+                DateTime finishDateTime = new DateTime(finishDate);
+                Date newStartDate = shiftsService.getNearestWorkingDate(finishDateTime, productionLine).orElse(finishDateTime)
+                        .toDate();
+                Date newFinishDate = shiftsService.findDateToForProductionLine(newStartDate, position.getMachineWorkTime(),
+                        productionLine);
+
+                operationWorkstationsStartDates.put(workstation.getId(), newStartDate);
+                operationWorkstationsFinishDates.put(workstation.getId(), newFinishDate);
+            }
+
+            Entry<Long, Date> chosenEntry;
+
+            if (shortestTime) {
+                chosenEntry = operationWorkstationsFinishDates.entrySet().stream().min(comparingByValue()).get();
+            } else {
+                chosenEntry = operationWorkstationsFinishDates.entrySet().stream()
+                        .filter(entry -> workstationsFinishDates.containsKey(entry.getKey())).findFirst()
+                        .orElse(operationWorkstationsFinishDates.entrySet().iterator().next());
+            }
+
+            workstationsFinishDates.put(chosenEntry.getKey(), chosenEntry.getValue());
+
+            position.setWorkstationId(chosenEntry.getKey());
+            position.setStartTime(operationWorkstationsStartDates.get(chosenEntry.getKey()));
+            position.setEndTime(chosenEntry.getValue());
+            position.setAssigned(true);
+
+            assignedPositions.add(position);
+        }
+
+        updatePositions(assignedPositions);
+
+        return assignedPositions.size();
+    }
+
+    private Date getChildrenFinishDate(final List<SchedulePositionDto> children) {
+        Date finishDate = null;
+
+        for (SchedulePositionDto child : children) {
+            if (Objects.isNull(child.getEndTime())) {
+                continue;
+            }
+
+            Date childEndTimeWithAdditionalTime = Date
+                    .from(child.getEndTime().toInstant().plusSeconds(child.getAdditionalTime()));
+
+            if (Objects.isNull(finishDate) || childEndTimeWithAdditionalTime.after(finishDate)) {
+                finishDate = childEndTimeWithAdditionalTime;
+            }
+        }
+
+        return finishDate;
+    }
+
+    private String getParentOperationKey(final Long orderId, final Long technologyOperationComponentId) {
+        return orderId + "_" + technologyOperationComponentId;
+    }
+
+    private List<SchedulePositionDto> getPositions(final Entity schedule, final boolean withOrderParent) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT sp.id, sp.order_id AS orderId, ");
+        query.append("sp.technologyoperationcomponent_id AS technologyOperationComponentId, ");
+        query.append("toc.parent_id AS technologyOperationComponentParentId, ");
+        query.append("COALESCE(sp.machineworktime, 0) AS machineWorkTime, ");
+        query.append("COALESCE(sp.additionaltime, 0) AS additionalTime, sp.starttime AS startTime, sp.endtime AS endTime, ");
+        query.append("sp.workstation_id AS workstationId");
+
+        if (withOrderParent) {
+            query.append(", o.parent_id AS orderParentId");
+        }
+
+        query.append(" FROM orders_scheduleposition sp JOIN technologies_technologyoperationcomponent toc ");
+        query.append("ON sp.technologyoperationcomponent_id = toc.id JOIN orders_order o ON sp.order_id = o.id ");
+        query.append("WHERE sp.schedule_id = :scheduleId ORDER BY ");
+        query.append("string_to_array(regexp_replace(SPLIT_PART(o.number, '-', 2), '[^0-9.]', '0', 'g'), '.')::int[] desc, ");
+        query.append("string_to_array(regexp_replace(rtrim(toc.nodenumber, '.'), '[^0-9.]', '0', 'g'), '.')::int[] desc, ");
+
+        if (ScheduleSortOrder.DESCENDING.getStringValue().equals(schedule.getStringField(ScheduleFields.SORT_ORDER))) {
+            query.append("sp.machineworktime desc");
+        } else {
+            query.append("sp.machineworktime asc");
+        }
+
+        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource(L_SCHEDULE_ID, schedule.getId()),
+                BeanPropertyRowMapper.newInstance(SchedulePositionDto.class));
+    }
+
+    private Map<Long, List<WorkstationCandidate>> getWorkstationsByOperation(final Long scheduleId) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT toc.id AS technologyOperationComponentId, w.id, w.productionline_id AS productionLineId ");
+        query.append("FROM technologies_technologyoperationcomponent toc ");
+        query.append("JOIN jointable_technologyoperationcomponent_workstation tw ");
+        query.append("ON tw.technologyoperationcomponent_id = toc.id ");
+        query.append("JOIN basic_workstation w ON w.id = tw.workstation_id ");
+        query.append("WHERE toc.assignedtooperation = :workstations AND toc.id IN ");
+        query.append("(SELECT technologyoperationcomponent_id FROM orders_scheduleposition WHERE schedule_id = :scheduleId) ");
+        query.append("UNION ALL ");
+        query.append("SELECT toc.id AS technologyOperationComponentId, w.id, w.productionline_id AS productionLineId ");
+        query.append("FROM technologies_technologyoperationcomponent toc ");
+        query.append("JOIN basic_workstation w ON w.workstationtype_id = toc.workstationtype_id ");
+        query.append("WHERE toc.assignedtooperation = :workstationTypes AND toc.id IN ");
+        query.append("(SELECT technologyoperationcomponent_id FROM orders_scheduleposition WHERE schedule_id = :scheduleId) ");
+        query.append("ORDER BY id");
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource(L_SCHEDULE_ID, scheduleId);
+
+        parameters.addValue("workstations", AssignedToOperation.WORKSTATIONS.getStringValue());
+        parameters.addValue("workstationTypes", AssignedToOperation.WORKSTATIONS_TYPE.getStringValue());
+
+        return jdbcTemplate.query(query.toString(), parameters, BeanPropertyRowMapper.newInstance(WorkstationCandidate.class))
+                .stream().collect(Collectors.groupingBy(WorkstationCandidate::getTechnologyOperationComponentId));
+    }
+
+    private Map<Long, Date> getOperationalTasksMaxFinishDates(final Map<Long, List<WorkstationCandidate>> workstationsByOperation,
+            final Date scheduleStartTime) {
+        Set<Long> workstationsIds = workstationsByOperation.values().stream().flatMap(List::stream)
+                .map(WorkstationCandidate::getId).collect(Collectors.toSet());
+        Map<Long, Date> finishDates = Maps.newHashMap();
+
+        if (workstationsIds.isEmpty()) {
+            return finishDates;
+        }
+
+        String query = "SELECT workstation_id, MAX(finishdate) AS finishdate FROM orders_operationaltask "
+                + "WHERE workstation_id IN (:workstationsIds) AND state <> :rejected AND finishdate > :startTime "
+                + "GROUP BY workstation_id";
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource(L_WORKSTATIONS_IDS, workstationsIds);
+
+        parameters.addValue("rejected", L_REJECTED);
+        parameters.addValue(L_START_TIME, scheduleStartTime);
+
+        jdbcTemplate.query(query, parameters, (RowCallbackHandler) resultSet -> finishDates
+                .put(resultSet.getLong("workstation_id"), resultSet.getTimestamp("finishdate")));
+
+        return finishDates;
+    }
+
+    private Map<Long, Entity> getProductionLines(final Map<Long, List<WorkstationCandidate>> workstationsByOperation) {
+        Set<Long> productionLinesIds = workstationsByOperation.values().stream().flatMap(List::stream)
+                .map(WorkstationCandidate::getProductionLineId).filter(Objects::nonNull).collect(Collectors.toSet());
+
+        if (productionLinesIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return dataDefinitionService
+                .get(ProductionLinesConstants.PLUGIN_IDENTIFIER, ProductionLinesConstants.MODEL_PRODUCTION_LINE).find()
+                .add(SearchRestrictions.in("id", productionLinesIds)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, productionLine -> productionLine));
+    }
+
+    private void updatePositions(final List<SchedulePositionDto> positions) {
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        String query = "UPDATE orders_scheduleposition SET workstation_id = :workstationId, starttime = :startTime, "
+                + "endtime = :endTime, staff_id = NULL WHERE id = :id";
+
+        SqlParameterSource[] batch = positions.stream()
+                .map(position -> new MapSqlParameterSource("id", position.getId())
+                        .addValue("workstationId", position.getWorkstationId())
+                        .addValue(L_START_TIME, position.getStartTime()).addValue("endTime", position.getEndTime()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(query, batch);
+    }
+
+    public static class WorkstationCandidate {
+
+        private Long id;
+
+        private Long technologyOperationComponentId;
+
+        private Long productionLineId;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public Long getTechnologyOperationComponentId() {
+            return technologyOperationComponentId;
+        }
+
+        public void setTechnologyOperationComponentId(Long technologyOperationComponentId) {
+            this.technologyOperationComponentId = technologyOperationComponentId;
+        }
+
+        public Long getProductionLineId() {
+            return productionLineId;
+        }
+
+        public void setProductionLineId(Long productionLineId) {
+            this.productionLineId = productionLineId;
+        }
+
+    }
+
+}
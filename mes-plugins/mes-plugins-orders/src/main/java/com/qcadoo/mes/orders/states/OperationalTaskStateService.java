@@ -4,7 +4,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.newstates.BasicStateService;
+import com.qcadoo.mes.orders.controllers.dataProvider.DashboardKanbanSnapshotService;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.model.api.Entity;
 
 @Service
 public class OperationalTaskStateService extends BasicStateService implements OperationalTasksServiceMarker {
@@ -12,8 +14,19 @@ public class OperationalTaskStateService extends BasicStateService implements Op
     @Autowired
     private OperationalTaskStateChangeDescriber operationalTaskStateChangeDescriber;
 
+    @Autowired
+    private DashboardKanbanSnapshotService dashboardKanbanSnapshotService;
+
     @Override
     public StateChangeEntityDescriber getChangeEntityDescriber() {
         return operationalTaskStateChangeDescriber;
     }
+
+    @Override
+    public Entity onAfterSave(Entity entity, String sourceState, String targetState, Entity stateChangeEntity,
+            StateChangeEntityDescriber describer) {
+        dashboardKanbanSnapshotService.invalidateOperationalTasks();
+
+        return entity;
+    }
 }
@@ -0,0 +1,33 @@
+package com.qcadoo.mes.orders.states.aop.listener;
+
+import org.aspectj.lang.annotation.After;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.controllers.dataProvider.DashboardKanbanSnapshotService;
+import com.qcadoo.mes.orders.states.aop.OrderStateChangeAspect;
+import com.qcadoo.mes.states.StateChangeContext;
+import com.qcadoo.mes.states.aop.AbstractStateListenerAspect;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+@Aspect
+@Configurable
+@RunIfEnabled(OrdersConstants.PLUGIN_IDENTIFIER)
+public class DashboardKanbanOrderStateAspect extends AbstractStateListenerAspect {
+
+    @Autowired
+    private DashboardKanbanSnapshotService dashboardKanbanSnapshotService;
+
+    @Pointcut(OrderStateChangeAspect.SELECTOR_POINTCUT)
+    protected void targetServicePointcut() {
+    }
+
+    @After(CHANGE_STATE_EXECUTION_POINTCUT)
+    public void invalidateDashboardKanban(final StateChangeContext stateChangeContext) {
+        dashboardKanbanSnapshotService.invalidateOrders();
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders.controllers.dataProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CurrentTenantService;
+import com.qcadoo.mes.orders.controllers.dto.DashboardKanbanSnapshot;
+import com.qcadoo.mes.orders.controllers.dto.OrderHolder;
+
+public class DashboardKanbanSnapshotServiceTest {
+
+    private static final String L_TENANT_A = "mes.tenant_a";
+
+    private static final String L_TENANT_B = "mes.tenant_b";
+
+    private DashboardKanbanSnapshotService dashboardKanbanSnapshotService;
+
+    @Mock
+    private DashboardKanbanDataProvider dashboardKanbanDataProvider;
+
+    @Mock
+    private CurrentTenantService currentTenantService;
+
+    private List<OrderHolder> tenantAOrders, tenantBOrders;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        dashboardKanbanSnapshotService = new DashboardKanbanSnapshotService();
+
+        ReflectionTestUtils.setField(dashboardKanbanSnapshotService, "dashboardKanbanDataProvider", dashboardKanbanDataProvider);
+        ReflectionTestUtils.setField(dashboardKanbanSnapshotService, "currentTenantService", currentTenantService);
+
+        tenantAOrders = Lists.newArrayList(mock(OrderHolder.class));
+        tenantBOrders = Lists.newArrayList(mock(OrderHolder.class));
+    }
+
+    @Test
+    public final void shouldKeepSeparateSnapshotsOfTenants() {
+        // given
+        DashboardKanbanSnapshot tenantASnapshot = getSnapshot(L_TENANT_A, tenantAOrders);
+
+        // when
+        DashboardKanbanSnapshot tenantBSnapshot = getSnapshot(L_TENANT_B, tenantBOrders);
+        DashboardKanbanSnapshot tenantASnapshotAgain = getSnapshot(L_TENANT_A, tenantBOrders);
+
+        // then
+        verify(dashboardKanbanDataProvider, times(2)).getOrdersPending();
+
+        assertEquals(tenantAOrders, tenantASnapshot.getOrdersPending());
+        assertEquals(tenantBOrders, tenantBSnapshot.getOrdersPending());
+        assertSame(tenantASnapshot, tenantASnapshotAgain);
+    }
+
+    @Test
+    public final void shouldRebuildColumnsOnlyOfTenantWhichChangedStates() {
+        // given
+        DashboardKanbanSnapshot tenantASnapshot = getSnapshot(L_TENANT_A, tenantAOrders);
+        DashboardKanbanSnapshot tenantBSnapshot = getSnapshot(L_TENANT_B, tenantBOrders);
+
+        dashboardKanbanSnapshotService.invalidateOrders();
+
+        // when
+        DashboardKanbanSnapshot tenantASnapshotAgain = getSnapshot(L_TENANT_A, tenantAOrders);
+        DashboardKanbanSnapshot tenantBSnapshotAgain = getSnapshot(L_TENANT_B, tenantAOrders);
+
+        // then
+        verify(dashboardKanbanDataProvider, times(3)).getOrdersPending();
+        verify(dashboardKanbanDataProvider, times(2)).getOperationalTasksPending();
+
+        assertSame(tenantASnapshot, tenantASnapshotAgain);
+        assertEquals(tenantAOrders, tenantBSnapshotAgain.getOrdersPending());
+        assertEquals(tenantBSnapshot.getVersion() + 1, tenantBSnapshotAgain.getVersion());
+    }
+
+    private DashboardKanbanSnapshot getSnapshot(final String tenant, final List<OrderHolder> ordersPending) {
+        given(currentTenantService.getTenant()).willReturn(tenant);
+        given(dashboardKanbanDataProvider.getOrdersPending()).willReturn(ordersPending);
+
+        return dashboardKanbanSnapshotService.getSnapshot();
+    }
+
+}
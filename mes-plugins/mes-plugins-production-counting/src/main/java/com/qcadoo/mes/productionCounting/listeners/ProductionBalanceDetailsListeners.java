@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.productionCounting.listeners;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
@@ -34,6 +35,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.print.StreamingXlsxDocumentService;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.productionCounting.ProductionCountingService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
@@ -128,8 +130,17 @@ public class ProductionBalanceDetailsListeners {
     }
 
     public void printProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        reportService.printGeneratedReport(view, state, new String[] { args[0], ProductionCountingConstants.PLUGIN_IDENTIFIER,
-                ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
+        Entity productionBalance = productionCountingService.getProductionBalance((Long) state.getFieldValue());
+
+        // balances generated before reports were streamed are saved as xls
+        if (productionBalance != null
+                && new File(StreamingXlsxDocumentService.getReportFileName(productionBalance)).exists()) {
+            view.redirectTo(StreamingXlsxDocumentService.getReportUrl(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                    ProductionCountingConstants.MODEL_PRODUCTION_BALANCE, productionBalance.getId()), true, false);
+        } else {
+            reportService.printGeneratedReport(view, state, new String[] { args[0],
+                    ProductionCountingConstants.PLUGIN_IDENTIFIER, ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
+        }
     }
 
     public final void addAllRelatedOrders(final ViewDefinitionState view, final ComponentState state, final String[] args) {
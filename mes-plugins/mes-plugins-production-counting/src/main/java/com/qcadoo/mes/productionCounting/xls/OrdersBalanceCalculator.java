@@ -0,0 +1,249 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
+import com.qcadoo.mes.productionCounting.xls.dto.OrderBalance;
+import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
+import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Computes orders, components and products balances from rows of produced quantities, material costs and production costs
+ * while they are written to their sheets, so balances are not queried again.
+ */
+class OrdersBalanceCalculator {
+
+    private static final BigDecimal ONE_HUNDRED = BigDecimal.valueOf(100);
+
+    private final MathContext mathContext;
+
+    private final BigDecimal materialCostMargin;
+
+    private final BigDecimal productionCostMargin;
+
+    private final BigDecimal additionalOverhead;
+
+    private final BigDecimal registrationPriceOverhead;
+
+    private final BigDecimal profit;
+
+    private final Map<Long, ProducedQuantity> producedQuantities = Maps.newLinkedHashMap();
+
+    private final Map<Long, BigDecimal> materialCosts = Maps.newHashMap();
+
+    private final Map<Long, BigDecimal> productionCosts = Maps.newHashMap();
+
+    OrdersBalanceCalculator(final Entity productionBalance, final MathContext mathContext) {
+        this.mathContext = mathContext;
+        materialCostMargin = getDecimalField(productionBalance, ProductionBalanceFields.MATERIAL_COST_MARGIN);
+        productionCostMargin = getDecimalField(productionBalance, ProductionBalanceFields.PRODUCTION_COST_MARGIN);
+        additionalOverhead = getDecimalField(productionBalance, ProductionBalanceFields.ADDITIONAL_OVERHEAD);
+        registrationPriceOverhead = getDecimalField(productionBalance, ProductionBalanceFields.REGISTRATION_PRICE_OVERHEAD);
+        profit = getDecimalField(productionBalance, ProductionBalanceFields.PROFIT);
+    }
+
+    void addProducedQuantity(final ProducedQuantity producedQuantity) {
+        producedQuantities.put(producedQuantity.getOrderId(), producedQuantity);
+    }
+
+    void addMaterialCost(final MaterialCost materialCost) {
+        materialCosts.merge(materialCost.getOrderId(), BigDecimalUtils.convertNullToZero(materialCost.getRealCost()),
+                (first, second) -> first.add(second, mathContext));
+    }
+
+    void addProductionCost(final ProductionCost productionCost) {
+        productionCosts.merge(productionCost.getOrderId(), BigDecimalUtils.convertNullToZero(productionCost.getRealCostsSum()),
+                (first, second) -> first.add(second, mathContext));
+    }
+
+    /**
+     * Balances of orders with production costs, ordered like produced quantities.
+     */
+    List<OrderBalance> getOrdersBalance() {
+        List<OrderBalance> ordersBalance = Lists.newArrayList();
+
+        for (ProducedQuantity producedQuantity : producedQuantities.values()) {
+            BigDecimal productionCost = productionCosts.get(producedQuantity.getOrderId());
+
+            if (Objects.isNull(productionCost)) {
+                continue;
+            }
+
+            BigDecimal materialCost = materialCosts.getOrDefault(producedQuantity.getOrderId(), BigDecimal.ZERO);
+            OrderBalance orderBalance = createOrderBalance(producedQuantity);
+
+            orderBalance.setProducedQuantity(producedQuantity.getProducedQuantity());
+            orderBalance.setMaterialCosts(materialCost);
+            orderBalance.setProductionCosts(productionCost);
+            orderBalance.setTechnicalProductionCosts(materialCost.add(productionCost, mathContext));
+            orderBalance.setMaterialCostMarginValue(percentOf(materialCostMargin, materialCost));
+            orderBalance.setProductionCostMarginValue(percentOf(productionCostMargin, productionCost));
+            orderBalance.setAdditionalOverhead(additionalOverhead);
+            orderBalance.setDirectAdditionalCost(BigDecimalUtils.convertNullToZero(producedQuantity.getDirectAdditionalCost()));
+            orderBalance.setTotalCosts(orderBalance.getTechnicalProductionCosts()
+                    .add(orderBalance.getMaterialCostMarginValue(), mathContext)
+                    .add(orderBalance.getProductionCostMarginValue(), mathContext).add(additionalOverhead, mathContext)
+                    .add(orderBalance.getDirectAdditionalCost(), mathContext));
+
+            fillPrices(orderBalance);
+
+            ordersBalance.add(orderBalance);
+        }
+
+        return ordersBalance;
+    }
+
+    /**
+     * Balances of root orders, which costs include costs of their component orders.
+     */
+    List<OrderBalance> getComponentsBalance(final List<OrderBalance> ordersBalance) {
+        Map<Long, List<OrderBalance>> ordersBalanceByRoot = Maps.newHashMap();
+
+        for (OrderBalance orderBalance : ordersBalance) {
+            if (Objects.nonNull(orderBalance.getRootId())) {
+                ordersBalanceByRoot.computeIfAbsent(orderBalance.getRootId(), rootId -> Lists.newArrayList()).add(orderBalance);
+            }
+        }
+
+        List<OrderBalance> componentsBalance = Lists.newArrayList();
+
+        for (OrderBalance orderBalance : ordersBalance) {
+            if (Objects.nonNull(orderBalance.getRootId())) {
+                continue;
+            }
+
+            OrderBalance componentBalance = createOrderBalance(producedQuantities.get(orderBalance.getOrderId()));
+
+            componentBalance.setProducedQuantity(orderBalance.getProducedQuantity());
+            resetCosts(componentBalance);
+            addCosts(componentBalance, orderBalance, ordersBalanceByRoot);
+            fillPrices(componentBalance);
+
+            componentsBalance.add(componentBalance);
+        }
+
+        return componentsBalance;
+    }
+
+    /**
+     * Balances of products of root orders, ordered by product number.
+     */
+    List<OrderBalance> getProductsBalance(final List<OrderBalance> componentsBalance) {
+        Map<Long, OrderBalance> productsBalance = Maps.newHashMap();
+
+        for (OrderBalance componentBalance : componentsBalance) {
+            OrderBalance productBalance = productsBalance.computeIfAbsent(componentBalance.getProductId(), productId -> {
+                OrderBalance balance = createOrderBalance(producedQuantities.get(componentBalance.getOrderId()));
+
+                balance.setOrderId(null);
+                balance.setOrderNumber(null);
+                balance.setProducedQuantity(BigDecimal.ZERO);
+                resetCosts(balance);
+
+                return balance;
+            });
+
+            productBalance.setProducedQuantity(productBalance.getProducedQuantity()
+                    .add(BigDecimalUtils.convertNullToZero(componentBalance.getProducedQuantity()), mathContext));
+            addCosts(productBalance, componentBalance);
+        }
+
+        productsBalance.values().forEach(this::fillPrices);
+
+        List<OrderBalance> sortedProductsBalance = Lists.newArrayList(productsBalance.values());
+
+        sortedProductsBalance.sort(Comparator.comparing(OrderBalance::getProductNumber));
+
+        return sortedProductsBalance;
+    }
+
+    private OrderBalance createOrderBalance(final ProducedQuantity producedQuantity) {
+        OrderBalance orderBalance = new OrderBalance();
+
+        orderBalance.setOrderId(producedQuantity.getOrderId());
+        orderBalance.setRootId(producedQuantity.getRootId());
+        orderBalance.setOrderNumber(producedQuantity.getOrderNumber());
+        orderBalance.setProductId(producedQuantity.getProductId());
+        orderBalance.setProductNumber(producedQuantity.getProductNumber());
+        orderBalance.setProductName(producedQuantity.getProductName());
+        orderBalance.setMaterialCostMargin(materialCostMargin);
+        orderBalance.setProductionCostMargin(productionCostMargin);
+        orderBalance.setRegistrationPriceOverhead(registrationPriceOverhead);
+        orderBalance.setProfit(profit);
+
+        return orderBalance;
+    }
+
+    private void resetCosts(final OrderBalance orderBalance) {
+        orderBalance.setMaterialCosts(BigDecimal.ZERO);
+        orderBalance.setProductionCosts(BigDecimal.ZERO);
+        orderBalance.setTechnicalProductionCosts(BigDecimal.ZERO);
+        orderBalance.setMaterialCostMarginValue(BigDecimal.ZERO);
+        orderBalance.setProductionCostMarginValue(BigDecimal.ZERO);
+        orderBalance.setAdditionalOverhead(BigDecimal.ZERO);
+        orderBalance.setDirectAdditionalCost(BigDecimal.ZERO);
+        orderBalance.setTotalCosts(BigDecimal.ZERO);
+    }
+
+    private void addCosts(final OrderBalance target, final OrderBalance orderBalance,
+            final Map<Long, List<OrderBalance>> ordersBalanceByRoot) {
+        addCosts(target, orderBalance);
+
+        for (OrderBalance componentOrderBalance : ordersBalanceByRoot.getOrDefault(orderBalance.getOrderId(),
+                Lists.newArrayList())) {
+            addCosts(target, componentOrderBalance, ordersBalanceByRoot);
+        }
+    }
+
+    private void addCosts(final OrderBalance target, final OrderBalance orderBalance) {
+        target.setMaterialCosts(target.getMaterialCosts().add(orderBalance.getMaterialCosts(), mathContext));
+        target.setProductionCosts(target.getProductionCosts().add(orderBalance.getProductionCosts(), mathContext));
+        target.setTechnicalProductionCosts(
+                target.getTechnicalProductionCosts().add(orderBalance.getTechnicalProductionCosts(), mathContext));
+        target.setMaterialCostMarginValue(
+                target.getMaterialCostMarginValue().add(orderBalance.getMaterialCostMarginValue(), mathContext));
+        target.setProductionCostMarginValue(
+                target.getProductionCostMarginValue().add(orderBalance.getProductionCostMarginValue(), mathContext));
+        target.setAdditionalOverhead(target.getAdditionalOverhead().add(orderBalance.getAdditionalOverhead(), mathContext));
+        target.setDirectAdditionalCost(target.getDirectAdditionalCost().add(orderBalance.getDirectAdditionalCost(), mathContext));
+        target.setTotalCosts(target.getTotalCosts().add(orderBalance.getTotalCosts(), mathContext));
+    }
+
+    private void fillPrices(final OrderBalance orderBalance) {
+        BigDecimal producedQuantity = BigDecimalUtils.convertNullToZero(orderBalance.getProducedQuantity());
+        BigDecimal registrationPrice = BigDecimal.ZERO;
+
+        if (producedQuantity.compareTo(BigDecimal.ZERO) != 0) {
+            registrationPrice = orderBalance.getTotalCosts().divide(producedQuantity, mathContext);
+        }
+
+        BigDecimal registrationPriceOverheadValue = percentOf(registrationPriceOverhead, registrationPrice);
+        BigDecimal realProductionCosts = registrationPrice.add(registrationPriceOverheadValue, mathContext);
+        BigDecimal profitValue = percentOf(profit, realProductionCosts);
+
+        orderBalance.setRegistrationPrice(registrationPrice);
+        orderBalance.setRegistrationPriceOverheadValue(registrationPriceOverheadValue);
+        orderBalance.setRealProductionCosts(realProductionCosts);
+        orderBalance.setProfitValue(profitValue);
+        orderBalance.setSellPrice(realProductionCosts.add(profitValue, mathContext));
+    }
+
+    private BigDecimal percentOf(final BigDecimal percent, final BigDecimal value) {
+        return percent.multiply(value, mathContext).divide(ONE_HUNDRED, mathContext);
+    }
+
+    private BigDecimal getDecimalField(final Entity productionBalance, final String fieldName) {
+        return BigDecimalUtils.convertNullToZero(productionBalance.getDecimalField(fieldName));
+    }
+
+}
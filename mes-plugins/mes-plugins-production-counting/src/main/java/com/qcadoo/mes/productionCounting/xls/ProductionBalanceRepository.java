@@ -5,24 +5,38 @@ import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.xls.dto.*;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.mes.basic.util.CursorQueryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Queries of production balance sheets. Rows are read by cursor and passed to consumers one by one, and orders are passed
+ * as a single array parameter, so balances of any number of orders are neither limited by the number of query parameters
+ * nor kept in memory.
+ */
 @Repository
 class ProductionBalanceRepository {
 
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private CursorQueryService cursorQueryService;
 
-    List<ProducedQuantity> getProducedQuantities(final List<Long> ordersIds) {
+    void getProducedQuantities(final List<Long> ordersIds, final Consumer<ProducedQuantity> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
+        query.append("o.id AS orderId, ");
+        query.append("o.root_id AS rootId, ");
         query.append("o.number AS orderNumber, ");
+        query.append("prod.id AS productId, ");
         query.append("prod.number AS productNumber, ");
         query.append("prod.name AS productName, ");
         query.append("MIN(o.plannedquantity) AS plannedQuantity, ");
@@ -32,7 +46,8 @@ class ProductionBalanceRepository {
         query.append("COALESCE(prodWaste.producedWastes, 0) AS producedWastes, ");
         appendProducedQuantity(query);
         query.append("- MIN(o.plannedQuantity) AS deviation, ");
-        query.append("prod.unit AS productUnit ");
+        query.append("prod.unit AS productUnit, ");
+        query.append("COALESCE(MIN(o.directadditionalcost), 0) AS directAdditionalCost ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
         query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
@@ -50,11 +65,11 @@ class ProductionBalanceRepository {
         query.append(
                 "GROUP BY orderId, wastePtOrderId) prodWaste ON prodWaste.orderId = o.id AND prodWaste.wastePtOrderId = o.id ");
         appendWhereClause(query);
-        query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
+        query.append(
+                "GROUP BY o.id, o.root_id, orderNumber, prod.id, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
+        query(query.toString(), ordersIds, ProducedQuantity.class, consumer);
     }
 
     private void appendProducedQuantity(StringBuilder query) {
@@ -62,10 +77,10 @@ class ProductionBalanceRepository {
     }
 
     private void appendWhereClause(StringBuilder query) {
-        query.append("WHERE o.id IN (:ordersIds) ");
+        query.append("WHERE o.id = ANY(:ordersIds) ");
     }
 
-    List<MaterialCost> getMaterialCosts(Entity entity, List<Long> ordersIds) {
+    void getMaterialCosts(Entity entity, List<Long> ordersIds, final Consumer<MaterialCost> consumer) {
         StringBuilder query = new StringBuilder();
         appendCumulatedPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
@@ -92,8 +107,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit, q.replacementTo) ");
         query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(MaterialCost.class));
+        query(query.toString(), ordersIds, MaterialCost.class, consumer);
     }
 
     private void appendForEachPlannedQuantities(StringBuilder query) {
@@ -248,7 +262,7 @@ class ProductionBalanceRepository {
         query.append("(COALESCE(SUM(topic.usedquantity), 0) - MIN(q.childsQuantity)) ");
     }
 
-    List<PieceworkDetails> getPieceworkDetails(List<Long> ordersIds) {
+    void getPieceworkDetails(List<Long> ordersIds, final Consumer<PieceworkDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -263,11 +277,10 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
+        query(query.toString(), ordersIds, PieceworkDetails.class, consumer);
     }
 
-    List<LaborTime> getLaborTime(List<Long> ordersIds) {
+    void getLaborTime(List<Long> ordersIds, final Consumer<LaborTime> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -290,11 +303,10 @@ class ProductionBalanceRepository {
                 "GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname, staffLaborHourlyCost, wageGroupName ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTime.class));
+        query(query.toString(), ordersIds, LaborTime.class, consumer);
     }
 
-    List<LaborTimeDetails> getLaborTimeDetails(Entity entity, List<Long> ordersIds) {
+    void getLaborTimeDetails(Entity entity, List<Long> ordersIds, final Consumer<LaborTimeDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -404,11 +416,10 @@ class ProductionBalanceRepository {
         query.append("AND o.typeofproductionrecording = '03forEach') ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
+        query(query.toString(), ordersIds, LaborTimeDetails.class, consumer);
     }
 
-    List<ProductionCost> getProductionCosts(Entity entity, List<Long> ordersIds) {
+    void getProductionCosts(Entity entity, List<Long> ordersIds, final Consumer<ProductionCost> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -549,8 +560,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderId, orderNumber, toc.id, operationNumber) ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProductionCost.class));
+        query(query.toString(), ordersIds, ProductionCost.class, consumer);
     }
 
     private void appendRealStaffCosts(Entity entity, StringBuilder query, String typeOfProductionRecording) {
@@ -695,413 +705,7 @@ class ProductionBalanceRepository {
         }
     }
 
-    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, List<MaterialCost> materialCosts,
-            List<ProductionCost> productionCosts) {
-        StringBuilder query = new StringBuilder();
-        appendOrdersBalanceWithQueries(materialCosts, productionCosts, query);
-        appendOrdersBalanceSelectionClause(entity, query);
-        query.append("MIN(COALESCE(gmc.cost, 0)) AS materialCosts, ");
-        query.append("MIN(gpc.cost) AS productionCosts, ");
-        query.append("MIN(COALESCE(gmc.cost, 0)) + MIN(gpc.cost) AS technicalProductionCosts, ");
-        appendMaterialCostMarginValue(entity, query);
-        query.append("AS materialCostMarginValue, ");
-        appendProductionCostMarginValue(entity, query);
-        query.append("AS productionCostMarginValue, ");
-        appendTotalCosts(entity, query);
-        query.append("AS totalCosts, ");
-        appendRegistrationPrice(entity, query);
-        query.append("AS registrationPrice, ");
-        appendRegistrationPriceOverheadValue(entity, query);
-        query.append("AS registrationPriceOverheadValue, ");
-        appendRealProductionCosts(entity, query);
-        query.append("AS realProductionCosts, ");
-        appendProfitValue(entity, query);
-        query.append("AS profitValue, ");
-        appendRealProductionCosts(entity, query);
-        query.append("+ ");
-        appendProfitValue(entity, query);
-        query.append("AS sellPrice ");
-        query.append("FROM orders_order o ");
-        query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
-        query.append("LEFT JOIN grouped_material_cost gmc ON gmc.order_id = o.id ");
-        query.append("JOIN grouped_production_cost gpc ON gpc.order_id = o.id ");
-        appendWhereClause(query);
-        query.append("GROUP BY orderId, rootId, orderNumber, productNumber, productName ");
-        query.append("ORDER BY orderNumber ");
-
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
-    }
-
-    private void appendOrdersBalanceWithQueries(List<MaterialCost> materialCosts, List<ProductionCost> productionCosts,
-            StringBuilder query) {
-        query.append("WITH real_material_cost (order_id, cost) AS (VALUES ");
-        if (materialCosts.isEmpty()) {
-            query.append("(NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < materialCosts.size(); i++) {
-                MaterialCost materialCost = materialCosts.get(i);
-                query.append("(" + materialCost.getOrderId() + ", " + materialCost.getRealCost() + ") ");
-                if (i != materialCosts.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
-        query.append("grouped_material_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_material_cost GROUP BY order_id), ");
-        query.append("real_production_cost (order_id, cost) AS (VALUES ");
-        for (int i = 0; i < productionCosts.size(); i++) {
-            ProductionCost productionCost = productionCosts.get(i);
-            query.append("(" + productionCost.getOrderId() + ", " + productionCost.getRealCostsSum() + ") ");
-            if (i != productionCosts.size() - 1) {
-                query.append(", ");
-            }
-        }
-        query.append("), ");
-        query.append(
-                "grouped_production_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_production_cost GROUP BY order_id) ");
-    }
-
-    private void appendOrdersBalanceSelectionClause(Entity entity, StringBuilder query) {
-        query.append("SELECT ");
-        query.append("o.id AS orderId, ");
-        query.append("o.root_id AS rootId, ");
-        query.append("o.number AS orderNumber, ");
-        query.append("prod.number AS productNumber, ");
-        query.append("prod.name AS productName, ");
-        appendProducedQuantity(query);
-        query.append("AS producedQuantity, ");
-        appendMaterialCostMargin(entity, query);
-        query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
-        query.append("AS productionCostMargin, ");
-        appendAdditionalOverhead(entity, query);
-        query.append("AS additionalOverhead, ");
-        appendDirectAdditionalCost(query);
-        query.append("AS directAdditionalCost, ");
-        appendRegistrationPriceOverhead(entity, query);
-        query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
-        query.append("AS profit, ");
-    }
-
-    private void appendMaterialCostMargin(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.MATERIAL_COST_MARGIN) + ", 0) ");
-    }
-
-    private void appendProductionCostMargin(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.PRODUCTION_COST_MARGIN) + ", 0) ");
-    }
-
-    private void appendAdditionalOverhead(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.ADDITIONAL_OVERHEAD) + ", 0) ");
-    }
-
-    private void appendDirectAdditionalCost(StringBuilder query) {
-        query.append("COALESCE(MIN(o.directadditionalcost), 0) ");
-    }
-
-    private void appendRegistrationPriceOverhead(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.REGISTRATION_PRICE_OVERHEAD) + ", 0) ");
-    }
-
-    private void appendProfit(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.PROFIT) + ", 0) ");
-    }
-
-    private void appendProfitValue(Entity entity, StringBuilder query) {
-        appendRealProductionCosts(entity, query);
-        query.append(" / 100 * ");
-        appendProfit(entity, query);
-    }
-
-    private void appendRealProductionCosts(Entity entity, StringBuilder query) {
-        query.append("( ");
-        appendRegistrationPrice(entity, query);
-        query.append("+ ");
-        appendRegistrationPriceOverheadValue(entity, query);
-        query.append(") ");
-    }
-
-    private void appendRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
-        appendRegistrationPrice(entity, query);
-        query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
-    }
-
-    private void appendRegistrationPrice(Entity entity, StringBuilder query) {
-        query.append("CASE WHEN ");
-        appendProducedQuantity(query);
-        query.append("<> 0 THEN (");
-        appendTotalCosts(entity, query);
-        query.append(")/ ");
-        appendProducedQuantity(query);
-        query.append("ELSE 0 END ");
-    }
-
-    private void appendTotalCosts(Entity entity, StringBuilder query) {
-        query.append("MIN(COALESCE(gmc.cost, 0)) + MIN(gpc.cost) + ");
-        appendMaterialCostMarginValue(entity, query);
-        query.append("+ ");
-        appendProductionCostMarginValue(entity, query);
-        query.append("+ ");
-        appendAdditionalOverhead(entity, query);
-        query.append("+ ");
-        appendDirectAdditionalCost(query);
-    }
-
-    private void appendProductionCostMarginValue(Entity entity, StringBuilder query) {
-        appendProductionCostMargin(entity, query);
-        query.append("/ 100 * MIN(gpc.cost) ");
-    }
-
-    private void appendMaterialCostMarginValue(Entity entity, StringBuilder query) {
-        appendMaterialCostMargin(entity, query);
-        query.append("/ 100 * MIN(COALESCE(gmc.cost, 0)) ");
-    }
-
-    List<OrderBalance> getComponentsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> ordersBalance) {
-        StringBuilder query = new StringBuilder();
-        appendComponentsBalanceWithQueries(ordersBalance, query);
-        query.append("SELECT ");
-        query.append("o.number AS orderNumber, ");
-        query.append("prod.id AS productId, ");
-        query.append("prod.number AS productNumber, ");
-        query.append("prod.name AS productName, ");
-        appendProducedQuantity(query);
-        query.append("AS producedQuantity, ");
-        appendMaterialCostMargin(entity, query);
-        query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
-        query.append("AS productionCostMargin, ");
-        appendRegistrationPriceOverhead(entity, query);
-        query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
-        query.append("AS profit, ");
-        query.append("MIN(obr.additional_overhead) AS additionalOverhead, ");
-        query.append("MIN(obr.direct_additional_cost) AS directAdditionalCost, ");
-        query.append("MIN(obr.material_costs) AS materialCosts, ");
-        query.append("MIN(obr.production_costs) AS productionCosts, ");
-        query.append("MIN(obr.technical_production_costs) AS technicalProductionCosts, ");
-        query.append("MIN(obr.material_cost_margin_value) AS materialCostMarginValue, ");
-        query.append("MIN(obr.production_cost_margin_value) AS productionCostMarginValue, ");
-        query.append("MIN(obr.total_costs) AS totalCosts, ");
-        appendComponentsBalanceRegistrationPrice(query);
-        query.append("AS registrationPrice, ");
-        appendComponentsBalanceRegistrationPriceOverheadValue(entity, query);
-        query.append("AS registrationPriceOverheadValue, ");
-        appendComponentsBalanceRealProductionCosts(entity, query);
-        query.append("AS realProductionCosts, ");
-        appendComponentsBalanceProfitValue(entity, query);
-        query.append("AS profitValue, ");
-        appendComponentsBalanceRealProductionCosts(entity, query);
-        query.append("+ ");
-        appendComponentsBalanceProfitValue(entity, query);
-        query.append("AS sellPrice ");
-        query.append("FROM orders_order o ");
-        query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
-        query.append("JOIN order_balance_rec obr ON obr.order_id = o.id ");
-        appendWhereClause(query);
-        query.append("AND o.root_id IS NULL ");
-        query.append("GROUP BY orderNumber, productId, productNumber, productName ");
-        query.append("ORDER BY orderNumber ");
-
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
-    }
-
-    private void appendComponentsBalanceProfitValue(Entity entity, StringBuilder query) {
-        appendComponentsBalanceRealProductionCosts(entity, query);
-        query.append(" / 100 * ");
-        appendProfit(entity, query);
-    }
-
-    private void appendComponentsBalanceRealProductionCosts(Entity entity, StringBuilder query) {
-        query.append("( ");
-        appendComponentsBalanceRegistrationPrice(query);
-        query.append("+ ");
-        appendComponentsBalanceRegistrationPriceOverheadValue(entity, query);
-        query.append(") ");
-    }
-
-    private void appendComponentsBalanceRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
-        appendComponentsBalanceRegistrationPrice(query);
-        query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
-    }
-
-    private void appendComponentsBalanceRegistrationPrice(StringBuilder query) {
-        query.append("CASE WHEN ");
-        appendProducedQuantity(query);
-        query.append("<> 0 THEN MIN(obr.total_costs) ");
-        query.append("/ ");
-        appendProducedQuantity(query);
-        query.append("ELSE 0 END ");
-    }
-
-    private void appendComponentsBalanceWithQueries(List<OrderBalance> ordersBalance, StringBuilder query) {
-        query.append("WITH order_balance (order_id, root_id, material_costs, ");
-        query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
-        query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-
-        for (int i = 0; i < ordersBalance.size(); i++) {
-            OrderBalance orderBalance = ordersBalance.get(i);
-            query.append("(");
-            query.append(orderBalance.getOrderId() + ", ");
-            query.append(orderBalance.getRootId() + "::INTEGER, ");
-            query.append(orderBalance.getMaterialCosts() + ", ");
-            query.append(orderBalance.getProductionCosts() + ", ");
-            query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-            query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-            query.append(orderBalance.getProductionCostMarginValue() + ", ");
-            query.append(orderBalance.getAdditionalOverhead() + ", ");
-            query.append(orderBalance.getDirectAdditionalCost() + ", ");
-            query.append(orderBalance.getTotalCosts());
-            query.append(") ");
-            if (i != ordersBalance.size() - 1) {
-                query.append(", ");
-            }
-
-        }
-        query.append("), ");
-        query.append("order_balance_rec AS (WITH RECURSIVE order_balance_rec AS ");
-        query.append("(SELECT order_id, order_id AS root_id, material_costs, ");
-        query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
-        query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append("FROM order_balance WHERE root_id IS NULL ");
-        query.append("UNION ALL ");
-        query.append("SELECT obr.order_id, ob.order_id, ob.material_costs, ");
-        query.append("ob.production_costs, ob.technical_production_costs, ob.material_cost_margin_value, ");
-        query.append("ob.production_cost_margin_value, ob.additional_overhead, ob.direct_additional_cost, ob.total_costs ");
-        query.append("FROM order_balance_rec obr JOIN order_balance ob USING(root_id)) ");
-        query.append("SELECT order_id, SUM(material_costs) AS material_costs, SUM(production_costs) AS production_costs, ");
-        query.append(
-                "SUM(technical_production_costs) AS technical_production_costs, SUM(material_cost_margin_value) AS material_cost_margin_value, ");
-        query.append(
-                "SUM(production_cost_margin_value) AS production_cost_margin_value, SUM(additional_overhead) AS additional_overhead,  ");
-        query.append("SUM(direct_additional_cost) AS direct_additional_cost, SUM(total_costs) AS total_costs ");
-        query.append("FROM order_balance_rec GROUP BY order_id) ");
-    }
-
-    List<OrderBalance> getProductsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> componentsBalance) {
-        StringBuilder query = new StringBuilder();
-        appendProductsBalanceWithQueries(componentsBalance, query);
-        query.append("SELECT ");
-        query.append("prod.number AS productNumber, ");
-        query.append("prod.name AS productName, ");
-        appendMaterialCostMargin(entity, query);
-        query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
-        query.append("AS productionCostMargin, ");
-        appendRegistrationPriceOverhead(entity, query);
-        query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
-        query.append("AS profit, ");
-        query.append("MIN(gcb.produced_quantity) AS producedQuantity, ");
-        query.append("MIN(gcb.additional_overhead) AS additionalOverhead, ");
-        query.append("MIN(gcb.direct_additional_cost) AS directAdditionalCost, ");
-        query.append("MIN(gcb.material_costs) AS materialCosts, ");
-        query.append("MIN(gcb.production_costs) AS productionCosts, ");
-        query.append("MIN(gcb.technical_production_costs) AS technicalProductionCosts, ");
-        query.append("MIN(gcb.material_cost_margin_value) AS materialCostMarginValue, ");
-        query.append("MIN(gcb.production_cost_margin_value) AS productionCostMarginValue, ");
-        query.append("MIN(gcb.total_costs) AS totalCosts, ");
-        appendProductsBalanceRegistrationPrice(query);
-        query.append("AS registrationPrice, ");
-        appendProductsBalanceRegistrationPriceOverheadValue(entity, query);
-        query.append("AS registrationPriceOverheadValue, ");
-        appendProductsBalanceRealProductionCosts(entity, query);
-        query.append("AS realProductionCosts, ");
-        appendProductsBalanceProfitValue(entity, query);
-        query.append("AS profitValue, ");
-        appendProductsBalanceRealProductionCosts(entity, query);
-        query.append("+ ");
-        appendProductsBalanceProfitValue(entity, query);
-        query.append("AS sellPrice ");
-        query.append("FROM orders_order o ");
-        query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("JOIN grouped_component_balance gcb ON gcb.product_id = prod.id ");
-        appendWhereClause(query);
-        query.append("AND o.root_id IS NULL ");
-        query.append("GROUP BY productNumber, productName ");
-        query.append("ORDER BY productNumber ");
-
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
-    }
-
-    private void appendProductsBalanceProfitValue(Entity entity, StringBuilder query) {
-        appendProductsBalanceRealProductionCosts(entity, query);
-        query.append(" / 100 * ");
-        appendProfit(entity, query);
-    }
-
-    private void appendProductsBalanceRealProductionCosts(Entity entity, StringBuilder query) {
-        query.append("( ");
-        appendProductsBalanceRegistrationPrice(query);
-        query.append("+ ");
-        appendProductsBalanceRegistrationPriceOverheadValue(entity, query);
-        query.append(") ");
-    }
-
-    private void appendProductsBalanceRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
-        appendProductsBalanceRegistrationPrice(query);
-        query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
-    }
-
-    private void appendProductsBalanceRegistrationPrice(StringBuilder query) {
-        query.append("CASE WHEN MIN(gcb.produced_quantity) <> 0 THEN MIN(gcb.total_costs) ");
-        query.append("/ MIN(gcb.produced_quantity) ELSE 0 END ");
-    }
-
-    private void appendProductsBalanceWithQueries(List<OrderBalance> componentsBalance, StringBuilder query) {
-        query.append("WITH component_balance (product_id, produced_quantity, material_costs, ");
-        query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
-        query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-        if (componentsBalance.isEmpty()) {
-            query.append("(NULL::integer, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, ");
-            query.append("NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < componentsBalance.size(); i++) {
-                OrderBalance orderBalance = componentsBalance.get(i);
-                query.append("(");
-                query.append(orderBalance.getProductId() + ", ");
-                query.append(orderBalance.getProducedQuantity() + ", ");
-                query.append(orderBalance.getMaterialCosts() + ", ");
-                query.append(orderBalance.getProductionCosts() + ", ");
-                query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-                query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-                query.append(orderBalance.getProductionCostMarginValue() + ", ");
-                query.append(orderBalance.getAdditionalOverhead() + ", ");
-                query.append(orderBalance.getDirectAdditionalCost() + ", ");
-                query.append(orderBalance.getTotalCosts());
-                query.append(") ");
-                if (i != componentsBalance.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
-        query.append("grouped_component_balance AS (SELECT product_id, SUM(produced_quantity) AS produced_quantity, ");
-        query.append("SUM(material_costs) AS material_costs, SUM(production_costs) AS production_costs, ");
-        query.append(
-                "SUM(technical_production_costs) AS technical_production_costs, SUM(material_cost_margin_value) AS material_cost_margin_value, ");
-        query.append(
-                "SUM(production_cost_margin_value) AS production_cost_margin_value, SUM(additional_overhead) AS additional_overhead,  ");
-        query.append("SUM(direct_additional_cost) AS direct_additional_cost, SUM(total_costs) AS total_costs ");
-        query.append("FROM component_balance GROUP BY product_id) ");
-    }
-
-    List<Stoppage> getStoppages(List<Long> ordersIds) {
+    void getStoppages(List<Long> ordersIds, final Consumer<Stoppage> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -1128,7 +732,26 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("ORDER BY orderNumber, productionTrackingNumber, dateFrom ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(Stoppage.class));
+        query(query.toString(), ordersIds, Stoppage.class, consumer);
     }
+
+    private <T> void query(final String query, final List<Long> ordersIds, final Class<T> rowClass, final Consumer<T> consumer) {
+        RowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+
+        cursorQueryService.query(query, createOrdersIdsParameter(ordersIds),
+                resultSet -> consumer.accept(rowMapper.mapRow(resultSet, resultSet.getRow())));
+    }
+
+    private MapSqlParameterSource createOrdersIdsParameter(final List<Long> ordersIds) {
+        return new MapSqlParameterSource().addValue("ordersIds", new AbstractSqlTypeValue() {
+
+            @Override
+            protected Object createTypeValue(final Connection connection, final int sqlType, final String typeName)
+                    throws SQLException {
+                return connection.createArrayOf("bigint", ordersIds.toArray());
+            }
+
+        }, Types.ARRAY);
+    }
+
 }
@@ -2,12 +2,11 @@ package com.qcadoo.mes.productionCounting.xls;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.print.StreamingXlsxDocumentService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.xls.dto.*;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.report.api.xls.XlsDocumentService;
-import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -19,7 +18,7 @@ import java.util.Locale;
 import java.util.stream.Collectors;
 
 @Service
-public class ProductionBalanceXlsService extends XlsDocumentService {
+public class ProductionBalanceXlsService extends StreamingXlsxDocumentService {
 
     @Autowired
     private TranslationService translationService;
@@ -34,10 +33,10 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             "productName", "plannedQuantity", "producedQuantity", "wastesQuantity", "producedWastes", "deviation", "productUnit");
 
     @Override
-    protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
+    protected void addHeader(Sheet sheet, Locale locale, Entity entity) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
+        Row headerRow = sheet.createRow(0);
         int columnIndex = 0;
         for (String key : PRODUCTION_QUANTITIES_HEADERS) {
             createHeaderCell(stylesContainer, headerRow,
@@ -48,12 +47,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     }
 
     @Override
-    protected void addSeries(HSSFSheet sheet, Entity entity) {
-        List<Long> ordersIds = getOrdersIds(entity);
-
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
+    protected void addSeries(Sheet sheet, Entity entity) {
+        // rows of produced quantities are the base of balances, so they are written with the other sheets
     }
 
     @Override
@@ -62,16 +57,19 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     }
 
     @Override
-    protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
+    protected void addExtraSheets(final Workbook workbook, Entity entity, Locale locale) {
         List<Long> ordersIds = getOrdersIds(entity);
-        List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
-        createMaterialCostsSheet(materialCosts, createSheet(workbook,
+        OrdersBalanceCalculator ordersBalanceCalculator = new OrdersBalanceCalculator(entity, numberService.getMathContext());
+
+        final FontsContainer fontsContainer = new FontsContainer(workbook);
+        final StylesContainer stylesContainer = new StylesContainer(workbook, fontsContainer);
+        createProducedQuantitiesSheet(workbook.getSheetAt(0), ordersIds, stylesContainer, ordersBalanceCalculator);
+        createMaterialCostsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
+                locale, ordersBalanceCalculator);
         createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
                 ordersIds, locale);
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
+        createLaborTimeDetailsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
                 locale);
         createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
@@ -80,20 +78,18 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages", locale)),
                 ordersIds, locale);
-        List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
-        createProductionCostsSheet(productionCosts, createSheet(workbook,
+        createProductionCostsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
-        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
-                productionCosts);
+                locale, ordersBalanceCalculator);
+        List<OrderBalance> ordersBalance = ordersBalanceCalculator.getOrdersBalance();
         createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
                 locale);
-        List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
+        List<OrderBalance> componentsBalance = ordersBalanceCalculator.getComponentsBalance(ordersBalance);
         createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
                 locale);
-        List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
+        List<OrderBalance> productsBalance = ordersBalanceCalculator.getProductsBalance(componentsBalance);
         createProductsBalanceSheet(productsBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
                 locale);
@@ -104,11 +100,12 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
-        int rowIndex = 1;
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+    private void createProducedQuantitiesSheet(Sheet sheet, List<Long> ordersIds, StylesContainer stylesContainer,
+            OrdersBalanceCalculator ordersBalanceCalculator) {
+        RowCounter rowCounter = new RowCounter(1);
+        productionBalanceRepository.getProducedQuantities(ordersIds, producedQuantity -> {
+            ordersBalanceCalculator.addProducedQuantity(producedQuantity);
+            Row row = sheet.createRow(rowCounter.next());
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
@@ -118,19 +115,19 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes(), false);
             createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation(), false);
             createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
-            rowIndex++;
-        }
+        });
 
         for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
+    private void createMaterialCostsSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale,
+            OrdersBalanceCalculator ordersBalanceCalculator) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.orderNumber", locale),
@@ -186,35 +183,35 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.unit", locale),
                 13, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (MaterialCost materialCost : materialCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
-            createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
-            createRegularCell(stylesContainer, row, 4, materialCost.getReplacementTo());
-            createNumericCell(stylesContainer, row, 5, materialCost.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 6, materialCost.getUsedQuantity(), true);
-            createNumericCell(stylesContainer, row, 7, materialCost.getQuantitativeDeviation(), false);
-            createRegularCell(stylesContainer, row, 8, materialCost.getProductUnit());
-            createNumericCell(stylesContainer, row, 9, materialCost.getPlannedCost(), false);
-            createNumericCell(stylesContainer, row, 10, materialCost.getRealCost(), true);
-            createNumericCell(stylesContainer, row, 11, materialCost.getValueDeviation(), false);
-            createNumericCell(stylesContainer, row, 12, materialCost.getUsedWasteQuantity(), false);
-            createRegularCell(stylesContainer, row, 13, materialCost.getUsedWasteUnit());
-            rowCounter++;
-        }
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getMaterialCosts(entity, ordersIds, materialCost -> {
+            ordersBalanceCalculator.addMaterialCost(materialCost);
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, materialCost.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, materialCost.getOperationNumber());
+            createRegularCell(stylesContainer, dataRow, 2, materialCost.getProductNumber());
+            createRegularCell(stylesContainer, dataRow, 3, materialCost.getProductName());
+            createRegularCell(stylesContainer, dataRow, 4, materialCost.getReplacementTo());
+            createNumericCell(stylesContainer, dataRow, 5, materialCost.getPlannedQuantity(), false);
+            createNumericCell(stylesContainer, dataRow, 6, materialCost.getUsedQuantity(), true);
+            createNumericCell(stylesContainer, dataRow, 7, materialCost.getQuantitativeDeviation(), false);
+            createRegularCell(stylesContainer, dataRow, 8, materialCost.getProductUnit());
+            createNumericCell(stylesContainer, dataRow, 9, materialCost.getPlannedCost(), false);
+            createNumericCell(stylesContainer, dataRow, 10, materialCost.getRealCost(), true);
+            createNumericCell(stylesContainer, dataRow, 11, materialCost.getValueDeviation(), false);
+            createNumericCell(stylesContainer, dataRow, 12, materialCost.getUsedWasteQuantity(), false);
+            createRegularCell(stylesContainer, dataRow, 13, materialCost.getUsedWasteUnit());
+        });
         for (int i = 0; i <= 13; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createPieceworkSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 HorizontalAlignment.LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -223,25 +220,23 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 HorizontalAlignment.LEFT);
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-        int rowCounter = 0;
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
-            rowCounter++;
-        }
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getPieceworkDetails(ordersIds, pieceworkDetails -> {
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, pieceworkDetails.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, pieceworkDetails.getOperationNumber());
+            createNumericCell(stylesContainer, dataRow, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
+        });
         for (int i = 0; i <= 2; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createStoppagesSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createStoppagesSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.orderNumber", locale),
@@ -285,37 +280,35 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages.worker", locale),
                 11, HorizontalAlignment.LEFT);
 
-        List<Stoppage> stoppages = productionBalanceRepository.getStoppages(ordersIds);
-        int rowCounter = 0;
-        for (Stoppage stoppage : stoppages) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, stoppage.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, stoppage.getProductionTrackingNumber());
-            createRegularCell(stylesContainer, row, 2,
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getStoppages(ordersIds, stoppage -> {
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, stoppage.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, stoppage.getProductionTrackingNumber());
+            createRegularCell(stylesContainer, dataRow, 2,
                     stoppage.getProductionTrackingState() != null ? translationService.translate(
                             "productionCounting.productionTracking.state.value." + stoppage.getProductionTrackingState(), locale)
                             : null);
-            createTimeCell(stylesContainer, row, 3, stoppage.getDuration(), false);
-            createDateTimeCell(stylesContainer, row, 4, stoppage.getDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, stoppage.getDateTo());
-            createRegularCell(stylesContainer, row, 6, stoppage.getReason());
-            createRegularCell(stylesContainer, row, 7, stoppage.getDescription());
-            createRegularCell(stylesContainer, row, 8, stoppage.getDivision());
-            createRegularCell(stylesContainer, row, 9, stoppage.getProductionLine());
-            createRegularCell(stylesContainer, row, 10, stoppage.getWorkstation());
-            createRegularCell(stylesContainer, row, 11, stoppage.getWorker());
-            rowCounter++;
-        }
+            createTimeCell(stylesContainer, dataRow, 3, stoppage.getDuration(), false);
+            createDateTimeCell(stylesContainer, dataRow, 4, stoppage.getDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 5, stoppage.getDateTo());
+            createRegularCell(stylesContainer, dataRow, 6, stoppage.getReason());
+            createRegularCell(stylesContainer, dataRow, 7, stoppage.getDescription());
+            createRegularCell(stylesContainer, dataRow, 8, stoppage.getDivision());
+            createRegularCell(stylesContainer, dataRow, 9, stoppage.getProductionLine());
+            createRegularCell(stylesContainer, dataRow, 10, stoppage.getWorkstation());
+            createRegularCell(stylesContainer, dataRow, 11, stoppage.getWorker());
+        });
         for (int i = 0; i <= 11; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createLaborTimeSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 HorizontalAlignment.LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -333,30 +326,28 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7,
                 HorizontalAlignment.LEFT);
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
-        int rowCounter = 0;
-        for (LaborTime laborTime : laborTimeList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
-            createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
-            createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
-            createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
-            createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
-            createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
-            rowCounter++;
-        }
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getLaborTime(ordersIds, laborTime -> {
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, laborTime.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, laborTime.getOperationNumber());
+            createRegularCell(stylesContainer, dataRow, 2, laborTime.getStaffNumber());
+            createRegularCell(stylesContainer, dataRow, 3, laborTime.getStaffName());
+            createRegularCell(stylesContainer, dataRow, 4, laborTime.getStaffSurname());
+            createRegularCell(stylesContainer, dataRow, 5, laborTime.getWageGroupName());
+            createNumericCell(stylesContainer, dataRow, 6, laborTime.getStaffLaborHourlyCost(), false);
+            createTimeCell(stylesContainer, dataRow, 7, laborTime.getLaborTime(), false);
+        });
         for (int i = 0; i <= 7; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, HSSFSheet sheet, Locale locale) {
+    private void createLaborTimeDetailsSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.divisionNumber", locale),
@@ -462,48 +453,48 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTimeDeviation", locale),
                 25, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
-            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
-            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 3, translationService.translate(
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getLaborTimeDetails(entity, ordersIds, laborTimeDetails -> {
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, laborTimeDetails.getDivisionNumber());
+            createRegularCell(stylesContainer, dataRow, 1, laborTimeDetails.getProductionLineNumber());
+            createRegularCell(stylesContainer, dataRow, 2, laborTimeDetails.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 3, translationService.translate(
                     "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
-            createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
-            createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
-            createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
-            createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
-            createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
-            createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
-            createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
-            createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
-            createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
-            createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
-            createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
-            createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
-            createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
-            createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
-            createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
-            createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
-            createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
-            createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
-            createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
-            rowCounter++;
-        }
+            createDateTimeCell(stylesContainer, dataRow, 4, laborTimeDetails.getPlannedDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 5, laborTimeDetails.getEffectiveDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 6, laborTimeDetails.getPlannedDateTo());
+            createDateTimeCell(stylesContainer, dataRow, 7, laborTimeDetails.getEffectiveDateTo());
+            createRegularCell(stylesContainer, dataRow, 8, laborTimeDetails.getProductNumber());
+            createRegularCell(stylesContainer, dataRow, 9, laborTimeDetails.getOrderName());
+            createNumericCell(stylesContainer, dataRow, 10, laborTimeDetails.getPlannedQuantity(), false);
+            createNumericCell(stylesContainer, dataRow, 11, laborTimeDetails.getAmountOfProductProduced(), false);
+            createRegularCell(stylesContainer, dataRow, 12, laborTimeDetails.getStaffNumber());
+            createRegularCell(stylesContainer, dataRow, 13, laborTimeDetails.getStaffName());
+            createRegularCell(stylesContainer, dataRow, 14, laborTimeDetails.getStaffSurname());
+            createRegularCell(stylesContainer, dataRow, 15, laborTimeDetails.getOperationNumber());
+            createDateTimeCell(stylesContainer, dataRow, 16, laborTimeDetails.getTimeRangeFrom());
+            createDateTimeCell(stylesContainer, dataRow, 17, laborTimeDetails.getTimeRangeTo());
+            createRegularCell(stylesContainer, dataRow, 18, laborTimeDetails.getShiftName());
+            createDateTimeCell(stylesContainer, dataRow, 19, laborTimeDetails.getCreateDate());
+            createTimeCell(stylesContainer, dataRow, 20, laborTimeDetails.getLaborTime(), false);
+            createTimeCell(stylesContainer, dataRow, 21, laborTimeDetails.getPlannedLaborTime(), false);
+            createTimeCell(stylesContainer, dataRow, 22, laborTimeDetails.getLaborTimeDeviation(), false);
+            createTimeCell(stylesContainer, dataRow, 23, laborTimeDetails.getMachineTime(), false);
+            createTimeCell(stylesContainer, dataRow, 24, laborTimeDetails.getPlannedMachineTime(), false);
+            createTimeCell(stylesContainer, dataRow, 25, laborTimeDetails.getMachineTimeDeviation(), false);
+        });
         for (int i = 0; i <= 25; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
+    private void createProductionCostsSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale,
+            OrdersBalanceCalculator ordersBalanceCalculator) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.productionCosts.orderNumber", locale),
@@ -573,38 +564,38 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.productionCosts.realPieceworkCosts", locale),
                 16, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (ProductionCost productionCost : productionCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, productionCost.getPlannedCostsSum(), false);
-            createNumericCell(stylesContainer, row, 3, productionCost.getRealCostsSum(), false);
-            createNumericCell(stylesContainer, row, 4, productionCost.getSumCostsDeviation(), false);
-            createTimeCell(stylesContainer, row, 5, productionCost.getPlannedStaffTime(), false);
-            createTimeCell(stylesContainer, row, 6, productionCost.getRealStaffTime(), true);
-            createTimeCell(stylesContainer, row, 7, productionCost.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 8, productionCost.getRealMachineTime(), true);
-            createNumericCell(stylesContainer, row, 9, productionCost.getPlannedStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 10, productionCost.getRealStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 11, productionCost.getStaffCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 12, productionCost.getPlannedMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 13, productionCost.getRealMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 14, productionCost.getMachineCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 15, productionCost.getPlannedPieceworkCosts(), false);
-            createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
-            rowCounter++;
-        }
+        RowCounter rowCounter = new RowCounter(rowOffset);
+        productionBalanceRepository.getProductionCosts(entity, ordersIds, productionCost -> {
+            ordersBalanceCalculator.addProductionCost(productionCost);
+            Row dataRow = sheet.createRow(rowCounter.next());
+            createRegularCell(stylesContainer, dataRow, 0, productionCost.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, productionCost.getOperationNumber());
+            createNumericCell(stylesContainer, dataRow, 2, productionCost.getPlannedCostsSum(), false);
+            createNumericCell(stylesContainer, dataRow, 3, productionCost.getRealCostsSum(), false);
+            createNumericCell(stylesContainer, dataRow, 4, productionCost.getSumCostsDeviation(), false);
+            createTimeCell(stylesContainer, dataRow, 5, productionCost.getPlannedStaffTime(), false);
+            createTimeCell(stylesContainer, dataRow, 6, productionCost.getRealStaffTime(), true);
+            createTimeCell(stylesContainer, dataRow, 7, productionCost.getPlannedMachineTime(), false);
+            createTimeCell(stylesContainer, dataRow, 8, productionCost.getRealMachineTime(), true);
+            createNumericCell(stylesContainer, dataRow, 9, productionCost.getPlannedStaffCosts(), false);
+            createNumericCell(stylesContainer, dataRow, 10, productionCost.getRealStaffCosts(), false);
+            createNumericCell(stylesContainer, dataRow, 11, productionCost.getStaffCostsDeviation(), false);
+            createNumericCell(stylesContainer, dataRow, 12, productionCost.getPlannedMachineCosts(), false);
+            createNumericCell(stylesContainer, dataRow, 13, productionCost.getRealMachineCosts(), false);
+            createNumericCell(stylesContainer, dataRow, 14, productionCost.getMachineCostsDeviation(), false);
+            createNumericCell(stylesContainer, dataRow, 15, productionCost.getPlannedPieceworkCosts(), false);
+            createNumericCell(stylesContainer, dataRow, 16, productionCost.getRealPieceworkCosts(), false);
+        });
         for (int i = 0; i <= 16; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
+    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -724,11 +715,11 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
+    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.productNumber", locale),
@@ -843,15 +834,15 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.LEFT));
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value, boolean bold) {
+        Cell cell = row.createCell(column, CellType.NUMERIC);
         cell.setCellValue(numberService.setScaleWithDefaultMathContext(value, 2).doubleValue());
         if (bold) {
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberBoldStyle, HorizontalAlignment.RIGHT));
@@ -861,8 +852,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value, boolean bold) {
+        Cell cell = row.createCell(column, CellType.NUMERIC);
         if (value == null) {
             value = 0;
         }
@@ -879,8 +870,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createDateTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Date value) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createDateTimeCell(StylesContainer stylesContainer, Row row, int column, Date value) {
+        Cell cell = row.createCell(column);
         if (value != null) {
             cell.setCellValue(value);
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.dateTimeStyle, HorizontalAlignment.RIGHT));
@@ -888,32 +879,45 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column, HorizontalAlignment horizontalAlignment) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column, HorizontalAlignment horizontalAlignment) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, horizontalAlignment));
         return cell;
     }
 
+    private static class RowCounter {
+
+        private int rowIndex;
+
+        RowCounter(int rowIndex) {
+            this.rowIndex = rowIndex;
+        }
+
+        int next() {
+            return rowIndex++;
+        }
+    }
+
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle timeBoldStyle;
+        private final CellStyle timeBoldStyle;
 
-        private final HSSFCellStyle negativeTimeStyle;
+        private final CellStyle negativeTimeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        private final HSSFCellStyle numberBoldStyle;
+        private final CellStyle numberBoldStyle;
 
-        private final HSSFCellStyle dateTimeStyle;
+        private final CellStyle dateTimeStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
             regularStyle.setVerticalAlignment(VerticalAlignment.CENTER);
 
@@ -945,7 +949,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, HorizontalAlignment horizontalAlignment) {
+        private static CellStyle aligned(CellStyle style, HorizontalAlignment horizontalAlignment) {
             style.setAlignment(horizontalAlignment);
             return style;
         }
@@ -955,7 +959,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBold(true);
         }
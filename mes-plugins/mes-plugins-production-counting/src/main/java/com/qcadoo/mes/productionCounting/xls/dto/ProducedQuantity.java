@@ -4,6 +4,12 @@ import java.math.BigDecimal;
 
 public class ProducedQuantity {
 
+    private Long orderId;
+
+    private Long rootId;
+
+    private Long productId;
+
     private String orderNumber;
 
     private String productNumber;
@@ -22,6 +28,32 @@ public class ProducedQuantity {
 
     private String productUnit;
 
+    private BigDecimal directAdditionalCost;
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getRootId() {
+        return rootId;
+    }
+
+    public void setRootId(Long rootId) {
+        this.rootId = rootId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
     public String getOrderNumber() {
         return orderNumber;
     }
@@ -94,6 +126,14 @@ public class ProducedQuantity {
         this.productUnit = productUnit;
     }
 
+    public BigDecimal getDirectAdditionalCost() {
+        return directAdditionalCost;
+    }
+
+    public void setDirectAdditionalCost(BigDecimal directAdditionalCost) {
+        this.directAdditionalCost = directAdditionalCost;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
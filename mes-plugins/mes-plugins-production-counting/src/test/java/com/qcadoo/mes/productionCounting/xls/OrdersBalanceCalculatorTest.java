@@ -0,0 +1,335 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.xls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
+import com.qcadoo.mes.productionCounting.xls.dto.OrderBalance;
+import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
+import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
+import com.qcadoo.model.api.Entity;
+
+public class OrdersBalanceCalculatorTest {
+
+    private static final Long L_ROOT_ORDER_ID = 1L;
+
+    private static final Long L_COMPONENT_ORDER_ID = 2L;
+
+    private static final Long L_NOT_PRODUCED_ORDER_ID = 3L;
+
+    private static final Long L_NOT_TRACKED_ORDER_ID = 4L;
+
+    private static final Long L_OTHER_PRODUCT_ORDER_ID = 5L;
+
+    private static final Long L_PRODUCT_ID = 101L;
+
+    private static final Long L_COMPONENT_PRODUCT_ID = 102L;
+
+    private static final Long L_OTHER_PRODUCT_ID = 103L;
+
+    @Mock
+    private Entity productionBalance;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public final void shouldCalculateOrdersBalance() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = createCalculatorWithMargins();
+
+        // when
+        List<OrderBalance> ordersBalance = ordersBalanceCalculator.getOrdersBalance();
+
+        // then
+        assertEquals(4, ordersBalance.size());
+
+        OrderBalance rootOrderBalance = ordersBalance.get(0);
+
+        assertEquals(L_ROOT_ORDER_ID, rootOrderBalance.getOrderId());
+        assertDecimal("10", rootOrderBalance.getProducedQuantity());
+        assertDecimal("50", rootOrderBalance.getMaterialCosts());
+        assertDecimal("40", rootOrderBalance.getProductionCosts());
+        assertDecimal("90", rootOrderBalance.getTechnicalProductionCosts());
+        assertDecimal("5", rootOrderBalance.getMaterialCostMarginValue());
+        assertDecimal("8", rootOrderBalance.getProductionCostMarginValue());
+        assertDecimal("5", rootOrderBalance.getAdditionalOverhead());
+        assertDecimal("2", rootOrderBalance.getDirectAdditionalCost());
+        assertDecimal("110", rootOrderBalance.getTotalCosts());
+        assertDecimal("11", rootOrderBalance.getRegistrationPrice());
+        assertDecimal("1.1", rootOrderBalance.getRegistrationPriceOverheadValue());
+        assertDecimal("12.1", rootOrderBalance.getRealProductionCosts());
+        assertDecimal("6.05", rootOrderBalance.getProfitValue());
+        assertDecimal("18.15", rootOrderBalance.getSellPrice());
+
+        OrderBalance componentOrderBalance = ordersBalance.get(1);
+
+        assertEquals(L_COMPONENT_ORDER_ID, componentOrderBalance.getOrderId());
+        assertEquals(L_ROOT_ORDER_ID, componentOrderBalance.getRootId());
+        assertDecimal("0", componentOrderBalance.getDirectAdditionalCost());
+        assertDecimal("34", componentOrderBalance.getTotalCosts());
+        assertDecimal("8.5", componentOrderBalance.getRegistrationPrice());
+        assertDecimal("14.025", componentOrderBalance.getSellPrice());
+    }
+
+    @Test
+    public final void shouldCalculateOrdersBalanceWithNullAndZeroValues() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = createCalculatorWithMargins();
+
+        // when
+        List<OrderBalance> ordersBalance = ordersBalanceCalculator.getOrdersBalance();
+
+        // then
+        OrderBalance notProducedOrderBalance = ordersBalance.get(2);
+
+        assertEquals(L_NOT_PRODUCED_ORDER_ID, notProducedOrderBalance.getOrderId());
+        assertNull(notProducedOrderBalance.getProducedQuantity());
+        assertDecimal("0", notProducedOrderBalance.getMaterialCosts());
+        assertDecimal("0", notProducedOrderBalance.getProductionCosts());
+        assertDecimal("5", notProducedOrderBalance.getTotalCosts());
+        assertDecimal("0", notProducedOrderBalance.getRegistrationPrice());
+        assertDecimal("0", notProducedOrderBalance.getSellPrice());
+
+        OrderBalance otherProductOrderBalance = ordersBalance.get(3);
+
+        assertEquals(L_OTHER_PRODUCT_ORDER_ID, otherProductOrderBalance.getOrderId());
+        assertDecimal("0", otherProductOrderBalance.getMaterialCosts());
+        assertDecimal("0", otherProductOrderBalance.getProductionCosts());
+        assertDecimal("5", otherProductOrderBalance.getTotalCosts());
+        assertDecimal("2.5", otherProductOrderBalance.getRegistrationPrice());
+        assertDecimal("4.125", otherProductOrderBalance.getSellPrice());
+    }
+
+    @Test
+    public final void shouldSkipOrdersWithoutProductionCosts() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = createCalculatorWithMargins();
+
+        // when
+        List<OrderBalance> ordersBalance = ordersBalanceCalculator.getOrdersBalance();
+
+        // then
+        ordersBalance.forEach(orderBalance -> assertFalse(L_NOT_TRACKED_ORDER_ID.equals(orderBalance.getOrderId())));
+    }
+
+    @Test
+    public final void shouldCalculateComponentsBalanceOfRootOrders() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = createCalculatorWithMargins();
+
+        // when
+        List<OrderBalance> componentsBalance = ordersBalanceCalculator
+                .getComponentsBalance(ordersBalanceCalculator.getOrdersBalance());
+
+        // then
+        assertEquals(3, componentsBalance.size());
+
+        OrderBalance rootComponentBalance = componentsBalance.get(0);
+
+        assertEquals(L_ROOT_ORDER_ID, rootComponentBalance.getOrderId());
+        assertDecimal("10", rootComponentBalance.getProducedQuantity());
+        assertDecimal("60", rootComponentBalance.getMaterialCosts());
+        assertDecimal("55", rootComponentBalance.getProductionCosts());
+        assertDecimal("115", rootComponentBalance.getTechnicalProductionCosts());
+        assertDecimal("6", rootComponentBalance.getMaterialCostMarginValue());
+        assertDecimal("11", rootComponentBalance.getProductionCostMarginValue());
+        assertDecimal("10", rootComponentBalance.getAdditionalOverhead());
+        assertDecimal("2", rootComponentBalance.getDirectAdditionalCost());
+        assertDecimal("144", rootComponentBalance.getTotalCosts());
+        assertDecimal("14.4", rootComponentBalance.getRegistrationPrice());
+        assertDecimal("1.44", rootComponentBalance.getRegistrationPriceOverheadValue());
+        assertDecimal("15.84", rootComponentBalance.getRealProductionCosts());
+        assertDecimal("7.92", rootComponentBalance.getProfitValue());
+        assertDecimal("23.76", rootComponentBalance.getSellPrice());
+
+        OrderBalance notProducedComponentBalance = componentsBalance.get(1);
+
+        assertEquals(L_NOT_PRODUCED_ORDER_ID, notProducedComponentBalance.getOrderId());
+        assertNull(notProducedComponentBalance.getProducedQuantity());
+        assertDecimal("5", notProducedComponentBalance.getTotalCosts());
+        assertDecimal("0", notProducedComponentBalance.getRegistrationPrice());
+
+        assertEquals(L_OTHER_PRODUCT_ORDER_ID, componentsBalance.get(2).getOrderId());
+    }
+
+    @Test
+    public final void shouldCalculateProductsBalanceOrderedByProductNumber() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = createCalculatorWithMargins();
+
+        // when
+        List<OrderBalance> productsBalance = ordersBalanceCalculator.getProductsBalance(
+                ordersBalanceCalculator.getComponentsBalance(ordersBalanceCalculator.getOrdersBalance()));
+
+        // then
+        assertEquals(2, productsBalance.size());
+
+        OrderBalance otherProductBalance = productsBalance.get(0);
+
+        assertEquals(L_OTHER_PRODUCT_ID, otherProductBalance.getProductId());
+        assertDecimal("2", otherProductBalance.getProducedQuantity());
+        assertDecimal("5", otherProductBalance.getTotalCosts());
+        assertDecimal("2.5", otherProductBalance.getRegistrationPrice());
+        assertDecimal("4.125", otherProductBalance.getSellPrice());
+
+        OrderBalance productBalance = productsBalance.get(1);
+
+        assertEquals(L_PRODUCT_ID, productBalance.getProductId());
+        assertNull(productBalance.getOrderId());
+        assertNull(productBalance.getOrderNumber());
+        assertDecimal("10", productBalance.getProducedQuantity());
+        assertDecimal("60", productBalance.getMaterialCosts());
+        assertDecimal("55", productBalance.getProductionCosts());
+        assertDecimal("115", productBalance.getTechnicalProductionCosts());
+        assertDecimal("15", productBalance.getAdditionalOverhead());
+        assertDecimal("149", productBalance.getTotalCosts());
+        assertDecimal("14.9", productBalance.getRegistrationPrice());
+        assertDecimal("1.49", productBalance.getRegistrationPriceOverheadValue());
+        assertDecimal("16.39", productBalance.getRealProductionCosts());
+        assertDecimal("8.195", productBalance.getProfitValue());
+        assertDecimal("24.585", productBalance.getSellPrice());
+    }
+
+    @Test
+    public final void shouldCalculateBalancesWithoutMargins() {
+        // given
+        OrdersBalanceCalculator ordersBalanceCalculator = new OrdersBalanceCalculator(productionBalance,
+                MathContext.DECIMAL64);
+
+        ordersBalanceCalculator.addProducedQuantity(
+                createProducedQuantity(L_ROOT_ORDER_ID, null, L_PRODUCT_ID, "P2", new BigDecimal("10"), null));
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_ROOT_ORDER_ID, new BigDecimal("50")));
+        ordersBalanceCalculator.addProductionCost(createProductionCost(L_ROOT_ORDER_ID, new BigDecimal("40")));
+
+        // when
+        List<OrderBalance> ordersBalance = ordersBalanceCalculator.getOrdersBalance();
+        List<OrderBalance> productsBalance = ordersBalanceCalculator
+                .getProductsBalance(ordersBalanceCalculator.getComponentsBalance(ordersBalance));
+
+        // then
+        assertEquals(1, ordersBalance.size());
+        assertDecimal("0", ordersBalance.get(0).getMaterialCostMargin());
+        assertDecimal("0", ordersBalance.get(0).getMaterialCostMarginValue());
+        assertDecimal("0", ordersBalance.get(0).getProductionCostMarginValue());
+        assertDecimal("0", ordersBalance.get(0).getAdditionalOverhead());
+        assertDecimal("90", ordersBalance.get(0).getTotalCosts());
+        assertDecimal("9", ordersBalance.get(0).getSellPrice());
+
+        assertEquals(1, productsBalance.size());
+        assertDecimal("90", productsBalance.get(0).getTotalCosts());
+        assertDecimal("9", productsBalance.get(0).getSellPrice());
+    }
+
+    private OrdersBalanceCalculator createCalculatorWithMargins() {
+        given(productionBalance.getDecimalField(ProductionBalanceFields.MATERIAL_COST_MARGIN)).willReturn(new BigDecimal("10"));
+        given(productionBalance.getDecimalField(ProductionBalanceFields.PRODUCTION_COST_MARGIN))
+                .willReturn(new BigDecimal("20"));
+        given(productionBalance.getDecimalField(ProductionBalanceFields.ADDITIONAL_OVERHEAD)).willReturn(new BigDecimal("5"));
+        given(productionBalance.getDecimalField(ProductionBalanceFields.REGISTRATION_PRICE_OVERHEAD))
+                .willReturn(new BigDecimal("10"));
+        given(productionBalance.getDecimalField(ProductionBalanceFields.PROFIT)).willReturn(new BigDecimal("50"));
+
+        OrdersBalanceCalculator ordersBalanceCalculator = new OrdersBalanceCalculator(productionBalance,
+                MathContext.DECIMAL64);
+
+        ordersBalanceCalculator.addProducedQuantity(createProducedQuantity(L_ROOT_ORDER_ID, null, L_PRODUCT_ID, "P2",
+                new BigDecimal("10"), new BigDecimal("2")));
+        ordersBalanceCalculator.addProducedQuantity(createProducedQuantity(L_COMPONENT_ORDER_ID, L_ROOT_ORDER_ID,
+                L_COMPONENT_PRODUCT_ID, "C1", new BigDecimal("4"), null));
+        ordersBalanceCalculator.addProducedQuantity(
+                createProducedQuantity(L_NOT_PRODUCED_ORDER_ID, null, L_PRODUCT_ID, "P2", null, null));
+        ordersBalanceCalculator.addProducedQuantity(createProducedQuantity(L_NOT_TRACKED_ORDER_ID, null, L_OTHER_PRODUCT_ID,
+                "P1", new BigDecimal("3"), null));
+        ordersBalanceCalculator.addProducedQuantity(createProducedQuantity(L_OTHER_PRODUCT_ORDER_ID, null, L_OTHER_PRODUCT_ID,
+                "P1", new BigDecimal("2"), BigDecimal.ZERO));
+
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_ROOT_ORDER_ID, new BigDecimal("30")));
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_ROOT_ORDER_ID, new BigDecimal("20")));
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_COMPONENT_ORDER_ID, new BigDecimal("10")));
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_NOT_PRODUCED_ORDER_ID, null));
+        ordersBalanceCalculator.addMaterialCost(createMaterialCost(L_NOT_TRACKED_ORDER_ID, new BigDecimal("7")));
+
+        ordersBalanceCalculator.addProductionCost(createProductionCost(L_ROOT_ORDER_ID, new BigDecimal("40")));
+        ordersBalanceCalculator.addProductionCost(createProductionCost(L_COMPONENT_ORDER_ID, new BigDecimal("15")));
+        ordersBalanceCalculator.addProductionCost(createProductionCost(L_NOT_PRODUCED_ORDER_ID, null));
+        ordersBalanceCalculator.addProductionCost(createProductionCost(L_OTHER_PRODUCT_ORDER_ID, BigDecimal.ZERO));
+
+        return ordersBalanceCalculator;
+    }
+
+    private ProducedQuantity createProducedQuantity(final Long orderId, final Long rootId, final Long productId,
+            final String productNumber, final BigDecimal producedQuantity, final BigDecimal directAdditionalCost) {
+        ProducedQuantity quantity = new ProducedQuantity();
+
+        quantity.setOrderId(orderId);
+        quantity.setRootId(rootId);
+        quantity.setOrderNumber("O" + orderId);
+        quantity.setProductId(productId);
+        quantity.setProductNumber(productNumber);
+        quantity.setProducedQuantity(producedQuantity);
+        quantity.setDirectAdditionalCost(directAdditionalCost);
+
+        return quantity;
+    }
+
+    private MaterialCost createMaterialCost(final Long orderId, final BigDecimal realCost) {
+        MaterialCost materialCost = new MaterialCost();
+
+        materialCost.setOrderId(orderId);
+        materialCost.setRealCost(realCost);
+
+        return materialCost;
+    }
+
+    private ProductionCost createProductionCost(final Long orderId, final BigDecimal realCostsSum) {
+        ProductionCost productionCost = new ProductionCost();
+
+        productionCost.setOrderId(orderId);
+        productionCost.setRealCostsSum(realCostsSum);
+
+        return productionCost;
+    }
+
+    private void assertDecimal(final String expected, final BigDecimal actual) {
+        assertEquals(String.format("expected %s but was %s", expected, actual), 0, new BigDecimal(expected).compareTo(actual));
+    }
+
+}
@@ -11,4 +11,5 @@ public class ParameterFieldsPPS {
     public static final String PPS_ALGORITHM = "ppsAlgorithm";
     public static final String ALLOW_INCOMPLITE_UNITS = "allowIncompleteUnits";
     public static final String PPS_PRODUCED_AMOUNT_RECALCULATE_PLAN = "ppsProducedAmountRecalculatePlan";
+    public static final String PPS_REPLAN_IN_PROGRESS_ORDERS_NIGHTLY = "ppsReplanInProgressOrdersNightly";
 }
@@ -0,0 +1,88 @@
+package com.qcadoo.mes.productionPerShift.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Working time ranges of shifts assigned to a single production line, resolved at most once per shift and day.
+ *
+ * One timeline may be shared by PPS generations of all orders planned on the same production line.
+ */
+public final class PpsShiftTimeline {
+
+    private final Entity productionLine;
+
+    private final List<Shift> shifts;
+
+    private final BiFunction<Shift, DateTime, List<DateTimeRange>> workTimeResolver;
+
+    private final Map<RangesKey, List<DateTimeRange>> ranges = new ConcurrentHashMap<>();
+
+    public PpsShiftTimeline(final Entity productionLine, final List<Shift> shifts,
+            final BiFunction<Shift, DateTime, List<DateTimeRange>> workTimeResolver) {
+        this.productionLine = productionLine;
+        this.shifts = ImmutableList.copyOf(shifts);
+        this.workTimeResolver = workTimeResolver;
+    }
+
+    public Entity getProductionLine() {
+        return productionLine;
+    }
+
+    public List<Shift> getShifts() {
+        return shifts;
+    }
+
+    public boolean isFor(final Entity productionLine) {
+        return Objects.nonNull(productionLine) && Objects.nonNull(this.productionLine)
+                && Objects.equals(this.productionLine.getId(), productionLine.getId());
+    }
+
+    public List<DateTimeRange> getWorkDateTimes(final Shift shift, final DateTime dateOfDay) {
+        return ranges.computeIfAbsent(new RangesKey(shift.getId(), dateOfDay.getMillis()),
+                key -> ImmutableList.copyOf(workTimeResolver.apply(shift, dateOfDay)));
+    }
+
+    private static final class RangesKey {
+
+        private final Long shiftId;
+
+        private final long dayMillis;
+
+        private RangesKey(final Long shiftId, final long dayMillis) {
+            this.shiftId = shiftId;
+            this.dayMillis = dayMillis;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof RangesKey)) {
+                return false;
+            }
+
+            RangesKey other = (RangesKey) obj;
+
+            return Objects.equals(shiftId, other.shiftId) && dayMillis == other.dayMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shiftId, dayMillis);
+        }
+
+    }
+
+}
@@ -6,6 +6,7 @@ import com.qcadoo.model.api.validators.ErrorMessage;
 import org.joda.time.DateTime;
 
 import java.math.BigDecimal;
+import java.util.Date;
 import java.util.List;
 
 public class ProgressForDaysContainer {
@@ -22,6 +23,8 @@ public class ProgressForDaysContainer {
 
     private DateTime partCalculationToDate;
 
+    private Date orderFinishDate;
+
     private Entity operationComponent;
 
     private Entity order;
@@ -86,6 +89,14 @@ public class ProgressForDaysContainer {
         this.partCalculationToDate = partCalculationToDate;
     }
 
+    public Date getOrderFinishDate() {
+        return orderFinishDate;
+    }
+
+    public void setOrderFinishDate(Date orderFinishDate) {
+        this.orderFinishDate = orderFinishDate;
+    }
+
     public Entity getOperationComponent() {
         return operationComponent;
     }
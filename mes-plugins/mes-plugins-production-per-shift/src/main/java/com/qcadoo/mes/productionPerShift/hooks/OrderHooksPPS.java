@@ -25,13 +25,9 @@ package com.qcadoo.mes.productionPerShift.hooks;
 
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ParameterService;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.orders.constants.OrderFields;
-import com.qcadoo.mes.orders.states.constants.OrderState;
-import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
 import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
 import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
-import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
 import com.qcadoo.mes.productionPerShift.dates.ProgressDatesService;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.mes.productionPerShift.services.AutomaticPpsExecutorService;
@@ -47,9 +43,7 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 import static com.qcadoo.model.api.search.SearchProjections.id;
 import static com.qcadoo.model.api.search.SearchRestrictions.eq;
@@ -61,9 +55,6 @@ public class OrderHooksPPS {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
-    @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
-
     @Autowired
     private ParameterService parameterService;
 
@@ -73,9 +64,6 @@ public class OrderHooksPPS {
     @Autowired
     private AutomaticPpsExecutorService automaticPpsExecutorService;
 
-    @Autowired
-    private PpsTimeHelper ppsTimeHelper;
-
     @Autowired
     private AutomaticPpsParametersService automaticPpsParametersService;
 
@@ -117,24 +105,17 @@ public class OrderHooksPPS {
         if (isOrderFieldsChanged(order, orderFromDB) || generate) {
 
             if (productionPerShift != null && automaticPpsParametersService.isAutomaticPlanForShiftOn()) {
-                boolean shouldBeCorrected = OrderState.of(order).compareTo(OrderState.PENDING) != 0;
                 if (!productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS).isEmpty() || generate) {
-                    BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
-                    if (order.getBooleanField(OrderFields.FINAL_PRODUCTION_TRACKING)) {
-                        plannedQuantity = basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order);
-                    }
                     ProgressForDaysContainer progressForDaysContainer = new ProgressForDaysContainer();
-                    progressForDaysContainer.setShouldBeCorrected(shouldBeCorrected);
-                    progressForDaysContainer.setOrder(order);
                     try {
-                        automaticPpsExecutorService.generateProgressForDays(progressForDaysContainer, productionPerShift);
+                        automaticPpsExecutorService.regenerateProgressForDays(progressForDaysContainer, order,
+                                productionPerShift, null);
                     } catch (Exception ex) {
                         for (ErrorMessage errorMessage : progressForDaysContainer.getErrors()) {
                             order.addGlobalError(errorMessage.getMessage(), false, errorMessage.getVars());
                         }
                         return;
                     }
-                    List<Entity> progressForDays = progressForDaysContainer.getProgressForDays();
                     if (progressForDaysContainer.isCalculationError()) {
                         productionPerShift.getGlobalErrors()
                                 .forEach(error -> order.addGlobalError(error.getMessage(), false, error.getVars()));
@@ -142,28 +123,17 @@ public class OrderHooksPPS {
                     }
 
                     if (!progressForDaysContainer.isPartCalculation()) {
-                        Date finishDate = ppsTimeHelper.calculateOrderFinishDate(order, progressForDays);
+                        Date finishDate = progressForDaysContainer.getOrderFinishDate();
 
                         order.setField(OrderFields.FINISH_DATE, finishDate);
 
-                        if (shouldBeCorrected) {
+                        if (progressForDaysContainer.isShouldBeCorrected()) {
                             order.setField(OrderFields.CORRECTED_DATE_TO, finishDate);
                         } else {
                             order.setField(OrderFields.DATE_TO, finishDate);
                         }
                     }
-                    productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "01planned");
-
-                    if (shouldBeCorrected) {
-                        productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "02corrected");
-
-                        progressForDays
-                                .addAll(productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS).stream()
-                                        .filter(progressForDay -> !progressForDay.getBooleanField(ProgressForDayFields.CORRECTED))
-                                        .collect(Collectors.toList()));
-                    }
 
-                    productionPerShift.setField(ProductionPerShiftFields.PROGRES_FOR_DAYS, progressForDays);
                     productionPerShift.getDataDefinition().save(productionPerShift);
                 }
             }
@@ -1,6 +1,11 @@
 package com.qcadoo.mes.productionPerShift.services;
 
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
 import com.qcadoo.mes.productionPerShift.constants.PpsAlgorithm;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.plugin.api.PluginUtils;
@@ -9,6 +14,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Service
 public class AutomaticPpsExecutorService {
@@ -19,32 +25,81 @@ public class AutomaticPpsExecutorService {
     @Autowired
     private AutomaticPpsParametersService parametersService;
 
+    @Autowired
+    private PpsTimeHelper ppsTimeHelper;
+
+    /**
+     * Generates progresses for days of the given order and sets them, together with planned progress type, on its production
+     * per shift, which isn't saved. Finish date of the order is set in the container, unless the calculation is partial.
+     *
+     * Exceptions of the algorithm are rethrown, their messages are in errors of the container. When the container has
+     * calculation error, its messages are in global errors of the production per shift and the production per shift isn't
+     * changed.
+     */
+    public void regenerateProgressForDays(final ProgressForDaysContainer progressForDaysContainer, final Entity order,
+            final Entity productionPerShift, final PpsShiftTimeline shiftTimeline) {
+        boolean shouldBeCorrected = OrderState.of(order).compareTo(OrderState.PENDING) != 0;
+
+        progressForDaysContainer.setShouldBeCorrected(shouldBeCorrected);
+        progressForDaysContainer.setOrder(order);
+
+        generateProgressForDays(progressForDaysContainer, productionPerShift, shiftTimeline);
+
+        if (progressForDaysContainer.isCalculationError()) {
+            return;
+        }
+
+        List<Entity> progressForDays = progressForDaysContainer.getProgressForDays();
+
+        if (!progressForDaysContainer.isPartCalculation()) {
+            progressForDaysContainer.setOrderFinishDate(ppsTimeHelper.calculateOrderFinishDate(order, progressForDays));
+        }
+
+        productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "01planned");
+
+        if (shouldBeCorrected) {
+            productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "02corrected");
+
+            progressForDays.addAll(productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS).stream()
+                    .filter(progressForDay -> !progressForDay.getBooleanField(ProgressForDayFields.CORRECTED))
+                    .collect(Collectors.toList()));
+        }
+
+        productionPerShift.setField(ProductionPerShiftFields.PROGRES_FOR_DAYS, progressForDays);
+    }
+
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
+        generateProgressForDays(progressForDaysContainer, productionPerShift, null);
+    }
+
+    public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
+            PpsShiftTimeline shiftTimeline) {
         PpsAlgorithm algorithm = parametersService.getPpsAlgorithm();
         if (PpsAlgorithm.STANDARD_TECHNOLOGY == algorithm) {
-            callStandardAlgorithm(progressForDaysContainer, productionPerShift, algorithm);
+            callStandardAlgorithm(progressForDaysContainer, productionPerShift, shiftTimeline, algorithm);
         } else if (PpsAlgorithm.STANDARD_TECHNOLOGY_AND_AMOUNT_OF_CHANGE == algorithm) {
-            callStandardAlgorithm(progressForDaysContainer, productionPerShift, algorithm);
+            callStandardAlgorithm(progressForDaysContainer, productionPerShift, shiftTimeline, algorithm);
         } else if (PpsAlgorithm.USER == algorithm) {
-            callUserAlgorithm(progressForDaysContainer, productionPerShift);
+            callUserAlgorithm(progressForDaysContainer, productionPerShift, shiftTimeline);
         }
     }
 
-    private void callUserAlgorithm(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
+    private void callUserAlgorithm(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
+            PpsShiftTimeline shiftTimeline) {
         for (AutomaticPpsService service : ppsAlgorithmServcies) {
             if (serviceEnabled(service) && isNotStandardAlgorithm(service)) {
-                service.generateProgressForDays(progressForDaysContainer, productionPerShift);
+                service.generateProgressForDays(progressForDaysContainer, productionPerShift, shiftTimeline);
             }
         }
     }
 
     private void callStandardAlgorithm(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
-            PpsAlgorithm algorithm) {
+            PpsShiftTimeline shiftTimeline, PpsAlgorithm algorithm) {
         for (AutomaticPpsService service : ppsAlgorithmServcies) {
             if (serviceEnabled(service)) {
                 String aClass = service.getClass().getSimpleName();
                 if (algorithm.getAlgorithmClass().equalsIgnoreCase(aClass)) {
-                    service.generateProgressForDays(progressForDaysContainer, productionPerShift);
+                    service.generateProgressForDays(progressForDaysContainer, productionPerShift, shiftTimeline);
                 }
             }
         }
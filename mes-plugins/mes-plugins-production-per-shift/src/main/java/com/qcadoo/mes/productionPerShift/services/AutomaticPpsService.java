@@ -1,9 +1,15 @@
 package com.qcadoo.mes.productionPerShift.services;
 
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.model.api.Entity;
 
 public interface AutomaticPpsService {
 
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift);
+
+    default void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
+            PpsShiftTimeline shiftTimeline) {
+        generateProgressForDays(progressForDaysContainer, productionPerShift);
+    }
 }
@@ -5,6 +5,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.model.api.Entity;
 
@@ -20,4 +21,11 @@ public class AutomaticPpsTechNormAndWorkersService implements AutomaticPpsServic
         ppsTechNormAlgorithmService.generateProgressForDays(progressForDaysContainer, productionPerShift);
 
     }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
+            PpsShiftTimeline shiftTimeline) {
+        ppsTechNormAlgorithmService.generateProgressForDays(progressForDaysContainer, productionPerShift, shiftTimeline);
+    }
 }
@@ -3,8 +3,6 @@ package com.qcadoo.mes.productionPerShift.services;
 import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
-import com.qcadoo.mes.basic.ShiftExceptionService;
-import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
@@ -13,6 +11,7 @@ import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
 import com.qcadoo.mes.productionPerShift.constants.*;
 import com.qcadoo.mes.productionPerShift.domain.DailyProgressContainer;
 import com.qcadoo.mes.productionPerShift.domain.DailyProgressKey;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.mes.productionPerShift.domain.ShiftEfficiencyCalculationHolder;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -24,6 +23,7 @@ import org.joda.time.DateTimeZone;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -43,17 +43,24 @@ public abstract class PpsBaseAlgorithmService {
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private ShiftsService shiftsService;
-
-    @Autowired
-    private ShiftExceptionService shiftExceptionService;
+    private PpsShiftTimelineService ppsShiftTimelineService;
 
     @Autowired
     private ParameterService parameterService;
 
-    private Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords;
-
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
+        generateProgressForDays(progressForDaysContainer, productionPerShift, null);
+    }
+
+    /**
+     * Generates progresses for days of the given production per shift. Keeps no state between calls, so timeline of the order
+     * production line may be shared by generations of many orders.
+     *
+     * @param shiftTimeline
+     *            timeline of the order production line, created for this call when null or created for another line
+     */
+    public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift,
+            PpsShiftTimeline shiftTimeline) {
         Entity order = productionPerShift.getBelongsToField(ProductionPerShiftFields.ORDER);
         if (progressForDaysContainer.getOrder() != null) {
             order = progressForDaysContainer.getOrder();
@@ -73,7 +80,11 @@ public abstract class PpsBaseAlgorithmService {
             throw new IllegalStateException("No production line in order");
         }
 
-        List<Shift> shifts = shiftsService.findAll(productionLine);
+        if (shiftTimeline == null || !shiftTimeline.isFor(productionLine)) {
+            shiftTimeline = ppsShiftTimelineService.createTimeline(productionLine);
+        }
+
+        List<Shift> shifts = shiftTimeline.getShifts();
         if (shifts.isEmpty()) {
             progressForDaysContainer
                     .addError(new ErrorMessage("productionPerShift.automaticAlgorithm.productionLine.shiftsRequired", false,
@@ -87,7 +98,8 @@ public abstract class PpsBaseAlgorithmService {
         if (order.getBooleanField(OrderFields.FINAL_PRODUCTION_TRACKING)) {
             plannedQuantity = basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order);
         }
-        calculateRegisteredQuantity(progressForDaysContainer, order, productionPerShift, plannedQuantity);
+        Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords = calculateRegisteredQuantity(progressForDaysContainer,
+                productionPerShift, plannedQuantity);
 
         BigDecimal alreadyPlannedQuantity = BigDecimal.ZERO;
         List<Entity> progressForDays = Lists.newLinkedList();
@@ -101,8 +113,8 @@ public abstract class PpsBaseAlgorithmService {
                 || progressForDaysContainer.getAlreadyRegisteredQuantity().compareTo(BigDecimal.ZERO) > 0) {
 
             DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(progressForDaysContainer,
-                    productionPerShift, order, shifts, currentDate, orderStartDate, shouldBeCorrected, progressForDays.size(),
-                    alreadyPlannedQuantity, allowIncompleteUnits);
+                    productionPerShift, order, shiftTimeline, dailyProgressesWithTrackingRecords, currentDate, orderStartDate,
+                    shouldBeCorrected, progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits);
             if (dailyProgressContainer.isCalculationError()) {
                 progressForDaysContainer.setCalculationError(true);
                 return;
@@ -121,18 +133,15 @@ public abstract class PpsBaseAlgorithmService {
     }
 
     private DailyProgressContainer fillDailyProgressWithShifts(ProgressForDaysContainer progressForDaysContainer,
-            Entity productionPerShift, Entity order, List<Shift> shifts, DateTime dateOfDay, Date orderStartDate,
+            Entity productionPerShift, Entity order, PpsShiftTimeline shiftTimeline,
+            Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords, DateTime dateOfDay, Date orderStartDate,
             boolean shouldBeCorrected, int progressForDayQuantity, BigDecimal alreadyPlannedQuantity,
             boolean allowIncompleteUnits) {
         DailyProgressContainer dailyProgressContainer = new DailyProgressContainer();
         List<Entity> dailyProgressWithShifts = Lists.newLinkedList();
 
-        for (Shift shift : shifts) {
-            Entity dailyProgress = null;
-            if (dailyProgressesWithTrackingRecords != null) {
-                DailyProgressKey key = new DailyProgressKey(shift.getId(), dateOfDay);
-                dailyProgress = dailyProgressesWithTrackingRecords.get(key);
-            }
+        for (Shift shift : shiftTimeline.getShifts()) {
+            Entity dailyProgress = dailyProgressesWithTrackingRecords.get(new DailyProgressKey(shift.getId(), dateOfDay));
             if (dailyProgress != null) {
                 BigDecimal producedQuantity = dailyProgress.getDecimalField(DailyProgressFields.QUANTITY);
                 progressForDaysContainer.setAlreadyRegisteredQuantity(progressForDaysContainer.getAlreadyRegisteredQuantity()
@@ -152,8 +161,7 @@ public abstract class PpsBaseAlgorithmService {
                 DateTime orderStartDateDT = new DateTime(orderStartDate, DateTimeZone.getDefault());
                 BigDecimal shiftEfficiency = BigDecimal.ZERO;
                 int time = 0;
-                for (DateTimeRange range : shiftExceptionService
-                        .getShiftWorkDateTimes(order.getBelongsToField(OrderFields.PRODUCTION_LINE), shift, dateOfDay, true)) {
+                for (DateTimeRange range : shiftTimeline.getWorkDateTimes(shift, dateOfDay)) {
                     if (orderStartDate.after(dateOfDay.toDate())) {
                         range = range.trimBefore(orderStartDateDT);
                     }
@@ -204,8 +212,9 @@ public abstract class PpsBaseAlgorithmService {
         return progressForDay;
     }
 
-    private BigDecimal calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer, final Entity order,
+    private Map<DailyProgressKey, Entity> calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer,
             final Entity pps, BigDecimal plannedQuantity) {
+        Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords = Collections.emptyMap();
         BigDecimal alreadyRegisteredQuantity = progressForDaysContainer.getAlreadyRegisteredQuantity();
         if (pps != null) {
             dailyProgressesWithTrackingRecords = dailyProgressService.getDailyProgressesWithTrackingRecords(pps);
@@ -214,12 +223,10 @@ public abstract class PpsBaseAlgorithmService {
                 alreadyRegisteredQuantity = alreadyRegisteredQuantity.add(entry.getKey().getQuantity());
             }
             progressForDaysContainer.setAlreadyRegisteredQuantity(alreadyRegisteredQuantity);
-        } else {
-            dailyProgressesWithTrackingRecords = null;
         }
         progressForDaysContainer
                 .setPlannedQuantity(plannedQuantity.subtract(alreadyRegisteredQuantity, numberService.getMathContext()));
-        return progressForDaysContainer.getPlannedQuantity();
+        return dailyProgressesWithTrackingRecords;
     }
 
     protected abstract ShiftEfficiencyCalculationHolder calculateShiftEfficiency(
@@ -0,0 +1,173 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionPerShift.constants.ParameterFieldsPPS;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchProjections;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.plugin.api.RunIfEnabled;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Regenerates automatic production per shift plans of many orders at once.
+ *
+ * Plans of orders planned on the same production line share one {@link PpsShiftTimeline}, so shifts and timetable exceptions
+ * of a line are loaded and resolved once per run instead of once per order and day.
+ */
+@Service("ppsBulkGenerationService")
+public class PpsBulkGenerationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PpsBulkGenerationService.class);
+
+    private static final int CHUNK_SIZE = 100;
+
+    private static final String L_ORDER = "order";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    @Autowired
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Autowired
+    private PpsShiftTimelineService ppsShiftTimelineService;
+
+    @RunIfEnabled(ProductionPerShiftConstants.PLUGIN_IDENTIFIER)
+    public void replanInProgressOrdersTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                if (automaticPpsParametersService.isAutomaticPlanForShiftOn() && parameterService.getParameter()
+                        .getBooleanField(ParameterFieldsPPS.PPS_REPLAN_IN_PROGRESS_ORDERS_NIGHTLY)) {
+                    replanInProgressOrders();
+                }
+            }
+
+        });
+    }
+
+    public int replanInProgressOrders() {
+        List<Long> productionPerShiftIds = getProductionPerShiftDD().find()
+                .createAlias(ProductionPerShiftFields.ORDER, L_ORDER, JoinType.INNER)
+                .add(SearchRestrictions.eq(L_ORDER + "." + OrderFields.STATE, OrderStateStringValues.IN_PROGRESS))
+                .setProjection(SearchProjections.alias(SearchProjections.id(), "id")).list().getEntities().stream()
+                .map(projection -> (Long) projection.getField("id")).collect(Collectors.toList());
+
+        return regenerateProgressForDays(productionPerShiftIds);
+    }
+
+    /**
+     * Regenerates progresses for days of the given production per shift plans and saves them.
+     *
+     * @return number of plans regenerated successfully
+     */
+    public int regenerateProgressForDays(final Collection<Long> productionPerShiftIds) {
+        Map<Long, PpsShiftTimeline> timelines = Maps.newHashMap();
+        int regenerated = 0;
+
+        LOG.info(String.format("Regenerating %d production per shift plans.", productionPerShiftIds.size()));
+
+        for (List<Long> ids : Lists.partition(Lists.newArrayList(productionPerShiftIds), CHUNK_SIZE)) {
+            List<Entity> productionPerShifts = getProductionPerShiftDD().find().add(SearchRestrictions.in("id", ids)).list()
+                    .getEntities();
+
+            for (Entity productionPerShift : productionPerShifts) {
+                // like on order update, plans never generated before are left untouched
+                if (productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS).isEmpty()) {
+                    continue;
+                }
+                if (regenerateProgressForDays(productionPerShift, timelines)) {
+                    ++regenerated;
+                }
+            }
+        }
+
+        LOG.info(String.format("Regenerated %d of %d production per shift plans.", regenerated, productionPerShiftIds.size()));
+
+        return regenerated;
+    }
+
+    private boolean regenerateProgressForDays(final Entity productionPerShift, final Map<Long, PpsShiftTimeline> timelines) {
+        Entity order = productionPerShift.getBelongsToField(ProductionPerShiftFields.ORDER);
+        Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+
+        PpsShiftTimeline shiftTimeline = null;
+        if (productionLine != null) {
+            shiftTimeline = timelines.computeIfAbsent(productionLine.getId(),
+                    productionLineId -> ppsShiftTimelineService.createTimeline(productionLine));
+        }
+
+        ProgressForDaysContainer progressForDaysContainer = new ProgressForDaysContainer();
+
+        try {
+            automaticPpsExecutorService.regenerateProgressForDays(progressForDaysContainer, order, productionPerShift,
+                    shiftTimeline);
+        } catch (Exception ex) {
+            logFailure(order, progressForDaysContainer.getErrors(), ex);
+            return false;
+        }
+        if (progressForDaysContainer.isCalculationError()) {
+            logFailure(order, productionPerShift.getGlobalErrors(), null);
+            return false;
+        }
+
+        if (!progressForDaysContainer.isPartCalculation()) {
+            productionPerShift.setField(ProductionPerShiftFields.ORDER_FINISH_DATE,
+                    progressForDaysContainer.getOrderFinishDate());
+        }
+
+        Entity savedProductionPerShift = productionPerShift.getDataDefinition().save(productionPerShift);
+
+        if (!savedProductionPerShift.isValid()) {
+            logFailure(order, savedProductionPerShift.getGlobalErrors(), null);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void logFailure(final Entity order, final List<ErrorMessage> errors, final Exception ex) {
+        String messages = errors.stream().map(ErrorMessage::getMessage).collect(Collectors.joining(", "));
+
+        LOG.warn(String.format("Production per shift of order %s was not regenerated: %s",
+                order.getStringField(OrderFields.NUMBER), messages), ex);
+    }
+
+    private DataDefinition getProductionPerShiftDD() {
+        return dataDefinitionService.get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
+                ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT);
+    }
+
+}
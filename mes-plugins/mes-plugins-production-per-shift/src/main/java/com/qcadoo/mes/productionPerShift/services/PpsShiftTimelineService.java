@@ -0,0 +1,38 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
+import com.qcadoo.model.api.Entity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Service
+public class PpsShiftTimelineService {
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    /**
+     * Creates timeline of shifts assigned to the given production line. Timetable exceptions of all shifts are loaded once,
+     * work time of a shift in a day is resolved on the first request.
+     */
+    public PpsShiftTimeline createTimeline(final Entity productionLine) {
+        List<Shift> shifts = shiftsService.findAll(productionLine);
+        Map<Long, List<Entity>> exceptionsByShift = shifts.stream().collect(
+                Collectors.toMap(Shift::getId, shift -> shiftExceptionService.getExceptions(productionLine, shift),
+                        (first, second) -> first));
+
+        return new PpsShiftTimeline(productionLine, shifts, (shift, dateOfDay) -> shiftExceptionService
+                .getShiftWorkDateTimes(productionLine, shift, dateOfDay, exceptionsByShift.get(shift.getId()), true));
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.services;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftTimeline;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SearchRestrictions.class)
+public class PpsBulkGenerationServiceTest {
+
+    private PpsBulkGenerationService ppsBulkGenerationService;
+
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private PpsShiftTimelineService ppsShiftTimelineService;
+
+    @Mock
+    private PpsTimeHelper ppsTimeHelper;
+
+    @Mock
+    private DataDefinition productionPerShiftDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Mock
+    private Entity productionLine;
+
+    @Mock
+    private PpsShiftTimeline shiftTimeline;
+
+    private final Date finishDate = new Date();
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SearchRestrictions.class);
+
+        ppsBulkGenerationService = new PpsBulkGenerationService();
+        automaticPpsExecutorService = Mockito.spy(new AutomaticPpsExecutorService());
+
+        ReflectionTestUtils.setField(automaticPpsExecutorService, "ppsTimeHelper", ppsTimeHelper);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "automaticPpsExecutorService", automaticPpsExecutorService);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "ppsShiftTimelineService", ppsShiftTimelineService);
+
+        given(dataDefinitionService.get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
+                ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT)).willReturn(productionPerShiftDD);
+        given(productionPerShiftDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(productionPerShiftDD.save(any(Entity.class))).willAnswer(invocation -> invocation.getArguments()[0]);
+
+        given(productionLine.getId()).willReturn(1L);
+        given(ppsShiftTimelineService.createTimeline(productionLine)).willReturn(shiftTimeline);
+        given(ppsTimeHelper.calculateOrderFinishDate(any(Entity.class), anyListOf(Entity.class))).willReturn(finishDate);
+
+        doAnswer(invocation -> {
+            ProgressForDaysContainer progressForDaysContainer = (ProgressForDaysContainer) invocation.getArguments()[0];
+
+            progressForDaysContainer.setProgressForDays(Lists.newArrayList(mock(Entity.class)));
+
+            return null;
+        }).when(automaticPpsExecutorService).generateProgressForDays(any(ProgressForDaysContainer.class), any(Entity.class),
+                any(PpsShiftTimeline.class));
+    }
+
+    @Test
+    public void shouldRegeneratePlansOfOrdersOfOneProductionLineWithOneTimeline() {
+        // given
+        Entity productionPerShift1 = mockProductionPerShift(OrderStateStringValues.PENDING, mockProgressForDay(false));
+        Entity productionPerShift2 = mockProductionPerShift(OrderStateStringValues.PENDING, mockProgressForDay(false));
+
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(productionPerShift1, productionPerShift2));
+
+        // when
+        int regenerated = ppsBulkGenerationService.regenerateProgressForDays(Lists.newArrayList(1L, 2L));
+
+        // then
+        Assert.assertEquals(2, regenerated);
+
+        verify(ppsShiftTimelineService, times(1)).createTimeline(productionLine);
+        verify(automaticPpsExecutorService, times(2)).generateProgressForDays(any(ProgressForDaysContainer.class),
+                any(Entity.class), eq(shiftTimeline));
+
+        for (Entity productionPerShift : Lists.newArrayList(productionPerShift1, productionPerShift2)) {
+            verify(productionPerShift).setField(ProductionPerShiftFields.ORDER_FINISH_DATE, finishDate);
+            verify(productionPerShift).setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "01planned");
+            verify(productionPerShift, never()).setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "02corrected");
+            Assert.assertEquals(1, getSetProgressForDays(productionPerShift).size());
+            verify(productionPerShiftDD).save(productionPerShift);
+        }
+    }
+
+    @Test
+    public void shouldKeepNotCorrectedProgressesOfOrdersInProgress() {
+        // given
+        Entity notCorrectedProgressForDay = mockProgressForDay(false);
+        Entity correctedProgressForDay = mockProgressForDay(true);
+        Entity productionPerShift = mockProductionPerShift(OrderStateStringValues.IN_PROGRESS, notCorrectedProgressForDay,
+                correctedProgressForDay);
+
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(productionPerShift));
+
+        // when
+        int regenerated = ppsBulkGenerationService.regenerateProgressForDays(Lists.newArrayList(1L));
+
+        // then
+        Assert.assertEquals(1, regenerated);
+
+        verify(productionPerShift).setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, "02corrected");
+
+        List<Entity> progressForDays = getSetProgressForDays(productionPerShift);
+
+        Assert.assertEquals(2, progressForDays.size());
+        Assert.assertTrue(progressForDays.contains(notCorrectedProgressForDay));
+        Assert.assertFalse(progressForDays.contains(correctedProgressForDay));
+    }
+
+    @Test
+    public void shouldSkipPlansWhichWereNeverGenerated() {
+        // given
+        Entity productionPerShift = mockProductionPerShift(OrderStateStringValues.PENDING);
+
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(productionPerShift));
+
+        // when
+        int regenerated = ppsBulkGenerationService.regenerateProgressForDays(Lists.newArrayList(1L));
+
+        // then
+        Assert.assertEquals(0, regenerated);
+
+        verify(automaticPpsExecutorService, never()).generateProgressForDays(any(ProgressForDaysContainer.class),
+                any(Entity.class), any(PpsShiftTimeline.class));
+        verify(productionPerShiftDD, never()).save(any(Entity.class));
+    }
+
+    @Test
+    public void shouldNotSavePlanWhichGenerationFailed() {
+        // given
+        Entity failingProductionPerShift = mockProductionPerShift(OrderStateStringValues.PENDING, mockProgressForDay(false));
+        Entity productionPerShift = mockProductionPerShift(OrderStateStringValues.PENDING, mockProgressForDay(false));
+
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(failingProductionPerShift, productionPerShift));
+
+        doAnswer(invocation -> {
+            ProgressForDaysContainer progressForDaysContainer = (ProgressForDaysContainer) invocation.getArguments()[0];
+
+            progressForDaysContainer.addError(new ErrorMessage("productionPerShift.automaticAlgorithm.order.startDateRequired",
+                    false));
+
+            throw new IllegalStateException("No start date in order");
+        }).when(automaticPpsExecutorService).generateProgressForDays(any(ProgressForDaysContainer.class),
+                eq(failingProductionPerShift), any(PpsShiftTimeline.class));
+
+        // when
+        int regenerated = ppsBulkGenerationService.regenerateProgressForDays(Lists.newArrayList(1L, 2L));
+
+        // then
+        Assert.assertEquals(1, regenerated);
+
+        verify(productionPerShiftDD, never()).save(failingProductionPerShift);
+        verify(productionPerShiftDD).save(productionPerShift);
+    }
+
+    private Entity mockProductionPerShift(final String orderState, final Entity... progressForDays) {
+        Entity productionPerShift = mock(Entity.class);
+        Entity order = mock(Entity.class);
+
+        given(order.getStringField(OrderFields.STATE)).willReturn(orderState);
+        given(order.getStringField(OrderFields.NUMBER)).willReturn("O-" + orderState);
+        given(order.getBelongsToField(OrderFields.PRODUCTION_LINE)).willReturn(productionLine);
+
+        List<Entity> progressForDaysList = Lists.newArrayList(progressForDays);
+        EntityList progressForDaysField = mock(EntityList.class);
+
+        given(progressForDaysField.isEmpty()).willReturn(progressForDaysList.isEmpty());
+        given(progressForDaysField.stream()).willAnswer(invocation -> progressForDaysList.stream());
+
+        given(productionPerShift.getBelongsToField(ProductionPerShiftFields.ORDER)).willReturn(order);
+        given(productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS)).willReturn(progressForDaysField);
+        given(productionPerShift.getDataDefinition()).willReturn(productionPerShiftDD);
+
+        return productionPerShift;
+    }
+
+    private Entity mockProgressForDay(final boolean corrected) {
+        Entity progressForDay = mock(Entity.class);
+
+        given(progressForDay.getBooleanField(ProgressForDayFields.CORRECTED)).willReturn(corrected);
+
+        return progressForDay;
+    }
+
+    private List<Entity> getSetProgressForDays(final Entity productionPerShift) {
+        ArgumentCaptor<Object> progressForDaysCaptor = ArgumentCaptor.forClass(Object.class);
+
+        verify(productionPerShift).setField(eq(ProductionPerShiftFields.PROGRES_FOR_DAYS), progressForDaysCaptor.capture());
+
+        return (List<Entity>) progressForDaysCaptor.getValue();
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.qcadoo.mes.productionScheduling;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParallelReadService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
+import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Calculates realization times of orders loaded into a schedule.
+ *
+ * Product quantities of orders are independent of each other, so they are read in parallel by the application's async
+ * executor. Operation times are then calculated and saved on the calling thread, within the caller's transaction, so either
+ * all orders are updated or none - both OperationWorkTimeService and OrderRealizationTimeService save time calculations of
+ * operation components while calculating them, so they can't be run by read-only workers.
+ */
+@Service
+public class ScheduleRealizationTimeService {
+
+    private static final String L_INCLUDE_TPZ_PS = "includeTpzPS";
+
+    private static final String L_INCLUDE_ADDITIONAL_TIME_PS = "includeAdditionalTimePS";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Autowired
+    private OrderRealizationTimeService orderRealizationTimeService;
+
+    @Autowired
+    private OperationWorkTimeService operationWorkTimeService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private ParallelReadService parallelReadService;
+
+    public Map<Long, OperationProductComponentWithQuantityContainer> generateRealizationTimes(final List<Entity> orders,
+            final Locale locale) {
+        Entity parameter = parameterService.getParameter();
+        boolean includeTpz = parameter.getBooleanField(L_INCLUDE_TPZ_PS);
+        boolean includeAdditionalTime = parameter.getBooleanField(L_INCLUDE_ADDITIONAL_TIME_PS);
+
+        Map<Long, OrderQuantities> ordersQuantities = getOrdersQuantities(orders, locale);
+
+        Map<Long, OperationProductComponentWithQuantityContainer> ordersOperationsQuantity = Maps.newHashMap();
+
+        for (Entity order : orders) {
+            OrderQuantities orderQuantities = ordersQuantities.get(order.getId());
+
+            if (Objects.isNull(orderQuantities)) {
+                ordersOperationsQuantity.put(order.getId(), null);
+            } else {
+                Entity productionLine = getProductionLine(order.getBelongsToField(OrderFields.PRODUCTION_LINE).getId());
+
+                saveRealizationTime(order, productionLine, includeTpz, includeAdditionalTime, orderQuantities);
+
+                ordersOperationsQuantity.put(order.getId(), orderQuantities.productComponentQuantities);
+            }
+        }
+
+        return ordersOperationsQuantity;
+    }
+
+    public OperationProductComponentWithQuantityContainer generateRealizationTime(final Entity order, final Long productionLineId,
+            final Locale locale, final boolean includeTpz, final boolean includeAdditionalTime) {
+        OrderQuantities orderQuantities = getOrderQuantities(order, locale);
+
+        if (Objects.isNull(orderQuantities)) {
+            return null;
+        }
+
+        saveRealizationTime(order, getProductionLine(productionLineId), includeTpz, includeAdditionalTime, orderQuantities);
+
+        return orderQuantities.productComponentQuantities;
+    }
+
+    private Map<Long, OrderQuantities> getOrdersQuantities(final List<Entity> orders, final Locale locale) {
+        List<Long> orderIds = orders.stream().map(Entity::getId).collect(Collectors.toList());
+
+        return parallelReadService.read(orderIds, orderId -> getOrderQuantities(getOrder(orderId), locale));
+    }
+
+    private OrderQuantities getOrderQuantities(final Entity order, final Locale locale) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        if (Objects.isNull(technology)) {
+            return null;
+        }
+
+        BigDecimal quantity = orderRealizationTimeService
+                .getBigDecimalFromField(order.getDecimalField(OrderFields.PLANNED_QUANTITY), locale);
+
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
+                .getProductComponentQuantities(technology, quantity, operationRuns);
+
+        return new OrderQuantities(operationRuns, productComponentQuantities);
+    }
+
+    private void saveRealizationTime(final Entity order, final Entity productionLine, final boolean includeTpz,
+            final boolean includeAdditionalTime, final OrderQuantities orderQuantities) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        operationWorkTimeService.deleteOperCompTimeCalculations(order);
+
+        operationWorkTimeService.estimateTotalWorkTimeForOrder(order, orderQuantities.operationRuns, includeTpz,
+                includeAdditionalTime, productionLine, true);
+
+        orderRealizationTimeService.estimateMaxOperationTimeConsumptionForWorkstation(order,
+                technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot(), includeTpz, includeAdditionalTime,
+                orderQuantities.operationRuns, productionLine, orderQuantities.productComponentQuantities);
+    }
+
+    private Entity getOrder(final Long orderId) {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER).get(orderId);
+    }
+
+    private Entity getProductionLine(final Long productionLineId) {
+        return dataDefinitionService
+                .get(ProductionLinesConstants.PLUGIN_IDENTIFIER, ProductionLinesConstants.MODEL_PRODUCTION_LINE)
+                .get(productionLineId);
+    }
+
+    private static final class OrderQuantities {
+
+        private final Map<Long, BigDecimal> operationRuns;
+
+        private final OperationProductComponentWithQuantityContainer productComponentQuantities;
+
+        private OrderQuantities(final Map<Long, BigDecimal> operationRuns,
+                final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+            this.operationRuns = operationRuns;
+            this.productComponentQuantities = productComponentQuantities;
+        }
+
+    }
+
+}
@@ -1,25 +1,20 @@
 package com.qcadoo.mes.productionScheduling.listeners;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
-import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.constants.ScheduleFields;
 import com.qcadoo.mes.orders.constants.SchedulePositionFields;
 import com.qcadoo.mes.orders.listeners.ScheduleDetailsListeners;
-import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.mes.productionScheduling.ScheduleRealizationTimeService;
 import com.qcadoo.mes.productionScheduling.constants.OperCompTimeCalculation;
 import com.qcadoo.mes.productionScheduling.constants.OrderFieldsPS;
 import com.qcadoo.mes.productionScheduling.constants.OrderTimeCalculationFields;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
-import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
 import com.qcadoo.model.api.DataDefinition;
@@ -47,13 +42,7 @@ public class ScheduleDetailsListenersPS {
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private ProductQuantitiesService productQuantitiesService;
-
-    @Autowired
-    private OrderRealizationTimeService orderRealizationTimeService;
-
-    @Autowired
-    private OperationWorkTimeService operationWorkTimeService;
+    private ScheduleRealizationTimeService scheduleRealizationTimeService;
 
     @Autowired
     private ParameterService parameterService;
@@ -74,13 +63,9 @@ public class ScheduleDetailsListenersPS {
     @Transactional
     public void getOperations(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         GridComponent ordersGrid = (GridComponent) view.getComponentByReference(L_ORDERS);
-        Map<Long, OperationProductComponentWithQuantityContainer> ordersOperationsQuantity = Maps.newHashMap();
         List<Entity> orders = ordersGrid.getEntities();
-        for (Entity order : orders) {
-            OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = generateRealizationTime(
-                    order, order.getBelongsToField(OrderFields.PRODUCTION_LINE).getId());
-            ordersOperationsQuantity.put(order.getId(), operationProductComponentWithQuantityContainer);
-        }
+        Map<Long, OperationProductComponentWithQuantityContainer> ordersOperationsQuantity = scheduleRealizationTimeService
+                .generateRealizationTimes(orders, LocaleContextHolder.getLocale());
 
         DataDefinition schedulePositionDD = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER,
                 OrdersConstants.MODEL_SCHEDULE_POSITION);
@@ -136,32 +121,10 @@ public class ScheduleDetailsListenersPS {
     @Transactional
     public OperationProductComponentWithQuantityContainer generateRealizationTime(final Entity order,
             final Long productionLineId) {
-        Entity productionLine = dataDefinitionService
-                .get(ProductionLinesConstants.PLUGIN_IDENTIFIER, ProductionLinesConstants.MODEL_PRODUCTION_LINE)
-                .get(productionLineId);
-
-        BigDecimal quantity = orderRealizationTimeService
-                .getBigDecimalFromField(order.getDecimalField(OrderFields.PLANNED_QUANTITY), LocaleContextHolder.getLocale());
         boolean includeTpz = parameterService.getParameter().getBooleanField("includeTpzPS");
         boolean includeAdditionalTime = parameterService.getParameter().getBooleanField("includeAdditionalTimePS");
 
-        final Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
-        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-        if (technology == null) {
-            return null;
-        }
-
-        OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = productQuantitiesService
-                .getProductComponentQuantities(technology, quantity, operationRuns);
-
-        operationWorkTimeService.deleteOperCompTimeCalculations(order);
-
-        operationWorkTimeService.estimateTotalWorkTimeForOrder(order, operationRuns, includeTpz, includeAdditionalTime,
-                productionLine, true);
-
-        orderRealizationTimeService.estimateMaxOperationTimeConsumptionForWorkstation(order,
-                technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot(), quantity, includeTpz,
-                includeAdditionalTime, productionLine);
-        return operationProductComponentWithQuantityContainer;
+        return scheduleRealizationTimeService.generateRealizationTime(order, productionLineId, LocaleContextHolder.getLocale(),
+                includeTpz, includeAdditionalTime);
     }
 }
@@ -0,0 +1,81 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.CurrentTenantService;
+import com.qcadoo.security.api.SecurityService;
+
+@Controller
+@RequestMapping("/bulkStateChange")
+public class BulkStateChangeController {
+
+    @Autowired
+    private BulkStateChangeService bulkStateChangeService;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @RequestMapping(value = "/{jobId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BulkStateChangeProgressDto> getProgress(@PathVariable final String jobId) {
+        BulkStateChangeService.Progress progress = bulkStateChangeService.getProgress(jobId);
+
+        // jobs of other users are not reported, so their ids can't be probed
+        if (Objects.isNull(progress)
+                || !progress.isOwnedBy(currentTenantService.getTenant(), securityService.getCurrentUserOrQcadooBotId())) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        Locale locale = LocaleContextHolder.getLocale();
+        BulkStateChangeResult result = progress.getResult();
+        BulkStateChangeProgressDto progressDto = new BulkStateChangeProgressDto();
+
+        progressDto.setCount(progress.getCount());
+        progressDto.setProcessedCount(progress.getProcessedCount());
+        progressDto.setSuccessfulCount(result.getSuccessfulCount());
+        progressDto.setFailuresCount(result.getFailuresCount());
+        progressDto.setInProgress(progress.isInProgress());
+        progressDto.setFailed(progress.isFailed());
+        progressDto.setFailures(result.getFailures().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+                failure -> translationService.translate(failure.getValue(), locale), (first, second) -> first,
+                Maps::newLinkedHashMap)));
+
+        if (!progress.isInProgress()) {
+            progressDto.setMessage(getSummary(progress, result, locale));
+        }
+
+        return new ResponseEntity<>(progressDto, HttpStatus.OK);
+    }
+
+    private String getSummary(final BulkStateChangeService.Progress progress, final BulkStateChangeResult result,
+            final Locale locale) {
+        if (!progress.isFailed() && (result.getFailuresCount() == 0)) {
+            return translationService.translate("states.messages.change.bulk.successful", locale,
+                    String.valueOf(result.getSuccessfulCount()));
+        }
+
+        return translationService.translate("states.messages.change.bulk.failure", locale,
+                String.valueOf(result.getSuccessfulCount()), String.valueOf(progress.getCount()));
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Map;
+
+/**
+ * Progress of a state change of many entities in background, with translated summary and failure reasons once it has
+ * finished.
+ */
+public class BulkStateChangeProgressDto {
+
+    private int count;
+
+    private int processedCount;
+
+    private int successfulCount;
+
+    private int failuresCount;
+
+    private boolean inProgress;
+
+    private boolean failed;
+
+    private String message;
+
+    private Map<Long, String> failures;
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(final int count) {
+        this.count = count;
+    }
+
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(final int processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public int getSuccessfulCount() {
+        return successfulCount;
+    }
+
+    public void setSuccessfulCount(final int successfulCount) {
+        this.successfulCount = successfulCount;
+    }
+
+    public int getFailuresCount() {
+        return failuresCount;
+    }
+
+    public void setFailuresCount(final int failuresCount) {
+        this.failuresCount = failuresCount;
+    }
+
+    public boolean isInProgress() {
+        return inProgress;
+    }
+
+    public void setInProgress(final boolean inProgress) {
+        this.inProgress = inProgress;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public void setFailed(final boolean failed) {
+        this.failed = failed;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return translated failure reasons by entity id
+     */
+    public Map<Long, String> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(final Map<Long, String> failures) {
+        this.failures = failures;
+    }
+
+}
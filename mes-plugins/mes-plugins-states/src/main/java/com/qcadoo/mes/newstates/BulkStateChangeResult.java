@@ -0,0 +1,53 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Summary of a state change of many entities: ids of entities which state was changed and, for the others, translation key
+ * of the failure reason.
+ */
+public class BulkStateChangeResult {
+
+    private final List<Long> successfulIds = Lists.newArrayList();
+
+    private final Map<Long, String> failures = Maps.newLinkedHashMap();
+
+    synchronized void addSuccessful(final Long id) {
+        successfulIds.add(id);
+    }
+
+    synchronized void addFailure(final Long id, final String messageKey) {
+        failures.put(id, messageKey);
+    }
+
+    synchronized void addAll(final BulkStateChangeResult result) {
+        successfulIds.addAll(result.getSuccessfulIds());
+        failures.putAll(result.getFailures());
+    }
+
+    public synchronized List<Long> getSuccessfulIds() {
+        return ImmutableList.copyOf(successfulIds);
+    }
+
+    /**
+     * @return translation keys of failure reasons by entity id
+     */
+    public synchronized Map<Long, String> getFailures() {
+        return ImmutableMap.copyOf(failures);
+    }
+
+    public synchronized int getSuccessfulCount() {
+        return successfulIds.size();
+    }
+
+    public synchronized int getFailuresCount() {
+        return failures.size();
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CurrentTenantService;
+
+/**
+ * Changes state of many entities in background. Entities are changed in chunks, each chunk in its own transaction, so a large
+ * selection neither holds one long transaction nor blocks the request which started it. Progress and result of a job are
+ * available by its id until {@link #FINISHED_JOB_TTL_MILLIS} after it has finished, also through
+ * {@link BulkStateChangeController}, only to the user and tenant which started the job.
+ *
+ * Jobs run on the application's async executor, in the tenant of the request which started them.
+ */
+@Service
+public class BulkStateChangeService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkStateChangeService.class);
+
+    private static final int CHUNK_SIZE = 50;
+
+    private static final long FINISHED_JOB_TTL_MILLIS = 60 * 60 * 1000L;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CurrentTenantService currentTenantService;
+
+    private final Map<String, Progress> progresses = new ConcurrentHashMap<>();
+
+    /**
+     * Starts state change of the given entities once the current transaction is committed.
+     *
+     * @return id of the job, to get its progress
+     */
+    public <M extends StateService> String changeStatesInBackground(final Class<M> serviceMarker, final Collection<Long> ids,
+            final Long userId, final String userName, final String targetState) {
+        removeFinishedJobs();
+
+        String jobId = UUID.randomUUID().toString();
+        Progress progress = new Progress(ids.size(), currentTenantService.getTenant(), userId);
+        List<Long> idsToChange = Lists.newArrayList(ids);
+
+        progresses.put(jobId, progress);
+
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // changes saved by the request have to be visible for the background transactions
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == STATUS_COMMITTED) {
+                        changeStates(serviceMarker, idsToChange, userId, userName, targetState, progress, securityContext);
+                    } else {
+                        progress.finish(true);
+                    }
+                }
+
+            });
+        } else {
+            changeStates(serviceMarker, idsToChange, userId, userName, targetState, progress, securityContext);
+        }
+
+        return jobId;
+    }
+
+    public Progress getProgress(final String jobId) {
+        if (Objects.isNull(jobId)) {
+            return null;
+        }
+
+        return progresses.get(jobId);
+    }
+
+    @Async
+    public <M extends StateService> void changeStates(final Class<M> serviceMarker, final List<Long> ids, final Long userId,
+            final String userName, final String targetState, final Progress progress, final SecurityContext securityContext) {
+        // executor threads are reused, so the context of the thread is restored after the job
+        SecurityContext callerSecurityContext = SecurityContextHolder.getContext();
+
+        SecurityContextHolder.setContext(securityContext);
+
+        try {
+            // request scoped executor is not available outside of a request, so the job uses its own instance
+            StateExecutorService stateExecutorService = applicationContext.getAutowireCapableBeanFactory()
+                    .createBean(StateExecutorService.class);
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+            for (List<Long> chunk : Lists.partition(ids, CHUNK_SIZE)) {
+                BulkStateChangeResult chunkResult = transactionTemplate.execute(status -> stateExecutorService
+                        .changeStates(serviceMarker, chunk, userId, userName, targetState));
+
+                progress.chunkChanged(chunk.size(), chunkResult);
+            }
+
+            progress.finish(false);
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Bulk state change to %s failed after %d of %d entities", targetState,
+                    progress.getProcessedCount(), progress.getCount()), e);
+        } finally {
+            // errors thrown by the job have to finish its progress as well, otherwise it stays in progress forever
+            if (progress.isInProgress()) {
+                progress.finish(true);
+            }
+
+            SecurityContextHolder.setContext(callerSecurityContext);
+        }
+    }
+
+    private void removeFinishedJobs() {
+        long now = System.currentTimeMillis();
+
+        progresses.values().removeIf(progress -> progress.finishedAt > 0 && now - progress.finishedAt > FINISHED_JOB_TTL_MILLIS);
+    }
+
+    public static final class Progress {
+
+        private final int count;
+
+        private final String tenant;
+
+        private final Long userId;
+
+        private final AtomicInteger processedCount = new AtomicInteger();
+
+        private final BulkStateChangeResult result = new BulkStateChangeResult();
+
+        private volatile long finishedAt;
+
+        private volatile boolean failed;
+
+        private Progress(final int count, final String tenant, final Long userId) {
+            this.count = count;
+            this.tenant = tenant;
+            this.userId = userId;
+        }
+
+        private void chunkChanged(final int chunkSize, final BulkStateChangeResult chunkResult) {
+            result.addAll(chunkResult);
+            processedCount.addAndGet(chunkSize);
+        }
+
+        private void finish(final boolean failed) {
+            this.failed = failed;
+            this.finishedAt = System.currentTimeMillis();
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getProcessedCount() {
+            return processedCount.get();
+        }
+
+        /**
+         * @return result of already processed entities
+         */
+        public BulkStateChangeResult getResult() {
+            return result;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public boolean isInProgress() {
+            return finishedAt == 0;
+        }
+
+        public boolean isOwnedBy(final String tenant, final Long userId) {
+            return Objects.equals(this.tenant, tenant) && Objects.equals(this.userId, userId);
+        }
+
+    }
+
+}
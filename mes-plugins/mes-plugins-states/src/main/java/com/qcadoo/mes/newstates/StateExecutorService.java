@@ -14,6 +14,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
@@ -33,6 +34,7 @@ import com.qcadoo.mes.states.exception.StateTransitionNotAlloweException;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.model.api.validators.GlobalMessage;
@@ -54,6 +56,10 @@ public class StateExecutorService {
 
     public static final String USER_CHANGE_STATE = "user";
 
+    private static final int CHUNK_SIZE = 100;
+
+    private static final String L_OWNER_ID = "ownerId";
+
     @Autowired
     private ApplicationContext applicationContext;
 
@@ -63,8 +69,16 @@ public class StateExecutorService {
     @Autowired
     private ShiftsService shiftsService;
 
+    @Autowired
+    private BulkStateChangeService bulkStateChangeService;
+
+    @Value("${stateChangeInBackgroundThreshold:0}")
+    private int stateChangeInBackgroundThreshold;
+
     private ComponentMessagesHolder componentMessagesHolder;
 
+    private boolean bulkChange;
+
     public <M extends StateService> void changeState(final Class<M> serviceMarker, final ViewDefinitionState view,
             final String[] args) {
         componentMessagesHolder = view;
@@ -74,7 +88,9 @@ public class StateExecutorService {
 
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference(QcadooViewConstants.L_GRID);
 
-        if (maybeGridComponent.isPresent()) {
+        if (maybeGridComponent.isPresent() && maybeGridComponent.get().getSelectedEntitiesIds().size() > 1) {
+            changeSelectedStates(serviceMarker, maybeGridComponent.get().getSelectedEntitiesIds(), userId, userName, args[0]);
+        } else if (maybeGridComponent.isPresent()) {
             maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
                 entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
 
@@ -103,18 +119,119 @@ public class StateExecutorService {
         }
     }
 
+    private <M extends StateService> void changeSelectedStates(final Class<M> serviceMarker, final Set<Long> ids,
+            final Long userId, final String userName, final String targetState) {
+        if (stateChangeInBackgroundThreshold > 0 && ids.size() >= stateChangeInBackgroundThreshold) {
+            String jobId = bulkStateChangeService.changeStatesInBackground(serviceMarker, ids, userId, userName, targetState);
+
+            componentMessagesHolder.addMessage("states.messages.change.bulk.started", ComponentState.MessageType.INFO, false,
+                    String.valueOf(ids.size()), jobId);
+
+            return;
+        }
+
+        BulkStateChangeResult result = changeStates(serviceMarker, ids, userId, userName, targetState);
+
+        if (result.getFailuresCount() == 0) {
+            componentMessagesHolder.addMessage("states.messages.change.bulk.successful", ComponentState.MessageType.SUCCESS,
+                    false, String.valueOf(result.getSuccessfulCount()));
+        } else {
+            componentMessagesHolder.addMessage("states.messages.change.bulk.failure", ComponentState.MessageType.FAILURE, false,
+                    String.valueOf(result.getSuccessfulCount()), String.valueOf(ids.size()));
+        }
+    }
+
+    /**
+     * Changes state of many entities at once, in the current transaction. Services, describer and shift are looked up once,
+     * entities and their unfinished state changes are loaded in chunks, and transitions which are not allowed or blocked by
+     * another change in progress are rejected before any hook runs. Only errors of entities are passed to the view, state
+     * change messages are left to the caller.
+     */
+    public <M extends StateService> BulkStateChangeResult changeStates(final Class<M> serviceMarker, final Collection<Long> ids,
+            final Long userId, final String userName, final String targetState) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+
+        StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
+        StateEnum target = describer.parseStateEnum(targetState);
+        Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+
+        BulkStateChangeResult result = new BulkStateChangeResult();
+
+        bulkChange = true;
+
+        try {
+            for (List<Long> chunk : Lists.partition(Lists.newArrayList(ids), CHUNK_SIZE)) {
+                List<Entity> entities = describer.getOwnerDataDefinition().find().add(SearchRestrictions.in("id", chunk)).list()
+                        .getEntities();
+                Set<Long> ownersWithUnfinishedStateChange = findOwnersWithUnfinishedStateChange(describer, chunk);
+                Set<Long> notFoundIds = Sets.newLinkedHashSet(chunk);
+
+                for (Entity entity : entities) {
+                    notFoundIds.remove(entity.getId());
+
+                    entity.setField(USER_CHANGE_STATE, userId);
+
+                    String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+                    StateEnum source = describer.parseStateEnum(sourceState);
+
+                    if (Objects.nonNull(source) && !source.canChangeTo(target)) {
+                        rejectStateChange(describer, entity, userName, sourceState, targetState, shift);
+
+                        result.addFailure(entity.getId(), "states.messages.change.failure.transitionNotAllowed");
+                    } else if (ownersWithUnfinishedStateChange.contains(entity.getId())) {
+                        rejectStateChange(describer, entity, userName, sourceState, targetState, shift);
+
+                        result.addFailure(entity.getId(), "states.messages.change.failure.anotherChangeInProgress");
+                    } else {
+                        Entity changedEntity = changeState(services, describer, entity, userName, targetState, shift, false);
+
+                        if (changedEntity.isValid()) {
+                            result.addSuccessful(entity.getId());
+                        } else {
+                            copyMessages(changedEntity);
+
+                            result.addFailure(entity.getId(), "states.messages.change.failure");
+                        }
+                    }
+                }
+
+                for (Long notFoundId : notFoundIds) {
+                    result.addFailure(notFoundId, "states.messages.change.failure");
+                }
+            }
+        } finally {
+            bulkChange = false;
+        }
+
+        LOG.info(String.format("Bulk change state. Entity name : %S. Target state : %S. Changed %d of %d",
+                describer.getOwnerDataDefinition().getName(), targetState, result.getSuccessfulCount(), ids.size()));
+
+        return result;
+    }
+
     public <M extends StateService> Entity changeState(final Class<M> serviceMarker, Entity entity, final String userName,
             final String targetState) {
         List<M> services = lookupChangeStateServices(serviceMarker);
 
         StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+
+        return changeState(services, describer, entity, userName, targetState, shift, true);
+    }
+
+    private <M extends StateService> Entity changeState(final List<M> services, final StateChangeEntityDescriber describer,
+            Entity entity, final String userName, final String targetState, final Entity shift,
+            final boolean checkStateChangeContext) {
         String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
 
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userName, sourceState, targetState);
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userName, sourceState, targetState, shift);
 
         try {
-            stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
-                    StateChangeStatus.IN_PROGRESS);
+            if (checkStateChangeContext) {
+                checkStateChangeContext(entity, describer, sourceState, targetState);
+            }
+
+            stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.IN_PROGRESS);
 
             List<Entity> stateChanges = Lists.newArrayList();
 
@@ -192,9 +309,8 @@ public class StateExecutorService {
         return entity;
     }
 
-    private Entity saveStateChangeContext(final Entity entity, Entity stateChangeEntity,
-            final StateChangeEntityDescriber describer, final String _sourceState, final String _targetState,
-            final StateChangeStatus status) {
+    private void checkStateChangeContext(final Entity entity, final StateChangeEntityDescriber describer,
+            final String _sourceState, final String _targetState) {
         final StateEnum sourceState = describer.parseStateEnum(_sourceState);
         final StateEnum targetState = describer.parseStateEnum(_targetState);
 
@@ -203,10 +319,15 @@ public class StateExecutorService {
         }
 
         checkForUnfinishedStateChange(describer, entity);
+    }
 
-        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, status);
+    private void rejectStateChange(final StateChangeEntityDescriber describer, final Entity entity, final String userName,
+            final String sourceState, final String targetState, final Entity shift) {
+        saveStateChangeEntity(buildStateChangeEntity(describer, entity, userName, sourceState, targetState, shift),
+                StateChangeStatus.FAILURE);
 
-        return stateChangeEntity;
+        LOG.info(String.format("Change state rejected. Entity name : %S id : %d. Target state : %S",
+                entity.getDataDefinition().getName(), entity.getId(), targetState));
     }
 
     @Transactional
@@ -257,9 +378,8 @@ public class StateExecutorService {
     }
 
     private Entity buildStateChangeEntity(final StateChangeEntityDescriber describer, final Entity owner, String userName,
-            final String sourceState, final String targetState) {
+            final String sourceState, final String targetState, final Entity shift) {
         final Entity stateChangeEntity = describer.getDataDefinition().create();
-        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
 
         if (StringUtils.isEmpty(userName)) {
             userName = securityService.getCurrentUserOrQcadooBotName();
@@ -353,7 +473,8 @@ public class StateExecutorService {
         List<M> services = lookupChangeStateServices(serviceMarker);
 
         StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, StringUtils.EMPTY, null, initialState);
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, StringUtils.EMPTY, null, initialState,
+                shiftsService.getShiftFromDateWithTime(new Date()));
 
         stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
 
@@ -418,7 +539,8 @@ public class StateExecutorService {
     }
 
     private void message(final String msg, final ComponentState.MessageType messageType) {
-        if (Objects.nonNull(componentMessagesHolder)) {
+        // state changes of many entities are summarized by the caller
+        if (Objects.nonNull(componentMessagesHolder) && !bulkChange) {
             componentMessagesHolder.addMessage(msg, messageType);
         }
     }
@@ -440,4 +562,27 @@ public class StateExecutorService {
         }
     }
 
+    private Set<Long> findOwnersWithUnfinishedStateChange(final StateChangeEntityDescriber describer, final List<Long> ownerIds) {
+        final String ownerFieldName = describer.getOwnerFieldName();
+        final String statusFieldName = describer.getStatusFieldName();
+
+        final Set<String> unfinishedStatuses = Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue());
+
+        final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
+
+        searchCriteria.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteria.add(SearchRestrictions.in(ownerFieldName + ".id", ownerIds));
+        searchCriteria.add(SearchRestrictions.in(statusFieldName, unfinishedStatuses));
+        searchCriteria.setProjection(SearchProjections.alias(
+                SearchProjections.distinct(SearchProjections.field(ownerFieldName + ".id")), L_OWNER_ID));
+
+        Set<Long> ownersWithUnfinishedStateChange = Sets.newHashSet();
+
+        for (Entity projection : searchCriteria.list().getEntities()) {
+            ownersWithUnfinishedStateChange.add((Long) projection.getField(L_OWNER_ID));
+        }
+
+        return ownersWithUnfinishedStateChange;
+    }
+
 }
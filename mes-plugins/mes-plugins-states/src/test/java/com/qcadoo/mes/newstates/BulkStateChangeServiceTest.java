@@ -0,0 +1,154 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CurrentTenantService;
+
+public class BulkStateChangeServiceTest {
+
+    private static final String L_TENANT_A = "mes.public";
+
+    private static final String L_TENANT_B = "mes.other";
+
+    private static final Long L_USER_ID = 1L;
+
+    private static final Long L_OTHER_USER_ID = 2L;
+
+    private static final String L_USER_NAME = "admin";
+
+    private static final String L_TARGET_STATE = "03accepted";
+
+    private BulkStateChangeService bulkStateChangeService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Mock
+    private AutowireCapableBeanFactory beanFactory;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private CurrentTenantService currentTenantService;
+
+    @Mock
+    private StateExecutorService stateExecutorService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        bulkStateChangeService = new BulkStateChangeService();
+
+        ReflectionTestUtils.setField(bulkStateChangeService, "applicationContext", applicationContext);
+        ReflectionTestUtils.setField(bulkStateChangeService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(bulkStateChangeService, "currentTenantService", currentTenantService);
+
+        given(applicationContext.getAutowireCapableBeanFactory()).willReturn(beanFactory);
+        given(beanFactory.createBean(StateExecutorService.class)).willReturn(stateExecutorService);
+        given(currentTenantService.getTenant()).willReturn(L_TENANT_A);
+    }
+
+    @After
+    public void clear() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public final void shouldReportProgressOnlyToOwnerOfJob() {
+        // given
+        BulkStateChangeResult chunkResult = new BulkStateChangeResult();
+
+        chunkResult.addSuccessful(1L);
+        chunkResult.addSuccessful(2L);
+
+        given(stateExecutorService.changeStates(eq(StateService.class), anyCollectionOf(Long.class), anyLong(), anyString(),
+                anyString())).willReturn(chunkResult);
+
+        // when
+        String jobId = bulkStateChangeService.changeStatesInBackground(StateService.class, Lists.newArrayList(1L, 2L),
+                L_USER_ID, L_USER_NAME, L_TARGET_STATE);
+
+        BulkStateChangeService.Progress progress = bulkStateChangeService.getProgress(jobId);
+
+        // then
+        assertFalse(progress.isInProgress());
+        assertFalse(progress.isFailed());
+        assertEquals(2, progress.getResult().getSuccessfulCount());
+        assertTrue(progress.isOwnedBy(L_TENANT_A, L_USER_ID));
+        assertFalse(progress.isOwnedBy(L_TENANT_B, L_USER_ID));
+        assertFalse(progress.isOwnedBy(L_TENANT_A, L_OTHER_USER_ID));
+    }
+
+    @Test
+    public final void shouldRunJobWithSecurityContextOfRequest() {
+        // given
+        SecurityContext requestSecurityContext = new SecurityContextImpl();
+        SecurityContext[] jobSecurityContext = new SecurityContext[1];
+
+        SecurityContextHolder.setContext(requestSecurityContext);
+
+        given(stateExecutorService.changeStates(eq(StateService.class), anyCollectionOf(Long.class), anyLong(), anyString(),
+                anyString())).willAnswer(invocation -> {
+                    jobSecurityContext[0] = SecurityContextHolder.getContext();
+
+                    return new BulkStateChangeResult();
+                });
+
+        // when
+        String jobId = bulkStateChangeService.changeStatesInBackground(StateService.class, Lists.newArrayList(1L), L_USER_ID,
+                L_USER_NAME, L_TARGET_STATE);
+
+        // then
+        assertSame(requestSecurityContext, jobSecurityContext[0]);
+        assertSame(requestSecurityContext, SecurityContextHolder.getContext());
+        assertFalse(bulkStateChangeService.getProgress(jobId).isFailed());
+    }
+
+}
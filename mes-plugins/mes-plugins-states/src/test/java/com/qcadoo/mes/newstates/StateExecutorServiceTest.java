@@ -0,0 +1,217 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.newstates;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.TestState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class StateExecutorServiceTest {
+
+    private static final String STATE = "state";
+
+    private static final String STATE_CHANGES = "stateChanges";
+
+    private static final String OWNER = "owner";
+
+    private StateExecutorService stateExecutorService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private TestStateService stateService;
+
+    @Mock
+    private StateChangeEntityDescriber describer;
+
+    @Mock
+    private DataDefinition ownerDD, stateChangeDD;
+
+    @Mock
+    private SearchCriteriaBuilder ownersCriteria, stateChangesCriteria;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateExecutorService = new StateExecutorService();
+
+        ReflectionTestUtils.setField(stateExecutorService, "applicationContext", applicationContext);
+        ReflectionTestUtils.setField(stateExecutorService, "shiftsService", shiftsService);
+
+        given(applicationContext.getBeansOfType(TestStateService.class)).willReturn(
+                ImmutableMap.of("testStateService", stateService));
+        given(stateService.getChangeEntityDescriber()).willReturn(describer);
+        given(stateService.onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(StateChangeEntityDescriber.class))).willAnswer(returnFirstArgument());
+        given(stateService.onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(StateChangeEntityDescriber.class))).willAnswer(returnFirstArgument());
+        given(stateService.onAfterSave(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(StateChangeEntityDescriber.class))).willAnswer(returnFirstArgument());
+
+        given(describer.getOwnerDataDefinition()).willReturn(ownerDD);
+        given(describer.getDataDefinition()).willReturn(stateChangeDD);
+        given(describer.getOwnerStateFieldName()).willReturn(STATE);
+        given(describer.getOwnerStateChangesFieldName()).willReturn(STATE_CHANGES);
+        given(describer.getOwnerFieldName()).willReturn(OWNER);
+        given(describer.getSourceStateFieldName()).willReturn("sourceState");
+        given(describer.getTargetStateFieldName()).willReturn("targetState");
+        given(describer.getStatusFieldName()).willReturn("status");
+        given(describer.parseStateEnum(anyString())).willAnswer(new Answer<TestState>() {
+
+            @Override
+            public TestState answer(final InvocationOnMock invocation) throws Throwable {
+                String stringValue = (String) invocation.getArguments()[0];
+
+                return stringValue == null ? null : TestState.parseString(stringValue);
+            }
+        });
+
+        given(ownerDD.find()).willReturn(ownersCriteria);
+        given(ownersCriteria.add(any(SearchCriterion.class))).willReturn(ownersCriteria);
+
+        given(stateChangeDD.find()).willReturn(stateChangesCriteria);
+        given(stateChangeDD.create()).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return mockSavedEntity(stateChangeDD);
+            }
+        });
+        given(stateChangesCriteria.createAlias(anyString(), anyString())).willReturn(stateChangesCriteria);
+        given(stateChangesCriteria.add(any(SearchCriterion.class))).willReturn(stateChangesCriteria);
+        given(stateChangesCriteria.setProjection(any(SearchProjection.class))).willReturn(stateChangesCriteria);
+    }
+
+    private Answer<Entity> returnFirstArgument() {
+        return new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return (Entity) invocation.getArguments()[0];
+            }
+        };
+    }
+
+    private Entity mockSavedEntity(final DataDefinition dataDefinition) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getDataDefinition()).willReturn(dataDefinition);
+        given(entity.isValid()).willReturn(true);
+        given(dataDefinition.save(entity)).willReturn(entity);
+
+        return entity;
+    }
+
+    private Entity mockOwner(final Long id, final TestState state) {
+        Entity owner = mockSavedEntity(ownerDD);
+        EntityList stateChanges = mock(EntityList.class);
+
+        given(owner.getId()).willReturn(id);
+        given(owner.getStringField(STATE)).willReturn(state.getStringValue());
+        given(owner.getHasManyField(STATE_CHANGES)).willReturn(stateChanges);
+        given(stateChanges.toArray()).willReturn(new Object[0]);
+
+        return owner;
+    }
+
+    private void stubSearchResult(final SearchCriteriaBuilder criteria, final List<Entity> entities) {
+        SearchResult result = mock(SearchResult.class);
+
+        given(criteria.list()).willReturn(result);
+        given(result.getEntities()).willReturn(entities);
+    }
+
+    @Test
+    public final void shouldChangeStatesAndRejectNotAllowedTransitionsBeforeHooks() {
+        // given
+        Entity draft = mockOwner(1L, TestState.DRAFT);
+        Entity declined = mockOwner(2L, TestState.DECLINED);
+        Entity changedByAnotherRequest = mockOwner(3L, TestState.DRAFT);
+
+        Entity unfinishedStateChange = mock(Entity.class);
+        given(unfinishedStateChange.getField("ownerId")).willReturn(3L);
+
+        stubSearchResult(ownersCriteria, Lists.newArrayList(draft, declined, changedByAnotherRequest));
+        stubSearchResult(stateChangesCriteria, Lists.newArrayList(unfinishedStateChange));
+
+        // when
+        BulkStateChangeResult result = stateExecutorService.changeStates(TestStateService.class,
+                Lists.newArrayList(1L, 2L, 3L, 4L), 100L, "user", TestState.ACCEPTED.getStringValue());
+
+        // then
+        Assert.assertEquals(Lists.newArrayList(1L), result.getSuccessfulIds());
+        Assert.assertEquals(3, result.getFailuresCount());
+        Assert.assertEquals("states.messages.change.failure.transitionNotAllowed", result.getFailures().get(2L));
+        Assert.assertEquals("states.messages.change.failure.anotherChangeInProgress", result.getFailures().get(3L));
+        Assert.assertEquals("states.messages.change.failure", result.getFailures().get(4L));
+
+        verify(draft).setField(STATE, TestState.ACCEPTED.getStringValue());
+        verify(stateService).onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(StateChangeEntityDescriber.class));
+        verify(declined, never()).setField(STATE, TestState.ACCEPTED.getStringValue());
+        verify(changedByAnotherRequest, never()).setField(STATE, TestState.ACCEPTED.getStringValue());
+        verify(shiftsService, times(1)).getShiftFromDateWithTime(any(Date.class));
+        verify(ownerDD, times(1)).find();
+        verify(stateChangeDD, times(1)).find();
+    }
+
+    interface TestStateService extends StateService {
+    }
+
+}
@@ -53,6 +53,8 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.tree.TechnologyExpansion;
+import com.qcadoo.mes.technologies.tree.TechnologyExpansionCacheService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -77,6 +79,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyExpansionCacheService technologyExpansionCacheService;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -294,6 +299,18 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
         }
 
+        if (operationProductComponentWithQuantityContainer.getSizeGroups().isEmpty()
+                && technologyExpansionCacheService.isCacheable(technology)) {
+            TechnologyExpansion technologyExpansion = technologyExpansionCacheService.getExpansion(technology);
+
+            if (Objects.nonNull(technologyExpansion)) {
+                technologyExpansion.calculate(givenQuantity, operationProductComponentWithQuantityContainer, nonComponents,
+                        operationRuns, numberService.getMathContext());
+            }
+
+            return operationProductComponentWithQuantityContainer;
+        }
+
         EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
         Entity root = operationComponents.getRoot();
 
@@ -39,6 +39,7 @@ import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.states.constants.TechnologyState;
 import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangeDescriber;
+import com.qcadoo.mes.technologies.tree.TechnologyExpansionCacheService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -64,6 +65,9 @@ public class TechnologyModelHooks {
     @Autowired
     private TreeNumberingService treeNumberingService;
 
+    @Autowired
+    private TechnologyExpansionCacheService technologyExpansionCacheService;
+
     public void onCreate(final DataDefinition technologyDD, final Entity technology) {
         setInitialState(technology);
     }
@@ -83,6 +87,8 @@ public class TechnologyModelHooks {
         }
         setNewMasterTechnology(technologyDD, technology);
         qualityCardChange(technologyDD, technology);
+
+        technologyExpansionCacheService.evict(technology.getId());
     }
 
     public void onUpdate(final DataDefinition technologyDD, final Entity technology) {
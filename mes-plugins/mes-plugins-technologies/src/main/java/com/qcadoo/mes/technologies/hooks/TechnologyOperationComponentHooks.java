@@ -27,6 +27,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.*;
+import com.qcadoo.mes.technologies.tree.TechnologyExpansionCacheService;
 import com.qcadoo.model.api.*;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,6 +49,9 @@ public class TechnologyOperationComponentHooks {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyExpansionCacheService technologyExpansionCacheService;
+
     public void onCreate(final DataDefinition technologyOperationComponentDD, final Entity technologyOperationComponent) {
         copyCommentAndAttachmentFromOperation(technologyOperationComponent);
         setParentIfRootNodeAlreadyExists(technologyOperationComponent);
@@ -215,6 +219,12 @@ public class TechnologyOperationComponentHooks {
         if (technologyOperationComponent.getId() != null) {
             copyWorkstations(technologyOperationComponentDD, technologyOperationComponent);
         }
+
+        Entity technology = technologyOperationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY);
+
+        if (technology != null) {
+            technologyExpansionCacheService.evict(technology.getId());
+        }
     }
 
     private void copyWorkstations(final DataDefinition technologyOperationComponentDD, final Entity technologyOperationComponent) {
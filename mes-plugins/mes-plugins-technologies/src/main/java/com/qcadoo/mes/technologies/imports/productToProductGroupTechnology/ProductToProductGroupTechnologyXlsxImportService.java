@@ -1,5 +1,6 @@
 package com.qcadoo.mes.technologies.imports.productToProductGroupTechnology;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
@@ -12,6 +13,14 @@ import com.qcadoo.model.api.Entity;
 @Service
 public class ProductToProductGroupTechnologyXlsxImportService extends XlsxImportService {
 
+    @Value("${productToProductGroupTechnologyImportChunkSize:500}")
+    private int chunkSize;
+
+    @Override
+    protected int getChunkSize() {
+        return chunkSize;
+    }
+
     @Override
     public void validateEntity(final Entity entity, final DataDefinition dataDefinition) {
         if (entity.getBelongsToField(ProductToProductGroupFields.PRODUCT_FAMILY) != null
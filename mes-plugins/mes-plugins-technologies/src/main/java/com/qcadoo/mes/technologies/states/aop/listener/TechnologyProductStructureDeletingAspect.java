@@ -5,17 +5,21 @@ import com.qcadoo.mes.states.annotation.RunForStateTransition;
 import com.qcadoo.mes.states.annotation.RunForStateTransitions;
 import com.qcadoo.mes.states.annotation.RunInPhase;
 import com.qcadoo.mes.states.aop.AbstractStateListenerAspect;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.states.aop.TechnologyStateChangeAspect;
 import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangePhase;
 import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.plugin.api.RunIfEnabled;
 import org.aspectj.lang.annotation.After;
+import org.aspectj.lang.annotation.AfterReturning;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 
 import java.util.List;
@@ -25,6 +29,16 @@ import java.util.List;
 @RunIfEnabled(TechnologiesConstants.PLUGIN_IDENTIFIER)
 public class TechnologyProductStructureDeletingAspect extends AbstractStateListenerAspect {
 
+    @Autowired
+    private ProductStructureTreeService productStructureTreeService;
+
+    @AfterReturning(CHANGE_STATE_EXECUTION_POINTCUT)
+    public void postHookOnChangeState(final StateChangeContext stateChangeContext) {
+        if (StateChangeStatus.SUCCESSFUL.equals(stateChangeContext.getStatus())) {
+            productStructureTreeService.deleteDependentProductStructureTrees(stateChangeContext.getOwner());
+        }
+    }
+
     @RunInPhase(TechnologyStateChangePhase.LAST)
     @RunForStateTransitions({ @RunForStateTransition(targetState = TechnologyStateStringValues.DRAFT) })
     @After(PHASE_EXECUTION_POINTCUT)
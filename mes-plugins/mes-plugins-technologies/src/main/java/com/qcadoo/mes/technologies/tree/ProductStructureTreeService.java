@@ -24,14 +24,20 @@
 package com.qcadoo.mes.technologies.tree;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
@@ -52,6 +58,7 @@ import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.utils.EntityTreeUtilsService;
+import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FormComponent;
@@ -72,17 +79,20 @@ public class ProductStructureTreeService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SecurityService securityService;
+
     private Entity addChild(final List<Entity> tree, final Entity child, final Entity parent, final String entityType) {
         child.setField(ProductStructureTreeNodeFields.PARENT, parent);
-        child.setField(ProductStructureTreeNodeFields.NUMBER, (long) tree.size() + 1);
-        child.setField(ProductStructureTreeNodeFields.PRIORITY, 1);
+        child.setField(ProductStructureTreeNodeFields.NUMBER, String.valueOf(tree.size() + 1));
         child.setField(ProductStructureTreeNodeFields.ENTITY_TYPE, entityType);
 
-        Entity savedChild = child.getDataDefinition().save(child);
-
-        tree.add(savedChild);
+        tree.add(child);
 
-        return savedChild;
+        return child;
     }
 
     public Entity findOperationForProductAndTechnology(final Entity product, final Entity technology) {
@@ -160,14 +170,9 @@ public class ProductStructureTreeService {
         if (Objects.nonNull(tree.getRoot())) {
             Date productStructureCreateDate = tree.getRoot().getDateField(ProductStructureTreeNodeFields.CREATE_DATE);
 
-            List<Entity> treeEntities = tree.find().list().getEntities();
-
-            Entity technologyStateChange = getLastTechnologyStateChange(technologyFromDB);
-
-            if (productStructureCreateDate.before(technologyStateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME))
-                    || checkSubTechnologiesSubstitution(treeEntities)
-                    || checkIfSubTechnologiesChanged(operation, productStructureCreateDate)) {
-                deleteProductStructureTree(treeEntities);
+            if (checkIfTechnologiesChanged(technology.getId(), productStructureCreateDate)
+                    || checkSubTechnologiesSubstitution(technology.getId())) {
+                deleteProductStructureTree(technology.getId());
             } else {
                 return tree;
             }
@@ -195,83 +200,173 @@ public class ProductStructureTreeService {
 
         generateTreeForSubProducts(operation, technology, productStructureList, root, view, technology);
 
+        saveProductStructureTree(productStructureList);
+
         technologyFromDB = technology.getDataDefinition().get(technology.getId());
 
         return technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE);
     }
 
-    private boolean checkIfSubTechnologiesChanged(final Entity operation, final Date productStructureCreateDate) {
-        for (Entity operationProductInComponent : operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
-            Entity product = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
-
-            if (Objects.nonNull(subTechnology)) {
-                Entity technologyStateChange = getLastTechnologyStateChange(subTechnology);
-
-                if (productStructureCreateDate
-                        .before(technologyStateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME))) {
-                    return true;
-                }
+    /**
+     * Checks if any of technologies used in the product structure tree of the given technology, including the technology
+     * itself, changed its state after the tree was created.
+     */
+    private boolean checkIfTechnologiesChanged(final Long technologyId, final Date productStructureCreateDate) {
+        StringBuilder query = new StringBuilder();
 
-                if (Objects.isNull(subOperation)) {
-                    Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
+        query.append("SELECT COUNT(*) FROM technologies_technologystatechange statechange ");
+        query.append("WHERE statechange.technology_id IN ( ");
+        query.append("    SELECT node.technology_id FROM technologies_productstructuretreenode node ");
+        query.append("    WHERE node.maintechnology_id = :technologyId ");
+        query.append(") ");
+        query.append("AND statechange.status = :status ");
+        query.append("AND statechange.dateandtime > :createDate");
 
-                    boolean changed = checkIfSubTechnologiesChanged(operationForTechnology, productStructureCreateDate);
+        Map<String, Object> params = Maps.newHashMap();
 
-                    if (changed) {
-                        return true;
-                    }
-                } else {
-                    boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
+        params.put("technologyId", technologyId);
+        params.put("status", StateChangeStatus.SUCCESSFUL.getStringValue());
+        params.put("createDate", productStructureCreateDate);
 
-                    if (changed) {
-                        return true;
-                    }
-                }
-            } else if (Objects.nonNull(subOperation)) {
-                boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
+        return jdbcTemplate.queryForObject(query.toString(), params, Long.class) > 0;
+    }
 
-                if (changed) {
-                    return true;
-                }
+    /**
+     * Checks if technologies chosen for components and materials of the product structure tree of the given technology are
+     * still the ones {@link #findTechnologyForProduct(Entity)} would choose.
+     */
+    private boolean checkSubTechnologiesSubstitution(final Long technologyId) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT node.entitytype AS entityType, node.technology_id AS technologyId, ( ");
+        query.append("    SELECT technology.id FROM technologies_technology technology ");
+        query.append("    WHERE technology.product_id = node.product_id ");
+        query.append("    AND technology.technologytype IS NULL ");
+        query.append("    AND technology.state IN (:states) ");
+        query.append("    ORDER BY technology.master DESC, technology.number ASC LIMIT 1 ");
+        query.append(") AS newTechnologyId ");
+        query.append("FROM technologies_productstructuretreenode node ");
+        query.append("WHERE node.maintechnology_id = :technologyId ");
+        query.append("AND node.entitytype IN (:entityTypes)");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("technologyId", technologyId);
+        params.put("states", Lists.newArrayList(TechnologyStateStringValues.ACCEPTED, TechnologyStateStringValues.CHECKED));
+        params.put("entityTypes", Lists.newArrayList(L_COMPONENT, L_MATERIAL));
+
+        for (Map<String, Object> node : jdbcTemplate.queryForList(query.toString(), params)) {
+            String entityType = (String) node.get(ProductStructureTreeNodeFields.ENTITY_TYPE);
+            Object oldTechnologyId = node.get("technologyId");
+            Object newTechnologyId = node.get("newTechnologyId");
+
+            if (entityType.equals(L_MATERIAL) && Objects.nonNull(newTechnologyId)) {
+                return true;
+            } else if (entityType.equals(L_COMPONENT) && Objects.nonNull(oldTechnologyId)
+                    && !oldTechnologyId.equals(newTechnologyId)) {
+                return true;
             }
         }
 
         return false;
     }
 
-    private void deleteProductStructureTree(final List<Entity> treeEntities) {
-        for (Entity entity : treeEntities) {
-            entity.getDataDefinition().delete(entity.getId());
-        }
+    private void deleteProductStructureTree(final Long technologyId) {
+        jdbcTemplate.update("DELETE FROM technologies_productstructuretreenode WHERE maintechnology_id = :technologyId",
+                Collections.singletonMap("technologyId", technologyId));
     }
 
-    private boolean checkSubTechnologiesSubstitution(final List<Entity> treeEntities) {
-        for (Entity entity : treeEntities) {
-            String entityType = entity.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE);
+    /**
+     * Deletes product structure trees of other technologies which use the given technology, or which may use it instead of
+     * the technology or the material chosen for its product. Trees are generated again when they're needed.
+     */
+    public void deleteDependentProductStructureTrees(final Entity technology) {
+        Entity product = technology.getBelongsToField(TechnologyFields.PRODUCT);
 
-            if (entityType.equals(L_INTERMEDIATE) || entityType.equals(L_FINAL_PRODUCT)) {
-                continue;
-            }
+        StringBuilder query = new StringBuilder();
 
-            Entity product = entity.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT);
-            Entity newTechnology = findTechnologyForProduct(product);
+        query.append("DELETE FROM technologies_productstructuretreenode WHERE maintechnology_id IN ( ");
+        query.append("    SELECT node.maintechnology_id FROM technologies_productstructuretreenode node ");
+        query.append("    WHERE node.technology_id = :technologyId ");
+        query.append("    OR (node.product_id = :productId AND node.entitytype IN (:entityTypes)) ");
+        query.append(") ");
+        query.append("AND maintechnology_id <> :technologyId");
 
-            if (entityType.equals(L_MATERIAL) && Objects.nonNull(newTechnology)) {
-                return true;
-            } else if (entityType.equals(L_COMPONENT)) {
-                Entity oldTechnology = entity.getBelongsToField(ProductStructureTreeNodeFields.TECHNOLOGY);
+        Map<String, Object> params = Maps.newHashMap();
 
-                if (Objects.nonNull(oldTechnology) && Objects.isNull(newTechnology)
-                        || Objects.nonNull(oldTechnology) && !oldTechnology.getId().equals(newTechnology.getId())) {
-                    return true;
-                }
-            }
+        params.put("technologyId", technology.getId());
+        params.put("productId", Objects.nonNull(product) ? product.getId() : null);
+        params.put("entityTypes", Lists.newArrayList(L_COMPONENT, L_MATERIAL));
+
+        jdbcTemplate.update(query.toString(), params);
+    }
+
+    private void saveProductStructureTree(final List<Entity> tree) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT nextval('technologies_productstructuretreenode_id_seq') FROM generate_series(1, :count)",
+                Collections.singletonMap("count", tree.size()), Long.class);
+
+        Map<Entity, Integer> childrenCounts = Maps.newIdentityHashMap();
+        Date createDate = new Date();
+        String createUser = securityService.getCurrentUserName();
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[tree.size()];
+
+        for (int i = 0; i < tree.size(); i++) {
+            Entity node = tree.get(i);
+            Entity parent = node.getBelongsToField(ProductStructureTreeNodeFields.PARENT);
+
+            node.setId(ids.get(i));
+
+            // priorities are numbered within the parent, as the priority field does on save
+            int priority = childrenCounts.merge(Objects.nonNull(parent) ? parent : node, 1, Integer::sum);
+
+            MapSqlParameterSource params = new MapSqlParameterSource();
+
+            params.addValue("id", node.getId());
+            params.addValue("number", node.getStringField(ProductStructureTreeNodeFields.NUMBER));
+            params.addValue("parentId", Objects.nonNull(parent) ? parent.getId() : null);
+            params.addValue("entityType", node.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE));
+            params.addValue("priority", priority);
+            params.addValue("quantity", node.getDecimalField(ProductStructureTreeNodeFields.QUANTITY));
+            params.addValue("productId", getBelongsToId(node, ProductStructureTreeNodeFields.PRODUCT));
+            params.addValue("technologyInputProductTypeId",
+                    getBelongsToId(node, ProductStructureTreeNodeFields.TECHNOLOGY_INPUT_PRODUCT_TYPE));
+            params.addValue("differentProductsInDifferentSizes",
+                    node.getBooleanField(ProductStructureTreeNodeFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES));
+            params.addValue("operationId", getBelongsToId(node, ProductStructureTreeNodeFields.OPERATION));
+            params.addValue("technologyId", getBelongsToId(node, ProductStructureTreeNodeFields.TECHNOLOGY));
+            params.addValue("mainTechnologyId", getBelongsToId(node, ProductStructureTreeNodeFields.MAIN_TECHNOLOGY));
+            params.addValue("divisionId", getBelongsToId(node, ProductStructureTreeNodeFields.DIVISION));
+            params.addValue("technologyGroupId", getBelongsToId(node, ProductStructureTreeNodeFields.TECHNOLOGY_GROUP));
+            params.addValue("standardPerformanceTechnology",
+                    node.getDecimalField(ProductStructureTreeNodeFields.STANDARD_PERFORMANCE_TECHNOLOGY));
+            params.addValue("unit", node.getStringField(ProductStructureTreeNodeFields.UNIT));
+            params.addValue("sizeGroupId", getBelongsToId(node, ProductStructureTreeNodeFields.SIZE_GROUP));
+            params.addValue("createDate", createDate);
+            params.addValue("createUser", createUser);
+
+            batchParams[i] = params;
         }
 
-        return false;
+        StringBuilder query = new StringBuilder();
+
+        query.append("INSERT INTO technologies_productstructuretreenode (id, number, parent_id, entitytype, priority, ");
+        query.append("quantity, product_id, technologyinputproducttype_id, differentproductsindifferentsizes, operation_id, ");
+        query.append("technology_id, maintechnology_id, division_id, technologygroup_id, standardperformancetechnology, unit, ");
+        query.append("sizegroup_id, createdate, updatedate, createuser, updateuser) ");
+        query.append("VALUES (:id, :number, :parentId, :entityType, :priority, ");
+        query.append(":quantity, :productId, :technologyInputProductTypeId, :differentProductsInDifferentSizes, ");
+        query.append(":operationId, :technologyId, :mainTechnologyId, :divisionId, :technologyGroupId, ");
+        query.append(":standardPerformanceTechnology, :unit, :sizeGroupId, :createDate, :createDate, :createUser, :createUser)");
+
+        jdbcTemplate.batchUpdate(query.toString(), batchParams);
+    }
+
+    private Long getBelongsToId(final Entity entity, final String fieldName) {
+        Entity belongsToEntity = entity.getBelongsToField(fieldName);
+
+        return Objects.nonNull(belongsToEntity) ? belongsToEntity.getId() : null;
     }
 
     private void generateTreeForSubProducts(final Entity operation, final Entity technology, final List<Entity> tree,
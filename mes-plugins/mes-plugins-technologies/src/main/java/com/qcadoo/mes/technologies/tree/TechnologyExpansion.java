@@ -0,0 +1,285 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Immutable copy of a technology operation tree with per-unit product quantities, used to calculate product quantities and
+ * operation runs without walking technology entities again.
+ *
+ * Operations are indexed by their position in the technology tree iteration, the root has index 0. Calculations give the
+ * same results as {@link com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl} for technologies without size groups.
+ */
+public final class TechnologyExpansion {
+
+    private final Long technologyProductId;
+
+    private final long[] operationComponentIds;
+
+    private final boolean[] productQuantitiesDivisible;
+
+    private final boolean[] tjDivisible;
+
+    private final int[][] children;
+
+    private final Component[][] inComponents;
+
+    private final Component[][] outComponents;
+
+    private TechnologyExpansion(final Long technologyProductId, final long[] operationComponentIds,
+            final boolean[] productQuantitiesDivisible, final boolean[] tjDivisible, final int[][] children,
+            final Component[][] inComponents, final Component[][] outComponents) {
+        this.technologyProductId = technologyProductId;
+        this.operationComponentIds = operationComponentIds;
+        this.productQuantitiesDivisible = productQuantitiesDivisible;
+        this.tjDivisible = tjDivisible;
+        this.children = children;
+        this.inComponents = inComponents;
+        this.outComponents = outComponents;
+    }
+
+    public static TechnologyExpansion build(final Entity technology, final Entity root,
+            final Iterable<Entity> operationComponents) {
+        List<Entity> nodes = Lists.newArrayList(root);
+        Map<Long, Integer> indexes = Maps.newHashMap();
+
+        indexes.put(root.getId(), 0);
+
+        for (Entity operationComponent : operationComponents) {
+            if (!indexes.containsKey(operationComponent.getId())) {
+                indexes.put(operationComponent.getId(), nodes.size());
+                nodes.add(operationComponent);
+            }
+        }
+
+        int size = nodes.size();
+
+        long[] operationComponentIds = new long[size];
+        boolean[] productQuantitiesDivisible = new boolean[size];
+        boolean[] tjDivisible = new boolean[size];
+        int[][] children = new int[size][];
+        Component[][] inComponents = new Component[size][];
+        Component[][] outComponents = new Component[size][];
+
+        for (int index = 0; index < size; index++) {
+            Entity operationComponent = nodes.get(index);
+
+            operationComponentIds[index] = operationComponent.getId();
+            productQuantitiesDivisible[index] = operationComponent
+                    .getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE);
+            tjDivisible[index] = operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE);
+            inComponents[index] = getComponents(
+                    operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS),
+                    OperationProductInComponentFields.PRODUCT, true);
+            outComponents[index] = getComponents(
+                    operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS),
+                    OperationProductOutComponentFields.PRODUCT, false);
+
+            List<Entity> operationComponentChildren = operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.CHILDREN);
+
+            children[index] = new int[operationComponentChildren.size()];
+
+            for (int i = 0; i < operationComponentChildren.size(); i++) {
+                Integer childIndex = indexes.get(operationComponentChildren.get(i).getId());
+
+                if (Objects.isNull(childIndex)) {
+                    throw new IllegalStateException("Operation component child is not a part of the technology tree.");
+                }
+
+                children[index][i] = childIndex;
+            }
+        }
+
+        Entity technologyProduct = technology.getBelongsToField(TechnologyFields.PRODUCT);
+
+        return new TechnologyExpansion(Objects.nonNull(technologyProduct) ? technologyProduct.getId() : null,
+                operationComponentIds, productQuantitiesDivisible, tjDivisible, children, inComponents, outComponents);
+    }
+
+    private static Component[] getComponents(final List<Entity> operationProductComponents, final String productField,
+            final boolean isInComponent) {
+        Component[] components = new Component[operationProductComponents.size()];
+
+        for (int i = 0; i < components.length; i++) {
+            Entity operationProductComponent = operationProductComponents.get(i);
+            Entity product = operationProductComponent.getBelongsToField(productField);
+
+            components[i] = new Component(new OperationProductComponentHolder(operationProductComponent),
+                    operationProductComponent.getDecimalField(OperationProductInComponentFields.QUANTITY),
+                    Objects.nonNull(product) ? product.getId() : null,
+                    isInComponent && operationProductComponent
+                            .getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES));
+        }
+
+        return components;
+    }
+
+    public int size() {
+        return operationComponentIds.length;
+    }
+
+    /**
+     * Fills the container with product quantities, and the map with operation runs, needed to produce the given quantity of
+     * technology product.
+     */
+    public void calculate(final BigDecimal givenQuantity,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns,
+            final MathContext mathContext) {
+        for (int index = 0; index < size(); index++) {
+            for (Component component : inComponents[index]) {
+                operationProductComponentWithQuantityContainer.put(component.holder, component.quantity);
+            }
+
+            for (Component component : outComponents[index]) {
+                operationProductComponentWithQuantityContainer.put(component.holder, component.quantity);
+            }
+
+            operationRuns.put(operationComponentIds[index], BigDecimal.ONE);
+        }
+
+        if (size() > 0) {
+            traverse(givenQuantity, 0, -1, operationProductComponentWithQuantityContainer, nonComponents, operationRuns,
+                    mathContext);
+        }
+    }
+
+    private void traverse(final BigDecimal givenQuantity, final int index, final int previousIndex,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns,
+            final MathContext mathContext) {
+        if (previousIndex < 0) {
+            for (Component outComponent : outComponents[index]) {
+                if (Objects.nonNull(outComponent.productId) && outComponent.productId.equals(technologyProductId)) {
+                    BigDecimal outQuantity = operationProductComponentWithQuantityContainer.get(outComponent.holder);
+
+                    multiplyProductQuantitiesAndAddOperationRuns(index, givenQuantity, outQuantity,
+                            operationProductComponentWithQuantityContainer, operationRuns, mathContext);
+
+                    break;
+                }
+            }
+        } else {
+            for (Component inComponent : inComponents[previousIndex]) {
+                boolean isntComponent = false;
+
+                for (Component outComponent : outComponents[index]) {
+                    if (!inComponent.differentProductsInDifferentSizes && Objects.nonNull(inComponent.productId)
+                            && inComponent.productId.equals(outComponent.productId)) {
+                        isntComponent = true;
+
+                        BigDecimal outQuantity = operationProductComponentWithQuantityContainer.get(outComponent.holder);
+                        BigDecimal inQuantity = operationProductComponentWithQuantityContainer.get(inComponent.holder);
+
+                        multiplyProductQuantitiesAndAddOperationRuns(index, inQuantity, outQuantity,
+                                operationProductComponentWithQuantityContainer, operationRuns, mathContext);
+
+                        break;
+                    }
+                }
+
+                if (isntComponent) {
+                    nonComponents.add(inComponent.holder);
+                }
+            }
+        }
+
+        for (int child : children[index]) {
+            traverse(givenQuantity, child, index, operationProductComponentWithQuantityContainer, nonComponents,
+                    operationRuns, mathContext);
+        }
+    }
+
+    private void multiplyProductQuantitiesAndAddOperationRuns(final int index, final BigDecimal needed, final BigDecimal actual,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Map<Long, BigDecimal> operationRuns, final MathContext mathContext) {
+        BigDecimal multiplier = needed.divide(actual, mathContext);
+
+        if (!productQuantitiesDivisible[index]) {
+            // It's intentional to round up the operation runs
+            multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        BigDecimal runs = multiplier;
+
+        if (!tjDivisible[index]) {
+            runs = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        operationRuns.put(operationComponentIds[index], runs);
+
+        multiplyQuantities(inComponents[index], multiplier, operationProductComponentWithQuantityContainer, mathContext);
+        multiplyQuantities(outComponents[index], multiplier, operationProductComponentWithQuantityContainer, mathContext);
+    }
+
+    private void multiplyQuantities(final Component[] components, final BigDecimal multiplier,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final MathContext mathContext) {
+        for (Component component : components) {
+            BigDecimal addedQuantity = operationProductComponentWithQuantityContainer.get(component.holder);
+            BigDecimal quantity = addedQuantity.multiply(multiplier, mathContext);
+
+            operationProductComponentWithQuantityContainer.put(component.holder, quantity.setScale(5, RoundingMode.CEILING));
+        }
+    }
+
+    private static final class Component {
+
+        private final OperationProductComponentHolder holder;
+
+        private final BigDecimal quantity;
+
+        private final Long productId;
+
+        private final boolean differentProductsInDifferentSizes;
+
+        private Component(final OperationProductComponentHolder holder, final BigDecimal quantity, final Long productId,
+                final boolean differentProductsInDifferentSizes) {
+            this.holder = holder;
+            this.quantity = quantity;
+            this.productId = productId;
+            this.differentProductsInDifferentSizes = differentProductsInDifferentSizes;
+        }
+
+    }
+
+}
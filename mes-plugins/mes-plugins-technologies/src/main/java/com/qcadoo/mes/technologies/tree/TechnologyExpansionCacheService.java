@@ -0,0 +1,153 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Keeps {@link TechnologyExpansion}s of accepted technologies, keyed by tenant database schema and technology id.
+ *
+ * Only accepted technologies are cached, because technologies in other states can still be edited. Expansions of a
+ * technology are dropped when it, or one of its operations, is saved and when its state changes.
+ */
+@Service
+public class TechnologyExpansionCacheService {
+
+    private static final int MAX_SIZE = 5000;
+
+    private static final String L_SELECT_TENANT = "SELECT current_database() || '.' || current_schema()";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final Map<ExpansionKey, TechnologyExpansion> expansions = new ConcurrentHashMap<>();
+
+    public boolean isCacheable(final Entity technology) {
+        return Objects.nonNull(technology.getId())
+                && TechnologyStateStringValues.ACCEPTED.equals(technology.getStringField(TechnologyFields.STATE));
+    }
+
+    /**
+     * Returns expansion of the given accepted technology, or null when the technology doesn't have operations.
+     */
+    public TechnologyExpansion getExpansion(final Entity technology) {
+        ExpansionKey key = new ExpansionKey(getTenant(), technology.getId());
+
+        TechnologyExpansion expansion = expansions.get(key);
+
+        if (Objects.isNull(expansion)) {
+            EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+            Entity root = operationComponents.getRoot();
+
+            if (Objects.isNull(root)) {
+                return null;
+            }
+
+            expansion = TechnologyExpansion.build(technology, root, operationComponents);
+
+            if (expansions.size() >= MAX_SIZE) {
+                expansions.clear();
+            }
+
+            expansions.put(key, expansion);
+        }
+
+        return expansion;
+    }
+
+    private String getTenant() {
+        // tenants share the application, but each of them has its own database, so ids of technologies repeat
+        return jdbcTemplate.queryForObject(L_SELECT_TENANT, Collections.emptyMap(), String.class);
+    }
+
+    public void evict(final Long technologyId) {
+        if (Objects.isNull(technologyId)) {
+            return;
+        }
+
+
+        Runnable invalidation = () -> expansions.keySet().removeIf(key -> key.technologyId.equals(technologyId));
+
+        invalidation.run();
+
+        // expansions built by concurrent requests before the commit would still contain old data
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    private static final class ExpansionKey {
+
+        private final String tenant;
+
+        private final Long technologyId;
+
+        private ExpansionKey(final String tenant, final Long technologyId) {
+            this.tenant = tenant;
+            this.technologyId = technologyId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof ExpansionKey)) {
+                return false;
+            }
+
+            ExpansionKey other = (ExpansionKey) obj;
+
+            return tenant.equals(other.tenant) && technologyId.equals(other.technologyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenant, technologyId);
+        }
+
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.technologies.constants.ProductStructureTreeNodeFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+
+public class ProductStructureTreeServiceTest {
+
+    private static final Long L_TECHNOLOGY_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 2L;
+
+    private ProductStructureTreeService productStructureTreeService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private Entity technology, product;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productStructureTreeService = new ProductStructureTreeService();
+
+        ReflectionTestUtils.setField(productStructureTreeService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(productStructureTreeService, "securityService", securityService);
+
+        given(technology.getId()).willReturn(L_TECHNOLOGY_ID);
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product);
+        given(product.getId()).willReturn(L_PRODUCT_ID);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldFindTechnologiesChangedAfterTreeWasCreated() {
+        // given
+        Date createDate = new Date();
+
+        given(jdbcTemplate.queryForObject(anyString(), anyMap(), eq(Long.class))).willReturn(1L);
+
+        // when
+        boolean changed = (Boolean) ReflectionTestUtils.invokeMethod(productStructureTreeService,
+                "checkIfTechnologiesChanged", L_TECHNOLOGY_ID, createDate);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).queryForObject(anyString(), paramsCaptor.capture(), eq(Long.class));
+
+        assertTrue(changed);
+        assertEquals(L_TECHNOLOGY_ID, paramsCaptor.getValue().get("technologyId"));
+        assertEquals(StateChangeStatus.SUCCESSFUL.getStringValue(), paramsCaptor.getValue().get("status"));
+        assertEquals(createDate, paramsCaptor.getValue().get("createDate"));
+    }
+
+    @Test
+    public final void shouldNotFindTechnologiesChangedIfThereAreNoStateChangesAfterTreeWasCreated() {
+        // given
+        given(jdbcTemplate.queryForObject(anyString(), anyMap(), eq(Long.class))).willReturn(0L);
+
+        // when
+        boolean changed = (Boolean) ReflectionTestUtils.invokeMethod(productStructureTreeService,
+                "checkIfTechnologiesChanged", L_TECHNOLOGY_ID, new Date());
+
+        // then
+        assertFalse(changed);
+    }
+
+    @Test
+    public final void shouldFindSubstitutedComponentTechnology() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willReturn(
+                Lists.newArrayList(node(ProductStructureTreeService.L_COMPONENT, 10L, 10L),
+                        node(ProductStructureTreeService.L_COMPONENT, 11L, 12L)));
+
+        // when
+        boolean substituted = (Boolean) ReflectionTestUtils.invokeMethod(productStructureTreeService,
+                "checkSubTechnologiesSubstitution", L_TECHNOLOGY_ID);
+
+        // then
+        assertTrue(substituted);
+    }
+
+    @Test
+    public final void shouldFindTechnologyForMaterial() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willReturn(
+                Lists.newArrayList(node(ProductStructureTreeService.L_MATERIAL, null, 12L)));
+
+        // when
+        boolean substituted = (Boolean) ReflectionTestUtils.invokeMethod(productStructureTreeService,
+                "checkSubTechnologiesSubstitution", L_TECHNOLOGY_ID);
+
+        // then
+        assertTrue(substituted);
+    }
+
+    @Test
+    public final void shouldNotFindSubstitutionIfSubTechnologiesAreStillChosen() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willReturn(
+                Lists.newArrayList(node(ProductStructureTreeService.L_COMPONENT, 10L, 10L),
+                        node(ProductStructureTreeService.L_COMPONENT, null, 12L),
+                        node(ProductStructureTreeService.L_MATERIAL, null, null)));
+
+        // when
+        boolean substituted = (Boolean) ReflectionTestUtils.invokeMethod(productStructureTreeService,
+                "checkSubTechnologiesSubstitution", L_TECHNOLOGY_ID);
+
+        // then
+        assertFalse(substituted);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldDeleteDependentTreesExceptTreeOfTechnology() {
+        // given
+
+        // when
+        productStructureTreeService.deleteDependentProductStructureTrees(technology);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(queryCaptor.capture(), paramsCaptor.capture());
+
+        assertTrue(queryCaptor.getValue().startsWith("DELETE FROM technologies_productstructuretreenode"));
+        assertTrue(queryCaptor.getValue().endsWith("AND maintechnology_id <> :technologyId"));
+        assertEquals(L_TECHNOLOGY_ID, paramsCaptor.getValue().get("technologyId"));
+        assertEquals(L_PRODUCT_ID, paramsCaptor.getValue().get("productId"));
+        assertEquals(Lists.newArrayList(ProductStructureTreeService.L_COMPONENT, ProductStructureTreeService.L_MATERIAL),
+                paramsCaptor.getValue().get("entityTypes"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldDeleteDependentTreesOfTechnologyWithoutProduct() {
+        // given
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(null);
+
+        // when
+        productStructureTreeService.deleteDependentProductStructureTrees(technology);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(anyString(), paramsCaptor.capture());
+
+        assertEquals(L_TECHNOLOGY_ID, paramsCaptor.getValue().get("technologyId"));
+        assertNull(paramsCaptor.getValue().get("productId"));
+    }
+
+    @Test
+    public final void shouldSaveTreeWithOneBatchAndPrioritiesWithinParent() {
+        // given
+        Entity root = treeNode(101L, null, "finalProduct");
+        Entity component = treeNode(102L, root, ProductStructureTreeService.L_COMPONENT);
+        Entity material = treeNode(103L, root, ProductStructureTreeService.L_MATERIAL);
+        Entity subMaterial = treeNode(104L, component, ProductStructureTreeService.L_MATERIAL);
+
+        List<Entity> tree = Lists.newArrayList(root, component, material, subMaterial);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(101L, 102L, 103L, 104L));
+        given(securityService.getCurrentUserName()).willReturn("admin");
+
+        // when
+        ReflectionTestUtils.invokeMethod(productStructureTreeService, "saveProductStructureTree", tree);
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> batchCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), batchCaptor.capture());
+        verify(root).setId(101L);
+        verify(subMaterial).setId(104L);
+
+        SqlParameterSource[] batchParams = batchCaptor.getValue();
+
+        assertEquals(4, batchParams.length);
+        assertNull(batchParams[0].getValue("parentId"));
+        assertEquals(1, batchParams[0].getValue("priority"));
+        assertEquals(101L, batchParams[1].getValue("parentId"));
+        assertEquals(1, batchParams[1].getValue("priority"));
+        assertEquals(101L, batchParams[2].getValue("parentId"));
+        assertEquals(2, batchParams[2].getValue("priority"));
+        assertEquals(102L, batchParams[3].getValue("parentId"));
+        assertEquals(1, batchParams[3].getValue("priority"));
+        assertEquals("admin", batchParams[3].getValue("createUser"));
+    }
+
+    private Map<String, Object> node(final String entityType, final Long technologyId, final Long newTechnologyId) {
+        Map<String, Object> node = Maps.newHashMap();
+
+        node.put("entityType", entityType);
+        node.put("technologyId", technologyId);
+        node.put("newTechnologyId", newTechnologyId);
+
+        return node;
+    }
+
+    private Entity treeNode(final Long id, final Entity parent, final String entityType) {
+        Entity node = mock(Entity.class);
+
+        given(node.getId()).willReturn(id);
+        given(node.getBelongsToField(ProductStructureTreeNodeFields.PARENT)).willReturn(parent);
+        given(node.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE)).willReturn(entityType);
+
+        return node;
+    }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.NumberService;
+
+public class TechnologyExpansionTest {
+
+    private static final BigDecimal L_GIVEN_QUANTITY = BigDecimal.TEN;
+
+    private ProductQuantitiesServiceImpl productQuantitiesService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private DataDefinition operationComponentDD, inComponentDD, outComponentDD;
+
+    @Mock
+    private Entity technology;
+
+    private Entity finalProduct, productA, productB, productC, productD, productE, productF;
+
+    private Entity operationComponent1, operationComponent2, operationComponent3, operationComponent4;
+
+    private EntityTree operationComponents;
+
+    private long nextId = 1L;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productQuantitiesService = new ProductQuantitiesServiceImpl();
+
+        ReflectionTestUtils.setField(productQuantitiesService, "numberService", numberService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(inComponentDD.getName()).willReturn(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+        given(outComponentDD.getName()).willReturn(TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT);
+
+        finalProduct = mockEntity();
+        productA = mockEntity();
+        productB = mockEntity();
+        productC = mockEntity();
+        productD = mockEntity();
+        productE = mockEntity();
+        productF = mockEntity();
+
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(finalProduct);
+
+        // 1. produces final product from A and B, 2. produces A from C and D, 3. produces C from E, 4. produces B from F
+        operationComponent1 = mockOperationComponent();
+        operationComponent2 = mockOperationComponent();
+        operationComponent3 = mockOperationComponent();
+        operationComponent4 = mockOperationComponent();
+
+        mockProductComponents(operationComponent1, newArrayList(mockInComponent(operationComponent1, productA, "2"),
+                mockInComponent(operationComponent1, productB, "3")),
+                newArrayList(mockOutComponent(operationComponent1, finalProduct, "1")));
+        mockProductComponents(operationComponent2, newArrayList(mockInComponent(operationComponent2, productC, "5"),
+                mockInComponent(operationComponent2, productD, "1")),
+                newArrayList(mockOutComponent(operationComponent2, productA, "4")));
+        mockProductComponents(operationComponent3, newArrayList(mockInComponent(operationComponent3, productE, "7")),
+                newArrayList(mockOutComponent(operationComponent3, productC, "2")));
+        mockProductComponents(operationComponent4, newArrayList(mockInComponent(operationComponent4, productF, "0.5")),
+                newArrayList(mockOutComponent(operationComponent4, productB, "4")));
+
+        mockChildren(operationComponent1, newArrayList(operationComponent2, operationComponent4));
+        mockChildren(operationComponent2, newArrayList(operationComponent3));
+        mockChildren(operationComponent3, newArrayList());
+        mockChildren(operationComponent4, newArrayList());
+
+        List<Entity> nodes = newArrayList(operationComponent1, operationComponent2, operationComponent3, operationComponent4);
+
+        operationComponents = mock(EntityTree.class);
+
+        given(operationComponents.iterator()).willAnswer(invocation -> nodes.iterator());
+    }
+
+    @Test
+    public final void shouldCalculateTheSameQuantitiesAndOperationRunsAsTechnologyTreeTraversal() {
+        // given
+        given(operationComponent3.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE))
+                .willReturn(true);
+
+        OperationProductComponentWithQuantityContainer traversedQuantities = new OperationProductComponentWithQuantityContainer();
+        Map<Long, BigDecimal> traversedOperationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> traversedNonComponents = Sets.newHashSet();
+
+        OperationProductComponentWithQuantityContainer expandedQuantities = new OperationProductComponentWithQuantityContainer();
+        Map<Long, BigDecimal> expandedOperationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> expandedNonComponents = Sets.newHashSet();
+
+        // when
+        productQuantitiesService.preloadProductQuantitiesAndOperationRuns(operationComponents, traversedQuantities,
+                traversedOperationRuns);
+        productQuantitiesService.traverseProductQuantitiesAndOperationRuns(technology, L_GIVEN_QUANTITY, operationComponent1,
+                null, traversedQuantities, traversedNonComponents, traversedOperationRuns);
+
+        TechnologyExpansion.build(technology, operationComponent1, operationComponents).calculate(L_GIVEN_QUANTITY,
+                expandedQuantities, expandedNonComponents, expandedOperationRuns, MathContext.DECIMAL64);
+
+        // then
+        assertEquals(traversedQuantities.asMap(), expandedQuantities.asMap());
+        assertEquals(traversedOperationRuns, expandedOperationRuns);
+        assertEquals(traversedNonComponents, expandedNonComponents);
+
+        assertEquals(0, new BigDecimal(10).compareTo(expandedOperationRuns.get(operationComponent1.getId())));
+        assertEquals(0, new BigDecimal(5).compareTo(expandedOperationRuns.get(operationComponent2.getId())));
+        assertEquals(0, new BigDecimal(13).compareTo(expandedOperationRuns.get(operationComponent3.getId())));
+        assertEquals(0, new BigDecimal(8).compareTo(expandedOperationRuns.get(operationComponent4.getId())));
+        assertEquals(3, expandedNonComponents.size());
+    }
+
+    @Test
+    public final void shouldCalculateTheSameQuantitiesForEveryGivenQuantity() {
+        // given
+        TechnologyExpansion technologyExpansion = TechnologyExpansion.build(technology, operationComponent1,
+                operationComponents);
+
+        for (BigDecimal givenQuantity : newArrayList(BigDecimal.ONE, new BigDecimal("0.5"), new BigDecimal("123.45"))) {
+            OperationProductComponentWithQuantityContainer traversedQuantities = new OperationProductComponentWithQuantityContainer();
+            Map<Long, BigDecimal> traversedOperationRuns = Maps.newHashMap();
+
+            OperationProductComponentWithQuantityContainer expandedQuantities = new OperationProductComponentWithQuantityContainer();
+            Map<Long, BigDecimal> expandedOperationRuns = Maps.newHashMap();
+
+            // when
+            productQuantitiesService.preloadProductQuantitiesAndOperationRuns(operationComponents, traversedQuantities,
+                    traversedOperationRuns);
+            productQuantitiesService.traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, operationComponent1,
+                    null, traversedQuantities, Sets.newHashSet(), traversedOperationRuns);
+
+            technologyExpansion.calculate(givenQuantity, expandedQuantities, Sets.newHashSet(), expandedOperationRuns,
+                    MathContext.DECIMAL64);
+
+            // then
+            assertEquals(traversedQuantities.asMap(), expandedQuantities.asMap());
+            assertEquals(traversedOperationRuns, expandedOperationRuns);
+        }
+    }
+
+    private Entity mockEntity() {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(nextId++);
+
+        return entity;
+    }
+
+    private Entity mockOperationComponent() {
+        Entity operationComponent = mockEntity();
+
+        given(operationComponent.getDataDefinition()).willReturn(operationComponentDD);
+
+        return operationComponent;
+    }
+
+    private Entity mockInComponent(final Entity operationComponent, final Entity product, final String quantity) {
+        return mockProductComponent(inComponentDD, operationComponent, product, quantity);
+    }
+
+    private Entity mockOutComponent(final Entity operationComponent, final Entity product, final String quantity) {
+        return mockProductComponent(outComponentDD, operationComponent, product, quantity);
+    }
+
+    private Entity mockProductComponent(final DataDefinition productComponentDD, final Entity operationComponent,
+            final Entity product, final String quantity) {
+        Entity productComponent = mockEntity();
+
+        given(productComponent.getDataDefinition()).willReturn(productComponentDD);
+        given(productComponent.getBelongsToField("operationComponent")).willReturn(operationComponent);
+        given(productComponent.getBelongsToField("product")).willReturn(product);
+        given(productComponent.getDecimalField("quantity")).willReturn(new BigDecimal(quantity));
+
+        return productComponent;
+    }
+
+    private void mockProductComponents(final Entity operationComponent, final List<Entity> inComponents,
+            final List<Entity> outComponents) {
+        EntityList inComponentsList = mockEntityList(inComponents);
+        EntityList outComponentsList = mockEntityList(outComponents);
+
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS))
+                .willReturn(inComponentsList);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(outComponentsList);
+    }
+
+    private void mockChildren(final Entity operationComponent, final List<Entity> children) {
+        EntityList childrenList = mockEntityList(children);
+
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)).willReturn(childrenList);
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        given(entityList.size()).willReturn(entities.size());
+        given(entityList.get(Matchers.anyInt())).willAnswer(invocation -> entities.get((Integer) invocation.getArguments()[0]));
+        given(entityList.isEmpty()).willReturn(entities.isEmpty());
+
+        return entityList;
+    }
+
+}
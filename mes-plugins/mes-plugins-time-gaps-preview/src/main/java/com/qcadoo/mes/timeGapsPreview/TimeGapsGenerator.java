@@ -23,26 +23,22 @@
  */
 package com.qcadoo.mes.timeGapsPreview;
 
-import java.util.Collection;
 import java.util.Map;
-import java.util.Set;
 
-import org.joda.time.DateTime;
-import org.joda.time.Duration;
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.timeGapsPreview.constants.TimeGapsPreviewConstants;
+import com.qcadoo.mes.timeGapsPreview.provider.IntervalsProvider;
 import com.qcadoo.mes.timeGapsPreview.provider.OperationalTaskIntervalsProvider;
 import com.qcadoo.mes.timeGapsPreview.provider.OrderAndChangeoverIntervalsProvider;
 import com.qcadoo.mes.timeGapsPreview.provider.ShiftIntervalsProvider;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilder;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilderImpl;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 
@@ -62,42 +58,38 @@ public class TimeGapsGenerator {
     private DataDefinitionService dataDefinitionService;
 
     public TimeGapsSearchResult generate(final TimeGapsContext timeGapsContext) {
-        Multimap<Long, Interval> occupiedIntervals = createMultiMapWithKeys(timeGapsContext.getProductionLines());
-        occupiedIntervals.putAll(orderAndChangeoverIntervalsProvider.getIntervalsPerProductionLine(timeGapsContext));
-        occupiedIntervals.putAll(operationalTaskIntervalsProvider.getIntervalsPerProductionLine(timeGapsContext));
-        occupiedIntervals.putAll(shiftIntervalsProvider.getIntervalsPerProductionLine(timeGapsContext));
+        Multimap<Long, Interval> timeGaps = findTimeGaps(timeGapsContext, Lists.<IntervalsProvider> newArrayList(
+                orderAndChangeoverIntervalsProvider, operationalTaskIntervalsProvider, shiftIntervalsProvider));
+        return TimeGapsSearchResult.create(timeGaps, getTimeGapDataDef());
+    }
 
-        Multimap<Long, Interval> timeGaps = HashMultimap.create();
-        for (Map.Entry<Long, Collection<Interval>> lineIntervals : occupiedIntervals.asMap().entrySet()) {
-            Collection<Interval> gapsForLine = invertOccupiedIntervals(timeGapsContext.getInterval(), lineIntervals.getValue());
-            Collection<Interval> gapsForLineFilteredByDuration = Collections2.filter(gapsForLine, new Predicate<Interval>() {
+    static Multimap<Long, Interval> findTimeGaps(final TimeGapsContext timeGapsContext,
+            final Iterable<IntervalsProvider> providers) {
+        Interval domainInterval = timeGapsContext.getInterval();
+        long minDuration = timeGapsContext.getDuration().getMillis();
 
-                @Override
-                public boolean apply(final Interval interval) {
-                    if (interval == null) {
-                        return false;
-                    }
-                    return interval.toDuration().compareTo(timeGapsContext.getDuration()) >= 0;
+        Map<Long, LongIntervalSet> occupiedTimePerLine = Maps.newHashMap();
+        for (Long productionLineId : timeGapsContext.getProductionLines()) {
+            occupiedTimePerLine.put(productionLineId, LongIntervalSet.empty());
+        }
+        for (IntervalsProvider provider : providers) {
+            for (Map.Entry<Long, LongIntervalSet> lineOccupiedTime : provider.getOccupiedTimePerProductionLine(timeGapsContext)
+                    .entrySet()) {
+                LongIntervalSet occupiedTime = occupiedTimePerLine.get(lineOccupiedTime.getKey());
+                if (occupiedTime == null) {
+                    occupiedTime = LongIntervalSet.empty();
                 }
-            });
-            timeGaps.putAll(lineIntervals.getKey(), gapsForLineFilteredByDuration);
+                occupiedTimePerLine.put(lineOccupiedTime.getKey(), occupiedTime.union(lineOccupiedTime.getValue()));
+            }
         }
-        return TimeGapsSearchResult.create(timeGaps, getTimeGapDataDef());
-    }
 
-    private Multimap<Long, Interval> createMultiMapWithKeys(final Set<Long> keys) {
-        Multimap<Long, Interval> multiMap = HashMultimap.create();
-        Interval emptyInterval = new Interval(new DateTime(0L), Duration.ZERO);
-        for (Long key : keys) {
-            multiMap.put(key, emptyInterval);
+        Multimap<Long, Interval> timeGaps = ArrayListMultimap.create();
+        for (Map.Entry<Long, LongIntervalSet> lineOccupiedTime : occupiedTimePerLine.entrySet()) {
+            LongIntervalSet gaps = lineOccupiedTime.getValue().gaps(domainInterval.getStartMillis(),
+                    domainInterval.getEndMillis(), minDuration);
+            timeGaps.putAll(lineOccupiedTime.getKey(), gaps.toIntervals(domainInterval.getChronology()));
         }
-        return multiMap;
-    }
-
-    private Collection<Interval> invertOccupiedIntervals(final Interval domainInterval, final Iterable<Interval> occupiedIntervals) {
-        TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(domainInterval);
-        gapsBuilder.addOccupiedIntervals(occupiedIntervals);
-        return gapsBuilder.calculateGaps();
+        return timeGaps;
     }
 
     private DataDefinition getTimeGapDataDef() {
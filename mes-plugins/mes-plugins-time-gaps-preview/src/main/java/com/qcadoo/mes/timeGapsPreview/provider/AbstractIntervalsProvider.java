@@ -27,14 +27,17 @@ import static com.qcadoo.model.api.search.SearchRestrictions.*;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.qcadoo.mes.timeGapsPreview.TimeGapsContext;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -74,6 +77,23 @@ public abstract class AbstractIntervalsProvider implements IntervalsProvider {
         return Multimaps.unmodifiableMultimap(intervals);
     }
 
+    @Override
+    public Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context) {
+        Map<Long, LongIntervalSet.Builder> builders = Maps.newHashMap();
+        for (Entity datesProjection : getDatesProjection(context)) {
+            Date from = datesProjection.getDateField(DATE_FROM_ALIAS);
+            Date to = datesProjection.getDateField(DATE_TO_ALIAS);
+            Long lineId = (Long) datesProjection.getField(PRODUCTION_LINE_ID_ALIAS);
+            LongIntervalSet.Builder builder = builders.get(lineId);
+            if (builder == null) {
+                builder = LongIntervalSet.builder();
+                builders.put(lineId, builder);
+            }
+            builder.add(from.getTime(), to.getTime());
+        }
+        return LongIntervalSet.buildAll(builders);
+    }
+
     protected SearchCriterion getSearchCriterion() {
         return null;
     }
@@ -23,13 +23,21 @@
  */
 package com.qcadoo.mes.timeGapsPreview.provider;
 
+import java.util.Map;
+
 import org.joda.time.Interval;
 
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.timeGapsPreview.TimeGapsContext;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
 
 public interface IntervalsProvider {
 
     Multimap<Long, Interval> getIntervalsPerProductionLine(final TimeGapsContext context);
 
+    /**
+     * Occupied time of each production line joined into one interval set.
+     */
+    Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context);
+
 }
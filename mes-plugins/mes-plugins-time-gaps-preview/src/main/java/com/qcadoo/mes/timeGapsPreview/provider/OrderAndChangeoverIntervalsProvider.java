@@ -46,6 +46,7 @@ import com.qcadoo.mes.lineChangeoverNormsForOrders.constants.OrderFieldsLCNFO;
 import com.qcadoo.mes.timeGapsPreview.TimeGapsContext;
 import com.qcadoo.mes.timeGapsPreview.provider.helper.OrderIntervalsModelHelper;
 import com.qcadoo.mes.timeGapsPreview.util.IntervalsComparator;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
 import com.qcadoo.model.api.Entity;
 
 @Service
@@ -74,6 +75,11 @@ public class OrderAndChangeoverIntervalsProvider implements IntervalsProvider {
         return Multimaps.unmodifiableMultimap(filteredIntervals);
     }
 
+    @Override
+    public Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context) {
+        return LongIntervalSet.perKey(getIntervalsPerProductionLine(context));
+    }
+
     private Set<Order> buildOrders(final Iterable<Entity> projections) {
         Set<Order> orders = Sets.newHashSet();
         for (Entity projection : projections) {
@@ -24,14 +24,13 @@
 package com.qcadoo.mes.timeGapsPreview.provider;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.mes.timeGapsPreview.TimeGapsContext;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilder;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilderImpl;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -39,7 +38,7 @@ import org.springframework.stereotype.Service;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 @Service
 public class ShiftIntervalsProvider implements IntervalsProvider {
@@ -49,8 +48,7 @@ public class ShiftIntervalsProvider implements IntervalsProvider {
 
     @Override
     public Multimap<Long, Interval> getIntervalsPerProductionLine(final TimeGapsContext context) {
-        Set<Interval> workIntervals = getWorkIntervals(context);
-        Collection<Interval> spareTimeIntervals = invertIntervals(context.getInterval(), workIntervals);
+        Collection<Interval> spareTimeIntervals = getSpareTime(context).toIntervals(context.getInterval().getChronology());
         Multimap<Long, Interval> spareTimeMultiMap = HashMultimap.create();
         for (Long productionLne : context.getProductionLines()) {
             spareTimeMultiMap.putAll(productionLne, spareTimeIntervals);
@@ -58,24 +56,33 @@ public class ShiftIntervalsProvider implements IntervalsProvider {
         return spareTimeMultiMap;
     }
 
-    private Collection<Interval> invertIntervals(final Interval domainInterval, final Iterable<Interval> intervals) {
-        TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(domainInterval);
-        gapsBuilder.addOccupiedIntervals(intervals);
-        return gapsBuilder.calculateGaps();
+    @Override
+    public Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context) {
+        // shifts are common for all lines, so the lines share one immutable set
+        LongIntervalSet spareTime = getSpareTime(context);
+        Map<Long, LongIntervalSet> spareTimePerLine = Maps.newHashMap();
+        for (Long productionLine : context.getProductionLines()) {
+            spareTimePerLine.put(productionLine, spareTime);
+        }
+        return spareTimePerLine;
+    }
+
+    private LongIntervalSet getSpareTime(final TimeGapsContext context) {
+        Interval searchInterval = context.getInterval();
+        return getWorkTime(context).gaps(searchInterval.getStartMillis(), searchInterval.getEndMillis(), 0L);
     }
 
-    private Set<Interval> getWorkIntervals(final TimeGapsContext context) {
+    private LongIntervalSet getWorkTime(final TimeGapsContext context) {
         Interval searchInterval = context.getInterval();
         Date fromDate = searchInterval.getStart().toDate();
         Date toDate = searchInterval.getEnd().toDate();
         List<Shift> shifts = shiftsService.findAll();
         List<DateTimeRange> dateTimeRanges = shiftsService.getDateTimeRanges(shifts, fromDate, toDate);
-        Set<Interval> shiftWorkTimeIntervals = Sets.newHashSet();
+        LongIntervalSet.Builder shiftWorkTime = LongIntervalSet.builder();
         for (DateTimeRange dateTimeRange : dateTimeRanges) {
-            Interval shiftWorkTimeInterval = new Interval(dateTimeRange.getFrom(), dateTimeRange.getTo());
-            shiftWorkTimeIntervals.add(shiftWorkTimeInterval);
+            shiftWorkTime.add(dateTimeRange.getFrom().getMillis(), dateTimeRange.getTo().getMillis());
         }
-        return shiftWorkTimeIntervals;
+        return shiftWorkTime.build();
     }
 
 }
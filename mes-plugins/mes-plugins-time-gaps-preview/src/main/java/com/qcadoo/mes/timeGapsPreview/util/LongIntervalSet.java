@@ -0,0 +1,379 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.timeGapsPreview.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.Chronology;
+import org.joda.time.Interval;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+/**
+ * Immutable set of half-open [start, end) time intervals in milliseconds, kept as sorted arrays of disjoint, not abutting
+ * intervals. Union, subtraction and intersection of two sets are computed by a single merge of their bounds, so they take
+ * linear time and do not create any interval objects.
+ */
+public final class LongIntervalSet {
+
+    private static final LongIntervalSet EMPTY = new LongIntervalSet(new long[0], new long[0], 0);
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final int size;
+
+    private LongIntervalSet(final long[] starts, final long[] ends, final int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    public static LongIntervalSet empty() {
+        return EMPTY;
+    }
+
+    public static LongIntervalSet of(final long start, final long end) {
+        if (start >= end) {
+            return EMPTY;
+        }
+        return new LongIntervalSet(new long[] { start }, new long[] { end }, 1);
+    }
+
+    public static LongIntervalSet of(final Interval interval) {
+        return of(interval.getStartMillis(), interval.getEndMillis());
+    }
+
+    public static LongIntervalSet of(final Iterable<Interval> intervals) {
+        Preconditions.checkArgument(intervals != null, "Given intervals iterable should be not null");
+        Builder builder = builder();
+        for (Interval interval : intervals) {
+            if (interval != null) {
+                builder.add(interval.getStartMillis(), interval.getEndMillis());
+            }
+        }
+        return builder.build();
+    }
+
+    public static <K> Map<K, LongIntervalSet> perKey(final Multimap<K, Interval> intervals) {
+        Map<K, LongIntervalSet> intervalSets = Maps.newHashMap();
+        for (Map.Entry<K, Collection<Interval>> keyIntervals : intervals.asMap().entrySet()) {
+            intervalSets.put(keyIntervals.getKey(), of(keyIntervals.getValue()));
+        }
+        return intervalSets;
+    }
+
+    public static <K> Map<K, LongIntervalSet> buildAll(final Map<K, Builder> builders) {
+        Map<K, LongIntervalSet> intervalSets = Maps.newHashMap();
+        for (Map.Entry<K, Builder> keyBuilder : builders.entrySet()) {
+            intervalSets.put(keyBuilder.getKey(), keyBuilder.getValue().build());
+        }
+        return intervalSets;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getStart(final int index) {
+        Preconditions.checkElementIndex(index, size);
+        return starts[index];
+    }
+
+    public long getEnd(final int index) {
+        Preconditions.checkElementIndex(index, size);
+        return ends[index];
+    }
+
+    public long getTotalDuration() {
+        long totalDuration = 0L;
+        for (int i = 0; i < size; i++) {
+            totalDuration += ends[i] - starts[i];
+        }
+        return totalDuration;
+    }
+
+    public LongIntervalSet union(final LongIntervalSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        return merge(this, other, Operation.UNION);
+    }
+
+    public LongIntervalSet subtract(final LongIntervalSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+        return merge(this, other, Operation.SUBTRACTION);
+    }
+
+    public LongIntervalSet intersect(final LongIntervalSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        return merge(this, other, Operation.INTERSECTION);
+    }
+
+    /**
+     * Gaps between intervals of this set inside the given domain, which last at least the given number of milliseconds.
+     */
+    public LongIntervalSet gaps(final long domainStart, final long domainEnd, final long minDuration) {
+        return of(domainStart, domainEnd).subtract(this).withMinDuration(minDuration);
+    }
+
+    public LongIntervalSet withMinDuration(final long minDuration) {
+        long[] filteredStarts = new long[size];
+        long[] filteredEnds = new long[size];
+        int filteredSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (ends[i] - starts[i] >= minDuration) {
+                filteredStarts[filteredSize] = starts[i];
+                filteredEnds[filteredSize] = ends[i];
+                filteredSize++;
+            }
+        }
+        if (filteredSize == size) {
+            return this;
+        }
+        return new LongIntervalSet(filteredStarts, filteredEnds, filteredSize);
+    }
+
+    public List<Interval> toIntervals(final Chronology chronology) {
+        List<Interval> intervals = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            intervals.add(new Interval(starts[i], ends[i], chronology));
+        }
+        return intervals;
+    }
+
+    private static LongIntervalSet merge(final LongIntervalSet first, final LongIntervalSet second, final Operation operation) {
+        Builder result = new Builder(first.size + second.size);
+        int firstBound = 0;
+        int secondBound = 0;
+        int firstBoundsCount = first.size * 2;
+        int secondBoundsCount = second.size * 2;
+        boolean inFirst = false;
+        boolean inSecond = false;
+        boolean inResult = false;
+        long resultStart = 0L;
+
+        while (firstBound < firstBoundsCount || secondBound < secondBoundsCount) {
+            long firstPoint = firstBound < firstBoundsCount ? first.getBound(firstBound) : Long.MAX_VALUE;
+            long secondPoint = secondBound < secondBoundsCount ? second.getBound(secondBound) : Long.MAX_VALUE;
+            long point = Math.min(firstPoint, secondPoint);
+
+            // intervals of a set never abut, so each set has at most one bound at a point
+            if (firstPoint == point) {
+                inFirst = isStartBound(firstBound++);
+            }
+            if (secondPoint == point) {
+                inSecond = isStartBound(secondBound++);
+            }
+
+            boolean inResultAfterPoint = operation.contains(inFirst, inSecond);
+            if (inResultAfterPoint && !inResult) {
+                resultStart = point;
+            } else if (!inResultAfterPoint && inResult) {
+                result.append(resultStart, point);
+            }
+            inResult = inResultAfterPoint;
+        }
+        return result.toSet();
+    }
+
+    private long getBound(final int bound) {
+        return isStartBound(bound) ? starts[bound / 2] : ends[bound / 2];
+    }
+
+    private static boolean isStartBound(final int bound) {
+        return bound % 2 == 0;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        LongIntervalSet other = (LongIntervalSet) o;
+        return size == other.size && Arrays.equals(Arrays.copyOf(starts, size), Arrays.copyOf(other.starts, other.size))
+                && Arrays.equals(Arrays.copyOf(ends, size), Arrays.copyOf(other.ends, other.size));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(Arrays.copyOf(starts, size)) + Arrays.hashCode(Arrays.copyOf(ends, size));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(starts[i]).append('-').append(ends[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    private enum Operation {
+
+        UNION {
+
+            @Override
+            boolean contains(final boolean inFirst, final boolean inSecond) {
+                return inFirst || inSecond;
+            }
+        },
+
+        SUBTRACTION {
+
+            @Override
+            boolean contains(final boolean inFirst, final boolean inSecond) {
+                return inFirst && !inSecond;
+            }
+        },
+
+        INTERSECTION {
+
+            @Override
+            boolean contains(final boolean inFirst, final boolean inSecond) {
+                return inFirst && inSecond;
+            }
+        };
+
+        abstract boolean contains(final boolean inFirst, final boolean inSecond);
+
+    }
+
+    /**
+     * Collects intervals in any order; overlapping and abutting intervals are joined on {@link #build()}.
+     */
+    public static final class Builder {
+
+        private long[] starts;
+
+        private long[] ends;
+
+        private int size;
+
+        private Builder() {
+            this(16);
+        }
+
+        private Builder(final int capacity) {
+            starts = new long[Math.max(capacity, 1)];
+            ends = new long[Math.max(capacity, 1)];
+        }
+
+        public Builder add(final long start, final long end) {
+            if (start < end) {
+                append(start, end);
+            }
+            return this;
+        }
+
+        public Builder add(final Interval interval) {
+            return add(interval.getStartMillis(), interval.getEndMillis());
+        }
+
+        public Builder addAll(final LongIntervalSet intervals) {
+            for (int i = 0; i < intervals.size; i++) {
+                append(intervals.starts[i], intervals.ends[i]);
+            }
+            return this;
+        }
+
+        public LongIntervalSet build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            long[] sortedStarts = Arrays.copyOf(starts, size);
+            long[] sortedEnds = Arrays.copyOf(ends, size);
+            Arrays.sort(sortedStarts);
+            Arrays.sort(sortedEnds);
+
+            // union is found by counting open intervals, so starts and ends can be sorted separately
+            Builder result = new Builder(size);
+            int startIndex = 0;
+            int endIndex = 0;
+            int openIntervals = 0;
+            long resultStart = 0L;
+            while (endIndex < size) {
+                if (startIndex < size && sortedStarts[startIndex] <= sortedEnds[endIndex]) {
+                    if (openIntervals++ == 0) {
+                        resultStart = sortedStarts[startIndex];
+                    }
+                    startIndex++;
+                } else {
+                    if (--openIntervals == 0) {
+                        result.append(resultStart, sortedEnds[endIndex]);
+                    }
+                    endIndex++;
+                }
+            }
+            return result.toSet();
+        }
+
+        private void append(final long start, final long end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        private LongIntervalSet toSet() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            return new LongIntervalSet(starts, ends, size);
+        }
+
+    }
+
+}
@@ -35,12 +35,12 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
 
     private final Interval searchInterval;
 
-    private final SortedSet<Interval> occupiedIntervals;
+    private final LongIntervalSet.Builder occupiedIntervals;
 
     public TimeGapsBuilderImpl(final Interval interval) {
         Preconditions.checkArgument(interval != null, "Search interval have to be provided.");
         searchInterval = interval;
-        occupiedIntervals = Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        occupiedIntervals = LongIntervalSet.builder();
     }
 
     @Override
@@ -63,20 +63,7 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
             return intervalsSet;
         }
         SortedSet<Interval> flattenIntervals = newSortedSet();
-        Interval prev = intervalsSet.first();
-
-        flattenIntervals.add(prev);
-        for (Interval interval : intervalsSet) {
-            if (interval.contains(prev.getEnd()) || interval.abuts(prev)) {
-                Interval sumInterval = new Interval(prev.getStart(), interval.getEnd());
-                flattenIntervals.remove(prev);
-                flattenIntervals.add(sumInterval);
-                prev = sumInterval;
-            } else if (!prev.contains(interval)) {
-                flattenIntervals.add(interval);
-                prev = interval;
-            }
-        }
+        flattenIntervals.addAll(LongIntervalSet.of(intervalsSet).toIntervals(intervalsSet.first().getChronology()));
         return flattenIntervals;
     }
 
@@ -87,24 +74,9 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
     @Override
     public Collection<Interval> calculateGaps() {
         SortedSet<Interval> gaps = newSortedSet();
-        SortedSet<Interval> flattenOccupiedIntervals = flatten(occupiedIntervals);
-        if (flattenOccupiedIntervals.isEmpty()) {
-            gaps.add(searchInterval);
-            return gaps;
-        }
-
-        Interval prev = flattenOccupiedIntervals.first();
-        if (searchInterval.getStart().isBefore(prev.getStart())) {
-            gaps.add(new Interval(searchInterval.getStart(), prev.getStart()));
-        }
-        flattenOccupiedIntervals.remove(prev);
-        for (Interval occupied : flattenOccupiedIntervals) {
-            gaps.add(prev.gap(occupied));
-            prev = occupied;
-        }
-        if (prev.getEnd().isBefore(searchInterval.getEnd())) {
-            gaps.add(new Interval(prev.getEnd(), searchInterval.getEnd()));
-        }
+        LongIntervalSet gapsSet = occupiedIntervals.build().gaps(searchInterval.getStartMillis(), searchInterval.getEndMillis(),
+                0L);
+        gaps.addAll(gapsSet.toIntervals(searchInterval.getChronology()));
         return gaps;
     }
 
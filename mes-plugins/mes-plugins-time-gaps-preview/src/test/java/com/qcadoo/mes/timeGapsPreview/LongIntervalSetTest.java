@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.timeGapsPreview;
+
+import junit.framework.Assert;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
+
+public class LongIntervalSetTest {
+
+    private static LongIntervalSet set(final long... bounds) {
+        LongIntervalSet.Builder builder = LongIntervalSet.builder();
+        for (int i = 0; i < bounds.length; i += 2) {
+            builder.add(bounds[i], bounds[i + 1]);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public final void shouldBuildJoinOverlappingAndAbuttingIntervals() {
+        // when
+        LongIntervalSet intervals = set(10, 20, 0, 5, 5, 8, 12, 15, 18, 25, 30, 30, 40, 50);
+
+        // then
+        Assert.assertEquals(3, intervals.size());
+        Assert.assertEquals(0L, intervals.getStart(0));
+        Assert.assertEquals(8L, intervals.getEnd(0));
+        Assert.assertEquals(10L, intervals.getStart(1));
+        Assert.assertEquals(25L, intervals.getEnd(1));
+        Assert.assertEquals(40L, intervals.getStart(2));
+        Assert.assertEquals(50L, intervals.getEnd(2));
+        Assert.assertEquals(33L, intervals.getTotalDuration());
+    }
+
+    @Test
+    public final void shouldBuildEmptySetFromEmptyIntervals() {
+        // when
+        LongIntervalSet intervals = set(10, 10, 20, 15);
+
+        // then
+        Assert.assertTrue(intervals.isEmpty());
+        Assert.assertEquals(LongIntervalSet.empty(), intervals);
+    }
+
+    @Test
+    public final void shouldUnionSets() {
+        // given
+        LongIntervalSet first = set(0, 10, 20, 30, 50, 60);
+        LongIntervalSet second = set(10, 15, 25, 40, 70, 80);
+
+        // when
+        LongIntervalSet union = first.union(second);
+
+        // then
+        Assert.assertEquals(set(0, 15, 20, 40, 50, 60, 70, 80), union);
+        Assert.assertEquals(union, second.union(first));
+    }
+
+    @Test
+    public final void shouldSubtractSets() {
+        // given
+        LongIntervalSet first = set(0, 100);
+        LongIntervalSet second = set(-10, 10, 20, 30, 30, 40, 90, 100);
+
+        // when
+        LongIntervalSet difference = first.subtract(second);
+
+        // then
+        Assert.assertEquals(set(10, 20, 40, 90), difference);
+        Assert.assertTrue(second.subtract(set(-20, 200)).isEmpty());
+    }
+
+    @Test
+    public final void shouldIntersectSets() {
+        // given
+        LongIntervalSet first = set(0, 10, 20, 30, 40, 50);
+        LongIntervalSet second = set(5, 25, 30, 40, 45, 60);
+
+        // when
+        LongIntervalSet intersection = first.intersect(second);
+
+        // then
+        Assert.assertEquals(set(5, 10, 20, 25, 45, 50), intersection);
+        Assert.assertTrue(first.intersect(LongIntervalSet.empty()).isEmpty());
+    }
+
+    @Test
+    public final void shouldEnumerateGapsLongerThanMinDuration() {
+        // given
+        LongIntervalSet occupied = set(-5, 10, 12, 20, 40, 45, 95, 120);
+
+        // when
+        LongIntervalSet gaps = occupied.gaps(0, 100, 5);
+
+        // then
+        Assert.assertEquals(set(20, 40, 45, 95), gaps);
+        Assert.assertEquals(set(10, 12, 20, 40, 45, 95), occupied.gaps(0, 100, 0));
+        Assert.assertEquals(set(0, 100), LongIntervalSet.empty().gaps(0, 100, 100));
+        Assert.assertTrue(LongIntervalSet.empty().gaps(0, 100, 101).isEmpty());
+    }
+
+    @Test
+    public final void shouldConvertFromAndToJodaIntervals() {
+        // given
+        DateTime from = new DateTime(2013, 1, 8, 0, 0, 0);
+        Interval first = new Interval(from, from.plusHours(2));
+        Interval second = new Interval(from.plusHours(1), from.plusHours(3));
+        Interval third = new Interval(from.plusHours(5), from.plusHours(6));
+
+        // when
+        LongIntervalSet intervals = LongIntervalSet.of(Lists.newArrayList(third, null, second, first));
+
+        // then
+        Assert.assertEquals(Lists.newArrayList(new Interval(from, from.plusHours(3)), third),
+                intervals.toIntervals(from.getChronology()));
+    }
+
+}
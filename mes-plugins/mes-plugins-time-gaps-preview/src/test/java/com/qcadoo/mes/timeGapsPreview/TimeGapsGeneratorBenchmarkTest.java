@@ -0,0 +1,182 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.timeGapsPreview;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.timeGapsPreview.provider.IntervalsProvider;
+import com.qcadoo.mes.timeGapsPreview.util.LongIntervalSet;
+
+public class TimeGapsGeneratorBenchmarkTest {
+
+    private static final int PRODUCTION_LINES = 100;
+
+    private static final DateTime FROM = new DateTime(2014, 1, 1, 0, 0, 0);
+
+    private static final Interval YEAR = new Interval(FROM, FROM.plusYears(1));
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final long MAX_MILLIS = 1000L;
+
+    @Test
+    public final void shouldFindTimeGapsOfYearForHundredLines() {
+        // given
+        TimeGapsContext context = createContext();
+        List<IntervalsProvider> providers = createProviders(context.getProductionLines());
+
+        // when
+        Multimap<Long, Interval> timeGaps = TimeGapsGenerator.findTimeGaps(context, providers);
+
+        // then
+        assertTimeGaps(context, timeGaps);
+    }
+
+    @Test
+    @Ignore("benchmark depends on the machine, run it manually")
+    public final void shouldFindTimeGapsOfYearForHundredLinesInLessThanSecond() {
+        // given
+        TimeGapsContext context = createContext();
+        List<IntervalsProvider> providers = createProviders(context.getProductionLines());
+
+        // warm up
+        TimeGapsGenerator.findTimeGaps(context, providers);
+
+        // when
+        long started = System.currentTimeMillis();
+        Multimap<Long, Interval> timeGaps = TimeGapsGenerator.findTimeGaps(context, providers);
+        long elapsed = System.currentTimeMillis() - started;
+
+        // then
+        assertTimeGaps(context, timeGaps);
+        Assert.assertTrue(String.format("Time gaps found in %d ms", elapsed), elapsed < MAX_MILLIS);
+    }
+
+    private TimeGapsContext createContext() {
+        Set<Long> productionLines = Sets.newHashSet();
+        for (long lineId = 1; lineId <= PRODUCTION_LINES; lineId++) {
+            productionLines.add(lineId);
+        }
+        return new TimeGapsContext(YEAR, productionLines, Duration.standardMinutes(30));
+    }
+
+    private List<IntervalsProvider> createProviders(final Set<Long> productionLines) {
+        Random random = new Random(42L);
+        return Lists.newArrayList(ordersProvider(productionLines, random, 3 * HOUR),
+                ordersProvider(productionLines, random, 5 * HOUR), shiftsProvider(productionLines));
+    }
+
+    private void assertTimeGaps(final TimeGapsContext context, final Multimap<Long, Interval> timeGaps) {
+        Assert.assertEquals(PRODUCTION_LINES, timeGaps.keySet().size());
+        for (Collection<Interval> lineGaps : timeGaps.asMap().values()) {
+            for (Interval gap : lineGaps) {
+                Assert.assertTrue(YEAR.contains(gap));
+                Assert.assertTrue(gap.toDuration().compareTo(context.getDuration()) >= 0);
+            }
+        }
+    }
+
+    private IntervalsProvider ordersProvider(final Set<Long> productionLines, final Random random, final long averageGap) {
+        final Map<Long, long[]> boundsPerLine = Maps.newHashMap();
+        for (Long lineId : productionLines) {
+            long[] bounds = new long[2 * (int) (YEAR.toDurationMillis() / averageGap)];
+            long start = YEAR.getStartMillis();
+            for (int i = 0; i < bounds.length; i += 2) {
+                start += (long) (random.nextDouble() * 2 * averageGap);
+                bounds[i] = start;
+                bounds[i + 1] = start + (long) (random.nextDouble() * 4 * HOUR);
+            }
+            boundsPerLine.put(lineId, bounds);
+        }
+        return new BoundsIntervalsProvider(boundsPerLine);
+    }
+
+    private IntervalsProvider shiftsProvider(final Set<Long> productionLines) {
+        // one shift from 6 to 22 every day, shared by all lines
+        LongIntervalSet.Builder workTime = LongIntervalSet.builder();
+        for (int day = 0; day < 366; day++) {
+            DateTime dayStart = FROM.plusDays(day);
+            workTime.add(dayStart.withHourOfDay(6).getMillis(), dayStart.withHourOfDay(22).getMillis());
+        }
+        final LongIntervalSet spareTime = workTime.build().gaps(YEAR.getStartMillis(), YEAR.getEndMillis(), 0L);
+        return new BoundsIntervalsProvider(null) {
+
+            @Override
+            public Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context) {
+                Map<Long, LongIntervalSet> spareTimePerLine = Maps.newHashMap();
+                for (Long lineId : productionLines) {
+                    spareTimePerLine.put(lineId, spareTime);
+                }
+                return spareTimePerLine;
+            }
+        };
+    }
+
+    private static class BoundsIntervalsProvider implements IntervalsProvider {
+
+        private final Map<Long, long[]> boundsPerLine;
+
+        BoundsIntervalsProvider(final Map<Long, long[]> boundsPerLine) {
+            this.boundsPerLine = boundsPerLine;
+        }
+
+        @Override
+        public Multimap<Long, Interval> getIntervalsPerProductionLine(final TimeGapsContext context) {
+            return HashMultimap.create();
+        }
+
+        @Override
+        public Map<Long, LongIntervalSet> getOccupiedTimePerProductionLine(final TimeGapsContext context) {
+            Map<Long, LongIntervalSet> occupiedTimePerLine = Maps.newHashMap();
+            for (Map.Entry<Long, long[]> lineBounds : boundsPerLine.entrySet()) {
+                LongIntervalSet.Builder builder = LongIntervalSet.builder();
+                long[] bounds = lineBounds.getValue();
+                for (int i = 0; i < bounds.length; i += 2) {
+                    builder.add(bounds[i], bounds[i + 1]);
+                }
+                occupiedTimePerLine.put(lineBounds.getKey(), builder.build());
+            }
+            return occupiedTimePerLine;
+        }
+
+    }
+
+}